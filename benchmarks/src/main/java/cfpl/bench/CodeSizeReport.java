@@ -0,0 +1,72 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.script.ProgramCompiler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.script.ScriptException;
+
+// Reports the size of the classes compiled with and without the peephole
+// optimizer; the constant pool is the same, so the difference is in the
+// code:
+//     java -cp benchmarks.jar cfpl.bench.CodeSizeReport [options] file...
+// The options are those of the compiler, for instance -nofold or -O.
+public class CodeSizeReport {
+    public static void main(String[] args)
+            throws IOException, ScriptException {
+        Options opts = new Options();
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (!opts.parse(args[i])) {
+                System.err.println("Invalid option: " + args[i]);
+                System.exit(1);
+            }
+            ++i;
+        }
+        if (i == args.length) {
+            System.err.println(
+                    "Usage: CodeSizeReport [options] file.cfpl...");
+            System.exit(1);
+        }
+        Options without = copy(opts);
+        without.setPeephole(false);
+        Options with = copy(opts);
+        with.setPeephole(true);
+        ProgramCompiler before = new ProgramCompiler(without, 1);
+        ProgramCompiler after = new ProgramCompiler(with, 1);
+        System.out.format("%-24s %8s %8s %8s %7s%n",
+                "program", "before", "after", "saved", "");
+        long totalBefore = 0;
+        long totalAfter = 0;
+        for (; i < args.length; ++i) {
+            File file = new File(args[i]);
+            String source = new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8);
+            String className = file.getName().replaceFirst("\\.cfpl$", "");
+            int n = before.compileToBytes(source, className).length;
+            int m = after.compileToBytes(source, className).length;
+            print(file.getName(), n, m);
+            totalBefore += n;
+            totalAfter += m;
+        }
+        print("total", totalBefore, totalAfter);
+    }
+
+    private static Options copy(Options opts) {
+        Options result = new Options();
+        for (String arg: opts.toString().split(" ")) {
+            if (!arg.isEmpty()) {
+                result.parse(arg);
+            }
+        }
+        return result;
+    }
+
+    private static void print(String name, long before, long after) {
+        long saved = before - after;
+        System.out.format("%-24s %8d %8d %8d %6.1f%%%n", name, before, after,
+                saved, before == 0 ? 0.0 : 100.0*saved/before);
+    }
+}
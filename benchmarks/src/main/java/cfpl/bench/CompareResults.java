@@ -0,0 +1,129 @@
+package cfpl.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compares two JSON result files of JMH (-rf json -rff file), usually a
+// stored baseline and a new run:
+//     java -cp benchmarks.jar cfpl.bench.CompareResults [-t percent]
+//             baseline.json results.json
+// Every benchmark that is slower than in the baseline by more than the
+// threshold (10% by default) and by more than the sum of the two error
+// margins is reported as a regression, and the exit status is then 1.
+public class CompareResults {
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    private static class Score {
+        private final String mode;
+        private final double score;
+        private final double error;
+        private final String unit;
+
+        private Score(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        double threshold = DEFAULT_THRESHOLD;
+        int i = 0;
+        if (args.length > 1 && args[0].equals("-t")) {
+            threshold = Double.parseDouble(args[1]);
+            i = 2;
+        }
+        if (args.length - i != 2) {
+            System.err.println("Usage: CompareResults [-t percent]"
+                    + " baseline.json results.json");
+            System.exit(2);
+        }
+        Map<String,Score> baseline = load(args[i]);
+        Map<String,Score> results = load(args[i+1]);
+        int regressions = 0;
+        for (Map.Entry<String,Score> e: results.entrySet()) {
+            Score base = baseline.get(e.getKey());
+            Score cur = e.getValue();
+            if (base == null || !base.unit.equals(cur.unit)
+                    || !base.mode.equals(cur.mode) || base.score == 0) {
+                System.out.printf("%-70s %12.3f %s (new)%n",
+                        e.getKey(), cur.score, cur.unit);
+                continue;
+            }
+            // throughput: higher is better; all the other modes are times
+            boolean higherIsBetter = cur.mode.equals("thrpt");
+            double change = 100*(cur.score - base.score)/base.score;
+            double loss = higherIsBetter ? -change : change;
+            boolean significant = Math.abs(cur.score - base.score)
+                    > errorOf(base) + errorOf(cur);
+            String verdict = "";
+            if (significant && loss > threshold) {
+                verdict = "REGRESSION";
+                ++regressions;
+            } else if (significant && loss < -threshold) {
+                verdict = "improvement";
+            }
+            System.out.printf("%-70s %12.3f -> %12.3f %s %+7.1f%% %s%n",
+                    e.getKey(), base.score, cur.score, cur.unit, change,
+                    verdict);
+        }
+        for (String key: baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.printf("%-70s (missing)%n", key);
+            }
+        }
+        System.out.println(regressions + " regression(s)");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static double errorOf(Score s) {
+        return Double.isNaN(s.error) ? 0 : s.error;
+    }
+
+    // benchmark name and parameters -> score
+    @SuppressWarnings("unchecked")
+    private static Map<String,Score> load(String file) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(file)),
+                StandardCharsets.UTF_8);
+        Map<String,Score> map = new LinkedHashMap<>();
+        for (Object o: (List<Object>)Json.parse(text)) {
+            Map<String,Object> run = (Map<String,Object>)o;
+            StringBuilder key = new StringBuilder(
+                    (String)run.get("benchmark"));
+            Map<String,Object> params = (Map<String,Object>)run.get("params");
+            if (params != null) {
+                for (Map.Entry<String,Object> p:
+                        new TreeMap<>(params).entrySet()) {
+                    key.append(' ').append(p.getKey()).append('=')
+                            .append(p.getValue());
+                }
+            }
+            Map<String,Object> metric
+                    = (Map<String,Object>)run.get("primaryMetric");
+            map.put(key.toString(), new Score((String)run.get("mode"),
+                    toDouble(metric.get("score")),
+                    toDouble(metric.get("scoreError")),
+                    (String)metric.get("scoreUnit")));
+        }
+        return map;
+    }
+
+    // JMH writes NaN as a string
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number)value).doubleValue();
+        } else if (value instanceof String) {
+            return Double.parseDouble((String)value);
+        }
+        return Double.NaN;
+    }
+}
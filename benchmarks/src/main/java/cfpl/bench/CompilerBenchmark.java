@@ -0,0 +1,88 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.parser.ParseException;
+import cfpl.parser.Parser;
+import cfpl.parser.ParserConstants;
+import cfpl.parser.ParserTokenManager;
+import cfpl.parser.SourceStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the phases of the compiler: lexing, lexing and parsing (which builds the
+// typed tree), and the whole compilation to a class file in memory; lexFile
+// lexes the program from a file, read or memory-mapped by SourceStream
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompilerBenchmark {
+    @Param({"loops", "arith", "concat", "large"})
+    public String program;
+
+    @Param({""})
+    public String options;
+
+    private String source;
+    private Options opts;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        source = Programs.source(program);
+        file = File.createTempFile("bench", ".cfpl");
+        file.deleteOnExit();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        opts = new Options();
+        for (String arg: options.split(" ")) {
+            if (!arg.isEmpty() && !opts.parse(arg)) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+        }
+    }
+
+    @Benchmark
+    public int lex() {
+        return count(new ParserTokenManager(new SourceStream(source)));
+    }
+
+    @Benchmark
+    public int lexFile() throws IOException {
+        return count(new ParserTokenManager(SourceStream.open(file)));
+    }
+
+    private static int count(ParserTokenManager tm) {
+        int count = 0;
+        while (tm.getNextToken().kind != ParserConstants.EOF) {
+            ++count;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Parser parse() throws ParseException {
+        return Parser.parse(source, opts);
+    }
+
+    @Benchmark
+    public byte[] compile() throws ParseException, IOException {
+        return Parser.parse(source, opts)
+                .toByteArray("Bench");
+    }
+}
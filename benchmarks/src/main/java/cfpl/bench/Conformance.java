@@ -0,0 +1,96 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.runtime.Input;
+import cfpl.runtime.Output;
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.script.ScriptException;
+
+// Runs programs compiled, interpreted, and interpreted with a tier that
+// compiles the rest of the program at the first back-edge, and checks that
+// the three runs write the same output and end with the same exception:
+//     java -cp benchmarks.jar cfpl.bench.Conformance [options] file...
+// Each run reads its standard input from file.in, next to file.cfpl, or
+// from an empty input if there is none.
+// The options are those of the compiler. The exit status is 1 if a program
+// behaves differently.
+public class Conformance {
+    public static void main(String[] args)
+            throws IOException, ScriptException {
+        Options opts = new Options();
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            if (!opts.parse(args[i])) {
+                System.err.println("Invalid option: " + args[i]);
+                System.exit(2);
+            }
+            ++i;
+        }
+        if (i == args.length) {
+            System.err.println("Usage: Conformance [options] file.cfpl...");
+            System.exit(2);
+        }
+        ProgramCompiler compiler = new ProgramCompiler(opts, 1);
+        int failures = 0;
+        for (; i < args.length; ++i) {
+            File file = new File(args[i]);
+            String source = new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8);
+            File in = new File(file.getPath().replaceFirst(
+                    "\\.cfpl$", "") + ".in");
+            byte[] input = in.isFile() ? Files.readAllBytes(in.toPath())
+                    : new byte[0];
+            String compiled = run(compiler.compile(source), input);
+            String interpreted = run(compiler.interpret(source, 0), input);
+            String tiered = run(compiler.interpret(source, 1), input);
+            if (!interpreted.equals(compiled)) {
+                System.out.println(file + ": FAILED (interpreted)");
+                ++failures;
+            } else if (!tiered.equals(compiled)) {
+                System.out.println(file + ": FAILED (tiered)");
+                ++failures;
+            } else {
+                System.out.println(file + ": ok");
+            }
+        }
+        System.out.println(failures + " failure(s)");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    // the output of the program, and the class of the exception it throws;
+    // the messages of the exceptions differ between generated code and the
+    // evaluators
+    private static String run(Program program, byte[] input) {
+        StringWriter writer = new StringWriter();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        Writer prev = Output.redirect(writer);
+        // a new stream also opens the files of INPUT FROM again
+        Input.redirect(new ByteArrayInputStream(input));
+        String exception = "";
+        try {
+            System.setOut(new PrintStream(bytes, true, "UTF-8"));
+            program.run();
+        } catch (RuntimeException ex) {
+            exception = "exception " + ex.getClass().getName() + "\n";
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            Output.redirect(prev);
+            Input.redirect(null);
+            System.setOut(out);
+        }
+        return writer + new String(bytes.toByteArray(),
+                StandardCharsets.UTF_8) + exception;
+    }
+}
@@ -0,0 +1,117 @@
+package cfpl.bench;
+
+import cfpl.runtime.Input;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// reads count INT or FLOAT values, ten to a line, with the Input of the
+// INPUT statements, and with a BufferedReader, a StringTokenizer and
+// Integer.parseInt or Double.parseDouble; the input is generated with a
+// fixed seed, and the throughput in bytes per second is the size of the
+// input divided by the time
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InputBenchmark {
+    @Param({"100000", "1000000"})
+    public int count;
+
+    private byte[] ints;
+    private byte[] floats;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(count);
+        StringBuilder i = new StringBuilder();
+        StringBuilder f = new StringBuilder();
+        for (int n = 0; n < count; ++n) {
+            String sep = n % 10 == 9 ? "\n" : " ";
+            i.append(random.nextInt()).append(sep);
+            f.append(String.format(Locale.ROOT, "%.6f",
+                    (random.nextDouble() - 0.5)*1e6)).append(sep);
+        }
+        ints = i.toString().getBytes(StandardCharsets.US_ASCII);
+        floats = f.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Input.redirect(null);
+    }
+
+    @Benchmark
+    public long inputInts() {
+        Input.redirect(new ByteArrayInputStream(ints));
+        long sum = 0;
+        for (int n = 0; n < count; ++n) {
+            sum += Input.readInt(null);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long readerInts() throws IOException {
+        BufferedReader in = reader(ints);
+        long sum = 0;
+        StringTokenizer tokens = new StringTokenizer("");
+        for (int n = 0; n < count; ++n) {
+            while (!tokens.hasMoreTokens()) {
+                tokens = new StringTokenizer(in.readLine());
+            }
+            sum += Integer.parseInt(tokens.nextToken());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double inputFloats() {
+        Input.redirect(new ByteArrayInputStream(floats));
+        double sum = 0;
+        for (int n = 0; n < count; ++n) {
+            sum += Input.readDouble(null);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double readerFloats() throws IOException {
+        BufferedReader in = reader(floats);
+        double sum = 0;
+        StringTokenizer tokens = new StringTokenizer("");
+        for (int n = 0; n < count; ++n) {
+            while (!tokens.hasMoreTokens()) {
+                tokens = new StringTokenizer(in.readLine());
+            }
+            sum += Double.parseDouble(tokens.nextToken());
+        }
+        return sum;
+    }
+
+    private static BufferedReader reader(byte[] bytes) {
+        return new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(bytes), StandardCharsets.UTF_8),
+                1 << 16);
+    }
+}
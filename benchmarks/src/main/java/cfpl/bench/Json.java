@@ -0,0 +1,175 @@
+package cfpl.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// just enough JSON to read the result files of JMH: objects are maps,
+// arrays are lists, numbers are doubles
+class Json {
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipSpaces();
+        if (json.pos < text.length()) {
+            throw json.error("End of input expected");
+        }
+        return value;
+    }
+
+    private Object value() {
+        skipSpaces();
+        if (pos >= text.length()) {
+            throw error("Value expected");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            default:
+                if (text.startsWith("true", pos)) {
+                    pos += 4;
+                    return Boolean.TRUE;
+                } else if (text.startsWith("false", pos)) {
+                    pos += 5;
+                    return Boolean.FALSE;
+                } else if (text.startsWith("null", pos)) {
+                    pos += 4;
+                    return null;
+                }
+                return number();
+        }
+    }
+
+    private Map<String,Object> object() {
+        Map<String,Object> map = new LinkedHashMap<>();
+        ++pos;
+        skipSpaces();
+        if (peek() == '}') {
+            ++pos;
+            return map;
+        }
+        while (true) {
+            skipSpaces();
+            String key = string();
+            skipSpaces();
+            expect(':');
+            map.put(key, value());
+            skipSpaces();
+            if (peek() == '}') {
+                ++pos;
+                return map;
+            }
+            expect(',');
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        ++pos;
+        skipSpaces();
+        if (peek() == ']') {
+            ++pos;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipSpaces();
+            if (peek() == ']') {
+                ++pos;
+                return list;
+            }
+            expect(',');
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder buf = new StringBuilder();
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return buf.toString();
+            } else if (c != '\\') {
+                buf.append(c);
+            } else if (pos < text.length()) {
+                c = text.charAt(pos++);
+                switch (c) {
+                    case 'n':
+                        buf.append('\n');
+                        break;
+                    case 't':
+                        buf.append('\t');
+                        break;
+                    case 'r':
+                        buf.append('\r');
+                        break;
+                    case 'b':
+                        buf.append('\b');
+                        break;
+                    case 'f':
+                        buf.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Invalid escape");
+                        }
+                        buf.append((char)Integer.parseInt(
+                                text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        buf.append(c);
+                        break;
+                }
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Double number() {
+        int start = pos;
+        while (pos < text.length()
+                && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            ++pos;
+        }
+        if (start == pos) {
+            throw error("Value expected");
+        }
+        return Double.valueOf(text.substring(start, pos));
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("'" + c + "' expected");
+        }
+        ++pos;
+    }
+
+    private void skipSpaces() {
+        while (pos < text.length()
+                && Character.isWhitespace(text.charAt(pos))) {
+            ++pos;
+        }
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at offset " + pos);
+    }
+}
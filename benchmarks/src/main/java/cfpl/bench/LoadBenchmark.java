@@ -0,0 +1,64 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.script.ProgramCompiler;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Loading, verification and linking of a generated class, for each class
+// file version: 48 goes through the type-inferencing verifier, 50 and later
+// through the type-checking one, with the stack map frames.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xverify:all")
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+    private static final String CLASS_NAME = "Load";
+
+    @Param({"loops", "concat", "large"})
+    public String program;
+
+    @Param({"48", "52"})
+    public int target;
+
+    private byte[] bytes;
+
+    private static class Loader extends ClassLoader {
+        private Loader() {
+            super(LoadBenchmark.class.getClassLoader());
+        }
+
+        private Class<?> define(byte[] bytes) {
+            return defineClass(CLASS_NAME, bytes, 0, bytes.length);
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Options opts = new Options();
+        opts.setTarget(target);
+        bytes = new ProgramCompiler(opts, 1).compileToBytes(
+                Programs.source(program), CLASS_NAME);
+    }
+
+    // a fresh loader each time, so that the class is loaded again
+    @Benchmark
+    public Class<?> load() throws ClassNotFoundException {
+        Class<?> c = new Loader().define(bytes);
+        // links (verifies) the class, without running main
+        c.getMethods();
+        return Class.forName(CLASS_NAME, true, c.getClassLoader());
+    }
+}
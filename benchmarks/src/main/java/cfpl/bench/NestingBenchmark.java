@@ -0,0 +1,58 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.parser.ParseException;
+import cfpl.parser.Parser;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the compilation of a single expression nested to increasing depths (see
+// Programs.nested): the time and the allocations per operation (-prof gc)
+// should double with the depth. The parser and the passes over the tree
+// are recursive, hence the larger stack.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+@State(Scope.Benchmark)
+public class NestingBenchmark {
+    @Param({"arith", "left", "call", "concat"})
+    public String shape;
+
+    @Param({"500", "1000", "2000", "4000"})
+    public int depth;
+
+    @Param({""})
+    public String options;
+
+    private String source;
+    private Options opts;
+
+    @Setup
+    public void setup() {
+        source = Programs.nested(shape, depth);
+        opts = new Options();
+        for (String arg: options.split(" ")) {
+            if (!arg.isEmpty() && !opts.parse(arg)) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] compile() throws ParseException, IOException {
+        return Parser.parse(source, opts).toByteArray("Nested");
+    }
+}
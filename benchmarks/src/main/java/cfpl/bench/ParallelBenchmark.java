@@ -0,0 +1,72 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.runtime.Output;
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the PARALLEL loop of parallel.cfpl on a fork-join pool of 1 to 8 threads:
+// the chunks run on the pool of the thread that runs the program, so the
+// time should go down with the threads, up to the number of cores
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"", "-O"})
+    public String options;
+
+    private Program compiled;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        Options opts = new Options();
+        for (String arg: options.split(" ")) {
+            if (!arg.isEmpty() && !opts.parse(arg)) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+        }
+        compiled = new ProgramCompiler(opts, 1).compile(
+                Programs.source("parallel"));
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void run() {
+        pool.submit(() -> {
+            // the output is redirected by thread, and the program runs on
+            // any of the workers
+            Output.redirect(Programs.nullWriter());
+            try {
+                compiled.run();
+            } finally {
+                Output.redirect(null);
+            }
+        }).join();
+    }
+}
@@ -0,0 +1,141 @@
+package cfpl.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// the programs of the benchmarks
+public class Programs {
+    private static final int LARGE_BLOCKS = 500;
+
+    private Programs() {
+    }
+
+    // one of the resources of this package, or "large": a long program
+    // made of the same few statements, for the parsing throughput
+    public static String source(String name) throws IOException {
+        if (name.equals("large")) {
+            return large();
+        }
+        try (InputStream in
+                = Programs.class.getResourceAsStream(name + ".cfpl")) {
+            if (in == null) {
+                throw new IOException("Unknown program: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // a program with a single expression nested to the given depth:
+    // - arith: a+(b*(a+(b*...)))
+    // - left: ((a+b)+b)+...
+    // - call: sin(x+sin(x+...))
+    // - concat: "s"&(a&("s"&(a&...)))
+    public static String nested(String shape, int depth) {
+        String open;
+        String leaf;
+        String close;
+        String stmt;
+        switch (shape) {
+            case "arith":
+                open = "a+(b*";
+                leaf = "a";
+                close = ")";
+                stmt = "a=";
+                break;
+            case "left":
+                open = "(";
+                leaf = "a";
+                close = "+b)";
+                stmt = "a=";
+                break;
+            case "call":
+                open = "sin(x+";
+                leaf = "x";
+                close = ")";
+                stmt = "x=";
+                break;
+            case "concat":
+                open = "\"s\"&(a&";
+                leaf = "\"s\"";
+                close = ")";
+                stmt = "OUTPUT: ";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append("* generated\n");
+        buf.append("VAR a=1, b=2 AS INT\n");
+        buf.append("VAR x=0.5 AS FLOAT\n");
+        buf.append("START\n");
+        buf.append("    ").append(stmt);
+        for (int i = 0; i < depth; ++i) {
+            buf.append(open);
+        }
+        buf.append(leaf);
+        for (int i = 0; i < depth; ++i) {
+            buf.append(close);
+        }
+        buf.append("\nSTOP\n");
+        return buf.toString();
+    }
+
+    // discards the output of the programs
+    public static Writer nullWriter() {
+        return new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public Writer append(CharSequence csq) {
+                return this;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static String large() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("* generated\n");
+        buf.append("VAR a=1, b=2, c, d=4 AS INT\n");
+        buf.append("VAR x, y=0.5 AS FLOAT\n");
+        buf.append("VAR w='w' AS CHAR\n");
+        buf.append("START\n");
+        for (int i = 0; i < LARGE_BLOCKS; ++i) {
+            buf.append("    a=(b+c)*d-a%7\n");
+            buf.append("    x=x*0.5+sin(y)-pi()\n");
+            buf.append("    IF (a<b AND c<>d)\n");
+            buf.append("        START\n");
+            buf.append("            OUTPUT: \"a=\" & a & ' ' & x & w")
+                    .append(" & \"[#]\"\n");
+            buf.append("        STOP\n");
+            buf.append("    ELSE\n");
+            buf.append("        START\n");
+            buf.append("            b=b+1\n");
+            buf.append("        STOP\n");
+            buf.append("    c=0\n");
+            buf.append("    WHILE (c<3)\n");
+            buf.append("        START\n");
+            buf.append("            c=c+1\n");
+            buf.append("        STOP\n");
+        }
+        buf.append("STOP\n");
+        return buf.toString();
+    }
+}
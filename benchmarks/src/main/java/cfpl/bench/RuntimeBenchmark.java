@@ -0,0 +1,61 @@
+package cfpl.bench;
+
+import cfpl.compiler.Options;
+import cfpl.runtime.Output;
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// steady-state execution of the main method of generated programs; their
+// output is discarded
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RuntimeBenchmark {
+    @Param({"loops", "conditions", "invariants", "arith", "concat"})
+    public String program;
+
+    @Param({"", "-nofold", "-O"})
+    public String options;
+
+    private Program compiled;
+
+    @Setup
+    public void setup() throws Exception {
+        Options opts = new Options();
+        for (String arg: options.split(" ")) {
+            if (!arg.isEmpty() && !opts.parse(arg)) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+        }
+        compiled = new ProgramCompiler(opts, 1).compile(
+                Programs.source(program));
+        // thread-scoped state: this runs on the benchmark thread
+        Output.redirect(Programs.nullWriter());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Output.redirect(null);
+    }
+
+    @Benchmark
+    public void run() {
+        compiled.run();
+    }
+}
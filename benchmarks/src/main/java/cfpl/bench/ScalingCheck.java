@@ -0,0 +1,189 @@
+package cfpl.bench;
+
+import cfpl.compiler.Corpus;
+import cfpl.compiler.Options;
+import cfpl.parser.Parser;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles the programs of Corpus at doubling sizes, and checks that the
+// compile time and the peak heap grow no faster than the given powers of
+// the size:
+//     java -cp benchmarks.jar cfpl.bench.ScalingCheck [-seed n] [-steps n]
+//             [-runs n] [-time e] [-heap e] [-shape name:size]...
+//             [compiler options]
+// The exponent of each measure is the slope of a least-squares fit of its
+// logarithm against the logarithm of the size: 1 is linear, 2 quadratic.
+// By default, all the shapes are checked from their own first size; the
+// exit status is 1 if an exponent is above its bound. They depend on the
+// load of the machine, so this is not a unit test; the bytes allocated and
+// the size of the class are checked by ScalingTest.
+public class ScalingCheck {
+    private static final String[] MEASURES = {"time", "heap"};
+    // the smallest values that count, in the order of MEASURES: the heap
+    // pools report their peaks by blocks of memory
+    private static final double[] FLOORS = {1, 1 << 20};
+    // the compiler recurses on the nesting and the blocks
+    private static final long STACK_SIZE = 256L << 20;
+
+    private final Options opts = new Options();
+    private long seed = 1;
+    private int steps = 4;
+    private int runs = 5;
+    // the bounds of the exponents, in the order of MEASURES
+    private final double[] bounds = {1.5, 1.5};
+
+    public static void main(String[] args) throws InterruptedException {
+        ScalingCheck check = new ScalingCheck();
+        Map<String,Integer> shapes = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            int measure = indexOf(MEASURES, arg.substring(1));
+            if (i + 1 < args.length && arg.equals("-seed")) {
+                check.seed = Long.parseLong(args[++i]);
+            } else if (i + 1 < args.length && arg.equals("-steps")) {
+                check.steps = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && arg.equals("-runs")) {
+                check.runs = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && measure >= 0) {
+                check.bounds[measure] = Double.parseDouble(args[++i]);
+            } else if (i + 1 < args.length && arg.equals("-shape")) {
+                String[] s = args[++i].split(":");
+                if (!Corpus.SHAPES.contains(s[0])) {
+                    System.err.println("Unknown shape: " + s[0]
+                            + "; the shapes are " + Corpus.SHAPES);
+                    System.exit(2);
+                }
+                shapes.put(s[0], s.length > 1
+                        ? Integer.parseInt(s[1]) : Corpus.firstSize(s[0]));
+            } else if (!check.opts.parse(arg)) {
+                System.err.println("Usage: ScalingCheck [-seed n] [-steps n]"
+                        + " [-runs n] [-time e] [-heap e]"
+                        + " [-shape name:size]... [compiler options]");
+                System.exit(2);
+            }
+        }
+        if (shapes.isEmpty()) {
+            for (String shape: Corpus.SHAPES) {
+                shapes.put(shape, Corpus.firstSize(shape));
+            }
+        }
+        final int[] failures = new int[1];
+        Thread thread = new Thread(null, () -> {
+            for (Map.Entry<String,Integer> e: shapes.entrySet()) {
+                failures[0] += check.check(e.getKey(), e.getValue());
+            }
+        }, "scaling", STACK_SIZE);
+        thread.start();
+        thread.join();
+        System.out.println(failures[0] + " failure(s)");
+        System.exit(failures[0] > 0 ? 1 : 0);
+    }
+
+    // the number of exponents above their bounds
+    private int check(String shape, int firstSize) {
+        // warm up the compiler at the first size
+        compile(Corpus.generate(seed, shape, firstSize), 2*runs);
+        List<Integer> sizes = new ArrayList<>();
+        List<double[]> values = new ArrayList<>();
+        System.out.printf("%-11s %8s %12s %12s%n",
+                "shape", "size", "time us", "heap KB");
+        for (int k = 0, size = firstSize; k < steps; ++k, size *= 2) {
+            double[] v = compile(Corpus.generate(seed, shape, size), runs);
+            sizes.add(size);
+            values.add(v);
+            System.out.printf("%-11s %8d %12.1f %12.1f%n",
+                    shape, size, v[0]/1e3, v[1]/1024);
+        }
+        int failures = 0;
+        StringBuilder line = new StringBuilder(shape + " exponents:");
+        for (int m = 0; m < MEASURES.length; ++m) {
+            double e = exponent(sizes, values, m);
+            line.append(String.format(" %s %.2f", MEASURES[m], e));
+            if (e > bounds[m]) {
+                line.append(String.format(" (FAILED: bound %.2f)", bounds[m]));
+                ++failures;
+            }
+        }
+        System.out.println(line);
+        System.out.println();
+        return failures;
+    }
+
+    // the best time and peak heap of the runs
+    private double[] compile(String source, int count) {
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE};
+        for (int r = 0; r < count; ++r) {
+            System.gc();
+            long base = heapUsed();
+            resetPeaks();
+            long start = System.nanoTime();
+            try {
+                Parser.parse(source, opts).toByteArray("Scaling");
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+            best[1] = Math.min(best[1], Math.max(0, heapPeak() - base));
+        }
+        return best;
+    }
+
+    private static double exponent(List<Integer> sizes, List<double[]> values,
+            int measure) {
+        int n = sizes.size();
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < n; ++i) {
+            double x = Math.log(sizes.get(i));
+            double y = Math.log(
+                    Math.max(FLOORS[measure], values.get(i)[measure]));
+            sx += x;
+            sy += y;
+            sxx += x*x;
+            sxy += x*y;
+        }
+        return (n*sxy - sx*sy)/(n*sxx - sx*sx);
+    }
+
+    private static long heapUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static int indexOf(String[] array, String s) {
+        for (int i = 0; i < array.length; ++i) {
+            if (array[i].equals(s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,118 @@
+package cfpl.bench;
+
+import cfpl.parser.CompileClient;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Compares the latency of a compile with a cold JVM and with the compile
+// server:
+//     java -cp benchmarks.jar cfpl.bench.ServerLatency [-n runs] file.cfpl
+// - cli: a new JVM running cfpl.parser.Parser on the file;
+// - client: a new JVM running cfpl.parser.CompileClient, which sends the
+//   file to the server;
+// - round-trip: a request to the server from this JVM, after a warm-up.
+// The server is started in a JVM of its own, and stopped at the end.
+public class ServerLatency {
+    private static final int WARMUP = 50;
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        int runs = 10;
+        int i = 0;
+        if (args.length > 1 && args[0].equals("-n")) {
+            runs = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length - i != 1) {
+            System.err.println("Usage: ServerLatency [-n runs] file.cfpl");
+            System.exit(1);
+        }
+        File file = new File(args[i]).getAbsoluteFile();
+        File portFile = File.createTempFile("cfpl", ".port");
+        portFile.delete();
+        portFile.deleteOnExit();
+        String java = new File(new File(System.getProperty("java.home"),
+                "bin"), "java").getPath();
+        String cp = System.getProperty("java.class.path");
+
+        long[] cli = new long[runs];
+        for (int r = 0; r < runs; ++r) {
+            cli[r] = exec(java, "-cp", cp, "cfpl.parser.Parser",
+                    file.getPath());
+        }
+        Process server = new ProcessBuilder(java, "-cp", cp,
+                "cfpl.parser.CompileServer", "-port", portFile.getPath())
+                .inheritIO().start();
+        try {
+            CompileClient client = null;
+            while (client == null) {
+                Thread.sleep(50);
+                client = CompileClient.connect(portFile);
+            }
+            long[] remote = new long[runs];
+            for (int r = 0; r < runs; ++r) {
+                remote[r] = exec(java, "-cp", cp,
+                        "cfpl.parser.CompileClient", "-port",
+                        portFile.getPath(), file.getPath());
+            }
+            List<String> options = Collections.emptyList();
+            List<File> files = Collections.singletonList(file);
+            PrintStream quiet = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            });
+            for (int r = 0; r < WARMUP; ++r) {
+                client.compile(options, files, quiet);
+            }
+            long[] roundTrip = new long[runs];
+            for (int r = 0; r < runs; ++r) {
+                long start = System.nanoTime();
+                client.compile(options, files, quiet);
+                roundTrip[r] = System.nanoTime() - start;
+            }
+            client.stop();
+            client.close();
+            System.out.format("%-12s %10s %10s %10s%n",
+                    "ms", "median", "min", "mean");
+            print("cli", cli);
+            print("client", remote);
+            print("round-trip", roundTrip);
+        } finally {
+            // already stopped, unless something failed
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // the wall time of a command, in nanoseconds
+    private static long exec(String... command)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(command).inheritIO().start();
+        int status = p.waitFor();
+        long time = System.nanoTime() - start;
+        if (status != 0) {
+            throw new IOException("Exit status " + status + ": "
+                    + Arrays.toString(command));
+        }
+        return time;
+    }
+
+    private static void print(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long n: sorted) {
+            total += n;
+        }
+        System.out.format("%-12s %10.2f %10.2f %10.2f%n", name,
+                sorted[sorted.length/2]/1e6, sorted[0]/1e6,
+                total/1e6/sorted.length);
+    }
+}
@@ -0,0 +1,116 @@
+package cfpl.bench;
+
+import cfpl.parser.Parser;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Measures the time from the start of a new JVM to the class file of a
+// compiled program, which is most of the time of the compile of a small
+// file:
+//     java -cp benchmarks.jar cfpl.bench.StartupBenchmark [-n runs]
+//             [-launcher bin/cfplc] file.cfpl
+// - java: cfpl.parser.Parser with the default options of the JVM;
+// - launcher: the launcher, without the class data sharing archive;
+// - launcher+cds: the launcher, with the archive of the build.
+// The class file is deleted before each run; its time is the first time it
+// is not empty, polled every millisecond (the compiler writes it at once),
+// and the exit follows.
+public class StartupBenchmark {
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        int runs = 10;
+        File launcher = new File("../bin/cfplc");
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-n")) {
+                runs = Integer.parseInt(args[i+1]);
+            } else if (args[i].equals("-launcher")) {
+                launcher = new File(args[i+1]);
+            } else {
+                break;
+            }
+        }
+        if (args.length - i != 1) {
+            System.err.println("Usage: StartupBenchmark [-n runs]"
+                    + " [-launcher bin/cfplc] file.cfpl");
+            System.exit(1);
+        }
+        File file = new File(args[i]).getAbsoluteFile();
+        File classFile = Parser.outputFile(file);
+        String java = new File(new File(System.getProperty("java.home"),
+                "bin"), "java").getPath();
+        String cp = System.getProperty("java.class.path");
+        String path = launcher.getAbsolutePath();
+
+        List<String> names = new ArrayList<>();
+        List<long[][]> results = new ArrayList<>();
+        names.add("java");
+        results.add(run(runs, classFile, null,
+                java, "-cp", cp, "cfpl.parser.Parser", file.getPath()));
+        if (launcher.isFile()) {
+            names.add("launcher");
+            results.add(run(runs, classFile, "off", path, file.getPath()));
+            names.add("launcher+cds");
+            results.add(run(runs, classFile, "auto", path, file.getPath()));
+        } else {
+            System.err.println("No launcher " + launcher
+                    + ": only the plain JVM is measured");
+        }
+        System.out.format("%-14s %12s %10s %10s %12s%n",
+                "ms", "class median", "min", "mean", "exit median");
+        for (int k = 0; k < names.size(); ++k) {
+            long[][] r = results.get(k);
+            long[] first = r[0].clone();
+            long[] exit = r[1].clone();
+            Arrays.sort(first);
+            Arrays.sort(exit);
+            long total = 0;
+            for (long n: first) {
+                total += n;
+            }
+            System.out.format("%-14s %12.2f %10.2f %10.2f %12.2f%n",
+                    names.get(k), first[runs/2]/1e6, first[0]/1e6,
+                    total/1e6/runs, exit[runs/2]/1e6);
+        }
+    }
+
+    // the times to the class file and to the exit of each run, in
+    // nanoseconds; cds is the value of CFPL_CDS, or null
+    private static long[][] run(int runs, File classFile, String cds,
+            String... command) throws IOException, InterruptedException {
+        long[][] times = new long[2][runs];
+        for (int r = 0; r < runs; ++r) {
+            if (classFile.exists() && !classFile.delete()) {
+                throw new IOException("Cannot delete " + classFile);
+            }
+            ProcessBuilder pb = new ProcessBuilder(command).inheritIO();
+            if (cds != null) {
+                pb.environment().put("CFPL_CDS", cds);
+            }
+            long start = System.nanoTime();
+            Process p = pb.start();
+            long first = 0;
+            while (first == 0) {
+                if (classFile.length() > 0) {
+                    first = System.nanoTime();
+                } else if (!p.isAlive()) {
+                    break;
+                } else {
+                    Thread.sleep(1);
+                }
+            }
+            int status = p.waitFor();
+            long exit = System.nanoTime();
+            if (status != 0 || !classFile.exists()) {
+                throw new IOException("No class file, exit status " + status
+                        + ": " + Arrays.toString(command));
+            }
+            times[0][r] = (first == 0 ? exit : first) - start;
+            times[1][r] = exit - start;
+        }
+        return times;
+    }
+}
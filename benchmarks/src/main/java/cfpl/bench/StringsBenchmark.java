@@ -0,0 +1,31 @@
+package cfpl.bench;
+
+import cfpl.compiler.Strings;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringsBenchmark {
+    @Param({"\"Hello world!!!\"", "'[[]xyz[]]'",
+            "\"#a=[#] b=[[] c=[]]#d=[#]#\""})
+    public String literal;
+
+    @Benchmark
+    public String unescape() {
+        return Strings.unescape(literal);
+    }
+}
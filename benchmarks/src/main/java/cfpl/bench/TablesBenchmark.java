@@ -0,0 +1,95 @@
+package cfpl.bench;
+
+import cfpl.compiler.Converter;
+import cfpl.compiler.Invoker;
+import cfpl.compiler.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The conversion and overload tables, frozen (precomputed lookups) or not
+// (searched on every call). The tables are a copy of the shape of those of
+// the compiler: the conversions STRICT and LOOSE, and the arithmetic
+// operators.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TablesBenchmark {
+    private static final Type[] TYPES = Type.values();
+    private static final List<Type> INT_FLOAT
+            = Arrays.asList(Type.INT, Type.FLOAT);
+    private static final List<Type> CHAR_CHAR
+            = Arrays.asList(Type.CHAR, Type.CHAR);
+
+    @Param({"true", "false"})
+    public boolean frozen;
+
+    private Converter loose;
+    private Invoker invoker;
+
+    @Setup
+    public void setup() {
+        Converter strict = new Converter();
+        strict.add(Type.BOOL, Type.CHAR, (code)->{});
+        strict.add(Type.CHAR, Type.INT, (code)->{});
+        strict.add(Type.INT, Type.FLOAT, (code)->code.intToDouble());
+        for (Type type: new Type[] {
+                Type.BOOL, Type.CHAR, Type.INT, Type.FLOAT}) {
+            strict.add(type, Type.STRING, (code)->code.invokeStatic(
+                    "java/lang/String", "valueOf", "(I)Ljava/lang/String;"));
+        }
+        loose = new Converter(strict);
+        loose.add(Type.FLOAT, Type.INT, (code)->code.doubleToInt());
+        loose.add(Type.INT, Type.CHAR, (code)->{});
+        loose.add(Type.STRING, Type.INT, (code)->code.invokeStatic(
+                "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I"));
+        invoker = new Invoker(strict);
+        invoker.add((code)->code.addInt(),
+                "+", Type.INT, Type.INT, Type.INT);
+        invoker.add((code)->code.addDouble(),
+                "+", Type.FLOAT, Type.FLOAT, Type.FLOAT);
+        invoker.add((code)->code.mulInt(),
+                "*", Type.INT, Type.INT, Type.INT);
+        invoker.add((code)->code.mulDouble(),
+                "*", Type.FLOAT, Type.FLOAT, Type.FLOAT);
+        if (frozen) {
+            loose.freeze();
+            invoker.freeze();
+        }
+    }
+
+    // all the 25 pairs of types
+    @Benchmark
+    public void getChain(Blackhole bh) {
+        for (Type from: TYPES) {
+            for (Type to: TYPES) {
+                bh.consume(loose.getChain(from, to));
+            }
+        }
+    }
+
+    @Benchmark
+    public Invoker.Resolution resolve() {
+        return invoker.resolve("+", INT_FLOAT);
+    }
+
+    @Benchmark
+    public Invoker.Resolution resolveConverted() {
+        return invoker.resolve("*", CHAR_CHAR);
+    }
+}
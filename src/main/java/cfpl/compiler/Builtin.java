@@ -0,0 +1,388 @@
+package cfpl.compiler;
+
+import cfpl.runtime.Input;
+import org.tastefuljava.classfile.ByteCode;
+import org.tastefuljava.classfile.CodeSegment;
+import org.tastefuljava.classfile.Label;
+
+// The conversions and the functions of the tables of Compiler: one class
+// generates and evaluates them all, so that building the tables loads a
+// single class and bootstraps no lambda.
+// The array operations are calls to cfpl.runtime.Arrays: the classfile
+// library has no array instructions.
+enum Builtin implements Generator, Evaluator {
+    // conversions
+    NOP, INT_TO_FLOAT, FLOAT_TO_INT, INT_TO_BOOL,
+    BOOL_TO_STRING, CHAR_TO_STRING, INT_TO_STRING, FLOAT_TO_STRING,
+    STRING_TO_CHAR, STRING_TO_BOOL, STRING_TO_INT, STRING_TO_FLOAT,
+    // functions
+    CONCAT, AND, OR,
+    ADD_INT, ADD_FLOAT, SUB_INT, SUB_FLOAT, MUL_INT, MUL_FLOAT,
+    DIV_INT, DIV_FLOAT, REM_INT,
+    EQ_INT, EQ_FLOAT, NE_INT, NE_FLOAT, LT_INT, LT_FLOAT,
+    LE_INT, LE_FLOAT, GT_INT, GT_FLOAT, GE_INT, GE_FLOAT,
+    SIN, PI,
+    // arrays: the creations, then the loads, the stores and the lengths
+    NEW_INT("newInt", "(I)[I"),
+    NEW_FLOAT("newDouble", "(I)[D"),
+    NEW_CHAR("newChar", "(I)[C"),
+    NEW_BOOL("newBool", "(I)[Z"),
+    GET_INT("getInt", "([II)I"),
+    GET_FLOAT("getDouble", "([DI)D"),
+    GET_CHAR("getChar", "([CI)C"),
+    GET_BOOL("getBool", "([ZI)Z"),
+    SET_INT("setInt", "([III)V"),
+    SET_FLOAT("setDouble", "([DID)V"),
+    SET_CHAR("setChar", "([CIC)V"),
+    SET_BOOL("setBool", "([ZIZ)V"),
+    LENGTH_INT("length", "([I)I"),
+    LENGTH_FLOAT("length", "([D)I"),
+    LENGTH_CHAR("length", "([C)I"),
+    LENGTH_BOOL("length", "([Z)I"),
+    // the input, from the file named by the argument, or from the standard
+    // input if it is null
+    READ_INT, READ_FLOAT, READ_CHAR, READ_BOOL, AT_END, AT_END_STDIN;
+
+    private static final String ARRAYS = "cfpl/runtime/Arrays";
+    private static final String INPUT = "cfpl/runtime/Input";
+
+    // the method of cfpl.runtime.Arrays, null for the other builtins
+    private final String method;
+    private final String descriptor;
+
+    private Builtin() {
+        this(null, null);
+    }
+
+    private Builtin(String method, String descriptor) {
+        this.method = method;
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public void generate(CodeSegment code) {
+        switch (this) {
+            case NOP:
+                break;
+            case INT_TO_FLOAT:
+                code.intToDouble();
+                break;
+            case FLOAT_TO_INT:
+                code.doubleToInt();
+                break;
+            case INT_TO_BOOL:
+                compare(code, ByteCode.IFEQ);
+                break;
+            case BOOL_TO_STRING:
+                code.invokeStatic("java/lang/Boolean", "toString",
+                        "(Z)Ljava/lang/String;");
+                break;
+            case CHAR_TO_STRING:
+                code.invokeStatic("java/lang/Character", "toString",
+                        "(C)Ljava/lang/String;");
+                break;
+            case INT_TO_STRING:
+                code.invokeStatic("java/lang/Integer", "toString",
+                        "(I)Ljava/lang/String;");
+                break;
+            case FLOAT_TO_STRING:
+                code.invokeStatic("java/lang/Double", "toString",
+                        "(D)Ljava/lang/String;");
+                break;
+            case STRING_TO_CHAR:
+                code.pushInt(0);
+                code.invokeVirtual("java/lang/String", "charAt", "(I)C");
+                break;
+            case STRING_TO_BOOL:
+                code.invokeStatic("java/lang/Boolean", "parseBoolean",
+                        "(Ljava/lang/String;)Z");
+                break;
+            case STRING_TO_INT:
+                code.invokeStatic("java/lang/Integer", "parseInt",
+                        "(Ljava/lang/String;)I");
+                break;
+            case STRING_TO_FLOAT:
+                code.invokeStatic("java/lang/Double", "parseDouble",
+                        "(Ljava/lang/String;)D");
+                break;
+            case CONCAT:
+                code.invokeVirtual("java/lang/String", "concat",
+                        "(Ljava/lang/String;)Ljava/lang/String;");
+                break;
+            case AND:
+                code.andInt();
+                break;
+            case OR:
+                code.orInt();
+                break;
+            case ADD_INT:
+                code.addInt();
+                break;
+            case ADD_FLOAT:
+                code.addDouble();
+                break;
+            case SUB_INT:
+                code.subInt();
+                break;
+            case SUB_FLOAT:
+                code.subDouble();
+                break;
+            case MUL_INT:
+                code.mulInt();
+                break;
+            case MUL_FLOAT:
+                code.mulDouble();
+                break;
+            case DIV_INT:
+                code.divInt();
+                break;
+            case DIV_FLOAT:
+                code.divDouble();
+                break;
+            case REM_INT:
+                code.remInt();
+                break;
+            case EQ_INT:
+                compare(code, ByteCode.IF_ICMPEQ);
+                break;
+            case EQ_FLOAT:
+                code.cmplDouble();
+                compare(code, ByteCode.IFEQ);
+                break;
+            case NE_INT:
+                compare(code, ByteCode.IF_ICMPNE);
+                break;
+            case NE_FLOAT:
+                code.cmplDouble();
+                compare(code, ByteCode.IFNE);
+                break;
+            case LT_INT:
+                compare(code, ByteCode.IF_ICMPLT);
+                break;
+            case LT_FLOAT:
+                code.cmplDouble();
+                compare(code, ByteCode.IFLT);
+                break;
+            case LE_INT:
+                compare(code, ByteCode.IF_ICMPLE);
+                break;
+            case LE_FLOAT:
+                code.cmplDouble();
+                compare(code, ByteCode.IFLE);
+                break;
+            case GT_INT:
+                compare(code, ByteCode.IF_ICMPGT);
+                break;
+            case GT_FLOAT:
+                code.cmplDouble();
+                compare(code, ByteCode.IFGT);
+                break;
+            case GE_INT:
+                compare(code, ByteCode.IF_ICMPGE);
+                break;
+            case GE_FLOAT:
+                code.cmplDouble();
+                compare(code, ByteCode.IFGE);
+                break;
+            case SIN:
+                code.invokeStatic("java/lang/Math", "sin", "(D)D");
+                break;
+            case PI:
+                code.getStatic("java/lang/Math", "PI", "D");
+                break;
+            case NEW_INT:
+            case NEW_FLOAT:
+            case NEW_CHAR:
+            case NEW_BOOL:
+            case GET_INT:
+            case GET_FLOAT:
+            case GET_CHAR:
+            case GET_BOOL:
+            case SET_INT:
+            case SET_FLOAT:
+            case SET_CHAR:
+            case SET_BOOL:
+            case LENGTH_INT:
+            case LENGTH_FLOAT:
+            case LENGTH_CHAR:
+            case LENGTH_BOOL:
+                code.invokeStatic(ARRAYS, method, descriptor);
+                break;
+            case READ_INT:
+                code.invokeStatic(INPUT, "readInt", "(Ljava/lang/String;)I");
+                break;
+            case READ_FLOAT:
+                code.invokeStatic(INPUT, "readDouble",
+                        "(Ljava/lang/String;)D");
+                break;
+            case READ_CHAR:
+                code.invokeStatic(INPUT, "readChar", "(Ljava/lang/String;)C");
+                break;
+            case READ_BOOL:
+                code.invokeStatic(INPUT, "readBool", "(Ljava/lang/String;)Z");
+                break;
+            case AT_END_STDIN:
+                code.pushNull();
+                code.invokeStatic(INPUT, "atEnd", "(Ljava/lang/String;)Z");
+                break;
+            case AT_END:
+                code.invokeStatic(INPUT, "atEnd", "(Ljava/lang/String;)Z");
+                break;
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    @Override
+    public Object evaluate(Object... a) {
+        switch (this) {
+            case NOP:
+                return a[0];
+            case INT_TO_FLOAT:
+                return (double)(Integer)a[0];
+            case FLOAT_TO_INT:
+                return (int)(double)(Double)a[0];
+            case INT_TO_BOOL:
+                return bool((Integer)a[0] == 0);
+            case BOOL_TO_STRING:
+                return Boolean.toString((Integer)a[0] != 0);
+            case CHAR_TO_STRING:
+                return Character.toString((char)(int)(Integer)a[0]);
+            case INT_TO_STRING:
+                return Integer.toString((Integer)a[0]);
+            case FLOAT_TO_STRING:
+                return Double.toString((Double)a[0]);
+            case STRING_TO_CHAR:
+                return (int)((String)a[0]).charAt(0);
+            case STRING_TO_BOOL:
+                return bool(Boolean.parseBoolean((String)a[0]));
+            case STRING_TO_INT:
+                return Integer.parseInt((String)a[0]);
+            case STRING_TO_FLOAT:
+                return Double.parseDouble((String)a[0]);
+            case CONCAT:
+                return ((String)a[0]).concat((String)a[1]);
+            case AND:
+                return bool((Integer)a[0] != 0 && (Integer)a[1] != 0);
+            case OR:
+                return bool((Integer)a[0] != 0 || (Integer)a[1] != 0);
+            case ADD_INT:
+                return (Integer)a[0] + (Integer)a[1];
+            case ADD_FLOAT:
+                return (Double)a[0] + (Double)a[1];
+            case SUB_INT:
+                return (Integer)a[0] - (Integer)a[1];
+            case SUB_FLOAT:
+                return (Double)a[0] - (Double)a[1];
+            case MUL_INT:
+                return (Integer)a[0] * (Integer)a[1];
+            case MUL_FLOAT:
+                return (Double)a[0] * (Double)a[1];
+            case DIV_INT:
+                return (Integer)a[0] / (Integer)a[1];
+            case DIV_FLOAT:
+                return (Double)a[0] / (Double)a[1];
+            case REM_INT:
+                return (Integer)a[0] % (Integer)a[1];
+            case EQ_INT:
+                return bool((int)(Integer)a[0] == (Integer)a[1]);
+            case EQ_FLOAT:
+                return bool(cmpl((Double)a[0], (Double)a[1]) == 0);
+            case NE_INT:
+                return bool((int)(Integer)a[0] != (Integer)a[1]);
+            case NE_FLOAT:
+                return bool(cmpl((Double)a[0], (Double)a[1]) != 0);
+            case LT_INT:
+                return bool((Integer)a[0] < (Integer)a[1]);
+            case LT_FLOAT:
+                return bool(cmpl((Double)a[0], (Double)a[1]) < 0);
+            case LE_INT:
+                return bool((Integer)a[0] <= (Integer)a[1]);
+            case LE_FLOAT:
+                return bool(cmpl((Double)a[0], (Double)a[1]) <= 0);
+            case GT_INT:
+                return bool((Integer)a[0] > (Integer)a[1]);
+            case GT_FLOAT:
+                return bool(cmpl((Double)a[0], (Double)a[1]) > 0);
+            case GE_INT:
+                return bool((Integer)a[0] >= (Integer)a[1]);
+            case GE_FLOAT:
+                return bool(cmpl((Double)a[0], (Double)a[1]) >= 0);
+            case SIN:
+                return Math.sin((Double)a[0]);
+            case PI:
+                return Math.PI;
+            // CHAR and BOOL elements are Integers, like the other values
+            case NEW_INT:
+                return new int[(Integer)a[0]];
+            case NEW_FLOAT:
+                return new double[(Integer)a[0]];
+            case NEW_CHAR:
+                return new char[(Integer)a[0]];
+            case NEW_BOOL:
+                return new boolean[(Integer)a[0]];
+            case GET_INT:
+                return ((int[])a[0])[(Integer)a[1]];
+            case GET_FLOAT:
+                return ((double[])a[0])[(Integer)a[1]];
+            case GET_CHAR:
+                return (int)((char[])a[0])[(Integer)a[1]];
+            case GET_BOOL:
+                return bool(((boolean[])a[0])[(Integer)a[1]]);
+            case SET_INT:
+                ((int[])a[0])[(Integer)a[1]] = (Integer)a[2];
+                return null;
+            case SET_FLOAT:
+                ((double[])a[0])[(Integer)a[1]] = (Double)a[2];
+                return null;
+            case SET_CHAR:
+                ((char[])a[0])[(Integer)a[1]] = (char)(int)(Integer)a[2];
+                return null;
+            case SET_BOOL:
+                ((boolean[])a[0])[(Integer)a[1]] = (Integer)a[2] != 0;
+                return null;
+            case LENGTH_INT:
+                return ((int[])a[0]).length;
+            case LENGTH_FLOAT:
+                return ((double[])a[0]).length;
+            case LENGTH_CHAR:
+                return ((char[])a[0]).length;
+            case LENGTH_BOOL:
+                return ((boolean[])a[0]).length;
+            case READ_INT:
+                return Input.readInt((String)a[0]);
+            case READ_FLOAT:
+                return Input.readDouble((String)a[0]);
+            case READ_CHAR:
+                return (int)Input.readChar((String)a[0]);
+            case READ_BOOL:
+                return bool(Input.readBool((String)a[0]));
+            case AT_END_STDIN:
+                return bool(Input.atEnd(null));
+            case AT_END:
+                return bool(Input.atEnd((String)a[0]));
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    private static void compare(CodeSegment code, int opCode) {
+        Label elseLabel = new Label();
+        Label endLabel = new Label();
+        code.jump(opCode, elseLabel);
+        code.pushInt(0);
+        code.jump(endLabel);
+        code.define(elseLabel);
+        code.pushInt(1);
+        code.define(endLabel);
+    }
+
+    private static int cmpl(double a, double b) {
+        // dcmpl: NaN compares as less
+        return a > b ? 1 : a == b ? 0 : -1;
+    }
+
+    private static int bool(boolean b) {
+        return b ? 1 : 0;
+    }
+}
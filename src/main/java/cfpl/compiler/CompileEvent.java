@@ -0,0 +1,108 @@
+package cfpl.compiler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// The Flight Recorder event of a compiled program, with the times of its
+// phases. Only Stats refers to this class, and only when jdk.jfr is there.
+@Name("cfpl.Compile")
+@Label("CFPL Compile")
+@Category("CFPL")
+@Description("Compilation of a CFPL program, with the time of each phase")
+class CompileEvent extends Event {
+    @Label("Class")
+    String className;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Bytes Emitted")
+    @DataAmount
+    long bytes;
+
+    @Label("Errors")
+    int errors;
+
+    @Label("Lexing")
+    @Timespan
+    long lex;
+
+    @Label("Parsing")
+    @Timespan
+    long parse;
+
+    @Label("Conversions")
+    @Timespan
+    long conversions;
+
+    @Label("Overload Resolution")
+    @Timespan
+    long resolution;
+
+    @Label("Constant Folding")
+    @Timespan
+    long fold;
+
+    @Label("Loop Optimization")
+    @Timespan
+    long optimize;
+
+    @Label("Outlining")
+    @Timespan
+    long outline;
+
+    @Label("Slot Allocation")
+    @Timespan
+    long allocate;
+
+    @Label("Code Emission")
+    @Timespan
+    long emit;
+
+    @Label("Peephole")
+    @Timespan
+    long peephole;
+
+    @Label("Class File Store")
+    @Timespan
+    long store;
+
+    @Label("File Write")
+    @Timespan
+    long write;
+
+    static Object start() {
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        return event;
+    }
+
+    static void finish(Object e, String className, Stats stats) {
+        CompileEvent event = (CompileEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.tokens = stats.getCount(Stats.Phase.LEX);
+            event.bytes = stats.getBytes();
+            event.errors = stats.getErrors();
+            event.lex = stats.getNanos(Stats.Phase.LEX);
+            event.parse = stats.getNanos(Stats.Phase.PARSE);
+            event.conversions = stats.getNanos(Stats.Phase.CONVERSIONS);
+            event.resolution = stats.getNanos(Stats.Phase.RESOLUTION);
+            event.fold = stats.getNanos(Stats.Phase.FOLD);
+            event.optimize = stats.getNanos(Stats.Phase.OPTIMIZE);
+            event.outline = stats.getNanos(Stats.Phase.OUTLINE);
+            event.allocate = stats.getNanos(Stats.Phase.ALLOCATE);
+            event.emit = stats.getNanos(Stats.Phase.EMIT);
+            event.peephole = stats.getNanos(Stats.Phase.PEEPHOLE);
+            event.store = stats.getNanos(Stats.Phase.STORE);
+            event.write = stats.getNanos(Stats.Phase.WRITE);
+            event.commit();
+        }
+    }
+}
@@ -1,45 +1,73 @@
 package cfpl.compiler;
 
-import cfpl.compiler.Invoker.Call;
+import cfpl.compiler.Invoker.Resolution;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.tastefuljava.classfile.AttributeInfo;
-import org.tastefuljava.classfile.ByteCode;
 import org.tastefuljava.classfile.ClassFile;
 import org.tastefuljava.classfile.CodeBuilder;
-import org.tastefuljava.classfile.CodeSegment;
 import org.tastefuljava.classfile.ConstantPool;
-import org.tastefuljava.classfile.Label;
 import org.tastefuljava.classfile.MethodInfo;
 
 public class Compiler {
-    private static final Logger LOG
-            = Logger.getLogger(Compiler.class.getName());
-
     private static final String SUFFIX = ".class";
+    // class files of this version and later need stack map frames
+    private static final int STACK_MAP_VERSION = 50;
+    // the classes whose code determines the generated code, for the
+    // fingerprint
+    private static final Class<?>[] CODEGEN_CLASSES = {
+        Compiler.class, Builtin.class, Converter.class, Invoker.class,
+        Emitter.class, ConstantFolder.class, Strings.class, StackMaps.class,
+        TreeRewriter.class, LoopOptimizer.class, Peephole.class,
+        SlotAllocator.class, Profiler.class, Outliner.class
+    };
+    // The tables are built and frozen by the static initializer: class
+    // initialization happens-before any use of them, and they are read-only
+    // afterwards, so all compiler instances can share them across threads.
     private static final Converter STRICT;
     private static final Converter LOOSE;
     private static final Invoker INVOKER;
+    // the functions that read the input, followed by the type of the value
+    private static final String INPUT = "INPUT ";
+    private static final String EOF = "eof";
 
-    private final ConstantPool cp = new ConstantPool();
-    private final CodeBuilder cb = new CodeBuilder(cp, 0);
-    private CodeSegment code = cb;
-    private final Deque<CodeSegment> segStack = new LinkedList<>();
+    private ConstantPool cp = new ConstantPool();
+    private CodeBuilder cb = new CodeBuilder(cp, 0);
     private final List<VariableDeclaration> varList = new ArrayList<>();
     private final Map<String,Variable> varMap = new HashMap<>();
-    private Call call;
+    private final List<Statement> program = new ArrayList<>();
+    // the lines of the reads of the input, for the errors of PARALLEL
+    private final Map<Expression,Integer> inputLines
+            = new IdentityHashMap<>();
+    private Options options = new Options();
+    private int errorCount;
+    // the statistics of the program, null when they are disabled
+    private Stats stats = Stats.create();
+
+    private static String fingerprint;
+
+    public Options getOptions() {
+        return options;
+    }
 
-    public void openSegment() {
-        segStack.addFirst(code);
-        code = cb.newSegment();
+    public void setOptions(Options options) {
+        this.options = options;
     }
 
     public void writeTo(File file) throws IOException {
@@ -48,27 +76,199 @@ public class Compiler {
             fileName = fileName.substring(
                     0, fileName.length() - SUFFIX.length());
         }
-        ClassFile cf = new ClassFile(cp, fileName);
-        cf.setMajorVersion((short)48);
-        createMainMethod(cf);
-        cf.store(file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] bytes = toByteArray(
+                    fileName, new Statement.Block(program));
+            long start = Stats.start(stats);
+            out.write(bytes);
+            Stats.stop(stats, Stats.Phase.WRITE, start);
+            finishStats(fileName, bytes);
+        }
     }
 
-    private void createMainMethod(ClassFile cf) throws IOException {
-        cb.returnVoid();
-        AttributeInfo ai = new AttributeInfo(
-                cp.addUtf8("Code"), cb.getBytes());
-        MethodInfo mi = new MethodInfo(
-                MethodInfo.ACC_PUBLIC|MethodInfo.ACC_STATIC,
-                cp.addUtf8("main"), cp.addUtf8("([Ljava/lang/String;)V"));
-        mi.addAttribute(ai);
-        cf.addMethod(mi);
+    // the class file in memory, for callers that load it directly
+    public byte[] toByteArray(String className) throws IOException {
+        byte[] bytes = toByteArray(className, new Statement.Block(program));
+        finishStats(className, bytes);
+        return bytes;
     }
 
-    public CodeSegment closeSegment() {
-        CodeSegment result = code;
-        code = segStack.removeFirst();
-        return result;
+    // the statistics of the program, or null if they are disabled
+    public Stats getStats() {
+        return stats;
+    }
+
+    private void finishStats(String className, byte[] bytes) {
+        if (stats != null) {
+            stats.finish(className, bytes.length, errorCount);
+        }
+    }
+
+    // the program for the interpreter: the tree that would be compiled,
+    // with the variables numbered by the slot allocator
+    public Interpreter interpreter() {
+        SlotAllocator slots = new SlotAllocator();
+        Statement.Block block = slots.allocate(
+                optimize(new Statement.Block(program)));
+        return new Interpreter(block, slots.getSlotCount(), options);
+    }
+
+    byte[] toByteArray(String className, Statement.Block block)
+            throws IOException {
+        ClassFile cf = new ClassFile(cp, className);
+        cf.setMajorVersion((short)options.getTarget());
+        createMainMethod(cf, className, block);
+        long start = Stats.start(stats);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cf.store(out);
+        byte[] bytes = out.toByteArray();
+        if (options.getTarget() >= STACK_MAP_VERSION) {
+            bytes = StackMaps.addTo(bytes);
+        }
+        Stats.stop(stats, Stats.Phase.STORE, start);
+        return bytes;
+    }
+
+    private Statement.Block optimize(Statement.Block block) {
+        if (options.getFoldConstants()) {
+            long start = Stats.start(stats);
+            block = new ConstantFolder().fold(block);
+            Stats.stop(stats, Stats.Phase.FOLD, start);
+        }
+        if (options.getOptimizeLoops()) {
+            long start = Stats.start(stats);
+            block = new LoopOptimizer().optimize(block);
+            Stats.stop(stats, Stats.Phase.OPTIMIZE, start);
+        }
+        return block;
+    }
+
+    private void createMainMethod(ClassFile cf, String className,
+            Statement.Block block) throws IOException {
+        block = optimize(block);
+        List<Outliner.Method> methods;
+        if (options.getOutline() || Outliner.hasParallel(block)) {
+            long start = Stats.start(stats);
+            methods = new Outliner(className, options).outline(block);
+            Stats.stop(stats, Stats.Phase.OUTLINE, start);
+        } else {
+            methods = Collections.singletonList(new Outliner.Method(block));
+        }
+        long start = Stats.start(stats);
+        List<SlotAllocator> allocators = new ArrayList<>();
+        List<Statement.Block> bodies = new ArrayList<>();
+        List<Statement.Block> profiled = new ArrayList<>();
+        for (Outliner.Method m: methods) {
+            SlotAllocator slots = new SlotAllocator();
+            Statement.Block body = slots.allocate(m.body,
+                    m.results.isEmpty() ? 0 : 1, m.params, m.results);
+            bodies.add(body);
+            if (!m.parallel) {
+                profiled.add(body);
+            }
+            allocators.add(slots);
+        }
+        Stats.stop(stats, Stats.Phase.ALLOCATE, start);
+        // the chunks of the PARALLEL loops run concurrently: their sites
+        // would share the timers of the profile
+        Profiler profiler = options.getProfile()
+                ? new Profiler(className, profiled) : null;
+        for (int i = 0; i < methods.size(); ++i) {
+            Outliner.Method m = methods.get(i);
+            SlotAllocator slots = allocators.get(i);
+            start = Stats.start(stats);
+            CodeBuilder code = i == 0 ? cb : new CodeBuilder(cp, 0);
+            if (slots.getSlotCount() > 0) {
+                code.newLocal(slots.getSlotCount());
+            }
+            Emitter emitter = new Emitter(code, options,
+                    profiler == null || m.parallel
+                    ? null : profiler.at(code, code.newLocal(1)));
+            if (i == 0) {
+                emitter.emitMain(bodies.get(i));
+            } else {
+                emitter.emitMethod(bodies.get(i), slots.slotsOf(m.results));
+            }
+            int name = cp.addUtf8("Code");
+            byte[] bytes = code.getBytes();
+            Stats.stop(stats, Stats.Phase.EMIT, start);
+            if (options.getPeephole()) {
+                start = Stats.start(stats);
+                bytes = Peephole.optimize(bytes);
+                Stats.stop(stats, Stats.Phase.PEEPHOLE, start);
+            }
+            AttributeInfo ai = new AttributeInfo(name, bytes);
+            MethodInfo mi;
+            if (i == 0) {
+                mi = new MethodInfo(
+                        MethodInfo.ACC_PUBLIC|MethodInfo.ACC_STATIC,
+                        cp.addUtf8("main"),
+                        cp.addUtf8("([Ljava/lang/String;)V"));
+            } else {
+                mi = new MethodInfo(
+                        MethodInfo.ACC_PRIVATE|MethodInfo.ACC_STATIC,
+                        cp.addUtf8(m.name), cp.addUtf8(
+                                Emitter.methodDescriptor(m.params, m.results)));
+            }
+            mi.addAttribute(ai);
+            cf.addMethod(mi);
+        }
+    }
+
+    // Identifies the code that this compiler generates: the default class
+    // file version, the conversion and operator tables, and the compiler
+    // classes themselves (the generators of the tables are in Builtin).
+    // Classes compiled with the same fingerprint and options from the same
+    // source are identical.
+    public static synchronized String getFingerprint() {
+        if (fingerprint == null) {
+            StringBuilder buf = new StringBuilder();
+            buf.append("target ").append(Options.DEFAULT_TARGET).append('\n');
+            buf.append("strict\n");
+            STRICT.describe(buf);
+            buf.append("loose\n");
+            LOOSE.describe(buf);
+            INVOKER.describe(buf);
+            MessageDigest md = Hashes.sha256();
+            md.update(buf.toString().getBytes(StandardCharsets.UTF_8));
+            for (Class<?> c: CODEGEN_CLASSES) {
+                digestClass(md, c);
+            }
+            fingerprint = Hashes.hex(md.digest());
+        }
+        return fingerprint;
+    }
+
+    private static void digestClass(MessageDigest md, Class<?> c) {
+        try (InputStream in = c.getResourceAsStream(
+                c.getSimpleName() + SUFFIX)) {
+            if (in != null) {
+                byte[] buf = new byte[4096];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    md.update(buf, 0, n);
+                }
+            }
+        } catch (IOException ex) {
+            // the tables and the version are still covered
+            Logger.getLogger(Compiler.class.getName()).log(
+                    Level.WARNING, "Cannot read " + c.getName(), ex);
+        }
+    }
+
+    // forgets the program, to compile another one with the same instance
+    protected void reset() {
+        cp = new ConstantPool();
+        cb = new CodeBuilder(cp, 0);
+        varList.clear();
+        varMap.clear();
+        program.clear();
+        inputLines.clear();
+        errorCount = 0;
+        stats = Stats.create();
+    }
+
+    public int getErrorCount() {
+        return errorCount;
     }
 
     public void addVar(String name, int line, int column) {
@@ -76,359 +276,460 @@ public class Compiler {
     }
 
     public void addVar(String name, int line, int column,
-            CodeSegment initExpr, Type initType) {
-        varList.add(new VariableDeclaration(
-                name, line, column, initExpr, initType));
+            Expression initExpr) {
+        varList.add(new VariableDeclaration(name, line, column, initExpr));
+    }
+
+    // name[length]: an array of the elements of the declared type
+    public void addArray(String name, int line, int column,
+            Expression length) {
+        varList.add(new VariableDeclaration(name, line, column, null, length));
     }
 
     public void declareAllVars(Type type) {
         for (VariableDeclaration var: varList) {
-            int addr = cb.newLocal(type.size);
-            if (var.initType == null || var.initExpr == null) {
-                defaultValue(type);
-            } else {
-                var.initExpr.commit();
-                convert(LOOSE, var.initType, type);
+            Expression init = var.initExpr == null
+                    ? null : convert(LOOSE, var.initExpr, type);
+            Type varType = type;
+            if (var.length != null) {
+                varType = type.arrayOf();
+                if (varType == null) {
+                    error("No array of {0}: {1}", type, var.name);
+                    varType = type;
+                } else {
+                    init = apply(varType.element + "[]", false,
+                            Collections.singletonList(
+                                    convert(LOOSE, var.length, Type.INT)));
+                }
             }
-            varMap.put(var.name, new Variable(type, addr));
-            storeVar(type, addr);
+            Variable v = new Variable(varType);
+            varMap.put(var.name, v);
+            program.add(new Statement.Declare(v, init));
         }
         varList.clear();
     }
 
-    public void literalInt(String s) {
-        code.pushInt(Integer.parseInt(s));
+    public void addBody(Statement.Block body) {
+        program.add(body);
     }
 
-    public void literalFloat(String s) {
-        code.pushInt(Integer.parseInt(s));
+    public Expression literalInt(String s) {
+        return new Expression.Literal(Type.INT, Integer.parseInt(s));
     }
 
-    public void literalChar(String s) {
-        code.pushInt(Strings.unescapeChar(s));
+    public Expression literalFloat(String s) {
+        return new Expression.Literal(Type.FLOAT, Double.parseDouble(s));
     }
 
-    public void literalString(String s) {
-        code.pushString(Strings.unescape(s));
+    public Expression literalChar(String s) {
+        return new Expression.Literal(
+                Type.CHAR, (int)Strings.unescapeChar(s));
     }
 
-    public Type loadVar(String name) {
+    public Expression literalString(String s) {
+        return new Expression.Literal(Type.STRING, Strings.unescape(s));
+    }
+
+    public Expression loadVar(String name) {
         Variable v = varMap.get(name);
         if (v == null) {
-            LOG.log(Level.SEVERE, "Variable not declared: {0}", name);
-            return Type.INT;
+            error("Variable not declared: {0}", name);
+            return new Expression.Literal(Type.INT, 0);
         }
-        loadVar(v.type, v.addr);
-        return v.type;
+        return new Expression.Load(v);
     }
 
-    public void storeVar(Type type, String name) {
+    // name[index]
+    public Expression loadElement(String name, Expression index) {
         Variable v = varMap.get(name);
         if (v == null) {
-            LOG.log(Level.SEVERE, "Variable not declared: {0}", name);
-            return;
+            error("Variable not declared: {0}", name);
+            return new Expression.Literal(Type.INT, 0);
+        } else if (!v.type.isArray()) {
+            error("Not an array: {0}", name);
+            return new Expression.Literal(Type.INT, 0);
         }
-        convert(LOOSE, type, v.type);
-        storeVar(v.type, v.addr);
-    }
-
-    public void startCall() {
-        call = INVOKER.startCall(code, call);
+        List<Expression> args = new ArrayList<>();
+        args.add(new Expression.Load(v));
+        args.add(convert(LOOSE, index, Type.INT));
+        return apply("[]", false, args);
     }
 
-    public Type endCall(String name) {
-        Type result = call.invoke(name);
-        call = call.link;
-        return result;
+    public Statement assign(String name, Expression expr) {
+        Variable v = varMap.get(name);
+        if (v == null) {
+            error("Variable not declared: {0}", name);
+            return block(new ArrayList<Statement>());
+        } else if (v.type.isArray()) {
+            // the arrays are never copied, nor shared by two variables
+            error("Cannot assign the array {0}", name);
+            return block(new ArrayList<Statement>());
+        }
+        return new Statement.Assign(v, convert(LOOSE, expr, v.type));
     }
 
-    public void startArg() {
-        code = call.startArg();
+    // name[index] = expr
+    public Statement storeElement(String name, Expression index,
+            Expression expr) {
+        Variable v = varMap.get(name);
+        if (v == null) {
+            error("Variable not declared: {0}", name);
+            return block(new ArrayList<Statement>());
+        } else if (!v.type.isArray()) {
+            error("Not an array: {0}", name);
+            return block(new ArrayList<Statement>());
+        }
+        List<Type> argTypes = new ArrayList<>();
+        argTypes.add(v.type);
+        argTypes.add(Type.INT);
+        argTypes.add(v.type.element);
+        Resolution res = INVOKER.resolve("[]=", argTypes);
+        return new Statement.Store(v, convert(LOOSE, index, Type.INT),
+                convert(LOOSE, expr, v.type.element), res.function);
+    }
+
+    public Expression call(String name, List<Expression> args, int line) {
+        Expression expr = apply(name, false, args);
+        if (expr instanceof Expression.Apply
+                && readsInput((Expression.Apply)expr)) {
+            inputLines.put(expr, line);
+        }
+        return expr;
     }
 
-    public void endArg(Type t) {
-        code = call.endArg(t);
+    public Expression op2(String op, Expression expr1, Expression expr2) {
+        List<Expression> args = new ArrayList<>();
+        args.add(expr1);
+        args.add(expr2);
+        return apply(op, true, args);
     }
 
-    public void startOp2(Type type1) {
-        startCall();
-        startArg();
-        endArg(type1);
-        startArg();
+    public Expression neg(Expression expr) {
+        if (expr.type == Type.STRING) {
+            error("Cannot negate a string");
+            return expr;
+        }
+        return new Expression.Negate(expr);
+    }
+
+    // INPUT [FROM file]: name, name[index]...: each variable or element
+    // gets the next value of the file, or of the standard input
+    public Statement read(Expression file, List<String> names,
+            List<Expression> indexes, int line) {
+        Expression source = file == null
+                ? new Expression.Literal(Type.STRING, null)
+                : convert(LOOSE, file, Type.STRING);
+        List<Statement> list = new ArrayList<>();
+        for (int i = 0; i < names.size(); ++i) {
+            String name = names.get(i);
+            Expression index = indexes.get(i);
+            Variable v = varMap.get(name);
+            if (v == null) {
+                error("Variable not declared: {0}", name);
+            } else if (index == null && v.type.isArray()) {
+                error("Cannot read the array {0}", name);
+            } else if (index != null && !v.type.isArray()) {
+                error("Not an array: {0}", name);
+            } else {
+                Type type = index == null ? v.type : v.type.element;
+                Expression value = apply(INPUT + type, false,
+                        Collections.singletonList(source));
+                inputLines.put(value, line);
+                list.add(index == null ? assign(name, value)
+                        : storeElement(name, index, value));
+            }
+        }
+        return block(list);
     }
 
-    public Type endOp2(String op, Type type2) {
-        endArg(type2);
-        return endCall(op);
+    // the functions of the input have side effects
+    static boolean readsInput(Expression.Apply apply) {
+        return apply.name.startsWith(INPUT) || apply.name.equals(EOF);
     }
 
-    public void neg(Type type) {
-        switch (type) {
-            case BOOL:
-            case CHAR:
-            case INT:
-                code.negInt();
-                break;
-            case FLOAT:
-                code.negDouble();
-                break;
-            case STRING:
-                LOG.severe("Cannot negate a string");
-                break;
-        }
+    public Statement output(Expression expr, int line, int column) {
+        return new Statement.Output(
+                convert(LOOSE, expr, Type.STRING), line, column);
     }
 
-    public void output(Type type) {
-        convert(LOOSE, type, Type.STRING);
-        code.getStatic("java/lang/System", "out", "Ljava/io/PrintStream;");
-        code.swap();
-        code.invokeVirtual(
-                "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+    public Statement ifElse(Expression cond, Statement.Block thenPart,
+            Statement.Block elsePart, int line, int column) {
+        return new Statement.If(convert(LOOSE, cond, Type.BOOL), thenPart,
+                elsePart, line, column);
     }
 
-    public Label startIf(Type type) {
-        Label label = new Label();
-        convert(LOOSE, type, Type.BOOL);
-        code.jump(ByteCode.IFEQ, label);
-        return label;
+    public Statement whileLoop(Expression cond, Statement.Block body,
+            int line, int column) {
+        return new Statement.While(
+                convert(LOOSE, cond, Type.BOOL), body, line, column);
     }
 
-    public Label startElse(Label label) {
-        Label endLabel = new Label();
-        code.jump(endLabel);
-        code.define(label);
-        return endLabel;
-    }
+    // PARALLEL index = first TO last REDUCE var op, ...: the body becomes
+    // the loop of a chunk of the range, which starts with the reductions
+    // set to the identity of their operators
+    public Statement parallelLoop(String index, Expression first,
+            Expression last, List<String> reductions, List<String> operators,
+            Statement.Block body, int line, int column) {
+        final int errors = errorCount;
+        final Variable iv = varMap.get(index);
+        if (iv == null) {
+            error("Variable not declared: {0}", index);
+        } else if (iv.type != Type.INT) {
+            error("The index of PARALLEL is not an INT: {0}", index);
+        }
+        List<Variable> vars = new ArrayList<>();
+        List<Statement> chunk = new ArrayList<>();
+        for (int i = 0; i < reductions.size(); ++i) {
+            String name = reductions.get(i);
+            String op = operators.get(i);
+            Variable v = varMap.get(name);
+            if (v == null) {
+                error("Variable not declared: {0}", name);
+            } else if (v == iv || vars.contains(v)) {
+                error("Variable reduced twice or used as the index: {0}",
+                        name);
+            } else if (op.equals("+") || op.equals("*")
+                    ? v.type != Type.INT && v.type != Type.FLOAT
+                    : v.type != Type.BOOL) {
+                error("No {0} reduction for {1}", op, v.type);
+            } else {
+                vars.add(v);
+                chunk.add(new Statement.Declare(v, identity(op, v.type)));
+            }
+        }
+        // the variables that the body of the chunk gets as parameters
+        final Set<Variable> used = new HashSet<>();
+        new TreeScanner() {
+            @Override
+            public Void visitAssign(Statement.Assign stmt) {
+                if (stmt.var == iv) {
+                    error("The index of PARALLEL is assigned in its body");
+                }
+                used.add(stmt.var);
+                return super.visitAssign(stmt);
+            }
 
-    public void endIf(Label label) {
-        code.define(label);
-    }
+            @Override
+            public Void visitStore(Statement.Store stmt) {
+                used.add(stmt.var);
+                return super.visitStore(stmt);
+            }
 
-    public Label startWhile() {
-        Label label = new Label();
-        code.define(label);
-        return label;
-    }
+            @Override
+            public Void visitLoad(Expression.Load expr) {
+                used.add(expr.var);
+                return null;
+            }
 
-    public Label whileCond(Type type) {
-        Label label = new Label();
-        convert(LOOSE, type, Type.BOOL);
-        code.jump(ByteCode.IFEQ, label);
-        return label;
-    }
+            @Override
+            public Void visitOutput(Statement.Output stmt) {
+                // the chunks run in any order
+                error("OUTPUT in the body of PARALLEL, line {0}",
+                        stmt.line);
+                return null;
+            }
 
-    public void endWhile(Label begin, Label end) {
-        code.jump(begin);
-        code.define(end);
-    }
+            @Override
+            public Void visitParallel(Statement.Parallel stmt) {
+                error("PARALLEL in the body of PARALLEL, line {0}",
+                        stmt.line);
+                return null;
+            }
 
-    private void defaultValue(Type type) {
-        switch (type) {
-            case BOOL:
-            case INT:
-            case CHAR:
-                code.pushInt(0);
-                break;
-            case FLOAT:
-                code.pushDouble(0);
-                break;
-            case STRING:
-                code.pushNull();
-                break;
+            @Override
+            public Void visitApply(Expression.Apply expr) {
+                if (readsInput(expr)) {
+                    // the chunks run in any order, and so would the reads
+                    error("INPUT or eof in the body of PARALLEL, line {0}",
+                            inputLines.get(expr));
+                }
+                return super.visitApply(expr);
+            }
+        }.scan(body);
+        // the index and the end of the chunk come first; the reductions
+        // are declared in the chunk
+        int slots = 2;
+        for (Variable v: used) {
+            if (v != iv && !vars.contains(v)) {
+                slots += v.type.size;
+            }
+        }
+        if (slots > Outliner.MAX_PARAM_SLOTS) {
+            error("Too many variables in the body of PARALLEL, line {0}",
+                    line);
+        }
+        if (errorCount > errors) {
+            return block(new ArrayList<Statement>());
+        }
+        Variable end = new Variable(Type.INT);
+        List<Statement> loop = new ArrayList<>(body.statements);
+        loop.add(new Statement.Assign(iv, op2("+", new Expression.Load(iv),
+                new Expression.Literal(Type.INT, 1))));
+        // the end of the last chunk wraps around when last is the largest
+        // INT
+        chunk.add(new Statement.While(op2("<>", new Expression.Load(iv),
+                new Expression.Load(end)), block(loop), line, column));
+        return new Statement.Parallel(iv, end,
+                convert(LOOSE, first, Type.INT),
+                convert(LOOSE, last, Type.INT), vars, operators,
+                block(chunk), null, line, column);
+    }
+
+    private static Expression identity(String op, Type type) {
+        int value = op.equals("*") || op.equals(Emitter.AND) ? 1 : 0;
+        return type == Type.FLOAT
+                ? new Expression.Literal(type, (double)value)
+                : new Expression.Literal(type, value);
+    }
+
+    public Statement.Block block(List<Statement> statements) {
+        return new Statement.Block(statements);
+    }
+
+    private Expression apply(String name, boolean operator,
+            List<Expression> args) {
+        List<Type> argTypes = new ArrayList<>();
+        for (Expression arg: args) {
+            argTypes.add(arg.type);
+        }
+        long start = Stats.start(stats);
+        Resolution res = INVOKER.resolve(name, argTypes);
+        Stats.stop(stats, Stats.Phase.RESOLUTION, start);
+        if (res == null) {
+            if (INVOKER.isDefined(name)) {
+                error("No {0} for argument types {1}", name, argTypes);
+            } else {
+                error("Unknown function: {0}", name);
+            }
+            return new Expression.Literal(Type.INT, 0);
+        }
+        List<Expression> convArgs = new ArrayList<>();
+        for (int i = 0; i < args.size(); ++i) {
+            Expression arg = args.get(i);
+            Type type = res.function.argTypes[i];
+            convArgs.add(arg.type == type
+                    ? arg : new Expression.Convert(type, res.getChain(i), arg));
         }
+        return new Expression.Apply(name, res.function, operator, convArgs);
     }
 
-    private void convert(Converter conv, Type from, Type to) {
-        if (from != to) {
-            Converter.Chain chain = conv.getChain(from, to);
+    private Expression convert(Converter conv, Expression expr, Type to) {
+        if (expr.type != to) {
+            long start = Stats.start(stats);
+            Converter.Chain chain = conv.getChain(expr.type, to);
+            Stats.stop(stats, Stats.Phase.CONVERSIONS, start);
             if (chain == null) {
-                LOG.log(Level.SEVERE, "No implicit conversion from {0} to {1}",
-                        new Object[]{from, to});
+                error("No implicit conversion from {0} to {1}",
+                        expr.type, to);
             } else {
-                chain.apply(code);
+                return new Expression.Convert(to, chain, expr);
             }
         }
+        return expr;
     }
 
-    private void loadVar(Type type, int addr) {
-        switch (type) {
-            case BOOL:
-            case CHAR:
-            case INT:
-                code.loadInt(addr);
-                break;
-            case FLOAT:
-                code.loadDouble(addr);
-                break;
-            case STRING:
-                code.loadRef(addr);
-                break;
-        }
+    private void error(String msg, Object... parms) {
+        ++errorCount;
+        // java.util.logging is only set up when there is something to log
+        Logger.getLogger(Compiler.class.getName()).log(
+                Level.SEVERE, msg, parms);
     }
 
-    private void storeVar(Type type, int addr) {
-        switch (type) {
-            case BOOL:
-            case CHAR:
-            case INT:
-                code.storeInt(addr);
-                break;
-            case FLOAT:
-                code.storeDouble(addr);
-                break;
-            case STRING:
-                code.storeRef(addr);
-                break;
-        }
+    private static void convert(Converter conv, Type from, Type to,
+            Builtin conversion) {
+        conv.add(from, to, conversion, conversion);
     }
 
-    private static void compare(CodeSegment code, int opCode) {
-        Label elseLabel = new Label();
-        Label endLabel = new Label();
-        code.jump(opCode, elseLabel);
-        code.pushInt(0);
-        code.jump(endLabel);
-        code.define(elseLabel);
-        code.pushInt(1);
-        code.define(endLabel);
+    private static void function(String name, Builtin function,
+            Type resultType, Type... argTypes) {
+        INVOKER.add(function, function, name, resultType, argTypes);
     }
 
     static {
         STRICT = new Converter();
-        STRICT.add(Type.BOOL, Type.CHAR, (code)->{});
-        STRICT.add(Type.CHAR, Type.INT, (code)->{});
-        STRICT.add(Type.INT, Type.FLOAT, (code)->{
-                code.intToDouble();
-            });
-
-        STRICT.add(Type.BOOL, Type.STRING, (code)->{
-                code.invokeStatic("java/lang/Boolean", "toString",
-                        "(Z)Ljava/lang/String;");
-            });
-        STRICT.add(Type.CHAR, Type.STRING, (code)->{
-                code.invokeStatic("java/lang/Character", "toString",
-                        "(C)Ljava/lang/String;");
-            });
-        STRICT.add(Type.INT, Type.STRING, (code)->{
-                code.invokeStatic("java/lang/Integer", "toString",
-                        "(I)Ljava/lang/String;");
-            });
-        STRICT.add(Type.FLOAT, Type.STRING, (code)->{
-                code.invokeStatic("java/lang/Double", "toString",
-                        "(D)Ljava/lang/String;");
-            });
+        convert(STRICT, Type.BOOL, Type.CHAR, Builtin.NOP);
+        convert(STRICT, Type.CHAR, Type.INT, Builtin.NOP);
+        convert(STRICT, Type.INT, Type.FLOAT, Builtin.INT_TO_FLOAT);
+        convert(STRICT, Type.BOOL, Type.STRING, Builtin.BOOL_TO_STRING);
+        convert(STRICT, Type.CHAR, Type.STRING, Builtin.CHAR_TO_STRING);
+        convert(STRICT, Type.INT, Type.STRING, Builtin.INT_TO_STRING);
+        convert(STRICT, Type.FLOAT, Type.STRING, Builtin.FLOAT_TO_STRING);
         LOOSE = new Converter(STRICT);
-        LOOSE.add(Type.FLOAT, Type.INT, (code) -> {
-            code.doubleToInt();
-        });
-        LOOSE.add(Type.INT, Type.CHAR, (code)->{});
-        LOOSE.add(Type.INT, Type.BOOL, (code)->{
-            compare(code, ByteCode.IFEQ);
-        });
-        LOOSE.add(Type.STRING, Type.CHAR, (code)->{
-            code.pushInt(0);
-            code.invokeVirtual("java/lang/String",
-                    "charAt", "(I)C");
-        });
-        LOOSE.add(Type.STRING, Type.BOOL, (code)->{
-            code.invokeStatic("java/lang/Boolean",
-                    "parseBoolean", "(Ljava/lang/String;)Z");
-        });
-        LOOSE.add(Type.STRING, Type.INT, (code)->{
-            code.invokeStatic("java/lang/Integer", "parseInt",
-                    "(Ljava/lang/String;)I");
-        });
-        LOOSE.add(Type.STRING, Type.FLOAT, (code)->{
-            code.invokeStatic("java/lang/Double", "parseDouble",
-                    "(Ljava/lang/String;)D");
-        });
+        convert(LOOSE, Type.FLOAT, Type.INT, Builtin.FLOAT_TO_INT);
+        convert(LOOSE, Type.INT, Type.CHAR, Builtin.NOP);
+        convert(LOOSE, Type.INT, Type.BOOL, Builtin.INT_TO_BOOL);
+        convert(LOOSE, Type.STRING, Type.CHAR, Builtin.STRING_TO_CHAR);
+        convert(LOOSE, Type.STRING, Type.BOOL, Builtin.STRING_TO_BOOL);
+        convert(LOOSE, Type.STRING, Type.INT, Builtin.STRING_TO_INT);
+        convert(LOOSE, Type.STRING, Type.FLOAT, Builtin.STRING_TO_FLOAT);
         INVOKER = new Invoker(STRICT);
-        INVOKER.add((code)->{
-            code.invokeVirtual("java/lang/String", "concat",
-                    "(Ljava/lang/String;)Ljava/lang/String;");
-        }, "&", Type.STRING, Type.STRING, Type.STRING);
-        INVOKER.add((code)->{
-            code.andInt();
-        }, "AND", Type.BOOL, Type.BOOL, Type.BOOL);
-        INVOKER.add((code)->{
-            code.andInt();
-        }, "OR", Type.BOOL, Type.BOOL, Type.BOOL);
-        INVOKER.add((code)->{
-            code.addInt();
-        }, "+", Type.INT, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.addDouble();
-        }, "+", Type.FLOAT, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            code.subInt();
-        }, "-", Type.INT, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.subDouble();
-        }, "-", Type.FLOAT, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            code.mulInt();
-        }, "*", Type.INT, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.mulDouble();
-        }, "*", Type.FLOAT, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            code.divInt();
-        }, "/", Type.INT, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.divDouble();
-        }, "/", Type.FLOAT, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            code.remInt();
-        }, "%", Type.INT, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            compare(code, ByteCode.IF_ICMPEQ);
-        }, "==", Type.BOOL, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.cmplDouble();
-            compare(code, ByteCode.IFEQ);
-        }, "==", Type.BOOL, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            compare(code, ByteCode.IF_ICMPNE);
-        }, "<>", Type.BOOL, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.cmplDouble();
-            compare(code, ByteCode.IFNE);
-        }, "<>", Type.BOOL, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            compare(code, ByteCode.IF_ICMPLT);
-        }, "<", Type.BOOL, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.cmplDouble();
-            compare(code, ByteCode.IFLT);
-        }, "<", Type.BOOL, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            compare(code, ByteCode.IF_ICMPLE);
-        }, "<=", Type.BOOL, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.cmplDouble();
-            compare(code, ByteCode.IFLE);
-        }, "<=", Type.BOOL, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            compare(code, ByteCode.IF_ICMPGT);
-        }, ">", Type.BOOL, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.cmplDouble();
-            compare(code, ByteCode.IFGT);
-        }, ">", Type.BOOL, Type.FLOAT, Type.FLOAT);
-        INVOKER.add((code)->{
-            compare(code, ByteCode.IF_ICMPGE);
-        }, ">=", Type.BOOL, Type.INT, Type.INT);
-        INVOKER.add((code)->{
-            code.cmplDouble();
-            compare(code, ByteCode.IFGE);
-        }, ">=", Type.BOOL, Type.FLOAT, Type.FLOAT);
-
-        INVOKER.add((code)->{
-            code.invokeStatic("java/lang/Math", "sin", "(D)D");
-        }, "sin", Type.FLOAT, Type.FLOAT);
-
-        INVOKER.add((code)->{
-            code.getStatic("java/lang/Math", "PI", "D");
-        }, "pi", Type.FLOAT);
+        function("&", Builtin.CONCAT, Type.STRING, Type.STRING, Type.STRING);
+        // the Emitter compiles AND and OR as short-circuit jumps; these are
+        // for the callers of the table, with the same results on 0 and 1
+        function("AND", Builtin.AND, Type.BOOL, Type.BOOL, Type.BOOL);
+        function("OR", Builtin.OR, Type.BOOL, Type.BOOL, Type.BOOL);
+        function("+", Builtin.ADD_INT, Type.INT, Type.INT, Type.INT);
+        function("+", Builtin.ADD_FLOAT, Type.FLOAT, Type.FLOAT, Type.FLOAT);
+        function("-", Builtin.SUB_INT, Type.INT, Type.INT, Type.INT);
+        function("-", Builtin.SUB_FLOAT, Type.FLOAT, Type.FLOAT, Type.FLOAT);
+        function("*", Builtin.MUL_INT, Type.INT, Type.INT, Type.INT);
+        function("*", Builtin.MUL_FLOAT, Type.FLOAT, Type.FLOAT, Type.FLOAT);
+        function("/", Builtin.DIV_INT, Type.INT, Type.INT, Type.INT);
+        function("/", Builtin.DIV_FLOAT, Type.FLOAT, Type.FLOAT, Type.FLOAT);
+        function("%", Builtin.REM_INT, Type.INT, Type.INT, Type.INT);
+        function("==", Builtin.EQ_INT, Type.BOOL, Type.INT, Type.INT);
+        function("==", Builtin.EQ_FLOAT, Type.BOOL, Type.FLOAT, Type.FLOAT);
+        function("<>", Builtin.NE_INT, Type.BOOL, Type.INT, Type.INT);
+        function("<>", Builtin.NE_FLOAT, Type.BOOL, Type.FLOAT, Type.FLOAT);
+        function("<", Builtin.LT_INT, Type.BOOL, Type.INT, Type.INT);
+        function("<", Builtin.LT_FLOAT, Type.BOOL, Type.FLOAT, Type.FLOAT);
+        function("<=", Builtin.LE_INT, Type.BOOL, Type.INT, Type.INT);
+        function("<=", Builtin.LE_FLOAT, Type.BOOL, Type.FLOAT, Type.FLOAT);
+        function(">", Builtin.GT_INT, Type.BOOL, Type.INT, Type.INT);
+        function(">", Builtin.GT_FLOAT, Type.BOOL, Type.FLOAT, Type.FLOAT);
+        function(">=", Builtin.GE_INT, Type.BOOL, Type.INT, Type.INT);
+        function(">=", Builtin.GE_FLOAT, Type.BOOL, Type.FLOAT, Type.FLOAT);
+        function("sin", Builtin.SIN, Type.FLOAT, Type.FLOAT);
+        function("pi", Builtin.PI, Type.FLOAT);
+        // the arrays: the creations are named after the type of the
+        // elements, and the loads and the stores after the brackets; the
+        // setters have no result
+        function("INT[]", Builtin.NEW_INT, Type.INT_ARRAY, Type.INT);
+        function("FLOAT[]", Builtin.NEW_FLOAT, Type.FLOAT_ARRAY, Type.INT);
+        function("CHAR[]", Builtin.NEW_CHAR, Type.CHAR_ARRAY, Type.INT);
+        function("BOOL[]", Builtin.NEW_BOOL, Type.BOOL_ARRAY, Type.INT);
+        function("[]", Builtin.GET_INT, Type.INT, Type.INT_ARRAY, Type.INT);
+        function("[]", Builtin.GET_FLOAT, Type.FLOAT, Type.FLOAT_ARRAY,
+                Type.INT);
+        function("[]", Builtin.GET_CHAR, Type.CHAR, Type.CHAR_ARRAY,
+                Type.INT);
+        function("[]", Builtin.GET_BOOL, Type.BOOL, Type.BOOL_ARRAY,
+                Type.INT);
+        function("[]=", Builtin.SET_INT, null, Type.INT_ARRAY, Type.INT,
+                Type.INT);
+        function("[]=", Builtin.SET_FLOAT, null, Type.FLOAT_ARRAY, Type.INT,
+                Type.FLOAT);
+        function("[]=", Builtin.SET_CHAR, null, Type.CHAR_ARRAY, Type.INT,
+                Type.CHAR);
+        function("[]=", Builtin.SET_BOOL, null, Type.BOOL_ARRAY, Type.INT,
+                Type.BOOL);
+        function("length", Builtin.LENGTH_INT, Type.INT, Type.INT_ARRAY);
+        function("length", Builtin.LENGTH_FLOAT, Type.INT, Type.FLOAT_ARRAY);
+        function("length", Builtin.LENGTH_CHAR, Type.INT, Type.CHAR_ARRAY);
+        function("length", Builtin.LENGTH_BOOL, Type.INT, Type.BOOL_ARRAY);
+        // the input: INPUT calls them with the name of the file, or null
+        function(INPUT + Type.INT, Builtin.READ_INT, Type.INT, Type.STRING);
+        function(INPUT + Type.FLOAT, Builtin.READ_FLOAT, Type.FLOAT,
+                Type.STRING);
+        function(INPUT + Type.CHAR, Builtin.READ_CHAR, Type.CHAR,
+                Type.STRING);
+        function(INPUT + Type.BOOL, Builtin.READ_BOOL, Type.BOOL,
+                Type.STRING);
+        function(EOF, Builtin.AT_END_STDIN, Type.BOOL);
+        function(EOF, Builtin.AT_END, Type.BOOL, Type.STRING);
+
+        STRICT.freeze();
+        LOOSE.freeze();
+        INVOKER.freeze();
     }
 }
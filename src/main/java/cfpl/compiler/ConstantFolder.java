@@ -0,0 +1,329 @@
+package cfpl.compiler;
+
+import cfpl.compiler.Expression.Literal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Evaluates at compile time the operators and conversions whose operands are
+// literals, and replaces the variables that are never assigned after their
+// declaration by their value. The evaluators registered with the conversions
+// and operators mirror the generated code, and anything that fails to
+// evaluate (division by zero, unparsable string...) is left to the runtime.
+class ConstantFolder
+        implements Statement.Visitor<Statement>, Expression.Visitor<Expression> {
+    private final Set<Variable> assigned = new HashSet<>();
+    private final Map<Variable,Literal> constants = new HashMap<>();
+
+    Statement.Block fold(Statement.Block program) {
+        final Set<Variable> declared = new HashSet<>();
+        new TreeScanner() {
+            @Override
+            public Void visitDeclare(Statement.Declare stmt) {
+                // declared again: the continuations of the interpreter
+                // redeclare the variables of the loops they start with
+                if (!declared.add(stmt.var)) {
+                    assigned.add(stmt.var);
+                }
+                return super.visitDeclare(stmt);
+            }
+
+            @Override
+            public Void visitAssign(Statement.Assign stmt) {
+                assigned.add(stmt.var);
+                return null;
+            }
+
+            @Override
+            public Void visitParallel(Statement.Parallel stmt) {
+                // each chunk sets them
+                assigned.add(stmt.index);
+                assigned.add(stmt.end);
+                assigned.addAll(stmt.reductions);
+                return super.visitParallel(stmt);
+            }
+        }.scan(program);
+        return (Statement.Block)program.accept(this);
+    }
+
+    private Expression fold(Expression expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Statement.Block foldBlock(Statement.Block block) {
+        return block == null ? null : (Statement.Block)block.accept(this);
+    }
+
+    @Override
+    public Statement visitBlock(Statement.Block stmt) {
+        List<Statement> list = new ArrayList<>();
+        for (Statement s: stmt.statements) {
+            list.add(s.accept(this));
+        }
+        return new Statement.Block(list);
+    }
+
+    @Override
+    public Statement visitDeclare(Statement.Declare stmt) {
+        Expression init = fold(stmt.init);
+        if (!assigned.contains(stmt.var)) {
+            Literal value = init == null
+                    ? defaultValue(stmt.var.type) : asLiteral(init);
+            if (value != null && value.value != null) {
+                constants.put(stmt.var, value);
+            }
+        }
+        return init == stmt.init ? stmt : new Statement.Declare(stmt.var, init);
+    }
+
+    @Override
+    public Statement visitAssign(Statement.Assign stmt) {
+        Expression expr = fold(stmt.expr);
+        return expr == stmt.expr ? stmt : new Statement.Assign(stmt.var, expr);
+    }
+
+    @Override
+    public Statement visitStore(Statement.Store stmt) {
+        Expression index = fold(stmt.index);
+        Expression expr = fold(stmt.expr);
+        return index == stmt.index && expr == stmt.expr ? stmt
+                : new Statement.Store(stmt.var, index, expr, stmt.function);
+    }
+
+    @Override
+    public Statement visitOutput(Statement.Output stmt) {
+        Expression expr = fold(stmt.expr);
+        return expr == stmt.expr
+                ? stmt : new Statement.Output(expr, stmt.line, stmt.column);
+    }
+
+    @Override
+    public Statement visitIf(Statement.If stmt) {
+        Expression cond = fold(stmt.cond);
+        Literal lit = asLiteral(cond);
+        if (lit != null) {
+            if (lit.isTrue()) {
+                return foldBlock(stmt.thenPart);
+            } else if (stmt.elsePart != null) {
+                return foldBlock(stmt.elsePart);
+            } else {
+                return new Statement.Block(new ArrayList<Statement>());
+            }
+        }
+        return new Statement.If(cond, foldBlock(stmt.thenPart),
+                foldBlock(stmt.elsePart), stmt.line, stmt.column);
+    }
+
+    @Override
+    public Statement visitWhile(Statement.While stmt) {
+        Expression cond = fold(stmt.cond);
+        Literal lit = asLiteral(cond);
+        if (lit != null && !lit.isTrue()) {
+            return new Statement.Block(new ArrayList<Statement>());
+        }
+        return new Statement.While(
+                cond, foldBlock(stmt.body), stmt.line, stmt.column);
+    }
+
+    @Override
+    public Statement visitCall(Statement.Call stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Statement visitParallel(Statement.Parallel stmt) {
+        return new Statement.Parallel(stmt.index, stmt.end, fold(stmt.first),
+                fold(stmt.last), stmt.reductions, stmt.operators,
+                foldBlock(stmt.body), stmt.call, stmt.line, stmt.column);
+    }
+
+    @Override
+    public Expression visitLiteral(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expression visitLoad(Expression.Load expr) {
+        Literal value = constants.get(expr.var);
+        return value == null ? expr : value;
+    }
+
+    @Override
+    public Expression visitConvert(Expression.Convert expr) {
+        Expression arg = fold(expr.expr);
+        Literal lit = asLiteral(arg);
+        if (lit != null && lit.value != null) {
+            try {
+                Literal result = literal(
+                        expr.type, expr.chain.evaluate(lit.value));
+                if (result != null) {
+                    return result;
+                }
+            } catch (RuntimeException ex) {
+                // leave it to the runtime
+            }
+        }
+        return arg == expr.expr
+                ? expr : new Expression.Convert(expr.type, expr.chain, arg);
+    }
+
+    @Override
+    public Expression visitApply(Expression.Apply expr) {
+        if (Emitter.isConcat(expr)) {
+            return foldConcat(expr);
+        }
+        boolean changed = false;
+        boolean constant = expr.operator && expr.function.eval != null;
+        List<Expression> args = new ArrayList<>();
+        for (Expression arg: expr.args) {
+            Expression e = fold(arg);
+            changed |= e != arg;
+            Literal lit = asLiteral(e);
+            constant &= lit != null && lit.value != null;
+            args.add(e);
+        }
+        if (constant) {
+            Object[] values = new Object[args.size()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = ((Literal)args.get(i)).value;
+            }
+            try {
+                Literal result = literal(
+                        expr.type, expr.function.eval.evaluate(values));
+                if (result != null) {
+                    return result;
+                }
+            } catch (RuntimeException ex) {
+                // leave it to the runtime
+            }
+        }
+        if (expr.operator && (expr.name.equals("AND")
+                || expr.name.equals("OR"))) {
+            // short-circuit: the second operand is not evaluated when the
+            // first one decides the result
+            Literal lit = asLiteral(args.get(0));
+            boolean and = expr.name.equals("AND");
+            if (lit != null && lit.isTrue() != and) {
+                return new Literal(Type.BOOL, and ? 0 : 1);
+            }
+        }
+        return !changed ? expr : new Expression.Apply(
+                expr.name, expr.function, expr.operator, args);
+    }
+
+    // a chain of & is folded as a whole: the strings of its constant parts
+    // are joined once, where folding it level by level would copy them
+    // again at each level
+    private Expression foldConcat(Expression.Apply chain) {
+        Map<Expression,Expression> folded = new IdentityHashMap<>();
+        Set<Expression> constant
+                = Collections.newSetFromMap(new IdentityHashMap<>());
+        foldOperands(chain, folded, constant);
+        return rebuildConcat(chain, folded, constant);
+    }
+
+    // folds the operands of a chain; true if they are all constant
+    private boolean foldOperands(Expression expr,
+            Map<Expression,Expression> folded, Set<Expression> constant) {
+        boolean result = true;
+        if (Emitter.isConcat(expr)) {
+            for (Expression arg: ((Expression.Apply)expr).args) {
+                result &= foldOperands(arg, folded, constant);
+            }
+        } else {
+            Expression e = fold(expr);
+            folded.put(expr, e);
+            Literal lit = asLiteral(e);
+            result = lit != null && lit.value != null;
+        }
+        if (result) {
+            constant.add(expr);
+        }
+        return result;
+    }
+
+    private Expression rebuildConcat(Expression expr,
+            Map<Expression,Expression> folded, Set<Expression> constant) {
+        if (!Emitter.isConcat(expr)) {
+            return folded.get(expr);
+        } else if (constant.contains(expr)) {
+            StringBuilder buf = new StringBuilder();
+            join(expr, folded, buf);
+            return new Literal(Type.STRING, buf.toString());
+        }
+        Expression.Apply apply = (Expression.Apply)expr;
+        boolean changed = false;
+        List<Expression> args = new ArrayList<>();
+        for (Expression arg: apply.args) {
+            Expression e = rebuildConcat(arg, folded, constant);
+            changed |= e != arg;
+            args.add(e);
+        }
+        return !changed ? expr : new Expression.Apply(
+                apply.name, apply.function, apply.operator, args);
+    }
+
+    private static void join(Expression expr,
+            Map<Expression,Expression> folded, StringBuilder buf) {
+        if (Emitter.isConcat(expr)) {
+            for (Expression arg: ((Expression.Apply)expr).args) {
+                join(arg, folded, buf);
+            }
+        } else {
+            buf.append((String)((Literal)folded.get(expr)).value);
+        }
+    }
+
+    @Override
+    public Expression visitNegate(Expression.Negate expr) {
+        Expression arg = fold(expr.expr);
+        Literal lit = asLiteral(arg);
+        if (lit != null && lit.value != null) {
+            switch (expr.type) {
+                case BOOL:
+                case CHAR:
+                case INT:
+                    return literal(expr.type, -(Integer)lit.value);
+                case FLOAT:
+                    Literal result = literal(expr.type, -(Double)lit.value);
+                    if (result != null) {
+                        return result;
+                    }
+                    break;
+            }
+        }
+        return arg == expr.expr ? expr : new Expression.Negate(arg);
+    }
+
+    private static Literal asLiteral(Expression expr) {
+        return expr instanceof Literal ? (Literal)expr : null;
+    }
+
+    private static Literal literal(Type type, Object value) {
+        if (value instanceof Double && (Double)value == 0
+                && 1/(Double)value < 0) {
+            // keep -0.0 out of the constants: its sign would depend on how
+            // the constant is encoded
+            return null;
+        }
+        return new Literal(type, value);
+    }
+
+    private static Literal defaultValue(Type type) {
+        switch (type) {
+            case BOOL:
+            case CHAR:
+            case INT:
+                return new Literal(type, 0);
+            case FLOAT:
+                return new Literal(type, 0.0);
+            default:
+                return null;
+        }
+    }
+}
@@ -7,25 +7,66 @@ import java.util.Map;
 import org.tastefuljava.classfile.CodeSegment;
 
 public class Converter {
-    private static final Generator NULL_GENERATOR = (code)->{};
+    private static final Conversion NULL_CONVERSION
+            = new Conversion(Identity.INSTANCE, Identity.INSTANCE);
 
-    private final Map<Type,Map<Type,Generator>> map = new EnumMap<>(Type.class);
+    private final Map<Type,Map<Type,Conversion>> map
+            = new EnumMap<>(Type.class);
+    // conversion chains indexed by [from.ordinal()][to.ordinal()], set by
+    // freeze()
+    private volatile Chain[][] matrix;
+
+    private static class Conversion {
+        private final Generator gen;
+        private final Evaluator eval;
+
+        private Conversion(Generator gen, Evaluator eval) {
+            this.gen = gen;
+            this.eval = eval;
+        }
+    }
+
+    // the end of the chains; a class rather than lambdas, which would be
+    // bootstrapped when the compiler starts
+    private static class Identity implements Generator, Evaluator {
+        private static final Identity INSTANCE = new Identity();
+
+        @Override
+        public void generate(CodeSegment code) {
+        }
+
+        @Override
+        public Object evaluate(Object... args) {
+            return args[0];
+        }
+    }
 
     public static class Chain {
         private final Type type;
-        private final Generator gen;
+        private final Conversion conv;
         private final Chain link;
 
-        private Chain(Type type, Generator gen, Chain link) {
+        private Chain(Type type, Conversion conv, Chain link) {
             this.type = type;
-            this.gen = gen;
+            this.conv = conv;
             this.link = link;
         }
 
         public void apply(CodeSegment code) {
             for (Chain p = this; p != null; p = p.link) {
-                p.gen.generate(code);
+                p.conv.gen.generate(code);
+            }
+        }
+
+        public Object evaluate(Object value) {
+            for (Chain p = this; p != null; p = p.link) {
+                if (p.conv.eval == null) {
+                    throw new UnsupportedOperationException(
+                            "No evaluator for conversion from " + p.type);
+                }
+                value = p.conv.eval.evaluate(value);
             }
+            return value;
         }
     }
 
@@ -33,38 +74,97 @@ public class Converter {
     }
 
     public Converter(Converter other) {
-        for (Map.Entry<Type,Map<Type,Generator>> e: other.map.entrySet()) {
+        for (Map.Entry<Type,Map<Type,Conversion>> e: other.map.entrySet()) {
             Type to = e.getKey();
-            for (Map.Entry<Type,Generator> e2: e.getValue().entrySet()) {
+            for (Map.Entry<Type,Conversion> e2: e.getValue().entrySet()) {
                 Type from = e2.getKey();
-                Generator gen = e2.getValue();
-                add(from, to, gen);
+                Conversion conv = e2.getValue();
+                add(from, to, conv.gen, conv.eval);
             }
         }
     }
 
     public void add(Type from, Type to, Generator gen) {
-        Map<Type,Generator> m = map.get(to);
+        add(from, to, gen, null);
+    }
+
+    public void add(Type from, Type to, Generator gen, Evaluator eval) {
+        if (matrix != null) {
+            throw new IllegalStateException("Converter is frozen");
+        }
+        if (from.isArray() || to.isArray()) {
+            // an array only converts to itself: its elements are never
+            // boxed to fit another type of array, or copied
+            throw new IllegalArgumentException(
+                    "No conversion from " + from + " to " + to);
+        }
+        Map<Type,Conversion> m = map.get(to);
         if (m == null) {
             m = new EnumMap<>(Type.class);
             map.put(to, m);
         }
-        m.put(from, gen);
+        m.put(from, new Conversion(gen, eval));
+    }
+
+    // no more conversions can be added after this call; a frozen converter
+    // is never mutated and can be shared between threads, and all the
+    // chains are computed once so that getChain is a simple table lookup
+    public synchronized void freeze() {
+        if (matrix == null) {
+            Type[] types = Type.values();
+            Chain[][] m = new Chain[types.length][types.length];
+            for (Type from: types) {
+                for (Type to: types) {
+                    m[from.ordinal()][to.ordinal()] = search(from, to);
+                }
+            }
+            matrix = m;
+        }
+    }
+
+    public boolean isFrozen() {
+        return matrix != null;
     }
 
     public Chain getChain(Type from, Type to) {
+        if (from == null || to == null) {
+            return null;
+        }
+        Chain[][] m = matrix;
+        if (m != null) {
+            return m[from.ordinal()][to.ordinal()];
+        }
+        return search(from, to);
+    }
+
+    // a canonical description of the conversions, for the compiler
+    // fingerprint
+    void describe(StringBuilder buf) {
+        for (Map.Entry<Type,Map<Type,Conversion>> e: map.entrySet()) {
+            for (Map.Entry<Type,Conversion> e2: e.getValue().entrySet()) {
+                buf.append("convert ").append(e2.getKey())
+                        .append(' ').append(e.getKey())
+                        .append(e2.getValue().eval == null ? "\n" : " eval\n");
+            }
+        }
+    }
+
+    private Chain search(Type from, Type to) {
+        boolean[] seen = new boolean[Type.values().length];
         List<Chain> list = new ArrayList<>();
-        list.add(new Chain(to, NULL_GENERATOR, null));
+        list.add(new Chain(to, NULL_CONVERSION, null));
+        seen[to.ordinal()] = true;
         for (int i = 0; i < list.size(); ++i) {
             Chain c = list.get(i);
             if (c.type == from) {
                 return c;
             }
-            Map<Type,Generator> m = map.get(c.type);
+            Map<Type,Conversion> m = map.get(c.type);
             if (m != null) {
-                for (Map.Entry<Type,Generator> e: m.entrySet()) {
+                for (Map.Entry<Type,Conversion> e: m.entrySet()) {
                     Type f = e.getKey();
-                    if (!containsType(list, f)) {
+                    if (!seen[f.ordinal()]) {
+                        seen[f.ordinal()] = true;
                         list.add(new Chain(f, e.getValue(), c));
                     }
                 }
@@ -72,13 +172,4 @@ public class Converter {
         }
         return null;
     }
-
-    private boolean containsType(Iterable<Chain> list, Type type) {
-        for (Chain c: list) {
-            if (c.type == type) {
-                return true;
-            }
-        }
-        return false;
-    }
 }
@@ -0,0 +1,689 @@
+package cfpl.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.tastefuljava.classfile.ByteCode;
+import org.tastefuljava.classfile.CodeSegment;
+import org.tastefuljava.classfile.Label;
+
+// generates the bytecode of a tree
+class Emitter implements Statement.Visitor<Void>, Expression.Visitor<Void> {
+    private static final String CONCAT = "&";
+    static final String AND = "AND";
+    static final String OR = "OR";
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+    private static final String OUTPUT = "cfpl/runtime/Output";
+    private static final String RESULTS = "cfpl/runtime/Results";
+    private static final String PARALLEL = "cfpl/runtime/Parallel";
+    private static final String LOOKUP
+            = "java/lang/invoke/MethodHandles$Lookup";
+    private static final String STRING = "Ljava/lang/String;";
+    // the kinds of values of Results, in the order of create
+    private static final String[] KIND_NAMES
+            = {"Int", "Double", "String", "Array"};
+
+    private final CodeSegment code;
+    private final Options options;
+    // null unless the program is compiled with -profile
+    private final Profiler profiler;
+
+    Emitter(CodeSegment code, Options options) {
+        this(code, options, null);
+    }
+
+    Emitter(CodeSegment code, Options options, Profiler profiler) {
+        this.code = code;
+        this.options = options;
+        this.profiler = profiler;
+    }
+
+    void emitMain(Statement.Block program) {
+        if (profiler != null) {
+            profiler.emitRegister();
+        }
+        emit(program);
+        if (options.getBufferedOutput()) {
+            code.invokeStatic(OUTPUT, "flush", "()V");
+        }
+        code.returnVoid();
+    }
+
+    // a method of the Outliner: the results are in the first parameter
+    void emitMethod(Statement.Block body, List<Variable> results) {
+        if (profiler != null) {
+            profiler.emitCounters();
+        }
+        emit(body);
+        int[] index = new int[KIND_NAMES.length];
+        for (Variable var: results) {
+            code.loadRef(0);
+            setResult(var, index);
+        }
+        code.returnVoid();
+    }
+
+    void emit(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    void emit(Expression expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlock(Statement.Block stmt) {
+        for (Statement s: stmt.statements) {
+            emit(s);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDeclare(Statement.Declare stmt) {
+        if (stmt.init == null) {
+            defaultValue(stmt.var.type);
+        } else {
+            emit(stmt.init);
+        }
+        storeVar(stmt.var.type, stmt.var.addr);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Statement.Assign stmt) {
+        emit(stmt.expr);
+        storeVar(stmt.var.type, stmt.var.addr);
+        return null;
+    }
+
+    @Override
+    public Void visitStore(Statement.Store stmt) {
+        code.loadRef(stmt.var.addr);
+        emit(stmt.index);
+        emit(stmt.expr);
+        stmt.function.gen.generate(code);
+        return null;
+    }
+
+    @Override
+    public Void visitOutput(Statement.Output stmt) {
+        if (profiler != null) {
+            profiler.enter(stmt);
+        }
+        emitOutput(stmt);
+        if (profiler != null) {
+            profiler.exit(stmt);
+        }
+        return null;
+    }
+
+    private void emitOutput(Statement.Output stmt) {
+        if (options.getBufferedOutput()) {
+            // the operands of & are written one by one, without building
+            // the string
+            List<Expression> operands = new ArrayList<>();
+            collectOperands(stmt.expr, operands);
+            for (Expression e: operands) {
+                emit(e);
+                code.invokeStatic(OUTPUT, "write",
+                        "(" + descriptor(e.type) + ")V");
+            }
+            code.invokeStatic(OUTPUT, "newLine", "()V");
+            return;
+        }
+        emit(stmt.expr);
+        code.getStatic("java/lang/System", "out", "Ljava/io/PrintStream;");
+        code.swap();
+        code.invokeVirtual(
+                "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+    }
+
+    @Override
+    public Void visitIf(Statement.If stmt) {
+        if (profiler != null) {
+            profiler.enter(stmt);
+        }
+        Label label = new Label();
+        branch(stmt.cond, false, label);
+        if (profiler != null) {
+            profiler.taken(stmt);
+        }
+        emit(stmt.thenPart);
+        if (stmt.elsePart != null) {
+            Label endLabel = new Label();
+            code.jump(endLabel);
+            code.define(label);
+            emit(stmt.elsePart);
+            label = endLabel;
+        }
+        code.define(label);
+        if (profiler != null) {
+            profiler.exit(stmt);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(Statement.While stmt) {
+        if (profiler != null) {
+            profiler.enter(stmt);
+        }
+        if (options.getOptimizeLoops()) {
+            // test at the bottom: one jump per iteration
+            Label body = new Label();
+            Label test = new Label();
+            code.jump(test);
+            code.define(body);
+            emitBody(stmt);
+            code.define(test);
+            branch(stmt.cond, true, body);
+        } else {
+            Label begin = new Label();
+            Label end = new Label();
+            code.define(begin);
+            branch(stmt.cond, false, end);
+            emitBody(stmt);
+            code.jump(begin);
+            code.define(end);
+        }
+        if (profiler != null) {
+            profiler.exit(stmt);
+        }
+        return null;
+    }
+
+    private void emitBody(Statement.While stmt) {
+        if (profiler != null) {
+            profiler.taken(stmt);
+        }
+        emit(stmt.body);
+    }
+
+    @Override
+    public Void visitCall(Statement.Call stmt) {
+        int n = stmt.results.size();
+        if (n > 0) {
+            createResults(stmt.results);
+            // one for the method, one for the caller
+            code.dup();
+        }
+        for (Variable var: stmt.args) {
+            loadVar(var.type, var.addr);
+        }
+        code.invokeStatic(stmt.owner, stmt.name, methodDescriptor(stmt));
+        int[] index = new int[KIND_NAMES.length];
+        for (int i = 0; i < n; ++i) {
+            Variable var = stmt.results.get(i);
+            if (i < n - 1) {
+                code.dup();
+            }
+            getResult(var, index);
+            storeVar(var.type, var.addr);
+        }
+        return null;
+    }
+
+    // the Outliner has moved the body to a method, which cfpl.runtime.Parallel
+    // finds with the lookup of the class; the variables that it reads are
+    // passed in a Results, and the partial values of the reductions come
+    // back combined in another one
+    @Override
+    public Void visitParallel(Statement.Parallel stmt) {
+        code.invokeStatic("java/lang/invoke/MethodHandles", "lookup",
+                "()L" + LOOKUP + ";");
+        code.pushString(stmt.call.name);
+        List<Variable> params = new ArrayList<>();
+        params.add(stmt.index);
+        params.add(stmt.end);
+        params.addAll(stmt.call.args);
+        code.pushString(methodDescriptor(params, stmt.reductions));
+        code.pushString(reductions(stmt));
+        createResults(stmt.call.args);
+        int[] index = new int[KIND_NAMES.length];
+        for (Variable var: stmt.call.args) {
+            code.dup();
+            setResult(var, index);
+        }
+        emit(stmt.first);
+        emit(stmt.last);
+        code.invokeStatic(PARALLEL, "run", "(L" + LOOKUP + ";" + STRING
+                + STRING + STRING + "L" + RESULTS + ";II)L" + RESULTS + ";");
+        int n = stmt.reductions.size();
+        index = new int[KIND_NAMES.length];
+        for (int i = 0; i < n; ++i) {
+            Variable var = stmt.reductions.get(i);
+            if (i < n - 1) {
+                code.dup();
+            }
+            getResult(var, index);
+            loadVar(var.type, var.addr);
+            switch (stmt.operators.get(i)) {
+                case "+":
+                    if (var.type == Type.FLOAT) {
+                        code.addDouble();
+                    } else {
+                        code.addInt();
+                    }
+                    break;
+                case "*":
+                    if (var.type == Type.FLOAT) {
+                        code.mulDouble();
+                    } else {
+                        code.mulInt();
+                    }
+                    break;
+                case AND:
+                    code.andInt();
+                    break;
+                default:
+                    code.orInt();
+                    break;
+            }
+            storeVar(var.type, var.addr);
+        }
+        return null;
+    }
+
+    // the reductions for cfpl.runtime.Parallel: the kind of each of them, I
+    // or D, followed by its operator, +, *, & or |
+    static String reductions(Statement.Parallel stmt) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < stmt.reductions.size(); ++i) {
+            String op = stmt.operators.get(i);
+            buf.append(stmt.reductions.get(i).type == Type.FLOAT ? 'D' : 'I')
+                    .append(op.equals(AND) ? '&' : op.equals(OR) ? '|'
+                            : op.charAt(0));
+        }
+        return buf.toString();
+    }
+
+    // the arrays are only counted when there are some
+    private void createResults(List<Variable> vars) {
+        int[] counts = new int[KIND_NAMES.length];
+        for (Variable var: vars) {
+            ++counts[kind(var.type)];
+        }
+        int kinds = counts[3] == 0 ? 3 : 4;
+        for (int i = 0; i < kinds; ++i) {
+            code.pushInt(counts[i]);
+        }
+        code.invokeStatic(RESULTS, "create", kinds == 3
+                ? "(III)L" + RESULTS + ";" : "(IIII)L" + RESULTS + ";");
+    }
+
+    // the Results is on the stack
+    private void setResult(Variable var, int[] index) {
+        int kind = kind(var.type);
+        code.pushInt(index[kind]++);
+        loadVar(var.type, var.addr);
+        code.invokeStatic(RESULTS, "set" + KIND_NAMES[kind],
+                "(L" + RESULTS + ";I" + (var.type.isArray()
+                        ? "Ljava/lang/Object;" : paramDescriptor(var.type))
+                + ")V");
+    }
+
+    // the arrays have a getter for each type of elements
+    private void getResult(Variable var, int[] index) {
+        int kind = kind(var.type);
+        code.pushInt(index[kind]++);
+        code.invokeStatic(RESULTS, var.type.isArray()
+                ? arrayGetter(var.type) : "get" + KIND_NAMES[kind],
+                "(L" + RESULTS + ";I)" + paramDescriptor(var.type));
+    }
+
+    private static String arrayGetter(Type type) {
+        switch (type.element) {
+            case FLOAT:
+                return "getDoubleArray";
+            case CHAR:
+                return "getCharArray";
+            case BOOL:
+                return "getBoolArray";
+            default:
+                return "getIntArray";
+        }
+    }
+
+    static String methodDescriptor(Statement.Call stmt) {
+        return methodDescriptor(stmt.args, stmt.results);
+    }
+
+    static String methodDescriptor(List<Variable> params,
+            List<Variable> results) {
+        StringBuilder buf = new StringBuilder("(");
+        if (!results.isEmpty()) {
+            buf.append("L").append(RESULTS).append(";");
+        }
+        for (Variable var: params) {
+            buf.append(paramDescriptor(var.type));
+        }
+        return buf.append(")V").toString();
+    }
+
+    private static int kind(Type type) {
+        return type.isArray() ? 3
+                : type == Type.FLOAT ? 1 : type == Type.STRING ? 2 : 0;
+    }
+
+    private static String paramDescriptor(Type type) {
+        return type.isArray() ? "[" + descriptor(type.element)
+                : type == Type.FLOAT ? "D"
+                : type == Type.STRING ? "Ljava/lang/String;" : "I";
+    }
+
+    @Override
+    public Void visitLiteral(Expression.Literal expr) {
+        switch (expr.type) {
+            case BOOL:
+            case CHAR:
+            case INT:
+                code.pushInt((Integer)expr.value);
+                break;
+            case FLOAT:
+                code.pushDouble((Double)expr.value);
+                break;
+            case STRING:
+                if (expr.value == null) {
+                    code.pushNull();
+                } else {
+                    code.pushString((String)expr.value);
+                }
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLoad(Expression.Load expr) {
+        loadVar(expr.var.type, expr.var.addr);
+        return null;
+    }
+
+    @Override
+    public Void visitConvert(Expression.Convert expr) {
+        emit(expr.expr);
+        expr.chain.apply(code);
+        return null;
+    }
+
+    @Override
+    public Void visitApply(Expression.Apply expr) {
+        if (isConcat(expr)) {
+            List<Expression> operands = new ArrayList<>();
+            collectOperands(expr, operands);
+            if (operands.size() > 2) {
+                concat(operands);
+                return null;
+            }
+        }
+        if (isLogical(expr)) {
+            Label falseLabel = new Label();
+            Label endLabel = new Label();
+            branch(expr, false, falseLabel);
+            code.pushInt(1);
+            code.jump(endLabel);
+            code.define(falseLabel);
+            code.pushInt(0);
+            code.define(endLabel);
+            return null;
+        }
+        for (Expression arg: expr.args) {
+            emit(arg);
+        }
+        expr.function.gen.generate(code);
+        return null;
+    }
+
+    @Override
+    public Void visitNegate(Expression.Negate expr) {
+        emit(expr.expr);
+        switch (expr.type) {
+            case BOOL:
+            case CHAR:
+            case INT:
+                code.negInt();
+                break;
+            case FLOAT:
+                code.negDouble();
+                break;
+        }
+        return null;
+    }
+
+    // jumps to the target if the condition has the given truth value; the
+    // comparisons become a single conditional jump and AND and OR only
+    // evaluate their second operand when it decides the result
+    private void branch(Expression cond, boolean when, Label target) {
+        if (cond instanceof Expression.Literal) {
+            if (((Expression.Literal)cond).isTrue() == when) {
+                code.jump(target);
+            }
+            return;
+        }
+        if (isLogical(cond)) {
+            Expression.Apply apply = (Expression.Apply)cond;
+            Expression left = apply.args.get(0);
+            Expression right = apply.args.get(1);
+            if (apply.name.equals(AND) == when) {
+                // both operands are needed to take the jump
+                Label skip = new Label();
+                branch(left, !when, skip);
+                branch(right, when, target);
+                code.define(skip);
+            } else {
+                branch(left, when, target);
+                branch(right, when, target);
+            }
+            return;
+        }
+        int opCode = comparison(cond);
+        if (opCode != 0) {
+            Expression.Apply apply = (Expression.Apply)cond;
+            for (Expression arg: apply.args) {
+                emit(arg);
+            }
+            if (!when) {
+                opCode = negate(opCode);
+            }
+            if (apply.function.argTypes[0] == Type.FLOAT) {
+                // dcmpl: NaN compares as less, like the value of the operator
+                code.cmplDouble();
+                code.jump(opCode, target);
+            } else {
+                code.jump(opCode - ByteCode.IFEQ + ByteCode.IF_ICMPEQ, target);
+            }
+            return;
+        }
+        emit(cond);
+        code.jump(when ? ByteCode.IFNE : ByteCode.IFEQ, target);
+    }
+
+    static boolean isLogical(Expression expr) {
+        if (!(expr instanceof Expression.Apply)) {
+            return false;
+        }
+        Expression.Apply apply = (Expression.Apply)expr;
+        return apply.operator
+                && (apply.name.equals(AND) || apply.name.equals(OR));
+    }
+
+    // the IFxx that jumps when the result of the comparison is true, or 0
+    private static int comparison(Expression expr) {
+        if (!(expr instanceof Expression.Apply)
+                || !((Expression.Apply)expr).operator) {
+            return 0;
+        }
+        switch (((Expression.Apply)expr).name) {
+            case "==":
+                return ByteCode.IFEQ;
+            case "<>":
+                return ByteCode.IFNE;
+            case "<":
+                return ByteCode.IFLT;
+            case ">=":
+                return ByteCode.IFGE;
+            case ">":
+                return ByteCode.IFGT;
+            case "<=":
+                return ByteCode.IFLE;
+            default:
+                return 0;
+        }
+    }
+
+    // IFEQ/IFNE, IFLT/IFGE and IFGT/IFLE are consecutive pairs
+    private static int negate(int opCode) {
+        return ByteCode.IFEQ + ((opCode - ByteCode.IFEQ) ^ 1);
+    }
+
+    static boolean isConcat(Expression expr) {
+        return expr instanceof Expression.Apply
+                && ((Expression.Apply)expr).operator
+                && ((Expression.Apply)expr).name.equals(CONCAT);
+    }
+
+    // flattens a chain of & into its operands, without their conversions to
+    // STRING, and merges adjacent string literals
+    static void collectOperands(Expression expr,
+            List<Expression> operands) {
+        List<Expression> list = new ArrayList<>();
+        flatten(expr, list);
+        for (int i = 0; i < list.size(); ) {
+            Expression e = list.get(i++);
+            if (isStringLiteral(e) && i < list.size()
+                    && isStringLiteral(list.get(i))) {
+                // the run is joined once, not copied again for each literal
+                StringBuilder buf = new StringBuilder(
+                        (String)((Expression.Literal)e).value);
+                while (i < list.size() && isStringLiteral(list.get(i))) {
+                    buf.append(((Expression.Literal)list.get(i++)).value);
+                }
+                e = new Expression.Literal(Type.STRING, buf.toString());
+            }
+            operands.add(e);
+        }
+    }
+
+    private static void flatten(Expression expr, List<Expression> list) {
+        if (isConcat(expr)) {
+            for (Expression arg: ((Expression.Apply)expr).args) {
+                flatten(arg, list);
+            }
+        } else if (expr instanceof Expression.Convert
+                && expr.type == Type.STRING
+                && ((Expression.Convert)expr).expr.type != Type.STRING) {
+            list.add(((Expression.Convert)expr).expr);
+        } else {
+            list.add(expr);
+        }
+    }
+
+    private static boolean isStringLiteral(Expression expr) {
+        return expr instanceof Expression.Literal
+                && expr.type == Type.STRING
+                && ((Expression.Literal)expr).value != null;
+    }
+
+    // a single pre-sized StringBuilder, with primitives appended directly
+    // (the append overloads format them like the toString conversions)
+    private void concat(List<Expression> operands) {
+        int capacity = 0;
+        for (Expression e: operands) {
+            capacity += estimatedLength(e);
+        }
+        code.newObject(STRING_BUILDER);
+        code.dup();
+        code.pushInt(capacity);
+        code.invokeSpecial(STRING_BUILDER, "<init>", "(I)V");
+        for (Expression e: operands) {
+            emit(e);
+            code.invokeVirtual(STRING_BUILDER, "append",
+                    "(" + descriptor(e.type) + ")L" + STRING_BUILDER + ";");
+        }
+        code.invokeVirtual(STRING_BUILDER, "toString",
+                "()Ljava/lang/String;");
+    }
+
+    private static int estimatedLength(Expression expr) {
+        switch (expr.type) {
+            case BOOL:
+                return 5;
+            case CHAR:
+                return 1;
+            case INT:
+                return 11;
+            case FLOAT:
+                return 24;
+            default:
+                return isStringLiteral(expr)
+                        ? ((String)((Expression.Literal)expr).value).length()
+                        : 16;
+        }
+    }
+
+    private static String descriptor(Type type) {
+        switch (type) {
+            case BOOL:
+                return "Z";
+            case CHAR:
+                return "C";
+            case INT:
+                return "I";
+            case FLOAT:
+                return "D";
+            default:
+                return "Ljava/lang/String;";
+        }
+    }
+
+    private void defaultValue(Type type) {
+        switch (type) {
+            case BOOL:
+            case INT:
+            case CHAR:
+                code.pushInt(0);
+                break;
+            case FLOAT:
+                code.pushDouble(0);
+                break;
+            default:
+                // STRING and the arrays
+                code.pushNull();
+                break;
+        }
+    }
+
+    private void loadVar(Type type, int addr) {
+        switch (type) {
+            case BOOL:
+            case CHAR:
+            case INT:
+                code.loadInt(addr);
+                break;
+            case FLOAT:
+                code.loadDouble(addr);
+                break;
+            default:
+                // STRING and the arrays
+                code.loadRef(addr);
+                break;
+        }
+    }
+
+    private void storeVar(Type type, int addr) {
+        switch (type) {
+            case BOOL:
+            case CHAR:
+            case INT:
+                code.storeInt(addr);
+                break;
+            case FLOAT:
+                code.storeDouble(addr);
+                break;
+            default:
+                // STRING and the arrays
+                code.storeRef(addr);
+                break;
+        }
+    }
+}
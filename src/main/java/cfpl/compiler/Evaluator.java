@@ -0,0 +1,7 @@
+package cfpl.compiler;
+
+// compile-time counterpart of a Generator: INT, CHAR and BOOL values are
+// Integers, FLOAT values are Doubles and STRING values are Strings
+public interface Evaluator {
+    public Object evaluate(Object... args);
+}
@@ -0,0 +1,110 @@
+package cfpl.compiler;
+
+import cfpl.compiler.Converter.Chain;
+import cfpl.compiler.Invoker.Function;
+import java.util.Collections;
+import java.util.List;
+
+public abstract class Expression {
+    public final Type type;
+
+    public interface Visitor<R> {
+        public R visitLiteral(Literal expr);
+        public R visitLoad(Load expr);
+        public R visitConvert(Convert expr);
+        public R visitApply(Apply expr);
+        public R visitNegate(Negate expr);
+    }
+
+    private Expression(Type type) {
+        this.type = type;
+    }
+
+    public abstract <R> R accept(Visitor<R> visitor);
+
+    public static class Literal extends Expression {
+        public final Object value;
+
+        public Literal(Type type, Object value) {
+            super(type);
+            this.value = value;
+        }
+
+        // the truth value of a BOOL, as tested by IFEQ
+        public boolean isTrue() {
+            return value instanceof Integer && (Integer)value != 0;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitLiteral(this);
+        }
+    }
+
+    public static class Load extends Expression {
+        public final Variable var;
+
+        public Load(Variable var) {
+            super(var.type);
+            this.var = var;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitLoad(this);
+        }
+    }
+
+    public static class Convert extends Expression {
+        public final Chain chain;
+        public final Expression expr;
+
+        public Convert(Type type, Chain chain, Expression expr) {
+            super(type);
+            this.chain = chain;
+            this.expr = expr;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitConvert(this);
+        }
+    }
+
+    // application of an operator or of a named function; the arguments are
+    // already converted to the parameter types
+    public static class Apply extends Expression {
+        public final String name;
+        public final Function function;
+        public final boolean operator;
+        public final List<Expression> args;
+
+        public Apply(String name, Function function, boolean operator,
+                List<Expression> args) {
+            super(function.resultType);
+            this.name = name;
+            this.function = function;
+            this.operator = operator;
+            this.args = Collections.unmodifiableList(args);
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitApply(this);
+        }
+    }
+
+    public static class Negate extends Expression {
+        public final Expression expr;
+
+        public Negate(Expression expr) {
+            super(expr.type);
+            this.expr = expr;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitNegate(this);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package cfpl.compiler;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class Hashes {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Hashes() {
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static String hex(byte[] bytes) {
+        char[] chars = new char[2*bytes.length];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[2*i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2*i+1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,452 @@
+package cfpl.compiler;
+
+import cfpl.runtime.Output;
+import cfpl.runtime.Parallel;
+import cfpl.runtime.Results;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Runs a program by walking its tree, without generating any class. The
+// values are those of the evaluators of the conversion and operator tables:
+// Integers for BOOL, CHAR and INT, Doubles for FLOAT and Strings, and the
+// statements do what the Emitter generates for them, with the same
+// short-circuit AND and OR, concatenations and output.
+// With a tier, the back-edges of each WHILE loop are counted; when a loop
+// reaches the threshold, the rest of the program is compiled into a class,
+// with the current values of the variables as their initial values, and the
+// tier runs that class instead. The programs with arrays are never
+// compiled by the tier: an array has no literal to start the class with.
+// The chunks of a PARALLEL loop are those of cfpl.runtime.Parallel, run one
+// after the other on copies of the variables, and their reductions are
+// combined by it, so that the results are those of the compiled program;
+// they are never compiled by the tier.
+public class Interpreter {
+    private static final Logger LOG
+            = Logger.getLogger(Interpreter.class.getName());
+
+    // runs the class compiled for the rest of the program; returns false if
+    // it cannot load it, and the interpreter goes on
+    public interface Tier {
+        public boolean run(String className, byte[] bytes);
+    }
+
+    private final Statement.Block program;
+    private final int slotCount;
+    private final Options options;
+    private final Set<Variable> vars = new LinkedHashSet<>();
+    private boolean arrays;
+    private Tier tier;
+    private int threshold;
+    private String className;
+
+    Interpreter(Statement.Block program, int slotCount, Options options) {
+        this.program = program;
+        this.slotCount = slotCount;
+        this.options = options;
+        new TreeScanner() {
+            @Override
+            public Void visitDeclare(Statement.Declare stmt) {
+                vars.add(stmt.var);
+                arrays |= stmt.var.type.isArray();
+                return super.visitDeclare(stmt);
+            }
+
+            @Override
+            public Void visitAssign(Statement.Assign stmt) {
+                vars.add(stmt.var);
+                return super.visitAssign(stmt);
+            }
+
+            @Override
+            public Void visitLoad(Expression.Load expr) {
+                vars.add(expr.var);
+                return null;
+            }
+        }.scan(program);
+    }
+
+    // switches to a compiled class named className when a loop takes
+    // threshold back-edges
+    public void setTier(Tier tier, int threshold, String className) {
+        this.tier = arrays ? null : tier;
+        this.threshold = threshold;
+        this.className = className;
+    }
+
+    // each run has its own variables and counters
+    public void run() {
+        try {
+            new Execution().execute(program);
+        } catch (Transferred ex) {
+            // the compiled class has run the rest of the program
+        } finally {
+            // the complete lines are written even when the program fails
+            if (options.getBufferedOutput()) {
+                Output.flush();
+            }
+        }
+    }
+
+    private static class Transferred extends RuntimeException {
+        private Transferred() {
+            super(null, null, false, false);
+        }
+    }
+
+    // the statement being executed in a block
+    private static class Position {
+        private final Statement.Block block;
+        private int index;
+
+        private Position(Statement.Block block) {
+            this.block = block;
+        }
+    }
+
+    private class Execution
+            implements Statement.Visitor<Void>, Expression.Visitor<Object> {
+        private final Object[] frame;
+        private final Map<Statement.While,int[]> counters
+                = new IdentityHashMap<>();
+        // the enclosing blocks and loops, for the rest of the program
+        private final List<Object> path = new ArrayList<>();
+        private Tier tier;
+
+        private Execution() {
+            frame = new Object[slotCount];
+            tier = Interpreter.this.tier;
+        }
+
+        // a chunk of a PARALLEL loop
+        private Execution(Object[] frame) {
+            this.frame = frame;
+        }
+
+        private void execute(Statement stmt) {
+            stmt.accept(this);
+        }
+
+        private Object eval(Expression expr) {
+            return expr.accept(this);
+        }
+
+        private boolean isTrue(Expression cond) {
+            return (Integer)eval(cond) != 0;
+        }
+
+        @Override
+        public Void visitBlock(Statement.Block stmt) {
+            Position pos = new Position(stmt);
+            path.add(pos);
+            List<Statement> list = stmt.statements;
+            for (pos.index = 0; pos.index < list.size(); ++pos.index) {
+                execute(list.get(pos.index));
+            }
+            path.remove(path.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitDeclare(Statement.Declare stmt) {
+            frame[stmt.var.addr] = stmt.init == null
+                    ? defaultValue(stmt.var.type) : eval(stmt.init);
+            return null;
+        }
+
+        @Override
+        public Void visitAssign(Statement.Assign stmt) {
+            frame[stmt.var.addr] = eval(stmt.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitStore(Statement.Store stmt) {
+            stmt.function.eval.evaluate(frame[stmt.var.addr],
+                    eval(stmt.index), eval(stmt.expr));
+            return null;
+        }
+
+        @Override
+        public Void visitOutput(Statement.Output stmt) {
+            if (options.getBufferedOutput()) {
+                List<Expression> operands = new ArrayList<>();
+                Emitter.collectOperands(stmt.expr, operands);
+                for (Expression e: operands) {
+                    write(e.type, eval(e));
+                }
+                Output.newLine();
+            } else {
+                System.out.println((String)eval(stmt.expr));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIf(Statement.If stmt) {
+            if (isTrue(stmt.cond)) {
+                execute(stmt.thenPart);
+            } else if (stmt.elsePart != null) {
+                execute(stmt.elsePart);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(Statement.While stmt) {
+            int[] count = counters.get(stmt);
+            if (count == null) {
+                count = new int[1];
+                counters.put(stmt, count);
+            }
+            while (isTrue(stmt.cond)) {
+                path.add(stmt);
+                execute(stmt.body);
+                path.remove(path.size() - 1);
+                if (tier != null && ++count[0] >= threshold) {
+                    transfer(stmt);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Statement.Call stmt) {
+            // the programs are only outlined when they are compiled
+            throw new IllegalStateException("Outlined call " + stmt.name);
+        }
+
+        @Override
+        public Void visitParallel(Statement.Parallel stmt) {
+            int[] bounds = Parallel.split((Integer)eval(stmt.first),
+                    (Integer)eval(stmt.last));
+            String reductions = Emitter.reductions(stmt);
+            int doubles = 0;
+            for (Variable var: stmt.reductions) {
+                if (var.type == Type.FLOAT) {
+                    ++doubles;
+                }
+            }
+            int ints = stmt.reductions.size() - doubles;
+            Results[] partials = new Results[bounds.length - 1];
+            for (int k = 0; k < partials.length; ++k) {
+                Execution chunk = new Execution(frame.clone());
+                chunk.frame[stmt.index.addr] = bounds[k];
+                chunk.frame[stmt.end.addr] = bounds[k + 1];
+                chunk.execute(stmt.body);
+                partials[k] = Results.create(ints, doubles, 0);
+                int[] index = new int[2];
+                for (Variable var: stmt.reductions) {
+                    Object value = chunk.frame[var.addr];
+                    if (var.type == Type.FLOAT) {
+                        Results.setDouble(partials[k], index[1]++,
+                                (Double)value);
+                    } else {
+                        Results.setInt(partials[k], index[0]++,
+                                (Integer)value);
+                    }
+                }
+            }
+            Results combined = Parallel.combine(reductions, partials);
+            int[] index = new int[2];
+            for (int i = 0; i < stmt.reductions.size(); ++i) {
+                Variable var = stmt.reductions.get(i);
+                Object value;
+                if (var.type == Type.FLOAT) {
+                    value = Results.getDouble(combined, index[1]++);
+                } else {
+                    value = Results.getInt(combined, index[0]++);
+                }
+                frame[var.addr] = reduce(stmt.operators.get(i), var.type,
+                        value, frame[var.addr]);
+            }
+            return null;
+        }
+
+        @Override
+        public Object visitLiteral(Expression.Literal expr) {
+            return expr.value;
+        }
+
+        @Override
+        public Object visitLoad(Expression.Load expr) {
+            return frame[expr.var.addr];
+        }
+
+        @Override
+        public Object visitConvert(Expression.Convert expr) {
+            return expr.chain.evaluate(eval(expr.expr));
+        }
+
+        @Override
+        public Object visitApply(Expression.Apply expr) {
+            if (Emitter.isLogical(expr)) {
+                boolean a = isTrue(expr.args.get(0));
+                boolean result = expr.name.equals(Emitter.AND)
+                        ? a && isTrue(expr.args.get(1))
+                        : a || isTrue(expr.args.get(1));
+                return result ? 1 : 0;
+            }
+            if (Emitter.isConcat(expr)) {
+                List<Expression> operands = new ArrayList<>();
+                Emitter.collectOperands(expr, operands);
+                if (operands.size() > 2) {
+                    StringBuilder buf = new StringBuilder();
+                    for (Expression e: operands) {
+                        append(buf, e.type, eval(e));
+                    }
+                    return buf.toString();
+                }
+            }
+            Object[] args = new Object[expr.args.size()];
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = eval(expr.args.get(i));
+            }
+            return expr.function.eval.evaluate(args);
+        }
+
+        @Override
+        public Object visitNegate(Expression.Negate expr) {
+            Object value = eval(expr.expr);
+            if (expr.type == Type.FLOAT) {
+                return -(Double)value;
+            }
+            return -(Integer)value;
+        }
+
+        // compiles the rest of the program, from the test of the hot loop,
+        // and lets the tier run it
+        private void transfer(Statement.While loop) {
+            List<Statement> rest = new ArrayList<>();
+            for (Variable var: vars) {
+                rest.add(new Statement.Declare(var, new Expression.Literal(
+                        var.type, valueOf(var))));
+            }
+            rest.add(loop);
+            for (int i = path.size(); --i >= 0; ) {
+                Object e = path.get(i);
+                if (e instanceof Position) {
+                    Position pos = (Position)e;
+                    List<Statement> list = pos.block.statements;
+                    rest.addAll(list.subList(pos.index + 1, list.size()));
+                } else {
+                    rest.add((Statement.While)e);
+                }
+            }
+            byte[] bytes;
+            try {
+                Compiler compiler = new Compiler();
+                compiler.setOptions(options);
+                bytes = compiler.toByteArray(
+                        className, new Statement.Block(rest));
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.WARNING, "Cannot compile the hot loop", ex);
+                tier = null;
+                return;
+            }
+            if (!tier.run(className, bytes)) {
+                tier = null;
+                return;
+            }
+            throw new Transferred();
+        }
+
+        // variables that share a slot are never live at the same time: the
+        // dead one may get a value of the wrong type
+        private Object valueOf(Variable var) {
+            Object value = frame[var.addr];
+            switch (var.type) {
+                case FLOAT:
+                    return value instanceof Double
+                            ? value : defaultValue(var.type);
+                case STRING:
+                    return value instanceof String ? value : null;
+                default:
+                    return value instanceof Integer
+                            ? value : defaultValue(var.type);
+            }
+        }
+    }
+
+    private static Object defaultValue(Type type) {
+        switch (type) {
+            case FLOAT:
+                return 0.0;
+            case STRING:
+                return null;
+            default:
+                return 0;
+        }
+    }
+
+    // the combined partial value of a reduction, with the value before the
+    // loop, as the Emitter does
+    private static Object reduce(String op, Type type, Object partial,
+            Object value) {
+        if (type == Type.FLOAT) {
+            double a = (Double)partial;
+            double b = (Double)value;
+            return op.equals("*") ? a*b : a + b;
+        }
+        int a = (Integer)partial;
+        int b = (Integer)value;
+        switch (op) {
+            case "*":
+                return a*b;
+            case Emitter.AND:
+                return a & b;
+            case Emitter.OR:
+                return a | b;
+            default:
+                return a + b;
+        }
+    }
+
+    // the operands of a concatenation or of an output, formatted like the
+    // toString conversions
+    private static void append(StringBuilder buf, Type type, Object value) {
+        switch (type) {
+            case BOOL:
+                buf.append((Integer)value != 0);
+                break;
+            case CHAR:
+                buf.append((char)(int)(Integer)value);
+                break;
+            case INT:
+                buf.append((int)(Integer)value);
+                break;
+            case FLOAT:
+                buf.append((double)(Double)value);
+                break;
+            default:
+                buf.append((String)value);
+                break;
+        }
+    }
+
+    private static void write(Type type, Object value) {
+        switch (type) {
+            case BOOL:
+                Output.write((Integer)value != 0);
+                break;
+            case CHAR:
+                Output.write((char)(int)(Integer)value);
+                break;
+            case INT:
+                Output.write((int)(Integer)value);
+                break;
+            case FLOAT:
+                Output.write((double)(Double)value);
+                break;
+            default:
+                Output.write((String)value);
+                break;
+        }
+    }
+}
@@ -2,86 +2,77 @@ package cfpl.compiler;
 
 import cfpl.compiler.Converter.Chain;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
-import org.tastefuljava.classfile.CodeSegment;
+import java.util.TreeSet;
 
 public class Invoker {
-    private static final Logger LOG = Logger.getLogger(Invoker.class.getName());
+    private static final int TYPE_COUNT = Type.values().length;
+    // above this arity, signatures are not indexed (TYPE_COUNT^arity entries)
+    private static final int MAX_INDEXED_ARITY = 4;
 
     private final Converter conv;
     private final Map<String,List<Function>> map = new HashMap<>();
+    // dispatch tables per function name, set by freeze()
+    private volatile Map<String,Dispatch> table;
 
     public static class Function {
         public final Type resultType;
         public final Type[] argTypes;
         public final Generator gen;
+        public final Evaluator eval;
 
         public Function(Generator gen, Type resultType, Type... argTypes) {
+            this(gen, null, resultType, argTypes);
+        }
+
+        public Function(Generator gen, Evaluator eval, Type resultType,
+                Type... argTypes) {
             this.gen = gen;
+            this.eval = eval;
             this.resultType = resultType;
             this.argTypes = argTypes;
         }
     }
 
-    public class Call {
-        public final Call link;
-        private final CodeSegment code;
-        private final List<Type> argTypes = new ArrayList<>();
-        private final List<CodeSegment> argCode = new ArrayList<>();
+    public static class Resolution {
+        public final Function function;
+        private final Chain[] chains;
 
-        private Call(CodeSegment code, Call link) {
-            this.code = code;
-            this.link = link;
+        private Resolution(Function function, Chain[] chains) {
+            this.function = function;
+            this.chains = chains;
         }
 
-        CodeSegment startArg() {
-            if (argTypes.isEmpty()) {
-                return code;
-            }
-            CodeSegment cs = code.newSegment();
-            argCode.add(cs);
-            return cs;
+        public Chain getChain(int i) {
+            return chains[i];
         }
+    }
+
+    private static class Dispatch {
+        // resolutions indexed by [arity][signature]
+        private final Resolution[][] byArity;
 
-        CodeSegment endArg(Type type) {
-            argTypes.add(type);
-            return code;
+        private Dispatch(Resolution[][] byArity) {
+            this.byArity = byArity;
         }
 
-        Type invoke(String name) {
-            List<Function> list = map.get(name);
-            if (list == null) {
+        private Resolution lookup(List<Type> argTypes) {
+            int argCount = argTypes.size();
+            if (argCount >= byArity.length || byArity[argCount] == null) {
                 return null;
             }
-            int argCount = argTypes.size();
-            Chain[] chains = new Chain[argCount];
-            floop:
-            for (Function fct: list) {
-                if (fct.argTypes.length == argCount) {
-                    for (int i = 0; i < argCount; ++i) {
-                        chains[i] = conv.getChain(argTypes.get(i), fct.argTypes[i]);
-                        if (chains[i] == null) {
-                            continue floop;
-                        }
-                    }
-                    // found it
-                    if (argCount > 0) {
-                        // convert fist argument
-                        chains[0].apply(code);
-                        for (int i = 1; i < argCount; ++i) {
-                            // append and convert next arguments
-                            argCode.get(i-1).commit();
-                            chains[i].apply(code);
-                        }
-                    }
-                    fct.gen.generate(code);
-                    return fct.resultType;
+            int index = 0;
+            for (int i = argCount; --i >= 0; ) {
+                Type type = argTypes.get(i);
+                if (type == null) {
+                    return null;
                 }
+                index = index*TYPE_COUNT + type.ordinal();
             }
-            return Type.INT;
+            return byArity[argCount][index];
         }
     }
 
@@ -91,15 +82,130 @@ public class Invoker {
 
     public void add(Generator gen, String name, Type resultType,
             Type... argTypes) {
+        add(gen, null, name, resultType, argTypes);
+    }
+
+    public void add(Generator gen, Evaluator eval, String name,
+            Type resultType, Type... argTypes) {
+        if (table != null) {
+            throw new IllegalStateException("Invoker is frozen");
+        }
         List<Function> list = map.get(name);
         if (list == null) {
             list = new ArrayList<>();
             map.put(name, list);
         }
-        list.add(new Function(gen, resultType, argTypes));
+        list.add(new Function(gen, eval, resultType, argTypes));
     }
 
-    public Call startCall(CodeSegment code, Call link) {
-        return new Call(code, link);
+    // no more functions can be added after this call; a frozen invoker is
+    // never mutated and can be shared between threads. The converter is
+    // frozen too, and the overload resolution of every function name is
+    // computed once for all the possible argument types, so that resolve is
+    // a simple table lookup.
+    public synchronized void freeze() {
+        if (table == null) {
+            conv.freeze();
+            Map<String,Dispatch> t = new HashMap<>();
+            for (Map.Entry<String,List<Function>> e: map.entrySet()) {
+                t.put(e.getKey(), buildDispatch(e.getKey(), e.getValue()));
+            }
+            table = t;
+        }
+    }
+
+    public boolean isFrozen() {
+        return table != null;
+    }
+
+    public boolean isDefined(String name) {
+        return map.containsKey(name);
+    }
+
+    // returns the first function registered under that name whose
+    // parameters the arguments can be converted to, or null
+    public Resolution resolve(String name, List<Type> argTypes) {
+        Map<String,Dispatch> t = table;
+        if (t != null) {
+            Dispatch d = t.get(name);
+            if (d != null) {
+                Resolution res = d.lookup(argTypes);
+                if (res != null || argTypes.size() <= MAX_INDEXED_ARITY) {
+                    return res;
+                }
+            }
+        }
+        return search(name, argTypes);
+    }
+
+    // a canonical description of the functions, in resolution order, for
+    // the compiler fingerprint
+    void describe(StringBuilder buf) {
+        for (String name: new TreeSet<>(map.keySet())) {
+            for (Function fct: map.get(name)) {
+                buf.append("function ").append(name)
+                        .append(' ').append(fct.resultType)
+                        .append(Arrays.toString(fct.argTypes))
+                        .append(fct.eval == null ? "\n" : " eval\n");
+            }
+        }
+    }
+
+    private Dispatch buildDispatch(String name, List<Function> list) {
+        int maxArity = -1;
+        for (Function fct: list) {
+            if (fct.argTypes.length <= MAX_INDEXED_ARITY) {
+                maxArity = Math.max(maxArity, fct.argTypes.length);
+            }
+        }
+        Resolution[][] byArity = new Resolution[maxArity+1][];
+        for (Function fct: list) {
+            int arity = fct.argTypes.length;
+            if (arity <= MAX_INDEXED_ARITY && byArity[arity] == null) {
+                Resolution[] resolutions
+                        = new Resolution[pow(TYPE_COUNT, arity)];
+                Type[] sig = new Type[arity];
+                for (int index = 0; index < resolutions.length; ++index) {
+                    int n = index;
+                    for (int i = 0; i < arity; ++i) {
+                        sig[i] = Type.values()[n % TYPE_COUNT];
+                        n /= TYPE_COUNT;
+                    }
+                    resolutions[index] = search(name, Arrays.asList(sig));
+                }
+                byArity[arity] = resolutions;
+            }
+        }
+        return new Dispatch(byArity);
+    }
+
+    private Resolution search(String name, List<Type> argTypes) {
+        List<Function> list = map.get(name);
+        if (list == null) {
+            return null;
+        }
+        int argCount = argTypes.size();
+        floop:
+        for (Function fct: list) {
+            if (fct.argTypes.length == argCount) {
+                Chain[] chains = new Chain[argCount];
+                for (int i = 0; i < argCount; ++i) {
+                    chains[i] = conv.getChain(argTypes.get(i), fct.argTypes[i]);
+                    if (chains[i] == null) {
+                        continue floop;
+                    }
+                }
+                return new Resolution(fct, chains);
+            }
+        }
+        return null;
+    }
+
+    private static int pow(int base, int exp) {
+        int result = 1;
+        for (int i = 0; i < exp; ++i) {
+            result *= base;
+        }
+        return result;
     }
 }
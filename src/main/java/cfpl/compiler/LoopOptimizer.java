@@ -0,0 +1,473 @@
+package cfpl.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Optimizes the WHILE loops (-O), innermost first:
+// - the expressions whose operands do not change in the loop, which can
+//   neither fail nor have side effects, and which cost more than the load of
+//   a variable (the calls, the conversions and the strings, but not the
+//   arithmetic, logical and comparison operators), are computed once into a
+//   new variable before the loop. Nothing is moved out of the branches of an
+//   IF, which may not run at all, and its condition stays a test in the
+//   loop. Those that can fail (integer division, conversions from strings)
+//   stay where they are: moved before the loop, they could fail in a loop
+//   that would not have evaluated them, and so do the loads of the elements
+//   of arrays, which the body can store, and the reads of the input. The
+//   outer loops move the declarations of the new variables further out,
+//   rather than copy them into variables of their own;
+// - the products of an induction variable (an INT variable that the body
+//   increments by a constant exactly once, at its top level) by an invariant
+//   are kept in a new variable, which is incremented along with it. The
+//   integer arithmetic wraps around, so the results are the same.
+// The Emitter then lays out the loops with the test at the bottom.
+class LoopOptimizer extends TreeRewriter {
+    // the variables of the hoisted expressions
+    private final Set<Variable> hoistedVars = new HashSet<>();
+    // the assignments in the loops that are already optimized
+    private final Map<Statement.While,Map<Variable,Integer>> loops
+            = new IdentityHashMap<>();
+
+    Statement.Block optimize(Statement.Block program) {
+        return rewriteBlock(program);
+    }
+
+    @Override
+    public Statement visitWhile(Statement.While stmt) {
+        Statement.Block body = rewriteBlock(stmt.body);
+        Map<Variable,Integer> assigned = assignments(stmt.cond, body);
+        List<Statement> before = new ArrayList<>();
+        Hoister hoister = new Hoister(assigned, before);
+        Expression cond = hoister.rewrite(stmt.cond);
+        body = hoister.rewriteBlock(body);
+        Statement.While loop = reduce(stmt, cond, body, assigned, before);
+        loops.put(loop, assigned);
+        if (before.isEmpty()) {
+            return loop;
+        }
+        before.add(loop);
+        return new Statement.Block(before);
+    }
+
+    private Variable newVariable(Type type) {
+        return new Variable(type);
+    }
+
+    // the number of assignments of each variable in a loop
+    private Map<Variable,Integer> assignments(Expression cond,
+            Statement.Block body) {
+        final Map<Variable,Integer> map = new HashMap<>();
+        TreeScanner scanner = new TreeScanner() {
+            @Override
+            public Void visitWhile(Statement.While stmt) {
+                Map<Variable,Integer> inner = loops.get(stmt);
+                if (inner == null) {
+                    return super.visitWhile(stmt);
+                }
+                for (Map.Entry<Variable,Integer> e: inner.entrySet()) {
+                    Integer n = map.get(e.getKey());
+                    map.put(e.getKey(),
+                            n == null ? e.getValue() : n + e.getValue());
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitDeclare(Statement.Declare stmt) {
+                count(stmt.var);
+                return super.visitDeclare(stmt);
+            }
+
+            @Override
+            public Void visitAssign(Statement.Assign stmt) {
+                count(stmt.var);
+                return super.visitAssign(stmt);
+            }
+
+            private void count(Variable var) {
+                Integer n = map.get(var);
+                map.put(var, n == null ? 1 : n + 1);
+            }
+        };
+        scanner.scan(cond);
+        scanner.scan(body);
+        return map;
+    }
+
+    // replaces the invariant expressions by new variables, initialized by
+    // the statements added to the list
+    private class Hoister extends TreeRewriter {
+        private final Map<Variable,Integer> assigned;
+        private final List<Statement> before;
+        private final List<Expression> hoisted = new ArrayList<>();
+        private final List<Variable> vars = new ArrayList<>();
+
+        private Hoister(Map<Variable,Integer> assigned,
+                List<Statement> before) {
+            this.assigned = assigned;
+            this.before = before;
+        }
+
+        @Override
+        Expression rewrite(Expression expr) {
+            if (expr == null || !worthHoisting(expr)
+                    || !invariant(expr, assigned)) {
+                return super.rewrite(expr);
+            }
+            for (int i = 0; i < hoisted.size(); ++i) {
+                if (same(hoisted.get(i), expr)) {
+                    return new Expression.Load(vars.get(i));
+                }
+            }
+            Variable var = newVariable(expr.type);
+            before.add(new Statement.Declare(var, expr));
+            hoisted.add(expr);
+            vars.add(var);
+            hoistedVars.add(var);
+            return new Expression.Load(var);
+        }
+
+        @Override
+        public Statement visitDeclare(Statement.Declare stmt) {
+            if (hoistedVars.contains(stmt.var)
+                    && invariant(stmt.init, assigned)) {
+                before.add(stmt);
+                assigned.remove(stmt.var);
+                return new Statement.Block(
+                        Collections.<Statement>emptyList());
+            }
+            return super.visitDeclare(stmt);
+        }
+
+        // the inner loops have hoisted all that they could, and what they
+        // kept depends on a variable that they assign
+        @Override
+        public Statement visitWhile(Statement.While stmt) {
+            return stmt;
+        }
+
+        // only the expensive operands of the condition are hoisted: the
+        // condition itself would become a BOOL variable, which the parts of
+        // an outlined program would pass to each other
+        @Override
+        public Statement visitIf(Statement.If stmt) {
+            Expression cond = super.rewrite(stmt.cond);
+            return cond == stmt.cond ? stmt : new Statement.If(cond,
+                    stmt.thenPart, stmt.elsePart, stmt.line, stmt.column);
+        }
+    }
+
+    private static boolean worthHoisting(Expression expr) {
+        if (expr instanceof Expression.Apply) {
+            // an operator on INTs, FLOATs and BOOLs is an instruction or a
+            // short test, no more than the load of the variable
+            Expression.Apply apply = (Expression.Apply)expr;
+            if (!apply.operator || apply.type == Type.STRING) {
+                return true;
+            }
+            for (Expression arg: apply.args) {
+                if (arg.type == Type.STRING || worthHoisting(arg)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (expr instanceof Expression.Convert) {
+            // the conversions between BOOL, CHAR and INT generate no code,
+            // except to BOOL
+            Expression arg = ((Expression.Convert)expr).expr;
+            return !(isInteger(arg.type) && isInteger(expr.type)
+                    && expr.type != Type.BOOL) || worthHoisting(arg);
+        } else if (expr instanceof Expression.Negate) {
+            return worthHoisting(((Expression.Negate)expr).expr);
+        }
+        return false;
+    }
+
+    private static boolean isInteger(Type type) {
+        return type == Type.BOOL || type == Type.CHAR || type == Type.INT;
+    }
+
+    // true if the expression has the same value in all the iterations and
+    // can neither fail nor have side effects
+    private static boolean invariant(Expression expr,
+            Map<Variable,Integer> assigned) {
+        if (expr instanceof Expression.Literal) {
+            return true;
+        } else if (expr instanceof Expression.Load) {
+            return !assigned.containsKey(((Expression.Load)expr).var);
+        } else if (expr instanceof Expression.Convert) {
+            Expression arg = ((Expression.Convert)expr).expr;
+            // parsing a string can fail
+            return (arg.type != Type.STRING || expr.type == Type.STRING)
+                    && invariant(arg, assigned);
+        } else if (expr instanceof Expression.Negate) {
+            return invariant(((Expression.Negate)expr).expr, assigned);
+        } else if (expr instanceof Expression.Apply) {
+            Expression.Apply apply = (Expression.Apply)expr;
+            // the functions with an evaluator are pure
+            if (apply.function.eval == null || canFail(apply)) {
+                return false;
+            }
+            for (Expression arg: apply.args) {
+                if (!invariant(arg, assigned)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean canFail(Expression.Apply apply) {
+        switch (apply.name) {
+            case "/":
+            case "%":
+                if (apply.type != Type.INT) {
+                    return false;
+                }
+                Expression divisor = apply.args.get(1);
+                return !(divisor instanceof Expression.Literal)
+                        || ((Expression.Literal)divisor).value == null
+                        || (Integer)((Expression.Literal)divisor).value == 0;
+            case "&":
+                for (Expression arg: apply.args) {
+                    if (!notNull(arg)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "[]":
+                // the elements change, and the index can be out of bounds
+                return true;
+            default:
+                if (Compiler.readsInput(apply)) {
+                    return true;
+                }
+                // a new array for each evaluation, of a length that can be
+                // negative
+                return apply.type.isArray();
+        }
+    }
+
+    private static boolean notNull(Expression expr) {
+        if (expr instanceof Expression.Literal) {
+            return ((Expression.Literal)expr).value != null;
+        } else if (expr instanceof Expression.Convert) {
+            return ((Expression.Convert)expr).expr.type != Type.STRING;
+        } else if (expr instanceof Expression.Apply) {
+            return ((Expression.Apply)expr).name.equals("&");
+        }
+        return false;
+    }
+
+    private static boolean same(Expression a, Expression b) {
+        if (a.type != b.type || a.getClass() != b.getClass()) {
+            return false;
+        } else if (a instanceof Expression.Literal) {
+            Object va = ((Expression.Literal)a).value;
+            Object vb = ((Expression.Literal)b).value;
+            return va == null ? vb == null : va.equals(vb);
+        } else if (a instanceof Expression.Load) {
+            return ((Expression.Load)a).var == ((Expression.Load)b).var;
+        } else if (a instanceof Expression.Convert) {
+            return ((Expression.Convert)a).chain
+                    == ((Expression.Convert)b).chain
+                    && same(((Expression.Convert)a).expr,
+                            ((Expression.Convert)b).expr);
+        } else if (a instanceof Expression.Negate) {
+            return same(((Expression.Negate)a).expr,
+                    ((Expression.Negate)b).expr);
+        } else if (a instanceof Expression.Apply) {
+            Expression.Apply fa = (Expression.Apply)a;
+            Expression.Apply fb = (Expression.Apply)b;
+            if (fa.function != fb.function
+                    || fa.args.size() != fb.args.size()) {
+                return false;
+            }
+            for (int i = 0; i < fa.args.size(); ++i) {
+                if (!same(fa.args.get(i), fb.args.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // an induction variable: var = var + step, var = step + var, or
+    // var = var - step; the products are updated with the same operator
+    private static class Induction {
+        private final int index;
+        private final Expression.Apply expr;
+        private final int step;
+
+        private Induction(int index, Expression.Apply expr, int step) {
+            this.index = index;
+            this.expr = expr;
+            this.step = step;
+        }
+    }
+
+    // strength reduction of the products of induction variables
+    private Statement.While reduce(Statement.While loop, Expression cond,
+            Statement.Block body, final Map<Variable,Integer> assigned,
+            List<Statement> before) {
+        final Map<Variable,Induction> inductions = new HashMap<>();
+        for (int i = 0; i < body.statements.size(); ++i) {
+            Statement s = body.statements.get(i);
+            if (s instanceof Statement.Assign) {
+                Statement.Assign assign = (Statement.Assign)s;
+                Integer step = step(assign);
+                if (step != null && assigned.get(assign.var) == 1) {
+                    inductions.put(assign.var, new Induction(
+                            i, (Expression.Apply)assign.expr, step));
+                }
+            }
+        }
+        if (inductions.isEmpty()) {
+            return new Statement.While(cond, body, loop.line, loop.column);
+        }
+        // the variable that holds each product
+        final Map<Expression.Apply,Variable> products = new LinkedHashMap<>();
+        TreeRewriter reducer = new TreeRewriter() {
+            @Override
+            public Expression visitApply(Expression.Apply expr) {
+                Variable iv = inductionOf(expr, inductions, assigned);
+                if (iv == null) {
+                    return super.visitApply(expr);
+                }
+                for (Map.Entry<Expression.Apply,Variable> e
+                        : products.entrySet()) {
+                    if (same(e.getKey(), expr)) {
+                        return new Expression.Load(e.getValue());
+                    }
+                }
+                Variable var = newVariable(Type.INT);
+                products.put(expr, var);
+                return new Expression.Load(var);
+            }
+        };
+        cond = reducer.rewrite(cond);
+        body = reducer.rewriteBlock(body);
+        if (products.isEmpty()) {
+            return new Statement.While(cond, body, loop.line, loop.column);
+        }
+        // the updates follow the increments
+        List<List<Statement>> updates = new ArrayList<>();
+        for (int i = 0; i < body.statements.size(); ++i) {
+            updates.add(new ArrayList<Statement>());
+        }
+        for (Map.Entry<Expression.Apply,Variable> e: products.entrySet()) {
+            Expression.Apply product = e.getKey();
+            Variable var = e.getValue();
+            Variable iv = inductionOf(product, inductions, assigned);
+            Induction ind = inductions.get(iv);
+            Expression factor = factorOf(product, iv);
+            Expression delta;
+            if (factor instanceof Expression.Literal) {
+                delta = new Expression.Literal(Type.INT,
+                        ind.step * (Integer)((Expression.Literal)factor).value);
+            } else if (ind.step == 1) {
+                delta = factor;
+            } else {
+                List<Expression> args = new ArrayList<>();
+                args.add(new Expression.Literal(Type.INT, ind.step));
+                args.add(factor);
+                Variable d = newVariable(Type.INT);
+                before.add(new Statement.Declare(d, new Expression.Apply(
+                        product.name, product.function, true, args)));
+                delta = new Expression.Load(d);
+            }
+            before.add(new Statement.Declare(var, product));
+            assigned.put(var, 1);
+            List<Expression> args = new ArrayList<>();
+            args.add(new Expression.Load(var));
+            args.add(delta);
+            updates.get(ind.index).add(new Statement.Assign(var,
+                    new Expression.Apply(ind.expr.name, ind.expr.function,
+                            true, args)));
+        }
+        List<Statement> list = new ArrayList<>();
+        for (int i = 0; i < body.statements.size(); ++i) {
+            list.add(body.statements.get(i));
+            list.addAll(updates.get(i));
+        }
+        return new Statement.While(cond, new Statement.Block(list),
+                loop.line, loop.column);
+    }
+
+    // the step of an assignment var = var + n, var = n + var or
+    // var = var - n, as written, or null
+    private static Integer step(Statement.Assign assign) {
+        if (assign.var.type != Type.INT
+                || !(assign.expr instanceof Expression.Apply)) {
+            return null;
+        }
+        Expression.Apply apply = (Expression.Apply)assign.expr;
+        if (!apply.operator || apply.type != Type.INT
+                || apply.args.size() != 2) {
+            return null;
+        }
+        Expression left = apply.args.get(0);
+        Expression right = apply.args.get(1);
+        if (apply.name.equals("+")) {
+            if (isLoad(left, assign.var) && isIntLiteral(right)) {
+                return (Integer)((Expression.Literal)right).value;
+            } else if (isLoad(right, assign.var) && isIntLiteral(left)) {
+                return (Integer)((Expression.Literal)left).value;
+            }
+        } else if (apply.name.equals("-")) {
+            if (isLoad(left, assign.var) && isIntLiteral(right)) {
+                return (Integer)((Expression.Literal)right).value;
+            }
+        }
+        return null;
+    }
+
+    // the induction variable of a product iv * factor or factor * iv, where
+    // the factor is a literal or an invariant variable, or null
+    private static Variable inductionOf(Expression.Apply expr,
+            Map<Variable,Induction> inductions,
+            Map<Variable,Integer> assigned) {
+        if (!expr.operator || !expr.name.equals("*")
+                || expr.type != Type.INT || expr.args.size() != 2) {
+            return null;
+        }
+        for (int i = 0; i < 2; ++i) {
+            Expression iv = expr.args.get(i);
+            Expression factor = expr.args.get(1 - i);
+            if (iv instanceof Expression.Load
+                    && inductions.containsKey(((Expression.Load)iv).var)
+                    && (isIntLiteral(factor)
+                        || factor instanceof Expression.Load
+                        && !assigned.containsKey(
+                                ((Expression.Load)factor).var))) {
+                return ((Expression.Load)iv).var;
+            }
+        }
+        return null;
+    }
+
+    private static Expression factorOf(Expression.Apply product,
+            Variable iv) {
+        Expression left = product.args.get(0);
+        return isLoad(left, iv) ? product.args.get(1) : left;
+    }
+
+    private static boolean isLoad(Expression expr, Variable var) {
+        return expr instanceof Expression.Load
+                && ((Expression.Load)expr).var == var;
+    }
+
+    private static boolean isIntLiteral(Expression expr) {
+        return expr instanceof Expression.Literal && expr.type == Type.INT
+                && ((Expression.Literal)expr).value != null;
+    }
+}
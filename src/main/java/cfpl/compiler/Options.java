@@ -0,0 +1,140 @@
+package cfpl.compiler;
+
+public class Options {
+    // the class file major version: 48 is Java 1.4, 52 is Java 8
+    public static final int DEFAULT_TARGET = 48;
+    public static final int MIN_TARGET = 45;
+    public static final int MAX_TARGET = 69;
+
+    private boolean foldConstants = true;
+    private boolean bufferedOutput = true;
+    private boolean optimizeLoops;
+    private boolean peephole = true;
+    private boolean profile;
+    private boolean outline = true;
+    private int target = DEFAULT_TARGET;
+
+    public boolean getFoldConstants() {
+        return foldConstants;
+    }
+
+    public void setFoldConstants(boolean foldConstants) {
+        this.foldConstants = foldConstants;
+    }
+
+    public boolean getBufferedOutput() {
+        return bufferedOutput;
+    }
+
+    public void setBufferedOutput(boolean bufferedOutput) {
+        this.bufferedOutput = bufferedOutput;
+    }
+
+    public boolean getOptimizeLoops() {
+        return optimizeLoops;
+    }
+
+    public void setOptimizeLoops(boolean optimizeLoops) {
+        this.optimizeLoops = optimizeLoops;
+    }
+
+    public boolean getPeephole() {
+        return peephole;
+    }
+
+    public void setPeephole(boolean peephole) {
+        this.peephole = peephole;
+    }
+
+    public boolean getProfile() {
+        return profile;
+    }
+
+    public void setProfile(boolean profile) {
+        this.profile = profile;
+    }
+
+    public boolean getOutline() {
+        return outline;
+    }
+
+    public void setOutline(boolean outline) {
+        this.outline = outline;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public void setTarget(int target) {
+        if (target < MIN_TARGET || target > MAX_TARGET) {
+            throw new IllegalArgumentException(
+                    "Invalid class file version: " + target);
+        }
+        this.target = target;
+    }
+
+    // the options that differ from the defaults, as on the command line
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        if (!foldConstants) {
+            buf.append(" -nofold");
+        }
+        if (!bufferedOutput) {
+            buf.append(" -println");
+        }
+        if (optimizeLoops) {
+            buf.append(" -O");
+        }
+        if (!peephole) {
+            buf.append(" -nopeephole");
+        }
+        if (profile) {
+            buf.append(" -profile");
+        }
+        if (!outline) {
+            buf.append(" -nooutline");
+        }
+        if (target != DEFAULT_TARGET) {
+            buf.append(" -target=").append(target);
+        }
+        return buf.toString().trim();
+    }
+
+    // handles a command line option; returns false if it is not a compiler
+    // option
+    public boolean parse(String arg) {
+        switch (arg) {
+            case "-nofold":
+                foldConstants = false;
+                return true;
+            case "-println":
+                bufferedOutput = false;
+                return true;
+            case "-O":
+                optimizeLoops = true;
+                return true;
+            case "-nopeephole":
+                peephole = false;
+                return true;
+            case "-profile":
+                profile = true;
+                return true;
+            case "-nooutline":
+                outline = false;
+                return true;
+            default:
+                if (arg.startsWith("-target=")) {
+                    try {
+                        setTarget(Integer.parseInt(arg.substring(8)));
+                        return true;
+                    } catch (IllegalArgumentException ex) {
+                        // invalid number or version
+                        return false;
+                    }
+                }
+                return false;
+        }
+    }
+}
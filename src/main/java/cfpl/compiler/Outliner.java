@@ -0,0 +1,499 @@
+package cfpl.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.tastefuljava.classfile.CodeBuilder;
+import org.tastefuljava.classfile.ConstantPool;
+
+// Moves parts of a program that is too large into private static methods of
+// its class: HotSpot does not compile the methods of more than 8000 bytes
+// of bytecode (DontCompileHugeMethods), and a method cannot have more than
+// 64KB.
+// The size of a statement is measured by emitting it. When the body of a
+// block is too large, the statements that are too large by themselves are
+// split first, then the WHILE loops move to methods of their own, so that
+// the hot loops are compiled on their own, and then the consecutive
+// statements are grouped into methods.
+// The variables that a part uses are passed as parameters; those that it
+// assigns and the rest of the program uses are written back through a
+// cfpl.runtime.Results, which the caller passes as the first parameter.
+// The bodies of the PARALLEL loops always move to methods, which
+// cfpl.runtime.Parallel calls for each chunk: the parameters are the index,
+// the end of the chunk and the variables that the body reads, and the
+// results are the partial values of the reductions.
+class Outliner {
+    // above this, main is split; there is some room for what the measures
+    // miss (the iload_n forms, ldc_w, wide)
+    static final int MAX_SIZE = 7000;
+    // the size of the parts
+    private static final int PART_SIZE = 3000;
+    // the smaller loops stay where they are
+    private static final int MIN_LOOP_SIZE = 64;
+    // the parameters of a method have at most 255 slots, with the results
+    static final int MAX_PARAM_SLOTS = 254;
+    // the slot of the variables when a statement is measured: the iload
+    // form with an index
+    private static final int MEASURE_SLOT = 4;
+
+    private final String className;
+    private final Options options;
+    private final List<Method> methods = new ArrayList<>();
+    private final Map<Statement,Integer> sizes = new IdentityHashMap<>();
+    private final Map<Statement.Call,Method> calls = new IdentityHashMap<>();
+    private Usage total;
+
+    // main, or a part of it
+    static class Method {
+        final String name;
+        final List<Variable> params;
+        final List<Variable> results;
+        final Statement.Block body;
+        // the body of a PARALLEL loop
+        final boolean parallel;
+        private final Usage usage;
+
+        Method(Statement.Block body) {
+            this("main", Collections.<Variable>emptyList(),
+                    Collections.<Variable>emptyList(), body, false, null);
+        }
+
+        private Method(String name, List<Variable> params,
+                List<Variable> results, Statement.Block body,
+                boolean parallel, Usage usage) {
+            this.name = name;
+            this.params = params;
+            this.results = results;
+            this.body = body;
+            this.parallel = parallel;
+            this.usage = usage;
+        }
+    }
+
+    // the references to the variables of the original statements
+    private class Usage extends TreeScanner {
+        private final Map<Variable,Integer> refs = new LinkedHashMap<>();
+        private final Map<Variable,Integer> declares = new HashMap<>();
+        private final Set<Variable> assigned = new HashSet<>();
+
+        private Usage(List<Statement> list) {
+            for (Statement s: list) {
+                scan(s);
+            }
+        }
+
+        @Override
+        public Void visitDeclare(Statement.Declare stmt) {
+            ref(stmt.var, 1);
+            add(declares, stmt.var, 1);
+            assigned.add(stmt.var);
+            return super.visitDeclare(stmt);
+        }
+
+        @Override
+        public Void visitAssign(Statement.Assign stmt) {
+            ref(stmt.var, 1);
+            assigned.add(stmt.var);
+            return super.visitAssign(stmt);
+        }
+
+        @Override
+        public Void visitStore(Statement.Store stmt) {
+            // the elements change, not the array
+            ref(stmt.var, 1);
+            return super.visitStore(stmt);
+        }
+
+        @Override
+        public Void visitLoad(Expression.Load expr) {
+            ref(expr.var, 1);
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Statement.Call stmt) {
+            // the statements of the method
+            Usage usage = calls.get(stmt).usage;
+            for (Map.Entry<Variable,Integer> e: usage.refs.entrySet()) {
+                ref(e.getKey(), e.getValue());
+            }
+            for (Map.Entry<Variable,Integer> e: usage.declares.entrySet()) {
+                add(declares, e.getKey(), e.getValue());
+            }
+            assigned.addAll(usage.assigned);
+            return null;
+        }
+
+        @Override
+        public Void visitParallel(Statement.Parallel stmt) {
+            // the body is in its own method
+            scan(stmt.first);
+            scan(stmt.last);
+            for (Variable var: stmt.call.args) {
+                ref(var, 1);
+            }
+            for (Variable var: stmt.reductions) {
+                ref(var, 1);
+                assigned.add(var);
+            }
+            return null;
+        }
+
+        private void ref(Variable var, int count) {
+            add(refs, var, count);
+        }
+
+        private int count(Map<Variable,Integer> map, Variable var) {
+            Integer n = map.get(var);
+            return n == null ? 0 : n;
+        }
+    }
+
+    Outliner(String className, Options options) {
+        this.className = className;
+        this.options = options;
+    }
+
+    static boolean hasParallel(Statement.Block program) {
+        final boolean[] found = new boolean[1];
+        new TreeScanner() {
+            @Override
+            public Void visitParallel(Statement.Parallel stmt) {
+                found[0] = true;
+                return null;
+            }
+        }.scan(program);
+        return found[0];
+    }
+
+    // main first, then the methods that it calls
+    List<Method> outline(Statement.Block program) {
+        program = new TreeRewriter() {
+            @Override
+            public Statement visitParallel(Statement.Parallel stmt) {
+                return parallel(stmt);
+            }
+        }.rewriteBlock(program);
+        if (options.getOutline()) {
+            total = new Usage(Collections.<Statement>singletonList(program));
+            if (size(program) > MAX_SIZE) {
+                program = shrink(program, PART_SIZE);
+            }
+        }
+        List<Method> result = new ArrayList<>();
+        result.add(new Method(program));
+        result.addAll(methods);
+        return result;
+    }
+
+    private Statement.Block shrink(Statement.Block block, int limit) {
+        if (size(block) <= limit) {
+            return block;
+        }
+        List<Statement> list = new ArrayList<>();
+        for (Statement s: block.statements) {
+            list.add(size(s) > PART_SIZE ? splitInside(s) : s);
+        }
+        if (size(list) > limit) {
+            for (int i = 0; i < list.size(); ++i) {
+                Statement s = list.get(i);
+                if (s instanceof Statement.While
+                        && size(s) >= MIN_LOOP_SIZE) {
+                    Statement call = outline(list.subList(i, i + 1));
+                    if (call != null) {
+                        list.set(i, call);
+                    }
+                }
+            }
+        }
+        while (size(list) > limit) {
+            List<Statement> grouped = group(list);
+            if (grouped.size() == list.size()) {
+                // nothing could move
+                break;
+            }
+            list = grouped;
+        }
+        return new Statement.Block(list);
+    }
+
+    private Statement splitInside(Statement stmt) {
+        if (stmt instanceof Statement.Block) {
+            return shrink((Statement.Block)stmt, PART_SIZE);
+        } else if (stmt instanceof Statement.If) {
+            Statement.If s = (Statement.If)stmt;
+            Statement.Block elsePart = s.elsePart == null
+                    ? null : shrink(s.elsePart, PART_SIZE);
+            return new Statement.If(s.cond, shrink(s.thenPart, PART_SIZE),
+                    elsePart, s.line, s.column);
+        } else if (stmt instanceof Statement.While) {
+            Statement.While s = (Statement.While)stmt;
+            return new Statement.While(s.cond, shrink(s.body, PART_SIZE),
+                    s.line, s.column);
+        }
+        // a single statement: there is nothing to split
+        return stmt;
+    }
+
+    // moves the runs of consecutive statements of at most PART_SIZE bytes to
+    // methods
+    private List<Statement> group(List<Statement> list) {
+        List<Statement> result = new ArrayList<>();
+        int start = 0;
+        int size = 0;
+        for (int i = 0; i <= list.size(); ++i) {
+            int s = i < list.size() ? size(list.get(i)) : 0;
+            if (i == list.size() || (size + s > PART_SIZE && i > start)) {
+                List<Statement> run = list.subList(start, i);
+                Statement call = run.size() > 1 ? outline(run) : null;
+                if (call == null) {
+                    result.addAll(run);
+                } else {
+                    result.add(call);
+                }
+                start = i;
+                size = 0;
+            }
+            size += s;
+        }
+        return result;
+    }
+
+    // the call to a new method with the statements, or null if they cannot
+    // move
+    private Statement outline(List<Statement> list) {
+        Usage usage = new Usage(list);
+        // the variables that a statement of the list defines before the
+        // others use them: the method defines them too
+        Set<Variable> defined = new HashSet<>();
+        Usage before = new Usage(Collections.<Statement>emptyList());
+        for (Statement s: list) {
+            if (s instanceof Statement.Declare) {
+                Statement.Declare decl = (Statement.Declare)s;
+                before.scan(decl.init);
+                if (!before.refs.containsKey(decl.var)) {
+                    defined.add(decl.var);
+                }
+            } else if (s instanceof Statement.Call) {
+                Statement.Call call = (Statement.Call)s;
+                for (Variable var: call.results) {
+                    if (!before.refs.containsKey(var)
+                            && !call.args.contains(var)) {
+                        defined.add(var);
+                    }
+                }
+            }
+            before.scan(s);
+        }
+        List<Variable> params = new ArrayList<>();
+        List<Variable> results = new ArrayList<>();
+        int slots = 0;
+        for (Variable var: usage.refs.keySet()) {
+            int declares = usage.count(usage.declares, var);
+            boolean outside = total.count(total.declares, var) > declares;
+            boolean usedAfter = total.count(total.refs, var)
+                    > usage.count(usage.refs, var);
+            if (defined.contains(var)) {
+                // set by the method
+            } else if (declares == 0 || outside) {
+                params.add(var);
+                slots += var.type.size;
+            } else if (usedAfter) {
+                // declared somewhere inside: it might not be set at the end
+                return null;
+            }
+            if (usedAfter && usage.assigned.contains(var)) {
+                results.add(var);
+            }
+        }
+        if (slots > MAX_PARAM_SLOTS) {
+            return null;
+        }
+        String name = "main$" + (methods.size() + 1);
+        Method method = new Method(name, params, results,
+                new Statement.Block(new ArrayList<>(list)), false, usage);
+        methods.add(method);
+        Statement.Call call = new Statement.Call(
+                className, name, params, results);
+        calls.put(call, method);
+        return call;
+    }
+
+    // the loop with its body moved to a method
+    private Statement parallel(Statement.Parallel stmt) {
+        final Set<Variable> declared = new HashSet<>();
+        final Set<Variable> used = new LinkedHashSet<>();
+        new TreeScanner() {
+            @Override
+            public Void visitDeclare(Statement.Declare stmt) {
+                declared.add(stmt.var);
+                return super.visitDeclare(stmt);
+            }
+
+            @Override
+            public Void visitAssign(Statement.Assign stmt) {
+                used.add(stmt.var);
+                return super.visitAssign(stmt);
+            }
+
+            @Override
+            public Void visitStore(Statement.Store stmt) {
+                used.add(stmt.var);
+                return super.visitStore(stmt);
+            }
+
+            @Override
+            public Void visitLoad(Expression.Load expr) {
+                used.add(expr.var);
+                return null;
+            }
+        }.scan(stmt.body);
+        List<Variable> params = new ArrayList<>();
+        params.add(stmt.index);
+        params.add(stmt.end);
+        List<Variable> args = new ArrayList<>();
+        int slots = 2;
+        for (Variable var: used) {
+            if (var != stmt.index && var != stmt.end
+                    && !declared.contains(var)) {
+                args.add(var);
+                slots += var.type.size;
+            }
+        }
+        if (slots > MAX_PARAM_SLOTS) {
+            // Compiler.parallelLoop has rejected the body
+            throw new AssertionError(stmt.line);
+        }
+        params.addAll(args);
+        String name = "parallel$" + (methods.size() + 1);
+        methods.add(new Method(name, params, stmt.reductions, stmt.body,
+                true, null));
+        return new Statement.Parallel(stmt.index, stmt.end, stmt.first,
+                stmt.last, stmt.reductions, stmt.operators, null,
+                new Statement.Call(className, name, args, stmt.reductions),
+                stmt.line, stmt.column);
+    }
+
+    private int size(List<Statement> list) {
+        int size = 0;
+        for (Statement s: list) {
+            size += size(s);
+        }
+        return size;
+    }
+
+    private int size(Statement stmt) {
+        Integer size = sizes.get(stmt);
+        if (size == null) {
+            size = measure(stmt);
+            sizes.put(stmt, size);
+        }
+        return size;
+    }
+
+    // the blocks are the sum of their statements, and IF and WHILE are
+    // measured without their blocks: the statements that are rebuilt around
+    // the parts that moved do not measure their blocks again, and the
+    // deeply nested blocks are measured once
+    private int measure(Statement stmt) {
+        Statement.Block empty = new Statement.Block(
+                Collections.<Statement>emptyList());
+        if (stmt instanceof Statement.Block) {
+            return size(((Statement.Block)stmt).statements);
+        } else if (stmt instanceof Statement.If) {
+            Statement.If s = (Statement.If)stmt;
+            int size = emitted(new Statement.If(s.cond, empty,
+                    s.elsePart == null ? null : empty, s.line, s.column));
+            return size + size(s.thenPart)
+                    + (s.elsePart == null ? 0 : size(s.elsePart));
+        } else if (stmt instanceof Statement.While) {
+            Statement.While s = (Statement.While)stmt;
+            return emitted(new Statement.While(s.cond, empty, s.line,
+                    s.column)) + size(s.body);
+        }
+        return emitted(stmt);
+    }
+
+    // the number of bytes of the code of a statement, with the parameters
+    // of the calls
+    private int emitted(Statement stmt) {
+        Statement.Block block = new Statement.Block(
+                Collections.singletonList(stmt));
+        block = new TreeRewriter() {
+            @Override
+            public Statement visitDeclare(Statement.Declare stmt) {
+                return new Statement.Declare(
+                        measured(stmt.var), rewrite(stmt.init));
+            }
+
+            @Override
+            public Statement visitAssign(Statement.Assign stmt) {
+                return new Statement.Assign(
+                        measured(stmt.var), rewrite(stmt.expr));
+            }
+
+            @Override
+            public Statement visitStore(Statement.Store stmt) {
+                return new Statement.Store(measured(stmt.var),
+                        rewrite(stmt.index), rewrite(stmt.expr),
+                        stmt.function);
+            }
+
+            @Override
+            public Statement visitCall(Statement.Call stmt) {
+                return new Statement.Call(stmt.owner, stmt.name,
+                        measured(stmt.args), measured(stmt.results));
+            }
+
+            @Override
+            public Statement visitParallel(Statement.Parallel stmt) {
+                Statement.Call call = stmt.call;
+                return new Statement.Parallel(stmt.index, stmt.end,
+                        rewrite(stmt.first), rewrite(stmt.last),
+                        measured(stmt.reductions), stmt.operators, null,
+                        new Statement.Call(call.owner, call.name,
+                                measured(call.args), measured(call.results)),
+                        stmt.line, stmt.column);
+            }
+
+            @Override
+            public Expression visitLoad(Expression.Load expr) {
+                return new Expression.Load(measured(expr.var));
+            }
+        }.rewriteBlock(block);
+        CodeBuilder cb = new CodeBuilder(new ConstantPool(), 0);
+        cb.newLocal(MEASURE_SLOT + 2);
+        Profiler profiler = null;
+        if (options.getProfile()) {
+            profiler = new Profiler(className,
+                    Collections.singletonList(block)).at(cb, MEASURE_SLOT);
+        }
+        new Emitter(cb, options, profiler).emit(block);
+        return cb.getBytes().length;
+    }
+
+    private static Variable measured(Variable var) {
+        return new Variable(var.type, MEASURE_SLOT);
+    }
+
+    private static List<Variable> measured(List<Variable> vars) {
+        List<Variable> result = new ArrayList<>();
+        for (Variable var: vars) {
+            result.add(measured(var));
+        }
+        return result;
+    }
+
+    private static void add(Map<Variable,Integer> map, Variable var,
+            int count) {
+        Integer n = map.get(var);
+        map.put(var, n == null ? count : n + count);
+    }
+}
@@ -0,0 +1,507 @@
+package cfpl.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Peephole optimizer of the Code attribute built by the CodeBuilder. The code
+// is decoded into a list of instructions whose jumps point to instructions,
+// rewritten until nothing changes, and encoded again in the shortest forms:
+// - jumps to gotos go to the final target, a goto to a return becomes the
+//   return, and a goto to the next instruction disappears;
+// - a conditional jump over a goto becomes the opposite jump;
+// - a constant tested by IFEQ or IFNE (the 0 or 1 of a comparison or of a
+//   conversion to BOOL) becomes a goto to the branch that it takes;
+// - a store followed by a load of the same variable becomes dup and store;
+// - the negation of an integer constant becomes the negated constant;
+// - the unreachable code is dropped.
+// The code is returned unchanged if it has exception handlers, attributes,
+// or instructions that are not handled (subroutines and switches).
+final class Peephole {
+    private static final int ICONST_M1 = 0x02;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD = 0x19;
+    private static final int ILOAD_0 = 0x1a;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int ISTORE_0 = 0x3b;
+    private static final int ASTORE_3 = 0x4e;
+    private static final int DUP = 0x59;
+    private static final int DUP2 = 0x5c;
+    private static final int INEG = 0x74;
+    private static final int IINC = 0x84;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ACMPNE = 0xa6;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int ATHROW = 0xbf;
+    private static final int WIDE = 0xc4;
+    private static final int IFNULL = 0xc6;
+    private static final int IFNONNULL = 0xc7;
+
+    // the lengths of the instructions that are copied as they are; 0 for
+    // the unhandled ones
+    private static final int[] LENGTHS = new int[256];
+
+    static {
+        for (int op = 0; op <= 0xc7; ++op) {
+            LENGTHS[op] = 1;
+        }
+        LENGTHS[0x14] = 3;                      // ldc2_w
+        for (int op = 0xa8; op <= 0xab; ++op) {  // jsr, ret, switches
+            LENGTHS[op] = 0;
+        }
+        for (int op = 0xb2; op <= 0xb8; ++op) {  // fields and invokes
+            LENGTHS[op] = 3;
+        }
+        LENGTHS[0xb9] = 5;                      // invokeinterface
+        LENGTHS[0xba] = 5;                      // invokedynamic
+        LENGTHS[0xbb] = 3;                      // new
+        LENGTHS[0xbc] = 2;                      // newarray
+        LENGTHS[0xbd] = 3;                      // anewarray
+        LENGTHS[0xc0] = 3;                      // checkcast
+        LENGTHS[0xc1] = 3;                      // instanceof
+        LENGTHS[0xc5] = 4;                      // multianewarray
+    }
+
+    private static class Insn {
+        // ILOAD...ALOAD and ISTORE...ASTORE stand for all their forms,
+        // BIPUSH for all the integer constants, and LDC for ldc and ldc_w
+        private int op;
+        // the variable, the constant or the constant pool index
+        private int arg;
+        // the increment of iinc
+        private int inc;
+        // the operands of the other instructions
+        private byte[] operands;
+        private Insn target;
+        // the offset of the instruction, or the target offset while decoding
+        private int offset;
+        private int targetOffset;
+
+        private Insn(int op) {
+            this.op = op;
+        }
+    }
+
+    private final List<Insn> code = new ArrayList<>();
+    // the slots that the dups of combine() may add to the stack
+    private int extraStack;
+
+    private Peephole() {
+    }
+
+    // returns the optimized Code attribute, or the same one
+    static byte[] optimize(byte[] attribute) {
+        ByteBuffer in = ByteBuffer.wrap(attribute);
+        int maxStack = in.getShort() & 0xffff;
+        int maxLocals = in.getShort() & 0xffff;
+        int length = in.getInt();
+        int start = in.position();
+        in.position(start + length);
+        if (in.getShort() != 0 || in.getShort() != 0) {
+            // exception handlers or attributes
+            return attribute;
+        }
+        Peephole p = new Peephole();
+        if (!p.decode(attribute, start, length)) {
+            return attribute;
+        }
+        p.rewrite();
+        byte[] bytes = p.encode();
+        if (bytes == null || bytes.length > length) {
+            return attribute;
+        }
+        try {
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bo);
+            out.writeShort(Math.min(maxStack + p.extraStack, 0xffff));
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0);
+            out.writeShort(0);
+            return bo.toByteArray();
+        } catch (IOException ex) {
+            // not with a byte array
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private boolean decode(byte[] bytes, int start, int length) {
+        ByteBuffer in = ByteBuffer.wrap(bytes, start, length).slice();
+        Map<Integer,Insn> byOffset = new HashMap<>();
+        while (in.hasRemaining()) {
+            int offset = in.position();
+            int op = in.get() & 0xff;
+            Insn insn;
+            if (op >= ICONST_M1 && op <= 0x08) {
+                insn = new Insn(BIPUSH);
+                insn.arg = op - ICONST_M1 - 1;
+            } else if (op == BIPUSH) {
+                insn = new Insn(BIPUSH);
+                insn.arg = in.get();
+            } else if (op == SIPUSH) {
+                insn = new Insn(BIPUSH);
+                insn.arg = in.getShort();
+            } else if (op == LDC) {
+                insn = new Insn(LDC);
+                insn.arg = in.get() & 0xff;
+            } else if (op == LDC_W) {
+                insn = new Insn(LDC);
+                insn.arg = in.getShort() & 0xffff;
+            } else if (op >= ILOAD && op <= ALOAD
+                    || op >= ISTORE && op <= ASTORE) {
+                insn = new Insn(op);
+                insn.arg = in.get() & 0xff;
+            } else if (op >= ILOAD_0 && op <= ALOAD_3) {
+                insn = new Insn(ILOAD + (op - ILOAD_0)/4);
+                insn.arg = (op - ILOAD_0)%4;
+            } else if (op >= ISTORE_0 && op <= ASTORE_3) {
+                insn = new Insn(ISTORE + (op - ISTORE_0)/4);
+                insn.arg = (op - ISTORE_0)%4;
+            } else if (op == IINC) {
+                insn = new Insn(IINC);
+                insn.arg = in.get() & 0xff;
+                insn.inc = in.get();
+            } else if (op == WIDE) {
+                op = in.get() & 0xff;
+                if (op == IINC) {
+                    insn = new Insn(IINC);
+                    insn.arg = in.getShort() & 0xffff;
+                    insn.inc = in.getShort();
+                } else if (op >= ILOAD && op <= ALOAD
+                        || op >= ISTORE && op <= ASTORE) {
+                    insn = new Insn(op);
+                    insn.arg = in.getShort() & 0xffff;
+                } else {
+                    return false;
+                }
+            } else if (isJump(op)) {
+                insn = new Insn(op);
+                insn.targetOffset = offset + in.getShort();
+            } else if (LENGTHS[op] > 0) {
+                insn = new Insn(op);
+                insn.operands = new byte[LENGTHS[op] - 1];
+                in.get(insn.operands);
+            } else {
+                return false;
+            }
+            insn.offset = offset;
+            byOffset.put(offset, insn);
+            code.add(insn);
+        }
+        for (Insn insn: code) {
+            if (isJump(insn.op)) {
+                insn.target = byOffset.get(insn.targetOffset);
+                if (insn.target == null) {
+                    return false;
+                }
+            }
+        }
+        return !code.isEmpty();
+    }
+
+    private void rewrite() {
+        boolean changed = true;
+        while (changed) {
+            changed = threadJumps();
+            changed |= foldConstantTests();
+            changed |= invertJumps();
+            changed |= combine();
+            changed |= removeUnreachable();
+        }
+    }
+
+    private boolean threadJumps() {
+        boolean changed = false;
+        Set<Insn> removed = new HashSet<>();
+        for (int i = 0; i < code.size(); ++i) {
+            Insn insn = code.get(i);
+            if (!isJump(insn.op)) {
+                continue;
+            }
+            Insn target = follow(insn.target);
+            if (target != insn.target) {
+                insn.target = target;
+                changed = true;
+            }
+            if (insn.op == GOTO && target.op == RETURN) {
+                insn.op = RETURN;
+                insn.target = null;
+                changed = true;
+            } else if (insn.op == GOTO && i + 1 < code.size()
+                    && target == code.get(i + 1)) {
+                removed.add(insn);
+            }
+        }
+        return remove(removed) || changed;
+    }
+
+    // the first instruction that is not a goto, from the given one; the
+    // same one if the gotos loop
+    private static Insn follow(Insn insn) {
+        Set<Insn> seen = new HashSet<>();
+        Insn p = insn;
+        while (p.op == GOTO && seen.add(p)) {
+            p = p.target;
+        }
+        return p.op == GOTO ? insn : p;
+    }
+
+    // a constant followed (after gotos) by ifeq or ifne
+    private boolean foldConstantTests() {
+        boolean changed = false;
+        Map<Insn,Integer> index = index();
+        for (int i = 0; i + 1 < code.size(); ++i) {
+            Insn insn = code.get(i);
+            if (insn.op != BIPUSH) {
+                continue;
+            }
+            Insn test = follow(code.get(i + 1));
+            int j = index.get(test);
+            if ((test.op == IFEQ || test.op == IFNE) && j + 1 < code.size()) {
+                boolean taken = (insn.arg == 0) == (test.op == IFEQ);
+                insn.op = GOTO;
+                insn.target = taken ? test.target : code.get(j + 1);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // if<cond> L; goto M; L: becomes if<!cond> M; L:
+    private boolean invertJumps() {
+        Set<Insn> targets = targets();
+        Set<Insn> removed = new HashSet<>();
+        for (int i = 0; i + 2 < code.size(); ++i) {
+            Insn insn = code.get(i);
+            Insn next = code.get(i + 1);
+            if (isConditional(insn.op) && next.op == GOTO
+                    && insn.target == code.get(i + 2)
+                    && !targets.contains(next) && !removed.contains(insn)) {
+                insn.op = invert(insn.op);
+                insn.target = next.target;
+                removed.add(next);
+            }
+        }
+        return remove(removed);
+    }
+
+    // store x; load x and iconst c; ineg
+    private boolean combine() {
+        Set<Insn> targets = targets();
+        Set<Insn> removed = new HashSet<>();
+        for (int i = 0; i + 1 < code.size(); ++i) {
+            Insn insn = code.get(i);
+            Insn next = code.get(i + 1);
+            if (targets.contains(next) || removed.contains(insn)) {
+                continue;
+            }
+            if (insn.op >= ISTORE && insn.op <= ASTORE
+                    && next.op == insn.op - ISTORE + ILOAD
+                    && next.arg == insn.arg) {
+                boolean wide = insn.op == LSTORE || insn.op == DSTORE;
+                next.op = insn.op;
+                insn.op = wide ? DUP2 : DUP;
+                // the value is on the stack between the dup and the store,
+                // on top of the depth after the pair, which is that of the
+                // original code: the rewrites of the chains of stores and
+                // loads never add more than one value
+                extraStack = Math.max(extraStack, wide ? 2 : 1);
+            } else if (insn.op == BIPUSH && next.op == INEG
+                    && -insn.arg <= Short.MAX_VALUE) {
+                insn.arg = -insn.arg;
+                removed.add(next);
+            }
+        }
+        return remove(removed);
+    }
+
+    private boolean removeUnreachable() {
+        Set<Insn> reached = new HashSet<>();
+        List<Integer> stack = new ArrayList<>();
+        Map<Insn,Integer> index = index();
+        stack.add(0);
+        while (!stack.isEmpty()) {
+            int i = stack.remove(stack.size() - 1);
+            Insn insn = code.get(i);
+            if (!reached.add(insn)) {
+                continue;
+            }
+            if (isJump(insn.op)) {
+                stack.add(index.get(insn.target));
+            }
+            if (!endsFlow(insn.op) && i + 1 < code.size()) {
+                stack.add(i + 1);
+            }
+        }
+        Set<Insn> removed = new HashSet<>();
+        for (Insn insn: code) {
+            if (!reached.contains(insn)) {
+                removed.add(insn);
+            }
+        }
+        return remove(removed);
+    }
+
+    // the positions of the instructions in the code
+    private Map<Insn,Integer> index() {
+        Map<Insn,Integer> index = new HashMap<>();
+        for (int i = 0; i < code.size(); ++i) {
+            index.put(code.get(i), i);
+        }
+        return index;
+    }
+
+    private Set<Insn> targets() {
+        Set<Insn> set = new HashSet<>();
+        for (Insn insn: code) {
+            if (insn.target != null) {
+                set.add(insn.target);
+            }
+        }
+        return set;
+    }
+
+    // removes instructions; the jumps to them go to the next one that is
+    // left
+    private boolean remove(Set<Insn> removed) {
+        if (removed.isEmpty()) {
+            return false;
+        }
+        Map<Insn,Insn> next = new HashMap<>();
+        Insn last = null;
+        for (int i = code.size(); --i >= 0; ) {
+            Insn insn = code.get(i);
+            if (removed.contains(insn)) {
+                next.put(insn, last);
+            } else {
+                last = insn;
+            }
+        }
+        List<Insn> list = new ArrayList<>();
+        for (Insn insn: code) {
+            if (!removed.contains(insn)) {
+                if (insn.target != null && next.containsKey(insn.target)) {
+                    insn.target = next.get(insn.target);
+                }
+                list.add(insn);
+            }
+        }
+        code.clear();
+        code.addAll(list);
+        return true;
+    }
+
+    // the code, or null if a jump is too far for a 16-bit offset
+    private byte[] encode() {
+        int offset = 0;
+        for (Insn insn: code) {
+            insn.offset = offset;
+            offset += length(insn);
+        }
+        ByteBuffer out = ByteBuffer.allocate(offset);
+        for (Insn insn: code) {
+            int op = insn.op;
+            int arg = insn.arg;
+            if (op == BIPUSH) {
+                if (arg >= -1 && arg <= 5) {
+                    out.put((byte)(ICONST_M1 + 1 + arg));
+                } else if (arg == (byte)arg) {
+                    out.put((byte)BIPUSH).put((byte)arg);
+                } else {
+                    out.put((byte)SIPUSH).putShort((short)arg);
+                }
+            } else if (op == LDC) {
+                if (arg < 256) {
+                    out.put((byte)LDC).put((byte)arg);
+                } else {
+                    out.put((byte)LDC_W).putShort((short)arg);
+                }
+            } else if (op >= ILOAD && op <= ALOAD
+                    || op >= ISTORE && op <= ASTORE) {
+                int base = op >= ISTORE ? ISTORE : ILOAD;
+                int shortBase = op >= ISTORE ? ISTORE_0 : ILOAD_0;
+                if (arg <= 3) {
+                    out.put((byte)(shortBase + (op - base)*4 + arg));
+                } else if (arg <= 0xff) {
+                    out.put((byte)op).put((byte)arg);
+                } else {
+                    out.put((byte)WIDE).put((byte)op).putShort((short)arg);
+                }
+            } else if (op == IINC) {
+                if (arg <= 0xff && insn.inc == (byte)insn.inc) {
+                    out.put((byte)IINC).put((byte)arg).put((byte)insn.inc);
+                } else {
+                    out.put((byte)WIDE).put((byte)IINC)
+                            .putShort((short)arg).putShort((short)insn.inc);
+                }
+            } else if (isJump(op)) {
+                int delta = insn.target.offset - insn.offset;
+                if (delta != (short)delta) {
+                    return null;
+                }
+                out.put((byte)op).putShort((short)delta);
+            } else {
+                out.put((byte)op);
+                if (insn.operands != null) {
+                    out.put(insn.operands);
+                }
+            }
+        }
+        return out.array();
+    }
+
+    private static int length(Insn insn) {
+        int op = insn.op;
+        int arg = insn.arg;
+        if (op == BIPUSH) {
+            return arg >= -1 && arg <= 5 ? 1 : arg == (byte)arg ? 2 : 3;
+        } else if (op == LDC) {
+            return arg < 256 ? 2 : 3;
+        } else if (op >= ILOAD && op <= ALOAD
+                || op >= ISTORE && op <= ASTORE) {
+            return arg <= 3 ? 1 : arg <= 0xff ? 2 : 4;
+        } else if (op == IINC) {
+            return arg <= 0xff && insn.inc == (byte)insn.inc ? 3 : 6;
+        } else if (isJump(op)) {
+            return 3;
+        }
+        return 1 + (insn.operands == null ? 0 : insn.operands.length);
+    }
+
+    private static boolean isJump(int op) {
+        return op >= IFEQ && op <= GOTO || op == IFNULL || op == IFNONNULL;
+    }
+
+    private static boolean isConditional(int op) {
+        return op >= IFEQ && op <= IF_ACMPNE || op == IFNULL
+                || op == IFNONNULL;
+    }
+
+    // the conditions come in pairs: eq/ne, lt/ge, gt/le, null/nonnull
+    private static int invert(int op) {
+        return op >= IFNULL ? op ^ 1 : IFEQ + ((op - IFEQ) ^ 1);
+    }
+
+    private static boolean endsFlow(int op) {
+        return op == GOTO || op >= IRETURN && op <= RETURN || op == ATHROW;
+    }
+}
@@ -0,0 +1,123 @@
+package cfpl.compiler;
+
+import cfpl.runtime.Profile;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.tastefuljava.classfile.CodeSegment;
+
+// Generates the calls to cfpl.runtime.Profile for a program compiled with
+// -profile. The sites are the OUTPUT, IF and WHILE statements of the trees
+// that are emitted, in the order of the trees; main registers them first,
+// and each method keeps the counters in a local variable.
+class Profiler extends TreeScanner {
+    private static final String PROFILE = "cfpl/runtime/Profile";
+    // a string constant has at most 65535 bytes; the sites are ASCII
+    private static final int MAX_CONSTANT = 60000;
+
+    private final String className;
+    private final Map<Statement,Integer> sites;
+    private final StringBuilder descr;
+    private final CodeSegment code;
+    private final int slot;
+
+    // the sites of the methods of a class
+    Profiler(String className, List<Statement.Block> methods) {
+        this.className = className;
+        this.sites = new IdentityHashMap<>();
+        this.descr = new StringBuilder();
+        this.code = null;
+        this.slot = -1;
+        for (Statement.Block body: methods) {
+            scan(body);
+        }
+    }
+
+    private Profiler(Profiler profiler, CodeSegment code, int slot) {
+        this.className = profiler.className;
+        this.sites = profiler.sites;
+        this.descr = profiler.descr;
+        this.code = code;
+        this.slot = slot;
+    }
+
+    // the profiler of the code of a method, with the counters in the slot
+    Profiler at(CodeSegment code, int slot) {
+        return new Profiler(this, code, slot);
+    }
+
+    @Override
+    public Void visitOutput(Statement.Output stmt) {
+        addSite(stmt, 'O', stmt.line, stmt.column);
+        return super.visitOutput(stmt);
+    }
+
+    @Override
+    public Void visitIf(Statement.If stmt) {
+        addSite(stmt, 'I', stmt.line, stmt.column);
+        return super.visitIf(stmt);
+    }
+
+    @Override
+    public Void visitWhile(Statement.While stmt) {
+        addSite(stmt, 'W', stmt.line, stmt.column);
+        return super.visitWhile(stmt);
+    }
+
+    private void addSite(Statement stmt, char kind, int line, int column) {
+        if (sites.containsKey(stmt)) {
+            // a node that the rewriters share
+            return;
+        }
+        if (descr.length() > 0) {
+            descr.append(' ');
+        }
+        descr.append(kind).append(line).append(':').append(column);
+        sites.put(stmt, Profile.COUNTERS*sites.size());
+    }
+
+    // main registers the sites; the other methods get the counters that it
+    // has registered
+    void emitRegister() {
+        code.pushString(className);
+        String s = descr.toString();
+        code.pushString(s.substring(0, Math.min(s.length(), MAX_CONSTANT)));
+        for (int i = MAX_CONSTANT; i < s.length(); i += MAX_CONSTANT) {
+            code.pushString(s.substring(i, Math.min(s.length(),
+                    i + MAX_CONSTANT)));
+            code.invokeVirtual("java/lang/String", "concat",
+                    "(Ljava/lang/String;)Ljava/lang/String;");
+        }
+        code.invokeStatic(PROFILE, "register",
+                "(Ljava/lang/String;Ljava/lang/String;)[J");
+        code.storeRef(slot);
+    }
+
+    void emitCounters() {
+        code.pushString(className);
+        code.invokeStatic(PROFILE, "counters", "(Ljava/lang/String;)[J");
+        code.storeRef(slot);
+    }
+
+    // the statement starts: counts it, and starts its timer
+    void enter(Statement stmt) {
+        int site = sites.get(stmt);
+        call("count", site + Profile.COUNT);
+        call("start", site);
+    }
+
+    // the THEN part of an IF, or the body of a WHILE
+    void taken(Statement stmt) {
+        call("count", sites.get(stmt) + Profile.TAKEN);
+    }
+
+    void exit(Statement stmt) {
+        call("stop", sites.get(stmt));
+    }
+
+    private void call(String name, int index) {
+        code.loadRef(slot);
+        code.pushInt(index);
+        code.invokeStatic(PROFILE, name, "([JI)V");
+    }
+}
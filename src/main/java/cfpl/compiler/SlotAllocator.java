@@ -0,0 +1,381 @@
+package cfpl.compiler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Gives the variables their local variable slots. The liveness of the
+// variables is computed on a flow graph of the tree, where each node is a
+// statement or the condition of an IF or a WHILE; two variables interfere
+// when one of them is assigned while the other one is live, and the others
+// can share a slot. The variables are then given the lowest free slots in
+// the order of their use counts, weighted by the loop depth, so that the
+// most used ones get the short iload_n/dload_n forms.
+// The declarations that store a literal or a default value into a variable
+// that is not live are dropped.
+// The parameters of a method of the Outliner have the slots that follow the
+// reserved ones, in their order, and the other variables come after them;
+// its results are live at the end.
+// A PARALLEL loop whose body is still in the tree is a single chunk that
+// sets the index and the end, runs the body, and then combines the
+// reductions; the interpreter runs each chunk on a copy of the variables.
+class SlotAllocator {
+    // the weight of a use is multiplied by this for each enclosing loop
+    private static final int LOOP_WEIGHT = 8;
+    private static final int MAX_DEPTH = 6;
+
+    private final Map<Variable,Integer> index = new HashMap<>();
+    private final List<Variable> vars = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private final Node exit = new Node(null, null);
+    private long[] weights = new long[16];
+    private final Map<Variable,Variable> allocated = new HashMap<>();
+    private final Set<Statement> dead = new HashSet<>();
+    private final BitSet fixed = new BitSet();
+    private int firstSlot;
+    private int slotCount;
+
+    private static class Node {
+        private final Statement stmt;
+        private final Variable def;
+        private final BitSet use = new BitSet();
+        private final List<Node> successors = new ArrayList<>();
+        private BitSet liveOut = new BitSet();
+        private BitSet liveIn = new BitSet();
+
+        private Node(Statement stmt, Variable def) {
+            this.stmt = stmt;
+            this.def = def;
+        }
+    }
+
+    // the program with the allocated variables
+    Statement.Block allocate(Statement.Block program) {
+        return allocate(program, 0, Collections.<Variable>emptyList(),
+                Collections.<Variable>emptyList());
+    }
+
+    Statement.Block allocate(Statement.Block program, int reserved,
+            List<Variable> params, List<Variable> results) {
+        firstSlot = reserved;
+        for (Variable var: params) {
+            fixed.set(index(var));
+            allocated.put(var, new Variable(var.type, firstSlot));
+            firstSlot += var.type.size;
+        }
+        slotCount = firstSlot;
+        for (Variable var: results) {
+            // the exit is not a node of the analysis
+            exit.liveIn.set(index(var));
+        }
+        build(program, exit, 0);
+        computeLiveness();
+        for (Node node: nodes) {
+            if (node.stmt instanceof Statement.Declare
+                    && !node.liveOut.get(index(node.def))) {
+                Expression init = ((Statement.Declare)node.stmt).init;
+                if (init == null || init instanceof Expression.Literal) {
+                    dead.add(node.stmt);
+                }
+            }
+        }
+        BitSet referenced = new BitSet();
+        for (Node node: nodes) {
+            if (!dead.contains(node.stmt)) {
+                referenced.or(node.use);
+                if (node.def != null) {
+                    referenced.set(index(node.def));
+                }
+            }
+        }
+        assignSlots(interferences(), referenced);
+        return new TreeRewriter() {
+            @Override
+            public Statement visitDeclare(Statement.Declare stmt) {
+                if (dead.contains(stmt)) {
+                    return new Statement.Block(new ArrayList<Statement>());
+                }
+                return new Statement.Declare(
+                        allocated.get(stmt.var), rewrite(stmt.init));
+            }
+
+            @Override
+            public Statement visitAssign(Statement.Assign stmt) {
+                return new Statement.Assign(
+                        allocated.get(stmt.var), rewrite(stmt.expr));
+            }
+
+            @Override
+            public Statement visitStore(Statement.Store stmt) {
+                return new Statement.Store(allocated.get(stmt.var),
+                        rewrite(stmt.index), rewrite(stmt.expr),
+                        stmt.function);
+            }
+
+            @Override
+            public Statement visitCall(Statement.Call stmt) {
+                return new Statement.Call(stmt.owner, stmt.name,
+                        slotsOf(stmt.args), slotsOf(stmt.results));
+            }
+
+            @Override
+            public Statement visitParallel(Statement.Parallel stmt) {
+                if (stmt.body == null) {
+                    // the index and the end are variables of the method
+                    Statement.Call call = stmt.call;
+                    return new Statement.Parallel(stmt.index, stmt.end,
+                            rewrite(stmt.first), rewrite(stmt.last),
+                            slotsOf(stmt.reductions), stmt.operators, null,
+                            new Statement.Call(call.owner, call.name,
+                                    slotsOf(call.args), slotsOf(call.results)),
+                            stmt.line, stmt.column);
+                }
+                return new Statement.Parallel(allocated.get(stmt.index),
+                        allocated.get(stmt.end), rewrite(stmt.first),
+                        rewrite(stmt.last), slotsOf(stmt.reductions),
+                        stmt.operators, rewriteBlock(stmt.body), null,
+                        stmt.line, stmt.column);
+            }
+
+            @Override
+            public Expression visitLoad(Expression.Load expr) {
+                return new Expression.Load(allocated.get(expr.var));
+            }
+        }.rewriteBlock(program);
+    }
+
+    // the allocated variables of variables of the program
+    List<Variable> slotsOf(List<Variable> vars) {
+        List<Variable> result = new ArrayList<>();
+        for (Variable var: vars) {
+            result.add(allocated.get(var));
+        }
+        return result;
+    }
+
+    // the number of slots of the allocated variables
+    int getSlotCount() {
+        return slotCount;
+    }
+
+    private int index(Variable var) {
+        Integer i = index.get(var);
+        if (i == null) {
+            i = vars.size();
+            index.put(var, i);
+            vars.add(var);
+            if (i == weights.length) {
+                long[] w = new long[2*i];
+                System.arraycopy(weights, 0, w, 0, i);
+                weights = w;
+            }
+        }
+        return i;
+    }
+
+    // builds the nodes of a statement that continues with the given node;
+    // returns the first one
+    private Node build(Statement stmt, Node next, int depth) {
+        if (stmt instanceof Statement.Block) {
+            List<Statement> list = ((Statement.Block)stmt).statements;
+            for (int i = list.size(); --i >= 0; ) {
+                next = build(list.get(i), next, depth);
+            }
+            return next;
+        } else if (stmt instanceof Statement.Declare) {
+            Statement.Declare decl = (Statement.Declare)stmt;
+            return node(stmt, decl.var, decl.init, depth, next);
+        } else if (stmt instanceof Statement.Assign) {
+            Statement.Assign assign = (Statement.Assign)stmt;
+            return node(stmt, assign.var, assign.expr, depth, next);
+        } else if (stmt instanceof Statement.Store) {
+            // the store uses the array, the index and the value
+            Statement.Store store = (Statement.Store)stmt;
+            next = node(stmt, null, store.expr, depth, next);
+            Node node = node(stmt, null, store.index, depth, next);
+            use(node, store.var, depth);
+            return node;
+        } else if (stmt instanceof Statement.Output) {
+            return node(stmt, null, ((Statement.Output)stmt).expr, depth,
+                    next);
+        } else if (stmt instanceof Statement.Call) {
+            // the call uses the arguments, then defines the results
+            Statement.Call call = (Statement.Call)stmt;
+            for (int i = call.results.size(); --i >= 0; ) {
+                next = node(stmt, call.results.get(i), null, depth, next);
+            }
+            Node node = node(stmt, null, null, depth, next);
+            for (Variable var: call.args) {
+                use(node, var, depth);
+            }
+            return node;
+        } else if (stmt instanceof Statement.If) {
+            Statement.If s = (Statement.If)stmt;
+            Node thenPart = build(s.thenPart, next, depth);
+            Node elsePart = s.elsePart == null
+                    ? next : build(s.elsePart, next, depth);
+            Node cond = node(stmt, null, s.cond, depth, thenPart);
+            cond.successors.add(elsePart);
+            return cond;
+        } else if (stmt instanceof Statement.Parallel) {
+            // the reductions combine the partial values with their own
+            Statement.Parallel s = (Statement.Parallel)stmt;
+            for (int i = s.reductions.size(); --i >= 0; ) {
+                Variable var = s.reductions.get(i);
+                next = node(stmt, var, new Expression.Load(var), depth, next);
+            }
+            List<Variable> uses = new ArrayList<>();
+            if (s.body != null) {
+                next = build(s.body, next, depth);
+                next = node(stmt, s.index, null, depth, next);
+                next = node(stmt, s.end, s.last, depth, next);
+                // the chunks change copies of the variables: the index and
+                // the reductions keep their values
+                uses.add(s.index);
+                uses.addAll(s.reductions);
+            } else {
+                next = node(stmt, null, s.last, depth, next);
+                uses.addAll(s.call.args);
+            }
+            Node node = node(stmt, null, s.first, depth, next);
+            for (Variable var: uses) {
+                use(node, var, depth);
+            }
+            return node;
+        } else {
+            Statement.While s = (Statement.While)stmt;
+            Node cond = node(stmt, null, s.cond, depth + 1, next);
+            cond.successors.add(build(s.body, cond, depth + 1));
+            return cond;
+        }
+    }
+
+    private Node node(Statement stmt, Variable def, Expression expr,
+            int depth, Node next) {
+        final Node node = new Node(stmt, def);
+        final long weight = weight(depth);
+        if (def != null) {
+            // index() can grow the array
+            int i = index(def);
+            weights[i] += weight;
+        }
+        new TreeScanner() {
+            @Override
+            public Void visitLoad(Expression.Load expr) {
+                int i = index(expr.var);
+                node.use.set(i);
+                weights[i] += weight;
+                return null;
+            }
+        }.scan(expr);
+        node.successors.add(next);
+        nodes.add(node);
+        return node;
+    }
+
+    private void use(Node node, Variable var, int depth) {
+        int i = index(var);
+        node.use.set(i);
+        weights[i] += weight(depth);
+    }
+
+    private static long weight(int depth) {
+        long weight = 1;
+        for (int i = 0; i < Math.min(depth, MAX_DEPTH); ++i) {
+            weight *= LOOP_WEIGHT;
+        }
+        return weight;
+    }
+
+    // the nodes were created backwards, which is the right order for a
+    // backward analysis; the loops take a few more passes
+    private void computeLiveness() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Node node: nodes) {
+                BitSet out = new BitSet();
+                for (Node s: node.successors) {
+                    out.or(s.liveIn);
+                }
+                BitSet in = (BitSet)out.clone();
+                if (node.def != null) {
+                    in.clear(index(node.def));
+                }
+                in.or(node.use);
+                if (!in.equals(node.liveIn)) {
+                    changed = true;
+                }
+                node.liveOut = out;
+                node.liveIn = in;
+            }
+        }
+    }
+
+    private BitSet[] interferences() {
+        BitSet[] result = new BitSet[vars.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = new BitSet();
+        }
+        for (Node node: nodes) {
+            if (node.def == null || dead.contains(node.stmt)) {
+                continue;
+            }
+            int d = index(node.def);
+            BitSet live = node.liveOut;
+            for (int v = live.nextSetBit(0); v >= 0;
+                    v = live.nextSetBit(v + 1)) {
+                if (v != d) {
+                    result[d].set(v);
+                    result[v].set(d);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void assignSlots(BitSet[] interferences, BitSet referenced) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = referenced.nextSetBit(0); i >= 0;
+                i = referenced.nextSetBit(i + 1)) {
+            if (!fixed.get(i)) {
+                order.add(i);
+            }
+        }
+        // stable: the declaration order breaks the ties
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(weights[b], weights[a]);
+            }
+        });
+        int[] slots = new int[vars.size()];
+        BitSet done = new BitSet();
+        for (int v: order) {
+            Type type = vars.get(v).type;
+            // the slots of the interfering variables that have one
+            BitSet used = new BitSet();
+            BitSet others = interferences[v];
+            for (int u = others.nextSetBit(0); u >= 0;
+                    u = others.nextSetBit(u + 1)) {
+                if (done.get(u)) {
+                    used.set(slots[u], slots[u] + vars.get(u).type.size);
+                }
+            }
+            int slot = used.nextClearBit(firstSlot);
+            while (type.size > 1 && used.get(slot + 1)) {
+                slot = used.nextClearBit(slot + 2);
+            }
+            slots[v] = slot;
+            done.set(v);
+            allocated.put(vars.get(v), new Variable(type, slot));
+            slotCount = Math.max(slotCount, slot + type.size);
+        }
+    }
+}
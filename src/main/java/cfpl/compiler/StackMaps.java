@@ -0,0 +1,1111 @@
+package cfpl.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Adds the StackMapTable attributes that the class files of version 50 and
+// later need (the type-checking verifier) to a class file. The frames are
+// computed by an abstract interpretation of the bytecode of each method, so
+// they are right for whatever the generators of the conversions and
+// operators emit, including the branches inside expressions and the values
+// that are on the stack at their targets. Unreachable code is replaced by
+// nop...athrow, as the verifier needs a frame for it too.
+// Verification types are strings: T (top), I, F, J, D, N (null), UT
+// (uninitialized this), U<offset of the new>, and L<internal name> for the
+// references, where the name of an array class is its descriptor.
+final class StackMaps {
+    private static final String TOP = "T";
+    private static final String INT = "I";
+    private static final String FLOAT = "F";
+    private static final String LONG = "J";
+    private static final String DOUBLE = "D";
+    private static final String NULL = "N";
+    private static final String UNINITIALIZED_THIS = "UT";
+    private static final String OBJECT = "Ljava/lang/Object";
+    private static final String THROWABLE = "Ljava/lang/Throwable";
+
+    private static final int ACC_STATIC = 0x0008;
+
+    private final ByteBuffer in;
+    private int cpCount;
+    private int[] cpOffsets;
+    private byte[] cpTags;
+    private final ByteArrayOutputStream newEntries
+            = new ByteArrayOutputStream();
+    private final Map<String,Integer> utf8s = new HashMap<>();
+    private final Map<String,Integer> classes = new HashMap<>();
+    private String thisClass;
+
+    private StackMaps(byte[] classFile) {
+        this.in = ByteBuffer.wrap(classFile);
+    }
+
+    static byte[] addTo(byte[] classFile) {
+        try {
+            return new StackMaps(classFile).process();
+        } catch (IOException ex) {
+            // only in-memory streams
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private byte[] process() throws IOException {
+        int cpStart = 10;
+        in.position(8);
+        cpCount = in.getShort() & 0xFFFF;
+        readConstantPool();
+        int cpEnd = in.position();
+        in.getShort(); // access flags
+        thisClass = className(in.getShort() & 0xFFFF);
+        in.getShort(); // super class
+        int interfaceCount = in.getShort() & 0xFFFF;
+        in.position(in.position() + 2*interfaceCount);
+        int fieldCount = in.getShort() & 0xFFFF;
+        for (int i = 0; i < fieldCount; ++i) {
+            in.position(in.position() + 6);
+            skipAttributes();
+        }
+        int methodsStart = in.position();
+        ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        DataOutputStream mout = new DataOutputStream(methods);
+        int methodCount = in.getShort() & 0xFFFF;
+        mout.writeShort(methodCount);
+        for (int i = 0; i < methodCount; ++i) {
+            writeMethod(mout);
+        }
+        int classAttrsStart = in.position();
+        byte[] bytes = in.array();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                bytes.length + 1024);
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.write(bytes, 0, 8);
+        dout.writeShort(cpCount);
+        dout.write(bytes, cpStart, cpEnd - cpStart);
+        newEntries.writeTo(dout);
+        dout.write(bytes, cpEnd, methodsStart - cpEnd);
+        methods.writeTo(dout);
+        dout.write(bytes, classAttrsStart, bytes.length - classAttrsStart);
+        dout.flush();
+        return out.toByteArray();
+    }
+
+    private void readConstantPool() {
+        cpOffsets = new int[cpCount];
+        cpTags = new byte[cpCount];
+        for (int i = 1; i < cpCount; ++i) {
+            cpOffsets[i] = in.position();
+            byte tag = in.get();
+            cpTags[i] = tag;
+            switch (tag) {
+                case 1: // Utf8
+                    int len = in.getShort() & 0xFFFF;
+                    in.position(in.position() + len);
+                    utf8s.put(utf8(i), i);
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.getShort();
+                    break;
+                case 15: // MethodHandle
+                    in.get();
+                    in.getShort();
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.getInt();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.getLong();
+                    ++i;
+                    break;
+                default:
+                    throw new IllegalStateException(
+                            "Invalid constant pool tag " + tag);
+            }
+        }
+        for (int i = 1; i < cpCount; ++i) {
+            if (cpTags[i] == 7) {
+                classes.put(className(i), i);
+            }
+        }
+    }
+
+    private String utf8(int index) {
+        int pos = cpOffsets[index] + 1;
+        int len = in.getShort(pos) & 0xFFFF;
+        byte[] b = Arrays.copyOfRange(in.array(), pos + 2, pos + 2 + len);
+        // modified UTF-8: the names and descriptors of the compiler do not
+        // contain NUL or supplementary characters
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private int readU2(int pos) {
+        return in.getShort(pos) & 0xFFFF;
+    }
+
+    private String className(int index) {
+        return utf8(readU2(cpOffsets[index] + 1));
+    }
+
+    // the descriptor of a field, method or invokedynamic reference
+    private String refDescriptor(int index) {
+        int nat = readU2(cpOffsets[index] + 3);
+        return utf8(readU2(cpOffsets[nat] + 3));
+    }
+
+    private String refName(int index) {
+        int nat = readU2(cpOffsets[index] + 3);
+        return utf8(readU2(cpOffsets[nat] + 1));
+    }
+
+    private int addUtf8(String s) throws IOException {
+        Integer index = utf8s.get(s);
+        if (index == null) {
+            DataOutputStream out = new DataOutputStream(newEntries);
+            out.writeByte(1);
+            out.writeUTF(s);
+            index = cpCount++;
+            utf8s.put(s, index);
+        }
+        return index;
+    }
+
+    private int addClass(String name) throws IOException {
+        Integer index = classes.get(name);
+        if (index == null) {
+            int nameIndex = addUtf8(name);
+            DataOutputStream out = new DataOutputStream(newEntries);
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+            index = cpCount++;
+            classes.put(name, index);
+        }
+        return index;
+    }
+
+    private void skipAttributes() {
+        int count = in.getShort() & 0xFFFF;
+        for (int i = 0; i < count; ++i) {
+            in.getShort();
+            int len = in.getInt();
+            in.position(in.position() + len);
+        }
+    }
+
+    private void writeMethod(DataOutputStream out) throws IOException {
+        int access = in.getShort() & 0xFFFF;
+        int nameIndex = in.getShort() & 0xFFFF;
+        int descIndex = in.getShort() & 0xFFFF;
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descIndex);
+        int count = in.getShort() & 0xFFFF;
+        out.writeShort(count);
+        for (int i = 0; i < count; ++i) {
+            int attrName = in.getShort() & 0xFFFF;
+            int len = in.getInt();
+            int start = in.position();
+            in.position(start + len);
+            out.writeShort(attrName);
+            if (utf8(attrName).equals("Code")) {
+                byte[] code = new Method(access, utf8(nameIndex),
+                        utf8(descIndex), start, len).writeCode();
+                out.writeInt(code.length);
+                out.write(code);
+            } else {
+                out.writeInt(len);
+                out.write(in.array(), start, len);
+            }
+        }
+    }
+
+    private static class Frame {
+        private String[] locals;
+        private final List<String> stack;
+
+        private Frame(String[] locals, List<String> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        private Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        private void push(String type) {
+            stack.add(type);
+        }
+
+        private String pop() {
+            if (stack.isEmpty()) {
+                throw new IllegalStateException("Stack underflow");
+            }
+            return stack.remove(stack.size() - 1);
+        }
+
+        private void pop(int n) {
+            for (int i = 0; i < n; ++i) {
+                pop();
+            }
+        }
+
+        // in slots: a long or a double takes two
+        private int depth() {
+            int depth = 0;
+            for (String t: stack) {
+                depth += isWide(t) ? 2 : 1;
+            }
+            return depth;
+        }
+
+        private String peek(int depth) {
+            return stack.get(stack.size() - 1 - depth);
+        }
+
+        private String load(int index) {
+            return index < locals.length ? locals[index] : TOP;
+        }
+
+        private void store(int index, String type) {
+            int size = isWide(type) ? 2 : 1;
+            if (index + size > locals.length) {
+                String[] l = Arrays.copyOf(locals, index + size);
+                Arrays.fill(l, locals.length, l.length, TOP);
+                locals = l;
+            }
+            if (index > 0 && isWide(locals[index-1])) {
+                locals[index-1] = TOP;
+            }
+            locals[index] = type;
+            if (size == 2) {
+                locals[index+1] = TOP;
+            }
+        }
+
+        // the locals as they are written in a frame: a long or a double
+        // stands for two slots, and the trailing tops are left out
+        private List<String> frameLocals() {
+            int end = locals.length;
+            while (end > 0 && locals[end-1].equals(TOP)
+                    && !(end > 1 && isWide(locals[end-2]))) {
+                --end;
+            }
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < end; ++i) {
+                list.add(locals[i]);
+                if (isWide(locals[i])) {
+                    ++i;
+                }
+            }
+            return list;
+        }
+    }
+
+    private class Method {
+        private final int access;
+        private final String name;
+        private final String desc;
+        private final int start;
+        private final int length;
+        private int maxStack;
+        private final int maxLocals;
+        private final byte[] code;
+        private final int codeStart;
+        private final int[] handlers;
+        private final Frame[] frames;
+        private final BitSet starts = new BitSet();
+        private final BitSet needFrame = new BitSet();
+
+        private Method(int access, String name, String desc, int start,
+                int length) {
+            this.access = access;
+            this.name = name;
+            this.desc = desc;
+            this.start = start;
+            this.length = length;
+            maxStack = readU2(start);
+            maxLocals = readU2(start + 2);
+            int codeLength = in.getInt(start + 4);
+            codeStart = start + 8;
+            code = Arrays.copyOfRange(
+                    in.array(), codeStart, codeStart + codeLength);
+            int pos = codeStart + codeLength;
+            handlers = new int[4*readU2(pos)];
+            for (int i = 0; i < handlers.length; ++i) {
+                handlers[i] = readU2(pos + 2 + 2*i);
+            }
+            frames = new Frame[codeLength + 1];
+        }
+
+        private byte[] writeCode() throws IOException {
+            int pos = codeStart + code.length + 2 + 2*handlers.length;
+            int attrCount = readU2(pos);
+            int attrStart = pos + 2;
+            int p = attrStart;
+            for (int i = 0; i < attrCount; ++i) {
+                if (utf8(readU2(p)).equals("StackMapTable")) {
+                    // already there
+                    return Arrays.copyOfRange(
+                            in.array(), start, start + length);
+                }
+                p += 6 + in.getInt(p + 2);
+            }
+            int attrEnd = p;
+            byte[] table = computeFrames();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(handlers.length/4);
+            for (int h: handlers) {
+                out.writeShort(h);
+            }
+            out.writeShort(table == null ? attrCount : attrCount + 1);
+            out.write(in.array(), attrStart, attrEnd - attrStart);
+            if (table != null) {
+                out.writeShort(addUtf8("StackMapTable"));
+                out.writeInt(table.length);
+                out.write(table);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] computeFrames() throws IOException {
+            for (int pc = 0; pc < code.length; pc += length(pc)) {
+                starts.set(pc);
+            }
+            Frame initial = initialFrame();
+            merge(0, initial);
+            int maxDepth = 1; // for the athrow of unreachable code
+            Deque<Integer> work = new ArrayDeque<>();
+            BitSet queued = new BitSet();
+            work.add(0);
+            queued.set(0);
+            while (!work.isEmpty()) {
+                int pc = work.poll();
+                queued.clear(pc);
+                Frame f = frames[pc].copy();
+                for (int i = 0; i < handlers.length; i += 4) {
+                    if (pc >= handlers[i] && pc < handlers[i+1]) {
+                        String type = handlers[i+3] == 0
+                                ? THROWABLE : "L" + className(handlers[i+3]);
+                        Frame h = new Frame(f.locals.clone(),
+                                new ArrayList<String>());
+                        h.push(type);
+                        needFrame.set(handlers[i+2]);
+                        if (merge(handlers[i+2], h)
+                                && !queued.get(handlers[i+2])) {
+                            work.add(handlers[i+2]);
+                            queued.set(handlers[i+2]);
+                        }
+                    }
+                }
+                int[] successors = execute(pc, f);
+                maxDepth = Math.max(maxDepth, f.depth());
+                for (int succ: successors) {
+                    if (merge(succ, f) && !queued.get(succ)) {
+                        work.add(succ);
+                        queued.set(succ);
+                    }
+                }
+            }
+            // the verifier allocates max_stack slots for every frame, so an
+            // overestimated value makes the verification of big methods slow
+            maxStack = maxDepth;
+            removeDeadCode();
+            if (needFrame.isEmpty()) {
+                return null;
+            }
+            return writeFrames(initial);
+        }
+
+        private Frame initialFrame() {
+            Frame f = new Frame(new String[0], new ArrayList<String>());
+            int index = 0;
+            if ((access & ACC_STATIC) == 0) {
+                f.store(index++, name.equals("<init>")
+                        ? UNINITIALIZED_THIS : "L" + thisClass);
+            }
+            for (String t: argTypes(desc)) {
+                f.store(index, t);
+                index += isWide(t) ? 2 : 1;
+            }
+            return f;
+        }
+
+        // returns true if the frame at pc has changed
+        private boolean merge(int pc, Frame f) {
+            if (pc >= code.length || !starts.get(pc)) {
+                throw new IllegalStateException("Invalid jump to " + pc);
+            }
+            Frame old = frames[pc];
+            if (old == null) {
+                frames[pc] = f.copy();
+                return true;
+            }
+            if (old.stack.size() != f.stack.size()) {
+                throw new IllegalStateException(
+                        "Inconsistent stack height at " + pc);
+            }
+            boolean changed = false;
+            for (int i = 0; i < old.stack.size(); ++i) {
+                String t = mergeTypes(old.stack.get(i), f.stack.get(i));
+                if (t.equals(TOP)) {
+                    throw new IllegalStateException(
+                            "Inconsistent stack at " + pc);
+                }
+                if (!t.equals(old.stack.get(i))) {
+                    old.stack.set(i, t);
+                    changed = true;
+                }
+            }
+            for (int i = 0; i < old.locals.length; ++i) {
+                String t = mergeTypes(old.locals[i], f.load(i));
+                if (!t.equals(old.locals[i])) {
+                    old.locals[i] = t;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        private void removeDeadCode() {
+            int pc = 0;
+            while (pc < code.length) {
+                if (frames[pc] != null) {
+                    pc += length(pc);
+                    continue;
+                }
+                int end = pc;
+                while (end < code.length && frames[end] == null) {
+                    end += length(end);
+                }
+                Arrays.fill(code, pc, end - 1, (byte)0x00); // nop
+                code[end-1] = (byte)0xBF; // athrow
+                Frame f = new Frame(new String[0], new ArrayList<String>());
+                f.push(THROWABLE);
+                frames[pc] = f;
+                needFrame.clear(pc, end);
+                needFrame.set(pc);
+                pc = end;
+            }
+        }
+
+        private byte[] writeFrames(Frame initial) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int count = 0;
+            out.writeShort(0);
+            List<String> prevLocals = initial.frameLocals();
+            int prevPc = -1;
+            for (int pc = needFrame.nextSetBit(0); pc >= 0 && pc < code.length;
+                    pc = needFrame.nextSetBit(pc + 1)) {
+                Frame f = frames[pc];
+                List<String> locals = f.frameLocals();
+                int delta = pc - prevPc - 1;
+                int k = locals.size() - prevLocals.size();
+                if (locals.equals(prevLocals) && f.stack.isEmpty()) {
+                    if (delta < 64) {
+                        out.writeByte(delta);
+                    } else {
+                        out.writeByte(251);
+                        out.writeShort(delta);
+                    }
+                } else if (locals.equals(prevLocals) && f.stack.size() == 1) {
+                    if (delta < 64) {
+                        out.writeByte(64 + delta);
+                    } else {
+                        out.writeByte(247);
+                        out.writeShort(delta);
+                    }
+                    writeType(out, f.stack.get(0));
+                } else if (f.stack.isEmpty() && k > 0 && k <= 3
+                        && locals.subList(0, prevLocals.size())
+                                .equals(prevLocals)) {
+                    out.writeByte(251 + k);
+                    out.writeShort(delta);
+                    for (String t: locals.subList(prevLocals.size(),
+                            locals.size())) {
+                        writeType(out, t);
+                    }
+                } else if (f.stack.isEmpty() && k < 0 && k >= -3
+                        && prevLocals.subList(0, locals.size())
+                                .equals(locals)) {
+                    out.writeByte(251 + k);
+                    out.writeShort(delta);
+                } else {
+                    out.writeByte(255);
+                    out.writeShort(delta);
+                    out.writeShort(locals.size());
+                    for (String t: locals) {
+                        writeType(out, t);
+                    }
+                    out.writeShort(f.stack.size());
+                    for (String t: f.stack) {
+                        writeType(out, t);
+                    }
+                }
+                prevLocals = locals;
+                prevPc = pc;
+                ++count;
+            }
+            out.flush();
+            byte[] result = bytes.toByteArray();
+            result[0] = (byte)(count >> 8);
+            result[1] = (byte)count;
+            return result;
+        }
+
+        private void writeType(DataOutputStream out, String t)
+                throws IOException {
+            switch (t) {
+                case TOP:
+                    out.writeByte(0);
+                    break;
+                case INT:
+                    out.writeByte(1);
+                    break;
+                case FLOAT:
+                    out.writeByte(2);
+                    break;
+                case DOUBLE:
+                    out.writeByte(3);
+                    break;
+                case LONG:
+                    out.writeByte(4);
+                    break;
+                case NULL:
+                    out.writeByte(5);
+                    break;
+                case UNINITIALIZED_THIS:
+                    out.writeByte(6);
+                    break;
+                default:
+                    if (t.startsWith("L")) {
+                        out.writeByte(7);
+                        out.writeShort(addClass(t.substring(1)));
+                    } else {
+                        out.writeByte(8);
+                        out.writeShort(Integer.parseInt(t.substring(1)));
+                    }
+                    break;
+            }
+        }
+
+        private int u1(int pc) {
+            return code[pc] & 0xFF;
+        }
+
+        private int s2(int pc) {
+            return (short)((code[pc] & 0xFF) << 8 | (code[pc+1] & 0xFF));
+        }
+
+        private int u2(int pc) {
+            return s2(pc) & 0xFFFF;
+        }
+
+        private int s4(int pc) {
+            return (code[pc] & 0xFF) << 24 | (code[pc+1] & 0xFF) << 16
+                    | (code[pc+2] & 0xFF) << 8 | (code[pc+3] & 0xFF);
+        }
+
+        private int length(int pc) {
+            int op = u1(pc);
+            switch (op) {
+                case 16: // bipush
+                case 18: // ldc
+                case 188: // newarray
+                    return 2;
+                case 21: case 22: case 23: case 24: case 25: // xload
+                case 54: case 55: case 56: case 57: case 58: // xstore
+                case 169: // ret
+                    return 2;
+                case 17: // sipush
+                case 19: // ldc_w
+                case 20: // ldc2_w
+                case 132: // iinc
+                case 178: case 179: case 180: case 181: // fields
+                case 182: case 183: case 184: // invoke
+                case 187: // new
+                case 189: // anewarray
+                case 192: case 193: // checkcast, instanceof
+                case 198: case 199: // ifnull, ifnonnull
+                case 168: // jsr
+                    return 3;
+                case 197: // multianewarray
+                    return 4;
+                case 185: // invokeinterface
+                case 186: // invokedynamic
+                case 200: // goto_w
+                case 201: // jsr_w
+                    return 5;
+                case 196: // wide
+                    return u1(pc + 1) == 132 ? 6 : 4;
+                case 170: { // tableswitch
+                    int p = (pc + 4) & ~3;
+                    int low = s4(p + 4);
+                    int high = s4(p + 8);
+                    return p + 12 + 4*(high - low + 1) - pc;
+                }
+                case 171: { // lookupswitch
+                    int p = (pc + 4) & ~3;
+                    return p + 8 + 8*s4(p + 4) - pc;
+                }
+                default:
+                    if (op >= 153 && op <= 167) { // if<cond>, goto
+                        return 3;
+                    }
+                    return 1;
+            }
+        }
+
+        // simulates the instruction at pc on the frame, and returns the
+        // successors; a branch target or the instruction after an
+        // unconditional branch needs a frame
+        private int[] execute(int pc, Frame f) {
+            int op = u1(pc);
+            int next = pc + length(pc);
+            int[] fallThrough = {next};
+            switch (op) {
+                case 0: // nop
+                    break;
+                case 1:
+                    f.push(NULL);
+                    break;
+                case 2: case 3: case 4: case 5: case 6: case 7: case 8:
+                case 16: case 17:
+                    f.push(INT);
+                    break;
+                case 9: case 10:
+                    f.push(LONG);
+                    break;
+                case 11: case 12: case 13:
+                    f.push(FLOAT);
+                    break;
+                case 14: case 15:
+                    f.push(DOUBLE);
+                    break;
+                case 18:
+                    f.push(constantType(u1(pc + 1)));
+                    break;
+                case 19: case 20:
+                    f.push(constantType(u2(pc + 1)));
+                    break;
+                case 21: case 22: case 23: case 24: case 25:
+                    f.push(f.load(u1(pc + 1)));
+                    break;
+                case 26: case 27: case 28: case 29:
+                case 30: case 31: case 32: case 33:
+                case 34: case 35: case 36: case 37:
+                case 38: case 39: case 40: case 41:
+                case 42: case 43: case 44: case 45:
+                    f.push(f.load((op - 26) % 4));
+                    break;
+                case 46: case 51: case 52: case 53:
+                    f.pop(2);
+                    f.push(INT);
+                    break;
+                case 47:
+                    f.pop(2);
+                    f.push(LONG);
+                    break;
+                case 48:
+                    f.pop(2);
+                    f.push(FLOAT);
+                    break;
+                case 49:
+                    f.pop(2);
+                    f.push(DOUBLE);
+                    break;
+                case 50: {
+                    f.pop();
+                    String array = f.pop();
+                    f.push(array.startsWith("L[")
+                            ? descriptorType(array.substring(2)) : NULL);
+                    break;
+                }
+                case 54: case 55: case 56: case 57: case 58:
+                    f.store(u1(pc + 1), f.pop());
+                    break;
+                case 59: case 60: case 61: case 62:
+                case 63: case 64: case 65: case 66:
+                case 67: case 68: case 69: case 70:
+                case 71: case 72: case 73: case 74:
+                case 75: case 76: case 77: case 78:
+                    f.store((op - 59) % 4, f.pop());
+                    break;
+                case 79: case 80: case 81: case 82:
+                case 83: case 84: case 85: case 86:
+                    f.pop(3);
+                    break;
+                case 87: // pop
+                    f.pop();
+                    break;
+                case 88: // pop2
+                    if (!isWide(f.pop())) {
+                        f.pop();
+                    }
+                    break;
+                case 89: // dup
+                    f.push(f.peek(0));
+                    break;
+                case 90: { // dup_x1
+                    String v1 = f.pop();
+                    String v2 = f.pop();
+                    f.push(v1);
+                    f.push(v2);
+                    f.push(v1);
+                    break;
+                }
+                case 91: { // dup_x2
+                    String v1 = f.pop();
+                    String v2 = f.pop();
+                    if (isWide(v2)) {
+                        f.push(v1);
+                        f.push(v2);
+                    } else {
+                        String v3 = f.pop();
+                        f.push(v1);
+                        f.push(v3);
+                        f.push(v2);
+                    }
+                    f.push(v1);
+                    break;
+                }
+                case 92: { // dup2
+                    String v1 = f.peek(0);
+                    if (isWide(v1)) {
+                        f.push(v1);
+                    } else {
+                        String v2 = f.peek(1);
+                        f.push(v2);
+                        f.push(v1);
+                    }
+                    break;
+                }
+                case 93: { // dup2_x1
+                    String v1 = f.pop();
+                    if (isWide(v1)) {
+                        String v2 = f.pop();
+                        f.push(v1);
+                        f.push(v2);
+                        f.push(v1);
+                    } else {
+                        String v2 = f.pop();
+                        String v3 = f.pop();
+                        f.push(v2);
+                        f.push(v1);
+                        f.push(v3);
+                        f.push(v2);
+                        f.push(v1);
+                    }
+                    break;
+                }
+                case 94: { // dup2_x2
+                    List<String> top = new ArrayList<>();
+                    int n = isWide(f.peek(0)) ? 1 : 2;
+                    for (int i = 0; i < n; ++i) {
+                        top.add(0, f.pop());
+                    }
+                    List<String> below = new ArrayList<>();
+                    int m = isWide(f.peek(0)) ? 1 : 2;
+                    for (int i = 0; i < m; ++i) {
+                        below.add(0, f.pop());
+                    }
+                    f.stack.addAll(top);
+                    f.stack.addAll(below);
+                    f.stack.addAll(top);
+                    break;
+                }
+                case 95: { // swap
+                    String v1 = f.pop();
+                    String v2 = f.pop();
+                    f.push(v1);
+                    f.push(v2);
+                    break;
+                }
+                case 132: // iinc
+                    break;
+                case 148: case 149: case 150: case 151: case 152:
+                    f.pop(2);
+                    f.push(INT);
+                    break;
+                case 153: case 154: case 155: case 156: case 157: case 158:
+                case 198: case 199:
+                    f.pop();
+                    return branch(next, pc + s2(pc + 1));
+                case 159: case 160: case 161: case 162: case 163: case 164:
+                case 165: case 166:
+                    f.pop(2);
+                    return branch(next, pc + s2(pc + 1));
+                case 167: // goto
+                    return jump(next, pc + s2(pc + 1));
+                case 200: // goto_w
+                    return jump(next, pc + s4(pc + 1));
+                case 170: { // tableswitch
+                    f.pop();
+                    int p = (pc + 4) & ~3;
+                    int count = s4(p + 8) - s4(p + 4) + 1;
+                    int[] targets = new int[count + 1];
+                    targets[0] = pc + s4(p);
+                    for (int i = 0; i < count; ++i) {
+                        targets[i+1] = pc + s4(p + 12 + 4*i);
+                    }
+                    return jump(next, targets);
+                }
+                case 171: { // lookupswitch
+                    f.pop();
+                    int p = (pc + 4) & ~3;
+                    int count = s4(p + 4);
+                    int[] targets = new int[count + 1];
+                    targets[0] = pc + s4(p);
+                    for (int i = 0; i < count; ++i) {
+                        targets[i+1] = pc + s4(p + 12 + 8*i);
+                    }
+                    return jump(next, targets);
+                }
+                case 172: case 173: case 174: case 175: case 176: case 191:
+                    f.pop();
+                    return jump(next);
+                case 177: // return
+                    return jump(next);
+                case 178: // getstatic
+                    f.push(descriptorType(refDescriptor(u2(pc + 1))));
+                    break;
+                case 179: // putstatic
+                    f.pop();
+                    break;
+                case 180: // getfield
+                    f.pop();
+                    f.push(descriptorType(refDescriptor(u2(pc + 1))));
+                    break;
+                case 181: // putfield
+                    f.pop(2);
+                    break;
+                case 182: case 183: case 184: case 185: case 186:
+                    invoke(op, u2(pc + 1), f);
+                    break;
+                case 187: // new
+                    f.push("U" + pc);
+                    break;
+                case 188: // newarray
+                    f.pop();
+                    f.push("L[" + "ZCFDBSIJ".charAt(u1(pc + 1) - 4));
+                    break;
+                case 189: { // anewarray
+                    f.pop();
+                    String c = className(u2(pc + 1));
+                    f.push("L[" + (c.startsWith("[") ? c : "L" + c + ";"));
+                    break;
+                }
+                case 190: // arraylength
+                    f.pop();
+                    f.push(INT);
+                    break;
+                case 192: // checkcast
+                    f.pop();
+                    f.push("L" + className(u2(pc + 1)));
+                    break;
+                case 193: // instanceof
+                    f.pop();
+                    f.push(INT);
+                    break;
+                case 194: case 195: // monitorenter, monitorexit
+                    f.pop();
+                    break;
+                case 196: { // wide
+                    int wop = u1(pc + 1);
+                    int index = u2(pc + 2);
+                    if (wop >= 21 && wop <= 25) {
+                        f.push(f.load(index));
+                    } else if (wop >= 54 && wop <= 58) {
+                        f.store(index, f.pop());
+                    } else if (wop != 132) {
+                        throw unsupported(pc, wop);
+                    }
+                    break;
+                }
+                case 197: // multianewarray
+                    f.pop(u1(pc + 3));
+                    f.push("L" + className(u2(pc + 1)));
+                    break;
+                default:
+                    if (op >= 96 && op <= 115) { // arithmetic
+                        f.pop(2);
+                        f.push(new String[] {INT, LONG, FLOAT, DOUBLE}[op%4]);
+                    } else if (op >= 116 && op <= 119) { // neg
+                        // same type
+                    } else if (op >= 120 && op <= 131) { // shifts, logic
+                        f.pop(2);
+                        f.push(op % 2 == 0 ? INT : LONG);
+                    } else if (op >= 133 && op <= 147) { // conversions
+                        f.pop();
+                        f.push(String.valueOf("JFDIFDIJDIJFIII"
+                                .charAt(op - 133)));
+                    } else {
+                        throw unsupported(pc, op);
+                    }
+                    break;
+            }
+            return fallThrough;
+        }
+
+        private int[] branch(int next, int target) {
+            needFrame.set(target);
+            return new int[] {next, target};
+        }
+
+        private int[] jump(int next, int... targets) {
+            if (next < code.length) {
+                needFrame.set(next);
+            }
+            for (int t: targets) {
+                needFrame.set(t);
+            }
+            return targets;
+        }
+
+        private void invoke(int op, int index, Frame f) {
+            // the name and type is at the same place in an invokedynamic
+            String d = refDescriptor(index);
+            f.pop(argTypes(d).size());
+            if (op != 184 && op != 186) {
+                String receiver = f.pop();
+                if (op == 183 && refName(index).equals("<init>")
+                        && receiver.startsWith("U")) {
+                    String type = receiver.equals(UNINITIALIZED_THIS)
+                            ? "L" + thisClass
+                            : "L" + className(u2(Integer.parseInt(
+                                    receiver.substring(1)) + 1));
+                    for (int i = 0; i < f.stack.size(); ++i) {
+                        if (f.stack.get(i).equals(receiver)) {
+                            f.stack.set(i, type);
+                        }
+                    }
+                    for (int i = 0; i < f.locals.length; ++i) {
+                        if (f.locals[i].equals(receiver)) {
+                            f.locals[i] = type;
+                        }
+                    }
+                }
+            }
+            String ret = d.substring(d.indexOf(')') + 1);
+            if (!ret.equals("V")) {
+                f.push(descriptorType(ret));
+            }
+        }
+
+        private String constantType(int index) {
+            switch (cpTags[index]) {
+                case 3:
+                    return INT;
+                case 4:
+                    return FLOAT;
+                case 5:
+                    return LONG;
+                case 6:
+                    return DOUBLE;
+                case 7:
+                    return "Ljava/lang/Class";
+                case 8:
+                    return "Ljava/lang/String";
+                case 15:
+                    return "Ljava/lang/invoke/MethodHandle";
+                case 16:
+                    return "Ljava/lang/invoke/MethodType";
+                case 17:
+                    return descriptorType(refDescriptor(index));
+                default:
+                    throw new IllegalStateException(
+                            "Invalid constant " + index);
+            }
+        }
+
+        private IllegalStateException unsupported(int pc, int op) {
+            return new IllegalStateException("Unsupported opcode " + op
+                    + " at " + pc + " in " + name + desc);
+        }
+    }
+
+    private static boolean isWide(String type) {
+        return type.equals(LONG) || type.equals(DOUBLE);
+    }
+
+    private static String mergeTypes(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        } else if (a.startsWith("L") && b.equals(NULL)) {
+            return a;
+        } else if (a.equals(NULL) && b.startsWith("L")) {
+            return b;
+        } else if (a.startsWith("L") && b.startsWith("L")) {
+            // no class hierarchy here: good enough for values that are
+            // only passed on as objects
+            return OBJECT;
+        }
+        return TOP;
+    }
+
+    private static String descriptorType(String d) {
+        switch (d.charAt(0)) {
+            case 'B':
+            case 'C':
+            case 'I':
+            case 'S':
+            case 'Z':
+                return INT;
+            case 'F':
+                return FLOAT;
+            case 'J':
+                return LONG;
+            case 'D':
+                return DOUBLE;
+            case 'L':
+                return d.substring(0, d.length() - 1);
+            default:
+                return "L" + d;
+        }
+    }
+
+    private static List<String> argTypes(String desc) {
+        List<String> list = new ArrayList<>();
+        int i = 1;
+        while (desc.charAt(i) != ')') {
+            int start = i;
+            while (desc.charAt(i) == '[') {
+                ++i;
+            }
+            if (desc.charAt(i) == 'L') {
+                i = desc.indexOf(';', i);
+            }
+            ++i;
+            list.add(descriptorType(desc.substring(start, i)));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,215 @@
+package cfpl.compiler;
+
+import java.util.Collections;
+import java.util.List;
+
+public abstract class Statement {
+    public interface Visitor<R> {
+        public R visitBlock(Block stmt);
+        public R visitDeclare(Declare stmt);
+        public R visitAssign(Assign stmt);
+        public R visitStore(Store stmt);
+        public R visitOutput(Output stmt);
+        public R visitIf(If stmt);
+        public R visitWhile(While stmt);
+        public R visitCall(Call stmt);
+        public R visitParallel(Parallel stmt);
+    }
+
+    private Statement() {
+    }
+
+    public abstract <R> R accept(Visitor<R> visitor);
+
+    public static class Block extends Statement {
+        public final List<Statement> statements;
+
+        public Block(List<Statement> statements) {
+            this.statements = Collections.unmodifiableList(statements);
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBlock(this);
+        }
+    }
+
+    // the initial value has already been converted to the variable type;
+    // when there is none, the variable gets the default value of its type
+    public static class Declare extends Statement {
+        public final Variable var;
+        public final Expression init;
+
+        public Declare(Variable var, Expression init) {
+            this.var = var;
+            this.init = init;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitDeclare(this);
+        }
+    }
+
+    public static class Assign extends Statement {
+        public final Variable var;
+        public final Expression expr;
+
+        public Assign(Variable var, Expression expr) {
+            this.var = var;
+            this.expr = expr;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitAssign(this);
+        }
+    }
+
+    // an element of an array: the index has already been converted to INT,
+    // and the value to the type of the elements
+    public static class Store extends Statement {
+        public final Variable var;
+        public final Expression index;
+        public final Expression expr;
+        // the setter of the elements
+        public final Invoker.Function function;
+
+        public Store(Variable var, Expression index, Expression expr,
+                Invoker.Function function) {
+            this.var = var;
+            this.index = index;
+            this.expr = expr;
+            this.function = function;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitStore(this);
+        }
+    }
+
+    // OUTPUT, IF and WHILE keep the position of their keyword in the
+    // source, for the profile of the program
+    public static class Output extends Statement {
+        public final Expression expr;
+        public final int line;
+        public final int column;
+
+        public Output(Expression expr, int line, int column) {
+            this.expr = expr;
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitOutput(this);
+        }
+    }
+
+    public static class If extends Statement {
+        public final Expression cond;
+        public final Block thenPart;
+        public final Block elsePart;
+        public final int line;
+        public final int column;
+
+        public If(Expression cond, Block thenPart, Block elsePart, int line,
+                int column) {
+            this.cond = cond;
+            this.thenPart = thenPart;
+            this.elsePart = elsePart;
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIf(this);
+        }
+    }
+
+    public static class While extends Statement {
+        public final Expression cond;
+        public final Block body;
+        public final int line;
+        public final int column;
+
+        public While(Expression cond, Block body, int line, int column) {
+            this.cond = cond;
+            this.body = body;
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitWhile(this);
+        }
+    }
+
+    // a call to a part of the program that the Outliner has moved to a
+    // static method of the class: the arguments are the values of the
+    // variables, and the results are written back to the variables
+    public static class Call extends Statement {
+        public final String owner;
+        public final String name;
+        public final List<Variable> args;
+        public final List<Variable> results;
+
+        public Call(String owner, String name, List<Variable> args,
+                List<Variable> results) {
+            this.owner = owner;
+            this.name = name;
+            this.args = Collections.unmodifiableList(args);
+            this.results = Collections.unmodifiableList(results);
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCall(this);
+        }
+    }
+
+    // a PARALLEL loop: the body runs the chunk of the range from the index
+    // to end, excluded, with the reductions declared with their identity
+    // and the other variables private to the chunk; the partial values of
+    // the reductions are combined with the values before the loop. Once the
+    // Outliner has moved the body to a method, the body is null and the
+    // call has the variables that the method reads
+    public static class Parallel extends Statement {
+        public final Variable index;
+        public final Variable end;
+        public final Expression first;
+        public final Expression last;
+        public final List<Variable> reductions;
+        // +, *, AND or OR, for each reduction
+        public final List<String> operators;
+        public final Block body;
+        public final Call call;
+        public final int line;
+        public final int column;
+
+        public Parallel(Variable index, Variable end, Expression first,
+                Expression last, List<Variable> reductions,
+                List<String> operators, Block body, Call call, int line,
+                int column) {
+            this.index = index;
+            this.end = end;
+            this.first = first;
+            this.last = last;
+            this.reductions = Collections.unmodifiableList(reductions);
+            this.operators = Collections.unmodifiableList(operators);
+            this.body = body;
+            this.call = call;
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitParallel(this);
+        }
+    }
+}
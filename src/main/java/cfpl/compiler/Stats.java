@@ -0,0 +1,252 @@
+package cfpl.compiler;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and timers of the phases of the compiler, for one program. They
+// only exist when the statistics are enabled (--stats, -Dcfpl.stats=true or
+// the Enabled attribute of the MBean); otherwise the compiler has no Stats
+// and the instrumented code costs a null check.
+// The statistics of each program are added to the totals of the JVM, which
+// the MBean cfpl:type=CompilerStats exposes, and recorded as a cfpl.Compile
+// event by the Flight Recorder when it is available.
+public final class Stats {
+
+    public static final String MBEAN_NAME = "cfpl:type=CompilerStats";
+
+    // conversions and resolution happen while parsing, and their time is
+    // part of the time of PARSE
+    public enum Phase {
+        LEX, PARSE, CONVERSIONS, RESOLUTION, FOLD, OPTIMIZE, OUTLINE,
+        ALLOCATE, EMIT, PEEPHOLE, STORE, WRITE
+    }
+
+    private static final int PHASES = Phase.values().length;
+    private static final Totals totals = new Totals();
+    private static volatile boolean enabled = Boolean.getBoolean("cfpl.stats");
+    private static boolean registered;
+
+    private final long[] nanos = new long[PHASES];
+    private final long[] counts = new long[PHASES];
+    private final Object event;
+    private int bytes;
+    private int errors;
+
+    private Stats() {
+        event = FlightRecorder.AVAILABLE ? CompileEvent.start() : null;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Stats.enabled = enabled;
+        if (enabled) {
+            registerMBean();
+        }
+    }
+
+    // the statistics of a new program, or null if they are disabled
+    public static Stats create() {
+        return enabled ? new Stats() : null;
+    }
+
+    // the time of the start of a phase, if there are statistics
+    public static long start(Stats stats) {
+        return stats == null ? 0 : System.nanoTime();
+    }
+
+    public static void stop(Stats stats, Phase phase, long start) {
+        if (stats != null) {
+            stats.add(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void add(Phase phase, long nanos) {
+        this.nanos[phase.ordinal()] += nanos;
+        ++counts[phase.ordinal()];
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getCount(Phase phase) {
+        return counts[phase.ordinal()];
+    }
+
+    public int getBytes() {
+        return bytes;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    // the end of the program: its statistics go to the totals and to the
+    // Flight Recorder
+    void finish(String className, int bytes, int errors) {
+        this.bytes = bytes;
+        this.errors = errors;
+        totals.add(this);
+        if (event != null) {
+            CompileEvent.finish(event, className, this);
+        }
+    }
+
+    public static synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    totals, new ObjectName(MBEAN_NAME));
+            registered = true;
+        } catch (JMException ex) {
+            Logger.getLogger(Stats.class.getName()).log(
+                    Level.WARNING, "Cannot register " + MBEAN_NAME, ex);
+        }
+    }
+
+    // prints the totals, for --stats
+    public static void print(PrintStream out) {
+        totals.print(out);
+    }
+
+    // looks jdk.jfr up with the first statistics, not when the compiler
+    // starts
+    private static class FlightRecorder {
+        private static final boolean AVAILABLE = isFlightRecorderAvailable();
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    public interface CompilerStatsMXBean {
+        public boolean isEnabled();
+        public void setEnabled(boolean enabled);
+        public long getPrograms();
+        public long getErrors();
+        public long getTokens();
+        public long getBytesEmitted();
+        public Map<String,Long> getPhaseNanos();
+        public Map<String,Long> getPhaseCounts();
+        public void reset();
+    }
+
+    private static class Totals implements CompilerStatsMXBean {
+        private final long[] nanos = new long[PHASES];
+        private final long[] counts = new long[PHASES];
+        private long programs;
+        private long errors;
+        private long bytes;
+
+        private synchronized void add(Stats stats) {
+            for (int i = 0; i < PHASES; ++i) {
+                nanos[i] += stats.nanos[i];
+                counts[i] += stats.counts[i];
+            }
+            ++programs;
+            errors += stats.errors;
+            bytes += stats.bytes;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return Stats.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Stats.setEnabled(enabled);
+        }
+
+        @Override
+        public synchronized long getPrograms() {
+            return programs;
+        }
+
+        @Override
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        @Override
+        public synchronized long getTokens() {
+            return counts[Phase.LEX.ordinal()];
+        }
+
+        @Override
+        public synchronized long getBytesEmitted() {
+            return bytes;
+        }
+
+        @Override
+        public synchronized Map<String,Long> getPhaseNanos() {
+            return toMap(nanos);
+        }
+
+        @Override
+        public synchronized Map<String,Long> getPhaseCounts() {
+            return toMap(counts);
+        }
+
+        @Override
+        public synchronized void reset() {
+            for (int i = 0; i < PHASES; ++i) {
+                nanos[i] = 0;
+                counts[i] = 0;
+            }
+            programs = 0;
+            errors = 0;
+            bytes = 0;
+        }
+
+        private static Map<String,Long> toMap(long[] values) {
+            Map<String,Long> map = new LinkedHashMap<>();
+            for (Phase phase: Phase.values()) {
+                map.put(phase.name().toLowerCase(), values[phase.ordinal()]);
+            }
+            return map;
+        }
+
+        private synchronized void print(PrintStream out) {
+            long total = 0;
+            for (Phase phase: Phase.values()) {
+                if (phase != Phase.CONVERSIONS
+                        && phase != Phase.RESOLUTION) {
+                    total += nanos[phase.ordinal()];
+                }
+            }
+            out.format("%-12s %10s %12s %7s%n", "phase", "count", "ms", "");
+            for (Phase phase: Phase.values()) {
+                int i = phase.ordinal();
+                out.format("%-12s %10d %12.3f %6.1f%%%n",
+                        phase.name().toLowerCase(), counts[i], nanos[i]/1e6,
+                        total == 0 ? 0.0 : 100.0*nanos[i]/total);
+            }
+            out.println("(conversions and resolution are part of parse)");
+            long tokens = counts[Phase.LEX.ordinal()];
+            long lex = nanos[Phase.LEX.ordinal()];
+            out.format("%d program(s), %d error(s), %d bytes emitted%n",
+                    programs, errors, bytes);
+            out.format("%d tokens: %.0f tokens/s lexing,"
+                    + " %.0f tokens/s overall%n", tokens,
+                    lex == 0 ? 0.0 : tokens*1e9/lex,
+                    total == 0 ? 0.0 : tokens*1e9/total);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package cfpl.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// rebuilds a tree, sharing the nodes that do not change; subclasses override
+// the nodes they replace
+class TreeRewriter
+        implements Statement.Visitor<Statement>, Expression.Visitor<Expression> {
+
+    Statement rewrite(Statement stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    Expression rewrite(Expression expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    Statement.Block rewriteBlock(Statement.Block block) {
+        return (Statement.Block)rewrite(block);
+    }
+
+    @Override
+    public Statement visitBlock(Statement.Block stmt) {
+        boolean changed = false;
+        List<Statement> list = new ArrayList<>();
+        for (Statement s: stmt.statements) {
+            Statement r = rewrite(s);
+            changed |= r != s;
+            list.add(r);
+        }
+        return changed ? new Statement.Block(list) : stmt;
+    }
+
+    @Override
+    public Statement visitDeclare(Statement.Declare stmt) {
+        Expression init = rewrite(stmt.init);
+        return init == stmt.init ? stmt : new Statement.Declare(stmt.var, init);
+    }
+
+    @Override
+    public Statement visitAssign(Statement.Assign stmt) {
+        Expression expr = rewrite(stmt.expr);
+        return expr == stmt.expr ? stmt : new Statement.Assign(stmt.var, expr);
+    }
+
+    @Override
+    public Statement visitStore(Statement.Store stmt) {
+        Expression index = rewrite(stmt.index);
+        Expression expr = rewrite(stmt.expr);
+        return index == stmt.index && expr == stmt.expr ? stmt
+                : new Statement.Store(stmt.var, index, expr, stmt.function);
+    }
+
+    @Override
+    public Statement visitOutput(Statement.Output stmt) {
+        Expression expr = rewrite(stmt.expr);
+        return expr == stmt.expr
+                ? stmt : new Statement.Output(expr, stmt.line, stmt.column);
+    }
+
+    @Override
+    public Statement visitIf(Statement.If stmt) {
+        Expression cond = rewrite(stmt.cond);
+        Statement.Block thenPart = rewriteBlock(stmt.thenPart);
+        Statement.Block elsePart = rewriteBlock(stmt.elsePart);
+        return cond == stmt.cond && thenPart == stmt.thenPart
+                && elsePart == stmt.elsePart
+                ? stmt : new Statement.If(cond, thenPart, elsePart,
+                        stmt.line, stmt.column);
+    }
+
+    @Override
+    public Statement visitWhile(Statement.While stmt) {
+        Expression cond = rewrite(stmt.cond);
+        Statement.Block body = rewriteBlock(stmt.body);
+        return cond == stmt.cond && body == stmt.body
+                ? stmt : new Statement.While(
+                        cond, body, stmt.line, stmt.column);
+    }
+
+    @Override
+    public Statement visitCall(Statement.Call stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Statement visitParallel(Statement.Parallel stmt) {
+        Expression first = rewrite(stmt.first);
+        Expression last = rewrite(stmt.last);
+        Statement.Block body = rewriteBlock(stmt.body);
+        return first == stmt.first && last == stmt.last && body == stmt.body
+                ? stmt : new Statement.Parallel(stmt.index, stmt.end, first,
+                        last, stmt.reductions, stmt.operators, body,
+                        stmt.call, stmt.line, stmt.column);
+    }
+
+    @Override
+    public Expression visitLiteral(Expression.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expression visitLoad(Expression.Load expr) {
+        return expr;
+    }
+
+    @Override
+    public Expression visitConvert(Expression.Convert expr) {
+        Expression arg = rewrite(expr.expr);
+        return arg == expr.expr
+                ? expr : new Expression.Convert(expr.type, expr.chain, arg);
+    }
+
+    @Override
+    public Expression visitApply(Expression.Apply expr) {
+        boolean changed = false;
+        List<Expression> args = new ArrayList<>();
+        for (Expression arg: expr.args) {
+            Expression r = rewrite(arg);
+            changed |= r != arg;
+            args.add(r);
+        }
+        return !changed ? expr : new Expression.Apply(
+                expr.name, expr.function, expr.operator, args);
+    }
+
+    @Override
+    public Expression visitNegate(Expression.Negate expr) {
+        Expression arg = rewrite(expr.expr);
+        return arg == expr.expr ? expr : new Expression.Negate(arg);
+    }
+}
@@ -0,0 +1,109 @@
+package cfpl.compiler;
+
+// walks a whole tree; subclasses override the nodes they are interested in
+public class TreeScanner
+        implements Statement.Visitor<Void>, Expression.Visitor<Void> {
+
+    public void scan(Statement stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    public void scan(Expression expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitBlock(Statement.Block stmt) {
+        for (Statement s: stmt.statements) {
+            scan(s);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDeclare(Statement.Declare stmt) {
+        scan(stmt.init);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Statement.Assign stmt) {
+        scan(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitStore(Statement.Store stmt) {
+        scan(stmt.index);
+        scan(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitOutput(Statement.Output stmt) {
+        scan(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitIf(Statement.If stmt) {
+        scan(stmt.cond);
+        scan(stmt.thenPart);
+        scan(stmt.elsePart);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(Statement.While stmt) {
+        scan(stmt.cond);
+        scan(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Statement.Call stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitParallel(Statement.Parallel stmt) {
+        scan(stmt.first);
+        scan(stmt.last);
+        scan(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expression.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLoad(Expression.Load expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitConvert(Expression.Convert expr) {
+        scan(expr.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitApply(Expression.Apply expr) {
+        for (Expression arg: expr.args) {
+            scan(arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitNegate(Expression.Negate expr) {
+        scan(expr.expr);
+        return null;
+    }
+}
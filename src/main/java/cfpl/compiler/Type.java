@@ -1,11 +1,35 @@
 package cfpl.compiler;
 
 public enum Type {
-    INT(1), FLOAT(2), CHAR(1), BOOL(1), STRING(1);
+    INT(1), FLOAT(2), CHAR(1), BOOL(1), STRING(1),
+    // the arrays are references to unboxed Java arrays
+    INT_ARRAY(INT), FLOAT_ARRAY(FLOAT), CHAR_ARRAY(CHAR), BOOL_ARRAY(BOOL);
 
     public final int size;
+    // the type of the elements of an array, null for the other types
+    public final Type element;
 
     private Type(int size) {
         this.size = size;
+        this.element = null;
+    }
+
+    private Type(Type element) {
+        this.size = 1;
+        this.element = element;
+    }
+
+    public boolean isArray() {
+        return element != null;
+    }
+
+    // the type of the arrays of this type, or null if there is none
+    public Type arrayOf() {
+        for (Type type: values()) {
+            if (type.element == this) {
+                return type;
+            }
+        }
+        return null;
     }
 }
@@ -2,8 +2,13 @@ package cfpl.compiler;
 
 public class Variable {
     public final Type type;
+    // the local variable slot, or -1 until the SlotAllocator gives one
     public final int addr;
 
+    Variable(Type type) {
+        this(type, -1);
+    }
+
     Variable(Type type, int addr) {
         this.type = type;
         this.addr = addr;
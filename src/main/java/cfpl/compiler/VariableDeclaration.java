@@ -1,24 +1,28 @@
 package cfpl.compiler;
 
-import org.tastefuljava.classfile.CodeSegment;
-
 class VariableDeclaration {
     final String name;
     final int line;
     final int column;
-    final CodeSegment initExpr;
-    final Type initType;
+    final Expression initExpr;
+    // the length of an array, null for the other variables
+    final Expression length;
 
     public VariableDeclaration(String name, int line, int column) {
-        this(name, line, column, null, null);
+        this(name, line, column, null);
+    }
+
+    public VariableDeclaration(String name, int line, int column,
+            Expression initExpr) {
+        this(name, line, column, initExpr, null);
     }
 
     public VariableDeclaration(String name, int line, int column,
-            CodeSegment initExpr, Type initType) {
+            Expression initExpr, Expression length) {
         this.name = name;
         this.line = line;
         this.column = column;
         this.initExpr = initExpr;
-        this.initType = initType;
+        this.length = length;
     }
 }
@@ -0,0 +1,156 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class BatchCompiler {
+    private static final Logger LOG
+            = Logger.getLogger(BatchCompiler.class.getName());
+
+    private final int threads;
+    private final Options options;
+    private final BuildCache cache;
+    // one parser per worker, reused for all the files it compiles
+    private final ThreadLocal<Parser> parsers = new ThreadLocal<>();
+
+    public static class Result {
+        public final File source;
+        public final File output;
+        public final long bytes;
+        public final String failure;
+
+        private Result(File source, File output, long bytes, String failure) {
+            this.source = source;
+            this.output = output;
+            this.bytes = bytes;
+            this.failure = failure;
+        }
+    }
+
+    public static class Summary {
+        private final List<Result> results;
+        private final long nanos;
+
+        private Summary(List<Result> results, long nanos) {
+            this.results = results;
+            this.nanos = nanos;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public int getFailureCount() {
+            int count = 0;
+            for (Result r: results) {
+                if (r.failure != null) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        public long getTotalBytes() {
+            long total = 0;
+            for (Result r: results) {
+                total += r.bytes;
+            }
+            return total;
+        }
+
+        public void print(PrintStream out) {
+            for (Result r: results) {
+                if (r.failure != null) {
+                    out.println("FAILED " + r.source + ": " + r.failure);
+                }
+            }
+            double seconds = nanos/1e9;
+            out.printf("%d files, %d failed, %d bytes written in %.3f s"
+                    + " (%.1f files/s)%n", results.size(), getFailureCount(),
+                    getTotalBytes(), seconds,
+                    seconds > 0 ? results.size()/seconds : 0.0);
+        }
+    }
+
+    public BatchCompiler(int threads, Options options) {
+        this(threads, options, null);
+    }
+
+    public BatchCompiler(int threads, Options options, BuildCache cache) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid number of threads: " + threads);
+        }
+        this.threads = threads;
+        this.options = options;
+        this.cache = cache;
+    }
+
+    public Summary compile(List<File> files) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService exec = Executors.newFixedThreadPool(
+                Math.min(threads, Math.max(files.size(), 1)));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (final File file: files) {
+                futures.add(exec.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return compileFile(file);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < files.size(); ++i) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    results.add(new Result(files.get(i), null, 0,
+                            String.valueOf(ex.getCause())));
+                }
+            }
+            return new Summary(results, System.nanoTime() - start);
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    // one parser (and thus one compiler) per worker thread: nothing but the
+    // options and the frozen conversion and operator tables is shared
+    // between threads
+    private Result compileFile(File file) {
+        try {
+            Parser parser = parsers.get();
+            if (parser == null) {
+                parser = new Parser(options);
+                parsers.set(parser);
+            }
+            int errors;
+            if (cache == null) {
+                parser.compile(file);
+                errors = parser.getErrorCount();
+            } else {
+                errors = cache.compile(file, parser);
+            }
+            if (errors > 0) {
+                // the class file, if any, is not that of this source
+                return new Result(file, null, 0, errors + " error(s)");
+            }
+            File output = Parser.outputFile(file);
+            return new Result(file, output, output.length(), null);
+        } catch (Exception | TokenMgrError ex) {
+            LOG.log(Level.SEVERE, "Error compiling " + file, ex);
+            return new Result(file, null, 0, String.valueOf(ex));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package cfpl.parser;
+
+import cfpl.compiler.Compiler;
+import cfpl.compiler.Hashes;
+import cfpl.compiler.Options;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Persistent incremental build cache. The compiled classes are stored under
+// objects/, named by the hash of the compiler fingerprint, the options, the
+// class name and the source. The index maps each source file to its length,
+// modification time and key, so that the unchanged files are not even read;
+// it is loaded at startup in one pass and replaced atomically by save().
+// The index is discarded when the fingerprint changes; the objects of other
+// fingerprints are simply never looked up again.
+public class BuildCache {
+    private static final String INDEX = "index";
+    private static final String OBJECTS = "objects";
+    private static final String HEADER = "cfpl-build-index 1 ";
+    private static final String SUFFIX = ".class";
+    // a file modified this close to the build could be modified again
+    // without its time changing, so it is hashed again next time
+    private static final long RACY_MILLIS = 2000;
+
+    private final File dir;
+    private final Options options;
+    private final String fingerprint;
+    private final Map<String,Entry> index = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private volatile boolean dirty;
+
+    private static class Entry {
+        private final long length;
+        private final long modified;
+        private final String key;
+
+        private Entry(long length, long modified, String key) {
+            this.length = length;
+            this.modified = modified;
+            this.key = key;
+        }
+    }
+
+    public BuildCache(File dir, Options options) throws IOException {
+        this.dir = dir;
+        this.options = options;
+        this.fingerprint = Compiler.getFingerprint() + " " + options;
+        new File(dir, OBJECTS).mkdirs();
+        if (!new File(dir, OBJECTS).isDirectory()) {
+            throw new IOException("Cannot create cache directory " + dir);
+        }
+        load();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    // compiles a file unless its class is in the cache; returns the number
+    // of errors
+    public int compile(File file) throws IOException, ParseException {
+        return compile(file, null);
+    }
+
+    // the same with the given parser, if not null
+    public int compile(File file, Parser parser)
+            throws IOException, ParseException {
+        File output = Parser.outputFile(file);
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long modified = file.lastModified();
+        Entry entry = index.get(path);
+        String key;
+        if (entry != null && entry.length == length
+                && entry.modified == modified) {
+            key = entry.key;
+        } else {
+            key = key(file, output);
+        }
+        File object = objectFile(key);
+        if (object.isFile()) {
+            hits.incrementAndGet();
+            Files.copy(object.toPath(), output.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            misses.incrementAndGet();
+            if (parser == null) {
+                parser = new Parser(options);
+            }
+            parser.compile(file);
+            int errors = parser.getErrorCount();
+            if (errors > 0) {
+                return errors;
+            }
+            object.getParentFile().mkdirs();
+            Path tmp = Files.createTempFile(
+                    object.getParentFile().toPath(), "obj", ".tmp");
+            Files.copy(output.toPath(), tmp,
+                    StandardCopyOption.REPLACE_EXISTING);
+            moveAtomically(tmp, object.toPath());
+        }
+        if (System.currentTimeMillis() - modified < RACY_MILLIS) {
+            modified = -1;
+        }
+        if (entry == null || entry.modified != modified
+                || entry.length != length || !entry.key.equals(key)) {
+            index.put(path, new Entry(length, modified, key));
+            dirty = true;
+        }
+        return 0;
+    }
+
+    // writes the index to a temporary file, then renames it
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path tmp = Files.createTempFile(dir.toPath(), INDEX, ".tmp");
+        try (Writer out = Files.newBufferedWriter(
+                tmp, StandardCharsets.UTF_8)) {
+            out.write(HEADER + fingerprint + "\n");
+            for (Map.Entry<String,Entry> e: index.entrySet()) {
+                Entry entry = e.getValue();
+                out.write(entry.key + "\t" + entry.length + "\t"
+                        + entry.modified + "\t" + e.getKey() + "\n");
+            }
+        }
+        moveAtomically(tmp, new File(dir, INDEX).toPath());
+        dirty = false;
+    }
+
+    private void load() throws IOException {
+        File file = new File(dir, INDEX);
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(
+                file.toPath(), StandardCharsets.UTF_8)) {
+            if (!(HEADER + fingerprint).equals(in.readLine())) {
+                // other compiler or options
+                dirty = true;
+                return;
+            }
+            for (String line = in.readLine(); line != null;
+                    line = in.readLine()) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    index.put(fields[3], new Entry(Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), fields[0]));
+                }
+            }
+        } catch (NumberFormatException ex) {
+            // corrupt index: start again
+            index.clear();
+            dirty = true;
+        }
+    }
+
+    private String key(File file, File output) throws IOException {
+        String className = output.getName();
+        className = className.substring(
+                0, className.length() - SUFFIX.length());
+        MessageDigest md = Hashes.sha256();
+        md.update((fingerprint + "\0" + className + "\0")
+                .getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buf = new byte[8192];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        }
+        return Hashes.hex(md.digest());
+    }
+
+    private File objectFile(String key) {
+        File subdir = new File(new File(dir, OBJECTS), key.substring(0, 2));
+        return new File(subdir, key.substring(2) + SUFFIX);
+    }
+
+    private static void moveAtomically(Path from, Path to)
+            throws IOException {
+        Files.move(from, to, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,186 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Compiles files with the compile server, or in this JVM if there is none:
+//     java -cp target/cfpl-1.0-SNAPSHOT.jar cfpl.parser.CompileClient
+//             [-port file] [options] file...
+// The messages of the compiler are printed as file: message, and the exit
+// status is 1 if a file fails to compile.
+public class CompileClient implements Closeable {
+    private static final Logger LOG
+            = Logger.getLogger(CompileClient.class.getName());
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    private CompileClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws IOException {
+        File portFile = CompileServer.PORT_FILE;
+        List<String> options = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        Options opts = new Options();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-port") && i + 1 < args.length) {
+                portFile = new File(args[++i]);
+            } else if (!args[i].startsWith("-")) {
+                files.add(new File(args[i]).getAbsoluteFile());
+            } else if (opts.parse(args[i])) {
+                options.add(args[i]);
+            } else {
+                System.err.println("Invalid option: " + args[i]);
+                System.err.println("Usage: CompileClient [-port file]"
+                        + " [-nofold] [-println] [-O] [-nopeephole]"
+                        + " [-profile] [-nooutline] [-target=version]"
+                        + " file...");
+                System.exit(1);
+            }
+        }
+        int failures;
+        try (CompileClient client = connect(portFile)) {
+            if (client != null) {
+                failures = client.compile(options, files, System.err);
+            } else {
+                failures = compileLocally(opts, files, System.err);
+            }
+        }
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    // the connection to the server of the port file, or null if it is not
+    // running or the port file is not private
+    public static CompileClient connect(File portFile) throws IOException {
+        String[] fields;
+        try {
+            if (!CompileServer.isPrivate(portFile.toPath())) {
+                LOG.log(Level.WARNING, "Port file of another user, or"
+                        + " readable by the others: {0}", portFile);
+                return null;
+            }
+            fields = new String(Files.readAllBytes(portFile.toPath()),
+                    StandardCharsets.UTF_8).trim().split(" ");
+        } catch (IOException ex) {
+            // no server
+            return null;
+        }
+        if (fields.length != 2) {
+            return null;
+        }
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(fields[0]));
+        } catch (IOException | NumberFormatException ex) {
+            // a stale port file
+            return null;
+        }
+        CompileClient client = new CompileClient(socket);
+        String[] reply = client.request(CompileServer.KEY, fields[1]);
+        if (reply == null || !reply[0].equals(CompileServer.OK)) {
+            client.close();
+            return null;
+        }
+        return client;
+    }
+
+    // compiles the files (absolute paths) with the server; returns the
+    // number of failures
+    public int compile(List<String> options, List<File> files,
+            PrintStream err) throws IOException {
+        List<String> fields = new ArrayList<>();
+        fields.add(CompileServer.COMPILE);
+        fields.addAll(options);
+        for (File file: files) {
+            fields.add(file.getPath());
+        }
+        CompileServer.send(out, fields.toArray(new String[fields.size()]));
+        out.flush();
+        int failures = 0;
+        for (String line = in.readLine(); line != null;
+                line = in.readLine()) {
+            String[] reply = CompileServer.split(line);
+            String kind = reply[0];
+            if (kind.equals(CompileServer.END)) {
+                return failures;
+            } else if (kind.equals(CompileServer.MSG)) {
+                err.println(reply[1] + ": " + reply[2]);
+            } else if (kind.equals(CompileServer.FAILED)) {
+                err.println("FAILED " + reply[1] + ": " + reply[2]);
+                ++failures;
+            } else if (kind.equals(CompileServer.ERROR)) {
+                throw new IOException("Server error: " + line);
+            }
+        }
+        throw new IOException("Connection closed by the server");
+    }
+
+    public boolean ping() throws IOException {
+        String[] reply = request(CompileServer.PING);
+        return reply != null && reply[0].equals(CompileServer.PONG);
+    }
+
+    public void stop() throws IOException {
+        request(CompileServer.STOP);
+    }
+
+    // compiles the files in this JVM, with the same output
+    public static int compileLocally(Options options, List<File> files,
+            PrintStream err) throws IOException {
+        CompileService service = new CompileService(Math.max(1, Math.min(
+                files.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            int failures = 0;
+            for (CompileService.Result r: service.compile(options, files)) {
+                for (String msg: r.messages) {
+                    err.println(r.file + ": " + msg);
+                }
+                if (r.failure != null) {
+                    err.println("FAILED " + r.file + ": " + r.failure);
+                    ++failures;
+                }
+            }
+            return failures;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private String[] request(String... fields) throws IOException {
+        CompileServer.send(out, fields);
+        out.flush();
+        String line = in.readLine();
+        return line == null ? null : CompileServer.split(line);
+    }
+}
@@ -0,0 +1,345 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import cfpl.compiler.Stats;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Stays resident and compiles files for its clients, which saves them the
+// startup of a JVM and the warm-up of the compiler:
+//     java -cp target/cfpl-1.0-SNAPSHOT.jar cfpl.parser.CompileServer
+//             [-j threads] [-port file | -stdio]
+// The server listens on a port of the loopback interface, and writes it to
+// the port file with a random key that the clients must send first. The
+// port file is in $XDG_RUNTIME_DIR/cfpl or ~/.cfpl by default; only its
+// owner can read and write it, and the clients ignore it otherwise. With
+// -stdio, it reads the requests from its standard input instead, and stops
+// at the end of it.
+// The requests and the answers are lines of tab-separated fields:
+//     KEY key                    OK
+//     COMPILE option... file...  for each file, the messages of the
+//                                compiler and the result:
+//                                    MSG file message
+//                                    OK file output
+//                                    FAILED file reason
+//                                then END
+//     PING                       PONG
+//     STOP                       BYE, and the server exits
+// The files are absolute paths; tabs, newlines and backslashes in the fields
+// are escaped with a backslash. The files of a request, and the requests of
+// different clients, are compiled concurrently.
+public class CompileServer {
+    private static final Logger LOG
+            = Logger.getLogger(CompileServer.class.getName());
+
+    static final String KEY = "KEY";
+    static final String COMPILE = "COMPILE";
+    static final String MSG = "MSG";
+    static final String OK = "OK";
+    static final String FAILED = "FAILED";
+    static final String END = "END";
+    static final String PING = "PING";
+    static final String PONG = "PONG";
+    static final String STOP = "STOP";
+    static final String BYE = "BYE";
+    static final String ERROR = "ERROR";
+
+    // where the clients look for the server by default: a directory of the
+    // user, which the others cannot read
+    public static final File PORT_FILE = new File(userDir(), "server.port");
+
+    private static final Set<PosixFilePermission> PRIVATE_DIR
+            = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> PRIVATE_FILE
+            = PosixFilePermissions.fromString("rw-------");
+
+    private final CompileService service;
+    private final String key;
+    private volatile boolean stopped;
+
+    public CompileServer(int threads) {
+        this.service = new CompileService(threads);
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder buf = new StringBuilder();
+        for (byte b: bytes) {
+            buf.append(String.format("%02x", b & 0xff));
+        }
+        this.key = buf.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File portFile = PORT_FILE;
+        boolean stdio = false;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-port") && i + 1 < args.length) {
+                portFile = new File(args[++i]);
+            } else if (args[i].equals("-stdio")) {
+                stdio = true;
+            } else {
+                System.err.println("Usage: CompileServer [-j threads]"
+                        + " [-port file | -stdio]");
+                System.exit(1);
+            }
+        }
+        // the statistics can be enabled and read with JMX
+        Stats.registerMBean();
+        CompileServer server = new CompileServer(threads);
+        if (stdio) {
+            server.serve(new BufferedReader(new InputStreamReader(
+                    System.in, StandardCharsets.UTF_8)),
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                    false);
+            server.service.shutdown();
+        } else {
+            server.listen(portFile);
+        }
+    }
+
+    // accepts the clients until one of them stops the server
+    public void listen(File portFile) throws IOException {
+        try (ServerSocket socket = new ServerSocket(
+                0, 50, InetAddress.getLoopbackAddress())) {
+            writePortFile(portFile, socket.getLocalPort());
+            try {
+                while (!stopped) {
+                    final Socket client = socket.accept();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle(client);
+                            if (stopped) {
+                                closeQuietly(socket);
+                            }
+                        }
+                    }, "cfpl-client");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException ex) {
+                if (!stopped) {
+                    throw ex;
+                }
+            } finally {
+                portFile.delete();
+                service.shutdown();
+            }
+        }
+    }
+
+    private void writePortFile(File portFile, int port) throws IOException {
+        Path dir = portFile.getAbsoluteFile().getParentFile().toPath();
+        Path tmp;
+        if (isPosix()) {
+            if (!Files.isDirectory(dir)) {
+                Files.createDirectories(dir,
+                        PosixFilePermissions.asFileAttribute(PRIVATE_DIR));
+            }
+            tmp = Files.createTempFile(dir, "cfpl", ".tmp",
+                    PosixFilePermissions.asFileAttribute(PRIVATE_FILE));
+        } else {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, "cfpl", ".tmp");
+        }
+        Files.write(tmp, (port + " " + key + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, portFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        portFile.deleteOnExit();
+    }
+
+    // whether the file belongs to this user, and the others can neither read
+    // nor write it: they could otherwise take the key, or send the clients
+    // to a server of their own
+    static boolean isPrivate(Path file) throws IOException {
+        UserPrincipal user = file.getFileSystem()
+                .getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!Files.getOwner(file).equals(user)) {
+            return false;
+        }
+        return !isPosix()
+                || PRIVATE_FILE.containsAll(Files.getPosixFilePermissions(file));
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews()
+                .contains("posix");
+    }
+
+    // $XDG_RUNTIME_DIR/cfpl, or ~/.cfpl
+    private static File userDir() {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty()) {
+            return new File(runtime, "cfpl");
+        }
+        return new File(System.getProperty("user.home"), ".cfpl");
+    }
+
+    private void handle(Socket client) {
+        try (Socket s = client) {
+            serve(new BufferedReader(new InputStreamReader(
+                    s.getInputStream(), StandardCharsets.UTF_8)),
+                    new OutputStreamWriter(s.getOutputStream(),
+                            StandardCharsets.UTF_8), true);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Connection closed", ex);
+        }
+    }
+
+    // answers the requests of a client until it disconnects; a client of
+    // the socket must first send the key
+    private void serve(BufferedReader in, Writer writer, boolean needKey)
+            throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        boolean authorized = !needKey;
+        for (String line = in.readLine(); line != null && !stopped;
+                line = in.readLine()) {
+            String[] fields = split(line);
+            String command = fields[0];
+            if (command.equals(KEY)) {
+                authorized = fields.length == 2 && fields[1].equals(key);
+                reply(out, authorized ? OK : ERROR);
+            } else if (!authorized) {
+                reply(out, ERROR, "key expected");
+                return;
+            } else if (command.equals(PING)) {
+                reply(out, PONG);
+            } else if (command.equals(STOP)) {
+                stopped = true;
+                reply(out, BYE);
+                return;
+            } else if (command.equals(COMPILE)) {
+                compile(fields, out);
+            } else {
+                reply(out, ERROR, "unknown request " + command);
+            }
+        }
+    }
+
+    private void compile(String[] fields, PrintWriter out) {
+        Options options = new Options();
+        List<File> files = new ArrayList<>();
+        for (int i = 1; i < fields.length; ++i) {
+            if (!fields[i].startsWith("-")) {
+                files.add(new File(fields[i]));
+            } else if (!options.parse(fields[i])) {
+                reply(out, ERROR, "invalid option " + fields[i]);
+                return;
+            }
+        }
+        List<CompileService.Result> results;
+        try {
+            results = service.compile(options, files);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            reply(out, ERROR, "interrupted");
+            return;
+        }
+        for (CompileService.Result r: results) {
+            String path = r.file.getPath();
+            for (String msg: r.messages) {
+                send(out, MSG, path, msg);
+            }
+            if (r.failure == null) {
+                send(out, OK, path, r.output.getPath());
+            } else {
+                send(out, FAILED, path, r.failure);
+            }
+        }
+        reply(out, END);
+    }
+
+    private static void reply(PrintWriter out, String... fields) {
+        send(out, fields);
+        out.flush();
+    }
+
+    static void send(PrintWriter out, String... fields) {
+        StringBuilder buf = new StringBuilder();
+        for (String field: fields) {
+            if (buf.length() > 0) {
+                buf.append('\t');
+            }
+            escape(buf, field);
+        }
+        out.print(buf.append('\n'));
+    }
+
+    private static void escape(StringBuilder buf, String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                default:
+                    buf.append(c);
+                    break;
+            }
+        }
+    }
+
+    static String[] split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(buf.toString());
+                buf.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                c = line.charAt(++i);
+                buf.append(c == 't' ? '\t' : c == 'n' ? '\n'
+                        : c == 'r' ? '\r' : c);
+            } else {
+                buf.append(c);
+            }
+        }
+        fields.add(buf.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+// Compiles files on a pool of threads, each with its own parser, and
+// returns the messages that the compiler logged for each file instead of
+// printing them. The compile server runs one, and the client too when there
+// is no server.
+class CompileService {
+    // the messages of the compiler go to the handler of this logger, and
+    // from there to the file being compiled by the thread; the others go
+    // on to the handlers of the root logger
+    private static final Logger ROOT = Logger.getLogger("cfpl");
+    private static final ThreadLocal<List<String>> messages
+            = new ThreadLocal<>();
+
+    private final ExecutorService exec;
+    private final ThreadLocal<Parser> parsers = new ThreadLocal<>();
+
+    static class Result {
+        final File file;
+        final File output;
+        final String failure;
+        final List<String> messages;
+
+        Result(File file, File output, String failure,
+                List<String> messages) {
+            this.file = file;
+            this.output = output;
+            this.failure = failure;
+            this.messages = messages;
+        }
+    }
+
+    static {
+        ROOT.setUseParentHandlers(false);
+        ROOT.addHandler(new Handler() {
+            private final SimpleFormatter formatter = new SimpleFormatter();
+
+            @Override
+            public void publish(LogRecord record) {
+                List<String> list = messages.get();
+                if (list != null) {
+                    list.add(formatter.formatMessage(record));
+                } else {
+                    for (Handler h: Logger.getLogger("").getHandlers()) {
+                        h.publish(record);
+                    }
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    CompileService(int threads) {
+        exec = Executors.newFixedThreadPool(threads);
+    }
+
+    List<Result> compile(final Options options, List<File> files)
+            throws InterruptedException {
+        List<Future<Result>> futures = new ArrayList<>();
+        for (final File file: files) {
+            futures.add(exec.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return compileFile(options, file);
+                }
+            }));
+        }
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < files.size(); ++i) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException ex) {
+                results.add(new Result(files.get(i), null,
+                        String.valueOf(ex.getCause()),
+                        new ArrayList<String>()));
+            }
+        }
+        return results;
+    }
+
+    void shutdown() {
+        exec.shutdownNow();
+    }
+
+    private Result compileFile(Options options, File file) {
+        List<String> list = new ArrayList<>();
+        messages.set(list);
+        try {
+            Parser parser = parsers.get();
+            if (parser == null) {
+                parser = new Parser(options);
+                parsers.set(parser);
+            }
+            parser.setOptions(options);
+            parser.compile(file);
+            int errors = parser.getErrorCount();
+            return new Result(file, Parser.outputFile(file),
+                    errors == 0 ? null : errors + " error(s)", list);
+        } catch (Exception | TokenMgrError ex) {
+            list.add(String.valueOf(ex.getMessage()));
+            return new Result(file, null, ex.getClass().getSimpleName(),
+                    list);
+        } finally {
+            messages.remove();
+        }
+    }
+}
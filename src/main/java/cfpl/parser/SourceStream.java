@@ -0,0 +1,244 @@
+package cfpl.parser;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// The input of the lexer, with the whole source in memory. Large files are
+// memory-mapped and small ones are read in one go (mapping costs more than
+// it saves on a few kilobytes). When the bytes are all ASCII, which is the
+// case of most programs, the lexer reads them directly; otherwise they are
+// decoded from UTF-8 at once, into a buffer of the right size. Strings are
+// wrapped without any copy.
+// The lines and columns are counted like JavaCC's SimpleCharStream (a tab
+// goes to the next multiple of 8), but they are only kept for the characters
+// of the current token, which is as far as the lexer can back up.
+public class SourceStream implements CharStream {
+    private static final int MAP_THRESHOLD = 64*1024;
+    private static final int TAB_SIZE = 8;
+    private static final long NON_ASCII = 0x8080808080808080L;
+
+    // the ASCII bytes, or else the characters
+    private final ByteBuffer bytes;
+    private final CharSequence chars;
+    private final int length;
+    private ByteBuffer view;
+    private byte[] image;
+    // the last character read, the last one whose position is known, and
+    // the first one of the token
+    private int pos = -1;
+    private int maxRead = -1;
+    private int tokenBegin;
+    // the positions of the characters from tokenBegin-1 to maxRead, indexed
+    // by their offset modulo the length of the arrays
+    private int[] lines = new int[64];
+    private int[] columns = new int[64];
+    private int line = 1;
+    private int column;
+    private boolean prevCharIsCR;
+    private boolean prevCharIsLF;
+
+    public SourceStream(CharSequence chars) {
+        this.bytes = null;
+        this.chars = chars;
+        this.length = chars.length();
+    }
+
+    private SourceStream(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.chars = null;
+        this.length = bytes.limit();
+    }
+
+    public static SourceStream open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + file);
+            }
+            ByteBuffer buf;
+            if (size > MAP_THRESHOLD) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buf = ByteBuffer.allocate((int)size);
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                    // until the end of the file
+                }
+                buf.flip();
+            }
+            if (isAscii(buf)) {
+                return new SourceStream(buf);
+            }
+            // like the InputStreamReader of SimpleCharStream
+            return new SourceStream(StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(buf));
+        }
+    }
+
+    private static boolean isAscii(ByteBuffer buf) {
+        int end = buf.limit();
+        int i = 0;
+        for (; i + 8 <= end; i += 8) {
+            if ((buf.getLong(i) & NON_ASCII) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; ++i) {
+            if (buf.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        if (pos + 1 >= length) {
+            throw new EOFException();
+        }
+        ++pos;
+        char c = bytes != null ? (char)bytes.get(pos) : chars.charAt(pos);
+        if (pos > maxRead) {
+            maxRead = pos;
+            if (maxRead - tokenBegin + 2 > lines.length) {
+                grow();
+            }
+            updateLineColumn(c);
+            int i = pos & (lines.length - 1);
+            lines[i] = line;
+            columns[i] = column;
+        }
+        return c;
+    }
+
+    private void updateLineColumn(char c) {
+        ++column;
+        if (prevCharIsLF) {
+            prevCharIsLF = false;
+            ++line;
+            column = 1;
+        } else if (prevCharIsCR) {
+            prevCharIsCR = false;
+            if (c == '\n') {
+                prevCharIsLF = true;
+            } else {
+                ++line;
+                column = 1;
+            }
+        }
+        switch (c) {
+            case '\r':
+                prevCharIsCR = true;
+                break;
+            case '\n':
+                prevCharIsLF = true;
+                break;
+            case '\t':
+                --column;
+                column += TAB_SIZE - column%TAB_SIZE;
+                break;
+        }
+    }
+
+    private void grow() {
+        int size = 2*lines.length;
+        int[] newLines = new int[size];
+        int[] newColumns = new int[size];
+        for (int p = Math.max(tokenBegin - 1, 0); p < maxRead; ++p) {
+            newLines[p & (size - 1)] = lines[p & (lines.length - 1)];
+            newColumns[p & (size - 1)] = columns[p & (lines.length - 1)];
+        }
+        lines = newLines;
+        columns = newColumns;
+    }
+
+    @Override
+    @Deprecated
+    public int getColumn() {
+        return getEndColumn();
+    }
+
+    @Override
+    @Deprecated
+    public int getLine() {
+        return getEndLine();
+    }
+
+    @Override
+    public int getEndColumn() {
+        return pos < 0 ? 0 : columns[pos & (columns.length - 1)];
+    }
+
+    @Override
+    public int getEndLine() {
+        return pos < 0 ? 0 : lines[pos & (lines.length - 1)];
+    }
+
+    @Override
+    public int getBeginColumn() {
+        return tokenBegin < 0
+                ? 0 : columns[tokenBegin & (columns.length - 1)];
+    }
+
+    @Override
+    public int getBeginLine() {
+        return tokenBegin < 0
+                ? 0 : lines[tokenBegin & (lines.length - 1)];
+    }
+
+    @Override
+    public void backup(int amount) {
+        pos -= amount;
+    }
+
+    @Override
+    public char BeginToken() throws IOException {
+        tokenBegin = pos + 1;
+        try {
+            return readChar();
+        } catch (EOFException ex) {
+            // the end of file token is where the last one ends
+            tokenBegin = pos;
+            throw ex;
+        }
+    }
+
+    @Override
+    public String GetImage() {
+        int len = pos + 1 - tokenBegin;
+        if (bytes == null) {
+            return chars.subSequence(tokenBegin, pos + 1).toString();
+        }
+        if (view == null) {
+            view = bytes.duplicate();
+        }
+        if (image == null || image.length < len) {
+            image = new byte[Math.max(len, 256)];
+        }
+        view.position(tokenBegin);
+        view.get(image, 0, len);
+        return new String(image, 0, len, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public char[] GetSuffix(int len) {
+        char[] result = new char[len];
+        for (int i = 0; i < len; ++i) {
+            int p = pos - len + 1 + i;
+            result[i] = bytes != null ? (char)bytes.get(p) : chars.charAt(p);
+        }
+        return result;
+    }
+
+    @Override
+    public void Done() {
+    }
+}
@@ -0,0 +1,23 @@
+package cfpl.parser;
+
+import cfpl.compiler.Stats;
+
+// The token manager of a parser with statistics: the parser asks for the
+// tokens as it needs them, so the time of lexing is the time spent in
+// getNextToken, and the count of LEX is the count of tokens.
+class TimedTokenManager extends ParserTokenManager {
+    private final Stats stats;
+
+    TimedTokenManager(CharStream stream, Stats stats) {
+        super(stream);
+        this.stats = stats;
+    }
+
+    @Override
+    public Token getNextToken() {
+        long start = System.nanoTime();
+        Token token = super.getNextToken();
+        stats.add(Stats.Phase.LEX, System.nanoTime() - start);
+        return token;
+    }
+}
@@ -0,0 +1,74 @@
+package cfpl.runtime;
+
+// The array operations of the compiled programs, which call these methods
+// because the classfile library cannot generate the array instructions
+// (newarray, iaload, iastore, arraylength...). The methods are small enough
+// for the JIT to inline them.
+public final class Arrays {
+    private Arrays() {
+    }
+
+    public static int[] newInt(int length) {
+        return new int[length];
+    }
+
+    public static double[] newDouble(int length) {
+        return new double[length];
+    }
+
+    public static char[] newChar(int length) {
+        return new char[length];
+    }
+
+    public static boolean[] newBool(int length) {
+        return new boolean[length];
+    }
+
+    public static int getInt(int[] array, int index) {
+        return array[index];
+    }
+
+    public static double getDouble(double[] array, int index) {
+        return array[index];
+    }
+
+    public static char getChar(char[] array, int index) {
+        return array[index];
+    }
+
+    public static boolean getBool(boolean[] array, int index) {
+        return array[index];
+    }
+
+    public static void setInt(int[] array, int index, int value) {
+        array[index] = value;
+    }
+
+    public static void setDouble(double[] array, int index, double value) {
+        array[index] = value;
+    }
+
+    public static void setChar(char[] array, int index, char value) {
+        array[index] = value;
+    }
+
+    public static void setBool(boolean[] array, int index, boolean value) {
+        array[index] = value;
+    }
+
+    public static int length(int[] array) {
+        return array.length;
+    }
+
+    public static int length(double[] array) {
+        return array.length;
+    }
+
+    public static int length(char[] array) {
+        return array.length;
+    }
+
+    public static int length(boolean[] array) {
+        return array.length;
+    }
+}
@@ -0,0 +1,347 @@
+package cfpl.runtime;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Buffered input of the INPUT statements of the generated programs, from
+// the standard input (a null file name) or from files, which stay open and
+// go on where the previous INPUT stopped. The values are separated by white
+// space, and they are parsed in place in a reusable byte buffer, which
+// grows to hold the longest value: an INT is parsed like Integer.parseInt,
+// a FLOAT like Double.parseDouble, with a direct conversion when the digits
+// and the exponent are small enough for it to be exact, a BOOL like
+// Boolean.parseBoolean, and only the errors and the FLOAT values too long
+// for the direct conversion create strings. A CHAR is the next character
+// that is not white space. The text is UTF-8.
+// A thread can redirect its input to a stream; its files are then opened
+// again.
+public final class Input {
+    private static final int BUFFER_SIZE = 1 << 16;
+    // the powers of ten that are exact doubles
+    private static final double[] POWERS = new double[23];
+    // the longest run of digits that a long holds
+    private static final int MAX_DIGITS = 18;
+    private static final long MAX_EXACT = 1L << 53;
+
+    private static final Input stdin
+            = new Input(new FileInputStream(FileDescriptor.in));
+    private static final ThreadLocal<Input> redirections
+            = new ThreadLocal<>();
+    // stays false as long as nobody redirects, which saves the thread local
+    // lookup
+    private static volatile boolean redirected;
+
+    private final InputStream in;
+    // the files that the programs read from, by name
+    private final Map<String,Input> files = new HashMap<>();
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    static {
+        double p = 1;
+        for (int i = 0; i < POWERS.length; ++i) {
+            POWERS[i] = p;
+            p *= 10;
+        }
+    }
+
+    private Input(InputStream in) {
+        this.in = in;
+    }
+
+    // redirects the input of the current thread to the given stream, or
+    // back to the standard input if it is null; returns the previous stream
+    public static InputStream redirect(InputStream in) {
+        Input prev = redirections.get();
+        if (in == null) {
+            redirections.remove();
+        } else {
+            redirected = true;
+            redirections.set(new Input(in));
+        }
+        return prev == null ? null : prev.in;
+    }
+
+    public static int readInt(String file) {
+        Input input = current(file);
+        synchronized (input) {
+            return input.nextInt();
+        }
+    }
+
+    public static double readDouble(String file) {
+        Input input = current(file);
+        synchronized (input) {
+            return input.nextDouble();
+        }
+    }
+
+    public static char readChar(String file) {
+        Input input = current(file);
+        synchronized (input) {
+            return input.nextChar();
+        }
+    }
+
+    public static boolean readBool(String file) {
+        Input input = current(file);
+        synchronized (input) {
+            return input.nextBool();
+        }
+    }
+
+    // true when there is nothing but white space left
+    public static boolean atEnd(String file) {
+        Input input = current(file);
+        synchronized (input) {
+            return !input.skipSpaces();
+        }
+    }
+
+    private static Input current(String file) {
+        Input input = stdin;
+        if (redirected) {
+            Input r = redirections.get();
+            if (r != null) {
+                input = r;
+            }
+        }
+        return file == null ? input : input.file(file);
+    }
+
+    private synchronized Input file(String name) {
+        Input input = files.get(name);
+        if (input == null) {
+            try {
+                input = new Input(new FileInputStream(name));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            files.put(name, input);
+        }
+        return input;
+    }
+
+    private int nextInt() {
+        if (!skipSpaces()) {
+            throw new NoSuchElementException("End of input");
+        }
+        int i = pos;
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+') {
+            ++i;
+        }
+        int start = i;
+        // accumulated negatively, like Integer.parseInt, to reach
+        // Integer.MIN_VALUE, as the digits are found; parsed again after
+        // token() when the value is not entirely in the buffer, or invalid
+        int min = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < limit; ++i) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || result < min/10) {
+                break;
+            }
+            result *= 10;
+            if (result < min + digit) {
+                break;
+            }
+            result -= digit;
+        }
+        if (i > start && (i < limit ? (buf[i] & 0xff) <= ' ' : eof)) {
+            pos = i;
+            return negative ? result : -result;
+        }
+        return parseInt(token());
+    }
+
+    private int parseInt(int end) {
+        int i = pos;
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+') {
+            ++i;
+        }
+        if (i == end) {
+            throw numberFormat(end);
+        }
+        int min = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < end; ++i) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || result < min/10) {
+                throw numberFormat(end);
+            }
+            result *= 10;
+            if (result < min + digit) {
+                throw numberFormat(end);
+            }
+            result -= digit;
+        }
+        pos = end;
+        return negative ? result : -result;
+    }
+
+    private double nextDouble() {
+        int end = token();
+        int i = pos;
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+') {
+            ++i;
+        }
+        long mantissa = 0;
+        // the significant digits, and the power of ten of the last one
+        int digits = 0;
+        int scale = 0;
+        boolean valid = false;
+        for (; i < end && isDigit(buf[i]); ++i) {
+            mantissa = mantissa*10 + (buf[i] - '0');
+            digits += mantissa == 0 ? 0 : 1;
+            valid = true;
+        }
+        if (i < end && buf[i] == '.') {
+            for (++i; i < end && isDigit(buf[i]); ++i) {
+                mantissa = mantissa*10 + (buf[i] - '0');
+                digits += mantissa == 0 ? 0 : 1;
+                --scale;
+                valid = true;
+            }
+        }
+        if (valid && i < end && (buf[i] | 0x20) == 'e') {
+            ++i;
+            boolean negExp = i < end && buf[i] == '-';
+            if (negExp || i < end && buf[i] == '+') {
+                ++i;
+            }
+            int exp = 0;
+            int expStart = i;
+            for (; i < end && isDigit(buf[i]) && exp < 1000; ++i) {
+                exp = exp*10 + (buf[i] - '0');
+            }
+            valid = i > expStart;
+            scale += negExp ? -exp : exp;
+        }
+        if (valid && i == end && digits <= MAX_DIGITS
+                && mantissa <= MAX_EXACT && scale >= 1 - POWERS.length
+                && scale < POWERS.length) {
+            // both the mantissa and the power of ten are exact, and a
+            // single operation rounds correctly
+            double value = scale < 0 ? mantissa/POWERS[-scale]
+                    : mantissa*POWERS[scale];
+            pos = end;
+            return negative ? -value : value;
+        }
+        // long or unusual: NaN, Infinity, the suffixes, the hexadecimal
+        // forms, the errors
+        String s = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+        pos = end;
+        return Double.parseDouble(s);
+    }
+
+    private char nextChar() {
+        if (!skipSpaces()) {
+            throw new NoSuchElementException("End of input");
+        }
+        int b = buf[pos] & 0xff;
+        if (b < 0x80) {
+            ++pos;
+            return (char)b;
+        }
+        // the bytes of a character are never split
+        int n = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : 2;
+        fill(n);
+        int end = Math.min(pos + n, limit);
+        String s = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+        pos = end;
+        return s.length() == 1 ? s.charAt(0) : '\ufffd';
+    }
+
+    private boolean nextBool() {
+        int end = token();
+        boolean result = end - pos == 4
+                && (buf[pos] | 0x20) == 't' && (buf[pos + 1] | 0x20) == 'r'
+                && (buf[pos + 2] | 0x20) == 'u'
+                && (buf[pos + 3] | 0x20) == 'e';
+        pos = end;
+        return result;
+    }
+
+    // the end of the next value, which starts at pos
+    private int token() {
+        if (!skipSpaces()) {
+            throw new NoSuchElementException("End of input");
+        }
+        int i = pos;
+        while (true) {
+            while (i < limit && (buf[i] & 0xff) > ' ') {
+                ++i;
+            }
+            if (i < limit || eof) {
+                return i;
+            }
+            i -= pos;
+            fill(i + 1);
+            i += pos;
+        }
+    }
+
+    // skips the white space; false at the end of the input
+    private boolean skipSpaces() {
+        while (true) {
+            while (pos < limit && (buf[pos] & 0xff) <= ' ') {
+                ++pos;
+            }
+            if (pos < limit) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            fill(1);
+        }
+    }
+
+    // reads until there are n bytes from pos, or the end of the input
+    private void fill(int n) {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (n > buf.length) {
+            byte[] b = new byte[Math.max(n, 2*buf.length)];
+            System.arraycopy(buf, 0, b, 0, limit);
+            buf = b;
+        }
+        try {
+            while (limit < n && !eof) {
+                int count = in.read(buf, limit, buf.length - limit);
+                if (count < 0) {
+                    eof = true;
+                } else {
+                    limit += count;
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private NumberFormatException numberFormat(int end) {
+        String s = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+        pos = end;
+        return new NumberFormatException("For input string: \"" + s + "\"");
+    }
+}
@@ -0,0 +1,207 @@
+package cfpl.runtime;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// Buffered standard output of the generated programs. The values of an
+// OUTPUT statement are formatted into a reusable line buffer of the thread
+// (the StringBuilder append methods format them like the toString
+// conversions, without creating strings), without any lock. The complete
+// line is then encoded, under the lock of the output, into a reusable byte
+// buffer, so that the lines of programs running at the same time never mix.
+// The buffer is written to the standard output channel when it is full, at
+// the end of a program, and at exit.
+// A thread can redirect its output to a writer; this is how the script
+// engine captures the output of the programs it runs.
+public final class Output {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String lineSeparator = System.lineSeparator();
+    private static final Output stdout = new Output(null);
+    private static final ThreadLocal<Output> redirections
+            = new ThreadLocal<>();
+    // stays false as long as nobody redirects, which saves the thread local
+    // lookup
+    private static volatile boolean redirected;
+    private static final ThreadLocal<StringBuilder> lines
+            = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final Writer writer;
+    private ByteBuffer buf;
+    private CharsetEncoder encoder;
+    private WritableByteChannel channel;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                stdout.flushLines();
+            }
+        });
+    }
+
+    private Output(Writer writer) {
+        this.writer = writer;
+        if (writer == null) {
+            buf = ByteBuffer.allocate(BUFFER_SIZE);
+            encoder = stdoutCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        }
+    }
+
+    // redirects the output of the current thread to the given writer, or
+    // back to the standard output if it is null; returns the previous
+    // writer
+    public static Writer redirect(Writer writer) {
+        Output prev = redirections.get();
+        lines.get().setLength(0);
+        if (prev != null) {
+            prev.flushLines();
+        }
+        if (writer == null) {
+            redirections.remove();
+        } else {
+            redirected = true;
+            redirections.set(new Output(writer));
+        }
+        return prev == null ? null : prev.writer;
+    }
+
+    public static void write(int value) {
+        lines.get().append(value);
+    }
+
+    public static void write(char value) {
+        lines.get().append(value);
+    }
+
+    public static void write(boolean value) {
+        lines.get().append(value);
+    }
+
+    public static void write(double value) {
+        lines.get().append(value);
+    }
+
+    public static void write(String value) {
+        lines.get().append(value);
+    }
+
+    public static void newLine() {
+        StringBuilder line = lines.get();
+        line.append(lineSeparator);
+        current().writeLine(line);
+        line.setLength(0);
+    }
+
+    // an incomplete line is dropped: its OUTPUT statement has failed (like
+    // println, which never prints a partial string)
+    public static void flush() {
+        lines.get().setLength(0);
+        current().flushLines();
+    }
+
+    private static Output current() {
+        if (redirected) {
+            Output out = redirections.get();
+            if (out != null) {
+                return out;
+            }
+        }
+        return stdout;
+    }
+
+    private synchronized void flushLines() {
+        if (writer == null) {
+            drain();
+        } else {
+            try {
+                writer.flush();
+            } catch (IOException ex) {
+                // like System.out, the output silently stops on errors
+            }
+        }
+    }
+
+    private synchronized void writeLine(StringBuilder line) {
+        if (writer != null) {
+            try {
+                writer.append(line);
+            } catch (IOException ex) {
+                // like System.out, the output silently stops on errors
+            }
+            return;
+        }
+        int len = line.length();
+        int i = 0;
+        while (i < len) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                encode(line, i, len);
+                break;
+            }
+            if (!buf.hasRemaining()) {
+                drain();
+            }
+            buf.put((byte)c);
+            ++i;
+        }
+    }
+
+    private void encode(StringBuilder line, int start, int end) {
+        CharBuffer cb = CharBuffer.wrap(line, start, end);
+        encoder.reset();
+        CoderResult res;
+        do {
+            res = encoder.encode(cb, buf, true);
+            if (res.isOverflow()) {
+                drain();
+            }
+        } while (res.isOverflow());
+        while (encoder.flush(buf).isOverflow()) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        buf.flip();
+        try {
+            while (channel != null && buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } catch (IOException ex) {
+            // like System.out, the output silently stops on errors
+            channel = null;
+        }
+        buf.clear();
+    }
+
+    private static Charset stdoutCharset() {
+        String name = System.getProperty("stdout.encoding",
+                System.getProperty("sun.stdout.encoding"));
+        try {
+            if (name != null) {
+                return Charset.forName(name);
+            }
+        } catch (RuntimeException ex) {
+            // unsupported encoding: use the default
+        }
+        return Charset.defaultCharset();
+    }
+}
@@ -0,0 +1,184 @@
+package cfpl.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Runs the chunks of a PARALLEL loop on the fork-join pool of the calling
+// thread, or on the common pool. The range is split into at most MAX_CHUNKS
+// chunks of nearly equal sizes, whatever the number of processors, and the
+// partial values of the reductions are combined in the order of the chunks:
+// the results are the same on all machines, those of FLOAT sums included.
+// The method of a chunk is a private static method of the program, found
+// with its lookup; its parameters are the Results of the partial values,
+// the index, the end of the chunk (excluded), and the variables that the
+// body reads, which the program passes in a Results. The chunks share the
+// arrays: the elements that several chunks write have no defined value.
+// The reductions are described by a kind, I or D, followed by an operator,
+// +, *, & or |, for each of them.
+public final class Parallel {
+    public static final int MAX_CHUNKS = 64;
+
+    private static final ClassValue<Map<String,MethodHandle>> METHODS
+            = new ClassValue<Map<String,MethodHandle>>() {
+        @Override
+        protected Map<String,MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private Parallel() {
+    }
+
+    private static class Chunk extends RecursiveAction {
+        private final MethodHandle method;
+        private final Object[] args;
+
+        private Chunk(MethodHandle method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                method.invokeWithArguments(args);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new UndeclaredThrowableException(ex);
+            }
+        }
+    }
+
+    // the combined partial values of the reductions, from first to last,
+    // included
+    public static Results run(MethodHandles.Lookup lookup, String name,
+            String descriptor, String reductions, Results vars, int first,
+            int last) {
+        MethodHandle method = method(lookup, name, descriptor);
+        Class<?>[] types = method.type().parameterArray();
+        int[] bounds = split(first, last);
+        List<Chunk> chunks = new ArrayList<>();
+        Results[] partials = new Results[bounds.length - 1];
+        for (int k = 0; k < partials.length; ++k) {
+            partials[k] = create(reductions);
+            Object[] args = new Object[types.length];
+            args[0] = partials[k];
+            args[1] = bounds[k];
+            args[2] = bounds[k + 1];
+            int[] index = new int[4];
+            for (int i = 3; i < types.length; ++i) {
+                if (types[i].isArray()) {
+                    args[i] = Results.getArray(vars, index[3]++);
+                } else if (types[i] == double.class) {
+                    args[i] = Results.getDouble(vars, index[1]++);
+                } else if (types[i] == int.class) {
+                    args[i] = Results.getInt(vars, index[0]++);
+                } else {
+                    args[i] = Results.getString(vars, index[2]++);
+                }
+            }
+            chunks.add(new Chunk(method, args));
+        }
+        if (chunks.size() == 1) {
+            chunks.get(0).compute();
+        } else if (!chunks.isEmpty()) {
+            ForkJoinTask.invokeAll(chunks);
+        }
+        return combine(reductions, partials);
+    }
+
+    // the bounds of the chunks of the range from first to last, included:
+    // chunk k runs from bounds[k] to bounds[k+1], excluded, which wraps
+    // around when last is the largest int
+    public static int[] split(int first, int last) {
+        long count = Math.max(0, (long)last - first + 1);
+        int chunks = (int)Math.min(count, MAX_CHUNKS);
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = first;
+        for (int k = 1; k <= chunks; ++k) {
+            bounds[k] = (int)(first + count*k/chunks);
+        }
+        return bounds;
+    }
+
+    // the partial values, in the order of the chunks; the identities of the
+    // operators if there is none
+    public static Results combine(String reductions, Results[] partials) {
+        if (partials.length == 0) {
+            return create(reductions);
+        }
+        Results result = partials[0];
+        for (int k = 1; k < partials.length; ++k) {
+            int ints = 0;
+            int doubles = 0;
+            for (int i = 0; i < reductions.length(); i += 2) {
+                char op = reductions.charAt(i + 1);
+                if (reductions.charAt(i) == 'D') {
+                    double a = Results.getDouble(result, doubles);
+                    double b = Results.getDouble(partials[k], doubles);
+                    Results.setDouble(result, doubles++,
+                            op == '*' ? a*b : a + b);
+                } else {
+                    int a = Results.getInt(result, ints);
+                    int b = Results.getInt(partials[k], ints);
+                    Results.setInt(result, ints++, op == '*' ? a*b
+                            : op == '&' ? a & b : op == '|' ? a | b : a + b);
+                }
+            }
+        }
+        return result;
+    }
+
+    // the Results of the reductions, with the identities of the operators
+    private static Results create(String reductions) {
+        int ints = 0;
+        int doubles = 0;
+        for (int i = 0; i < reductions.length(); i += 2) {
+            if (reductions.charAt(i) == 'D') {
+                ++doubles;
+            } else {
+                ++ints;
+            }
+        }
+        Results results = Results.create(ints, doubles, 0);
+        ints = 0;
+        doubles = 0;
+        for (int i = 0; i < reductions.length(); i += 2) {
+            char op = reductions.charAt(i + 1);
+            int identity = op == '*' || op == '&' ? 1 : 0;
+            if (reductions.charAt(i) == 'D') {
+                Results.setDouble(results, doubles++, identity);
+            } else {
+                Results.setInt(results, ints++, identity);
+            }
+        }
+        return results;
+    }
+
+    private static MethodHandle method(MethodHandles.Lookup lookup,
+            String name, String descriptor) {
+        Class<?> c = lookup.lookupClass();
+        Map<String,MethodHandle> methods = METHODS.get(c);
+        MethodHandle method = methods.get(name);
+        if (method == null) {
+            try {
+                method = lookup.findStatic(c, name,
+                        MethodType.fromMethodDescriptorString(
+                                descriptor, c.getClassLoader()));
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+            methods.put(name, method);
+        }
+        return method;
+    }
+}
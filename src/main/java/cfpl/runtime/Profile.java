@@ -0,0 +1,180 @@
+package cfpl.runtime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Counters of the programs compiled with -profile. Each OUTPUT, IF and WHILE
+// of a program is a site with four counters in a long array:
+// - COUNT: the number of times the statement is executed;
+// - TAKEN: the number of times the THEN part of an IF is taken, or the
+//   number of iterations of a WHILE;
+// - NANOS: the wall time spent in the statement;
+// - STARTED: the time at which the current execution started.
+// The main method registers its sites when it starts and keeps the array in
+// a local variable, as do the methods that it calls; the counting methods
+// only update the array, so they allocate nothing. The counts of concurrent
+// runs of a program may be missed, as the counters are not synchronized.
+// The profile of all the programs is written as JSON at exit, to the file
+// named by the system property cfpl.profile (cfpl-profile.json by default).
+public final class Profile {
+    public static final int COUNT = 0;
+    public static final int TAKEN = 1;
+    public static final int NANOS = 2;
+    public static final int STARTED = 3;
+    public static final int COUNTERS = 4;
+
+    private static final String FILE_PROPERTY = "cfpl.profile";
+    private static final String DEFAULT_FILE = "cfpl-profile.json";
+
+    private static final Map<String,Program> programs = new LinkedHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                dump(new File(System.getProperty(
+                        FILE_PROPERTY, DEFAULT_FILE)));
+            }
+        });
+    }
+
+    private static class Program {
+        private final String className;
+        private final String sites;
+        private final long[] counters;
+
+        private Program(String className, String sites, int count) {
+            this.className = className;
+            this.sites = sites;
+            this.counters = new long[COUNTERS*count];
+        }
+    }
+
+    private Profile() {
+    }
+
+    // the counters of a program; the sites are separated by spaces, each of
+    // them being a kind (W, I or O) followed by line:column. The runs of a
+    // program add to the same counters.
+    public static long[] register(String className, String sites) {
+        synchronized (programs) {
+            Program prog = programs.get(className);
+            if (prog == null || !prog.sites.equals(sites)) {
+                int count = sites.isEmpty() ? 0 : sites.split(" ").length;
+                prog = new Program(className, sites, count);
+                programs.put(className, prog);
+            }
+            return prog.counters;
+        }
+    }
+
+    // the counters that the last run of a program has registered, for the
+    // methods that its main method calls
+    public static long[] counters(String className) {
+        synchronized (programs) {
+            return programs.get(className).counters;
+        }
+    }
+
+    public static void count(long[] counters, int index) {
+        ++counters[index];
+    }
+
+    public static void start(long[] counters, int site) {
+        counters[site + STARTED] = System.nanoTime();
+    }
+
+    public static void stop(long[] counters, int site) {
+        counters[site + NANOS] += System.nanoTime() - counters[site + STARTED];
+    }
+
+    // writes the profile now; it is also written at exit
+    public static void dump(File file) {
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            dump(out);
+        } catch (IOException ex) {
+            System.err.println("Cannot write the profile to " + file + ": "
+                    + ex.getMessage());
+        }
+    }
+
+    public static void dump(Writer writer) {
+        List<Program> list;
+        synchronized (programs) {
+            list = new ArrayList<>(programs.values());
+        }
+        PrintWriter out = new PrintWriter(writer);
+        out.println("{");
+        out.println("  \"programs\": [");
+        for (int p = 0; p < list.size(); ++p) {
+            Program prog = list.get(p);
+            out.println("    {");
+            out.println("      \"class\": " + quote(prog.className) + ",");
+            out.print("      \"sites\": [");
+            String[] sites = prog.sites.isEmpty()
+                    ? new String[0] : prog.sites.split(" ");
+            for (int i = 0; i < sites.length; ++i) {
+                out.println(i == 0 ? "" : ",");
+                out.print("        ");
+                printSite(out, sites[i], prog.counters, COUNTERS*i);
+            }
+            out.println(sites.length == 0 ? "]" : "\n      ]");
+            out.println(p + 1 < list.size() ? "    }," : "    }");
+        }
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private static void printSite(PrintWriter out, String site,
+            long[] counters, int base) {
+        int colon = site.indexOf(':');
+        long count = counters[base + COUNT];
+        long taken = counters[base + TAKEN];
+        char kind = site.charAt(0);
+        out.print("{\"kind\": " + (kind == 'W' ? "\"WHILE\""
+                : kind == 'I' ? "\"IF\"" : "\"OUTPUT\"")
+                + ", \"line\": " + site.substring(1, colon)
+                + ", \"column\": " + site.substring(colon + 1));
+        if (kind == 'W') {
+            out.print(", \"entries\": " + count
+                    + ", \"iterations\": " + taken
+                    + ", \"iterationsPerEntry\": " + ratio(taken, count));
+        } else if (kind == 'I') {
+            out.print(", \"count\": " + count + ", \"taken\": " + taken
+                    + ", \"takenRatio\": " + ratio(taken, count));
+        } else {
+            out.print(", \"count\": " + count);
+        }
+        out.print(", \"nanos\": " + counters[base + NANOS] + "}");
+    }
+
+    private static String ratio(long a, long b) {
+        return b == 0 ? "0" : Double.toString((double)a/b);
+    }
+
+    private static String quote(String s) {
+        StringBuilder buf = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < 0x20) {
+                buf.append(String.format("\\u%04x", (int)c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"').toString();
+    }
+}
@@ -0,0 +1,77 @@
+package cfpl.runtime;
+
+// The variables that a part of a program moved to a method of its own
+// writes back to its caller: the caller creates the results and passes them
+// to the method, which sets them before it returns. INT, CHAR and BOOL
+// values are ints, FLOAT values are doubles, the arrays are the Java arrays
+// of their elements, and each kind is numbered separately.
+public final class Results {
+    private final int[] ints;
+    private final double[] doubles;
+    private final String[] strings;
+    private final Object[] arrays;
+
+    private Results(int ints, int doubles, int strings, int arrays) {
+        this.ints = new int[ints];
+        this.doubles = new double[doubles];
+        this.strings = new String[strings];
+        this.arrays = new Object[arrays];
+    }
+
+    public static Results create(int ints, int doubles, int strings) {
+        return new Results(ints, doubles, strings, 0);
+    }
+
+    public static Results create(int ints, int doubles, int strings,
+            int arrays) {
+        return new Results(ints, doubles, strings, arrays);
+    }
+
+    public static void setInt(Results results, int index, int value) {
+        results.ints[index] = value;
+    }
+
+    public static void setDouble(Results results, int index, double value) {
+        results.doubles[index] = value;
+    }
+
+    public static void setString(Results results, int index, String value) {
+        results.strings[index] = value;
+    }
+
+    public static void setArray(Results results, int index, Object value) {
+        results.arrays[index] = value;
+    }
+
+    public static int getInt(Results results, int index) {
+        return results.ints[index];
+    }
+
+    public static double getDouble(Results results, int index) {
+        return results.doubles[index];
+    }
+
+    public static String getString(Results results, int index) {
+        return results.strings[index];
+    }
+
+    public static Object getArray(Results results, int index) {
+        return results.arrays[index];
+    }
+
+    public static int[] getIntArray(Results results, int index) {
+        return (int[])results.arrays[index];
+    }
+
+    public static double[] getDoubleArray(Results results, int index) {
+        return (double[])results.arrays[index];
+    }
+
+    public static char[] getCharArray(Results results, int index) {
+        return (char[])results.arrays[index];
+    }
+
+    public static boolean[] getBoolArray(Results results, int index) {
+        return (boolean[])results.arrays[index];
+    }
+}
@@ -0,0 +1,98 @@
+package cfpl.script;
+
+import cfpl.runtime.Output;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// Programs have no access to the bindings: evaluating one runs it with its
+// output redirected to the writer of the context, and returns null.
+public class CfplScriptEngine extends AbstractScriptEngine
+        implements Compilable {
+    private final CfplScriptEngineFactory factory;
+    private final ProgramCompiler compiler;
+
+    CfplScriptEngine(CfplScriptEngineFactory factory,
+            ProgramCompiler compiler) {
+        this.factory = factory;
+        this.compiler = compiler;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context)
+            throws ScriptException {
+        return run(compiler.compile(script), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context)
+            throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        final Program program = compiler.compile(script);
+        return new CompiledScript() {
+            @Override
+            public Object eval(ScriptContext context) throws ScriptException {
+                return run(program, context);
+            }
+
+            @Override
+            public ScriptEngine getEngine() {
+                return CfplScriptEngine.this;
+            }
+        };
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static Object run(Program program, ScriptContext context)
+            throws ScriptException {
+        Writer prev = Output.redirect(context.getWriter());
+        try {
+            program.run();
+            return null;
+        } catch (RuntimeException ex) {
+            throw new ScriptException(ex);
+        } finally {
+            Output.redirect(prev);
+        }
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder buf = new StringBuilder();
+        char[] chars = new char[4096];
+        try {
+            for (int n = reader.read(chars); n >= 0; n = reader.read(chars)) {
+                buf.append(chars, 0, n);
+            }
+        } catch (IOException ex) {
+            throw new ScriptException(ex);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package cfpl.script;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+public class CfplScriptEngineFactory implements ScriptEngineFactory {
+    private static final String NAME = "CFPL";
+    private static final String VERSION = "1.0";
+
+    // shared by all the engines of the factory
+    private final ProgramCompiler compiler = new ProgramCompiler();
+
+    @Override
+    public String getEngineName() {
+        return NAME;
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("cfpl");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return Collections.singletonList("text/x-cfpl");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return Arrays.asList("cfpl", "CFPL");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return NAME;
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE:
+            case ScriptEngine.NAME:
+            case ScriptEngine.LANGUAGE:
+                return NAME;
+            case ScriptEngine.ENGINE_VERSION:
+            case ScriptEngine.LANGUAGE_VERSION:
+                return VERSION;
+            case "THREADING":
+                // the programs share nothing but the cache
+                return "MULTITHREADED";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        // there are no objects, only functions
+        StringBuilder buf = new StringBuilder(m).append('(');
+        for (int i = 0; i < args.length; ++i) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(args[i]);
+        }
+        return buf.append(')').toString();
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        StringBuilder buf = new StringBuilder("OUTPUT: \"");
+        for (char c: toDisplay.toCharArray()) {
+            switch (c) {
+                case '\n':
+                    buf.append('#');
+                    break;
+                case '#':
+                case '[':
+                case ']':
+                    buf.append('[').append(c).append(']');
+                    break;
+                case '"':
+                    // cannot appear in a double-quoted string
+                    buf.append("\" & '\"' & \"");
+                    break;
+                default:
+                    buf.append(c);
+                    break;
+            }
+        }
+        return buf.append('"').toString();
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder buf = new StringBuilder("START\n");
+        for (String s: statements) {
+            buf.append("    ").append(s).append('\n');
+        }
+        return buf.append("STOP\n").toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new CfplScriptEngine(this, compiler);
+    }
+}
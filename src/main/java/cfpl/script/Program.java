@@ -0,0 +1,52 @@
+package cfpl.script;
+
+import cfpl.compiler.Interpreter;
+import cfpl.runtime.Output;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// a compiled program, loaded in memory, or a program for the interpreter
+public class Program {
+    private final Class<?> programClass;
+    private final Method main;
+    private final Interpreter interpreter;
+
+    Program(Class<?> programClass) throws NoSuchMethodException {
+        this.programClass = programClass;
+        this.main = programClass.getMethod("main", String[].class);
+        this.interpreter = null;
+    }
+
+    Program(Interpreter interpreter) {
+        this.programClass = null;
+        this.main = null;
+        this.interpreter = interpreter;
+    }
+
+    // null if the program is interpreted
+    public Class<?> getProgramClass() {
+        return programClass;
+    }
+
+    public void run(String... args) {
+        if (interpreter != null) {
+            interpreter.run();
+            return;
+        }
+        try {
+            main.invoke(null, (Object)args);
+        } catch (InvocationTargetException ex) {
+            // main only flushes the output when it returns
+            Output.flush();
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package cfpl.script;
+
+import cfpl.compiler.Hashes;
+import cfpl.compiler.Interpreter;
+import cfpl.compiler.Options;
+import cfpl.parser.ParseException;
+import cfpl.parser.Parser;
+import cfpl.parser.Token;
+import cfpl.parser.TokenMgrError;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.script.ScriptException;
+
+// Compiles programs in memory and loads them, without any file. The
+// programs are cached by the hash of their source and of the options, and
+// the least recently used ones are evicted beyond the size of the cache, so
+// evaluating the same source again skips the parsing and code generation.
+public class ProgramCompiler {
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final Logger LOG
+            = Logger.getLogger(ProgramCompiler.class.getName());
+
+    private static final String CLASS_PREFIX = "Cfpl_";
+    private static final String HOT_SUFFIX = "_hot";
+
+    private final Options options;
+    private final Map<String,Program> cache;
+    private long hits;
+    private long misses;
+
+    public ProgramCompiler() {
+        this(new Options(), DEFAULT_CACHE_SIZE);
+    }
+
+    public ProgramCompiler(Options options, final int cacheSize) {
+        this.options = options;
+        this.cache = new LinkedHashMap<String,Program>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String,Program> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public Program compile(String source) throws ScriptException {
+        String hash = hash(options + "\0" + source);
+        synchronized (this) {
+            Program program = cache.get(hash);
+            if (program != null) {
+                ++hits;
+                return program;
+            }
+            ++misses;
+        }
+        // compiled outside of the lock: two threads compiling the same
+        // source at the same time both get a working program
+        String className = CLASS_PREFIX + hash.substring(0, 16);
+        Program program = load(className, compileToBytes(source, className));
+        synchronized (this) {
+            cache.put(hash, program);
+        }
+        return program;
+    }
+
+    public byte[] compileToBytes(String source, String className)
+            throws ScriptException {
+        try {
+            return parse(source).toByteArray(className);
+        } catch (IOException ex) {
+            throw new ScriptException(ex);
+        }
+    }
+
+    // A program run by the interpreter, without generating any class. With
+    // a threshold, a loop that takes that many back-edges is compiled with
+    // the rest of the program, and the compiled class goes on; 0 means
+    // never.
+    // These are not cached: parsing is all they cost.
+    public Program interpret(String source, int threshold)
+            throws ScriptException {
+        Interpreter interpreter = parse(source).interpreter();
+        if (threshold > 0) {
+            String className = CLASS_PREFIX + hash(options + "\0" + source)
+                    .substring(0, 16) + HOT_SUFFIX;
+            interpreter.setTier(new Interpreter.Tier() {
+                @Override
+                public boolean run(String className, byte[] bytes) {
+                    Program program;
+                    try {
+                        program = load(className, bytes);
+                    } catch (ScriptException ex) {
+                        LOG.log(Level.WARNING, "Cannot load the hot loop",
+                                ex);
+                        return false;
+                    }
+                    program.run();
+                    return true;
+                }
+            }, threshold, className);
+        }
+        return new Program(interpreter);
+    }
+
+    private Parser parse(String source) throws ScriptException {
+        try {
+            Parser parser = Parser.parse(source, options);
+            int errors = parser.getErrorCount();
+            if (errors > 0) {
+                throw new ScriptException(errors + " error(s)");
+            }
+            return parser;
+        } catch (ParseException ex) {
+            Token token = ex.currentToken == null
+                    ? null : ex.currentToken.next;
+            if (token == null) {
+                throw new ScriptException(ex.getMessage());
+            }
+            throw new ScriptException(ex.getMessage(), null,
+                    token.beginLine, token.beginColumn);
+        } catch (TokenMgrError ex) {
+            throw new ScriptException(ex.getMessage());
+        }
+    }
+
+    public synchronized int getCacheSize() {
+        return cache.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+
+    private static Program load(String className, byte[] bytes)
+            throws ScriptException {
+        ProgramLoader loader = new ProgramLoader(
+                ProgramCompiler.class.getClassLoader());
+        try {
+            return new Program(loader.define(className, bytes));
+        } catch (NoSuchMethodException | LinkageError ex) {
+            throw new ScriptException(ex.toString());
+        }
+    }
+
+    private static String hash(String s) {
+        return Hashes.hex(
+                Hashes.sha256().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+}
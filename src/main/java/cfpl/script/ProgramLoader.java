@@ -0,0 +1,13 @@
+package cfpl.script;
+
+// one loader per program, so that a program evicted from the cache can be
+// unloaded
+class ProgramLoader extends ClassLoader {
+    ProgramLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,67 @@
+package cfpl.script;
+
+import cfpl.compiler.Options;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.script.ScriptException;
+
+// Runs a program without writing any class file:
+//     java -cp target/cfpl-1.0-SNAPSHOT.jar cfpl.script.Runner
+//             [-interpret | -tiered[=n]] [options] file.cfpl
+// By default the program is compiled in memory. -interpret runs it with the
+// interpreter, which is faster for the programs that run only a few
+// statements; -tiered starts with the interpreter and goes on with the
+// compiled class once a loop has taken n back-edges.
+public class Runner {
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    public static void main(String[] args) throws IOException {
+        Options opts = new Options();
+        boolean interpret = false;
+        int threshold = 0;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            String arg = args[i++];
+            if (arg.equals("-interpret")) {
+                interpret = true;
+                threshold = 0;
+            } else if (arg.equals("-tiered")) {
+                interpret = true;
+                threshold = DEFAULT_THRESHOLD;
+            } else if (arg.startsWith("-tiered=")) {
+                interpret = true;
+                threshold = Integer.parseInt(arg.substring(8));
+            } else if (!opts.parse(arg)) {
+                usage("Invalid option: " + arg);
+            }
+        }
+        if (i != args.length - 1) {
+            usage(null);
+        }
+        String source = new String(
+                Files.readAllBytes(new File(args[i]).toPath()),
+                StandardCharsets.UTF_8);
+        ProgramCompiler compiler = new ProgramCompiler(opts, 1);
+        try {
+            Program program = interpret
+                    ? compiler.interpret(source, threshold)
+                    : compiler.compile(source);
+            program.run();
+        } catch (ScriptException ex) {
+            System.err.println(args[i] + ": " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage(String msg) {
+        if (msg != null) {
+            System.err.println(msg);
+        }
+        System.err.println("Usage: Runner [-interpret | -tiered[=n]]"
+                + " [-nofold] [-println] [-O] [-nopeephole]"
+                + " [-profile] [-nooutline] [-target=version] file");
+        System.exit(1);
+    }
+}
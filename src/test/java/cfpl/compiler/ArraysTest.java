@@ -0,0 +1,107 @@
+package cfpl.compiler;
+
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+// Arrays of each type, compiled with the options that change the code of
+// their elements, and interpreted
+public class ArraysTest {
+    private static final String[] OPTIONS = {
+        "", "-O", "-nofold", "-nopeephole", "-nooutline", "-target=52",
+        "-println",
+    };
+
+    @Test
+    public void elements() throws ScriptException {
+        String source = "VAR n=4, i AS INT\n"
+                + "VAR a[n] AS INT\n"
+                + "VAR f[2*n] AS FLOAT\n"
+                + "VAR c[3] AS CHAR\n"
+                + "VAR b[2] AS BOOL\n"
+                + "START\n"
+                + "    i=0\n"
+                + "    WHILE (i < length(a))\n"
+                + "    START\n"
+                + "        a[i]=i*i\n"
+                + "        f[i]=i*0.5\n"
+                + "        i=i+1\n"
+                + "    STOP\n"
+                + "    c[1]='x'\n"
+                + "    b[0]=(a[3] == 9)\n"
+                + "    a[a[1]]=a[2]+a[3]\n"
+                + "    OUTPUT: a[0] & \" \" & a[1] & \" \" & a[3] & \" \""
+                + " & length(f) & \" \" & f[3] & \" \" & f[7] & \" \""
+                + " & c[1] & \" \" & b[0] & \" \" & b[1]\n"
+                + "STOP\n";
+        check(source, String.format("0 13 9 8 1.5 0.0 x true false%n"));
+    }
+
+    // the output before the failure is written, and the program ends with
+    // the exception of the JVM
+    @Test
+    public void bounds() throws ScriptException {
+        String source = "VAR a[4] AS INT\n"
+                + "START\n"
+                + "    a[3]=7\n"
+                + "    OUTPUT: a[3]\n"
+                + "    OUTPUT: a[4]\n"
+                + "STOP\n";
+        check(source, String.format("7%n") + "exception "
+                + ArrayIndexOutOfBoundsException.class.getName() + "\n");
+        source = "VAR n=1 AS INT\n"
+                + "VAR a[n-2] AS FLOAT\n"
+                + "START\n"
+                + "    OUTPUT: n & length(a)\n"
+                + "STOP\n";
+        check(source, "exception "
+                + NegativeArraySizeException.class.getName() + "\n");
+    }
+
+    @Test
+    public void rejected() {
+        // whole arrays are not assigned, nor converted
+        assertRejected("VAR a[2], b[2] AS INT\n"
+                + "START\n"
+                + "    a=b\n"
+                + "STOP\n");
+        assertRejected("VAR a[2] AS INT\n"
+                + "VAR f[2] AS FLOAT\n"
+                + "START\n"
+                + "    f[0]=length(a)\n"
+                + "    OUTPUT: a & f\n"
+                + "STOP\n");
+        // a variable that is not an array
+        assertRejected("VAR n AS INT\n"
+                + "START\n"
+                + "    n[0]=1\n"
+                + "STOP\n");
+        assertRejected("VAR a[2] AS INT\n"
+                + "START\n"
+                + "    OUTPUT: length(a[0])\n"
+                + "STOP\n");
+    }
+
+    private static void check(String source, String expected)
+            throws ScriptException {
+        for (String options: OPTIONS) {
+            ProgramCompiler compiler
+                    = new ProgramCompiler(Runs.options(options), 1);
+            assertEquals(options, expected, Runs.run(compiler.compile(source)));
+            assertEquals(options + " interpreted", expected,
+                    Runs.run(compiler.interpret(source, 0)));
+        }
+    }
+
+    private static void assertRejected(String source) {
+        try {
+            new ProgramCompiler().compile(source);
+            fail("compiled:\n" + source);
+        } catch (ScriptException ex) {
+            // the errors are logged
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cfpl.compiler;
+
+import cfpl.script.Runs;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class ConditionsTest {
+    private static final String[] OPTIONS = {"", "-nofold", "-target=52"};
+
+    // the second operand of AND and OR is only evaluated when the first
+    // one does not decide: 10/z never runs
+    @Test
+    public void shortCircuit() throws ScriptException {
+        String source = "VAR z=0, n=0 AS INT\n"
+                + "START\n"
+                + "    IF (z <> 0 AND 10/z > 1)\n"
+                + "    START\n"
+                + "        OUTPUT: \"taken\"\n"
+                + "    STOP\n"
+                + "    ELSE\n"
+                + "    START\n"
+                + "        OUTPUT: \"and\"\n"
+                + "    STOP\n"
+                + "    IF (z == 0 OR 10/z > 1)\n"
+                + "    START\n"
+                + "        OUTPUT: \"or\"\n"
+                + "    STOP\n"
+                + "    WHILE (n < 3 AND (z == 0 OR 10/z > 1))\n"
+                + "    START\n"
+                + "        n=n+1\n"
+                + "    STOP\n"
+                + "    OUTPUT: n\n"
+                + "STOP\n";
+        check(source, String.format("and%nor%n3%n"));
+    }
+
+    // OR is true when only one of its operands is, in a condition and as
+    // a value
+    @Test
+    public void or() throws ScriptException {
+        String source = "VAR n=3 AS INT\n"
+                + "VAR p AS BOOL\n"
+                + "START\n"
+                + "    IF (n == 1 OR n == 3)\n"
+                + "    START\n"
+                + "        OUTPUT: \"or\"\n"
+                + "    STOP\n"
+                + "    p=(n > 5 OR n < 4)\n"
+                + "    IF (p)\n"
+                + "    START\n"
+                + "        OUTPUT: \"p\"\n"
+                + "    STOP\n"
+                + "    p=(n > 1 AND n > 5)\n"
+                + "    IF (p)\n"
+                + "    START\n"
+                + "        OUTPUT: \"and\"\n"
+                + "    STOP\n"
+                + "STOP\n";
+        check(source, String.format("or%np%n"));
+    }
+
+    private static void check(String source, String expected)
+            throws ScriptException {
+        for (String options: OPTIONS) {
+            assertEquals(options, expected,
+                    Runs.compileAndRun(source, options));
+        }
+    }
+}
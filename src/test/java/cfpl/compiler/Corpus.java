@@ -0,0 +1,381 @@
+package cfpl.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Generates valid CFPL programs of a given shape and size; the same seed,
+// shape and size always give the same program:
+//     java -cp benchmarks.jar cfpl.compiler.Corpus [-seed n] shape size [file]
+// The shapes are the paths that the samples are too small to exercise:
+// - vars: size variables, declared in lines of eight, half of them
+//   initialized, some from the previous ones;
+// - concat: an OUTPUT of a chain of size operands of all the types;
+// - nesting: an assignment of an expression nested size levels deep;
+// - blocks: IF and WHILE statements nested size levels deep;
+// - statements: size random statements, with small blocks.
+// ScalingTest and the ScalingCheck of the benchmarks compile them at
+// doubling sizes, from the first size of each shape.
+public class Corpus {
+    public static final List<String> SHAPES = Arrays.asList(
+            "vars", "concat", "nesting", "blocks", "statements");
+    // the first sizes of the shapes
+    private static final Map<String,Integer> FIRST_SIZES
+            = new LinkedHashMap<>();
+
+    private static final String HEADER = "* generated\n"
+            + "VAR i0=1, i1=2, i2, n AS INT\n"
+            + "VAR f0=0.5, f1 AS FLOAT\n"
+            + "VAR b0=\"TRUE\" AS BOOL\n"
+            + "VAR c0='c' AS CHAR\n";
+    // assigns the variables of the header, so that they are not constants
+    private static final String PROLOGUE = "START\n"
+            + "    i0=n + 1\n"
+            + "    i1=i0*2\n"
+            + "    i2=i1 - 3\n"
+            + "    f0=i1/4.0\n"
+            + "    f1=f0*2\n"
+            + "    b0=i0 > 0\n"
+            + "    c0='d'\n";
+    private static final String[] INTS = {"i0", "i1", "i2"};
+    private static final String[] FLOATS = {"f0", "f1"};
+    // the operators at each level of the nesting shape
+    private static final String[][] LEVELS = {
+        {"(", " + i0)"},
+        {"f0 * (", ")"},
+        {"sin(", ")"},
+        {"(", " / 2.5)"},
+        {"i1 - (", ")"},
+    };
+    // the indentation stops there, so that the size of the source stays
+    // proportional to the size of the program
+    private static final int MAX_INDENT = 8;
+
+    static {
+        FIRST_SIZES.put("vars", 2000);
+        FIRST_SIZES.put("concat", 250);
+        FIRST_SIZES.put("nesting", 250);
+        FIRST_SIZES.put("blocks", 100);
+        FIRST_SIZES.put("statements", 250);
+    }
+
+    private final Random random;
+    private final StringBuilder buf = new StringBuilder();
+
+    private Corpus(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int i = 0;
+        if (args.length > 1 && args[0].equals("-seed")) {
+            seed = Long.parseLong(args[1]);
+            i = 2;
+        }
+        if (args.length - i < 2 || args.length - i > 3
+                || !SHAPES.contains(args[i])) {
+            System.err.println("Usage: Corpus [-seed n] shape size [file]");
+            System.err.println("Shapes: " + SHAPES);
+            System.exit(2);
+        }
+        String source = generate(seed, args[i], Integer.parseInt(args[i+1]));
+        if (args.length - i == 3) {
+            Files.write(new File(args[i+2]).toPath(),
+                    source.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(source);
+        }
+    }
+
+    // the smallest size at which the growth of a shape is measured
+    public static int firstSize(String shape) {
+        Integer size = FIRST_SIZES.get(shape);
+        if (size == null) {
+            throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+        return size;
+    }
+
+    public static String generate(long seed, String shape, int size) {
+        Corpus corpus = new Corpus(seed);
+        corpus.buf.append(HEADER);
+        switch (shape) {
+            case "vars":
+                corpus.vars(size);
+                break;
+            case "concat":
+                corpus.concat(size);
+                break;
+            case "nesting":
+                corpus.nesting(size);
+                break;
+            case "blocks":
+                corpus.blocks(size);
+                break;
+            case "statements":
+                corpus.statements(size);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+        return corpus.buf.toString();
+    }
+
+    private void vars(int size) {
+        String[] types = {"INT", "FLOAT", "BOOL", "CHAR"};
+        List<List<Integer>> byType = new ArrayList<>();
+        for (int t = 0; t < types.length; ++t) {
+            byType.add(new ArrayList<Integer>());
+        }
+        for (int v = 0; v < size; v += 8) {
+            int t = random.nextInt(types.length);
+            List<Integer> same = byType.get(t);
+            buf.append("VAR ");
+            for (int k = v; k < Math.min(size, v + 8); ++k) {
+                buf.append(k == v ? "" : ", ").append('v').append(k);
+                if (random.nextBoolean()) {
+                    buf.append('=');
+                    if (!same.isEmpty() && random.nextBoolean()) {
+                        buf.append('v')
+                                .append(same.get(random.nextInt(same.size())));
+                    } else {
+                        buf.append(literal(types[t]));
+                    }
+                }
+            }
+            for (int k = v; k < Math.min(size, v + 8); ++k) {
+                same.add(k);
+            }
+            buf.append(" AS ").append(types[t]).append('\n');
+        }
+        buf.append(PROLOGUE);
+        List<Integer> ints = byType.get(0);
+        for (int s = 0; s < size/8; ++s) {
+            int v = random.nextInt(size);
+            if (!ints.isEmpty() && random.nextBoolean()) {
+                int a = ints.get(random.nextInt(ints.size()));
+                int b = ints.get(random.nextInt(ints.size()));
+                buf.append("    v").append(a).append("=v").append(b)
+                        .append(" + ").append(random.nextInt(10))
+                        .append('\n');
+            } else {
+                buf.append("    OUTPUT: \"v").append(v).append("=\" & v")
+                        .append(v).append('\n');
+            }
+        }
+        buf.append("STOP\n");
+    }
+
+    private void concat(int size) {
+        buf.append(PROLOGUE);
+        buf.append("    OUTPUT: ");
+        for (int k = 0; k < size; ++k) {
+            if (k > 0) {
+                buf.append(" & ");
+            }
+            switch (random.nextInt(6)) {
+                case 0:
+                    buf.append("\"s").append(k).append('"');
+                    break;
+                case 1:
+                    buf.append(pick(INTS));
+                    break;
+                case 2:
+                    buf.append(pick(FLOATS));
+                    break;
+                case 3:
+                    buf.append(random.nextBoolean() ? "c0" : "' '");
+                    break;
+                case 4:
+                    buf.append("b0");
+                    break;
+                default:
+                    buf.append('(').append(intExpr(2)).append(')');
+                    break;
+            }
+        }
+        buf.append("\nSTOP\n");
+    }
+
+    private void nesting(int size) {
+        buf.append(PROLOGUE);
+        buf.append("    f1=");
+        int[] levels = new int[size];
+        for (int k = 0; k < size; ++k) {
+            levels[k] = random.nextInt(LEVELS.length);
+            buf.append(LEVELS[levels[k]][0]);
+        }
+        buf.append(pick(FLOATS));
+        for (int k = size; --k >= 0; ) {
+            buf.append(LEVELS[levels[k]][1]);
+        }
+        buf.append('\n');
+        buf.append("    OUTPUT: f1\n");
+        buf.append("STOP\n");
+    }
+
+    private void blocks(int size) {
+        buf.append(PROLOGUE);
+        List<String> closing = new ArrayList<>();
+        for (int level = 0; level < size; ++level) {
+            indent(level + 1);
+            if (random.nextInt(3) == 0) {
+                // runs once at most
+                buf.append("WHILE (n < ").append(level + 1).append(")\n");
+                indent(level + 1);
+                buf.append("START\n");
+                indent(level + 2);
+                buf.append("n=n + 1\n");
+                closing.add(null);
+            } else {
+                // a condition on a variable, which cannot be folded away
+                buf.append("IF (").append(pick(INTS)).append(" < ")
+                        .append(intExpr(1)).append(")\n");
+                indent(level + 1);
+                buf.append("START\n");
+                indent(level + 2);
+                buf.append("OUTPUT: \"level ").append(level).append("\"\n");
+                closing.add(random.nextBoolean()
+                        ? "i2=" + intExpr(1) : null);
+            }
+        }
+        for (int level = size; --level >= 0; ) {
+            indent(level + 1);
+            buf.append("STOP\n");
+            String elsePart = closing.get(level);
+            if (elsePart != null) {
+                indent(level + 1);
+                buf.append("ELSE\n");
+                indent(level + 1);
+                buf.append("START\n");
+                indent(level + 2);
+                buf.append(elsePart).append('\n');
+                indent(level + 1);
+                buf.append("STOP\n");
+            }
+        }
+        buf.append("STOP\n");
+    }
+
+    private void statements(int size) {
+        buf.append(PROLOGUE);
+        for (int k = 0; k < size; ++k) {
+            statement(1, 2);
+        }
+        buf.append("STOP\n");
+    }
+
+    private void statement(int level, int depth) {
+        int kind = random.nextInt(depth > 0 ? 6 : 4);
+        indent(level);
+        switch (kind) {
+            case 0:
+            case 1:
+                buf.append(pick(INTS)).append('=').append(intExpr(2));
+                break;
+            case 2:
+                buf.append(pick(FLOATS)).append('=').append(floatExpr(2));
+                break;
+            case 3:
+                buf.append("OUTPUT: \"o\" & ").append(intExpr(1))
+                        .append(" & ' ' & ").append(floatExpr(1));
+                break;
+            case 4:
+                buf.append("IF (").append(boolExpr(1)).append(")\n");
+                block(level, depth - 1);
+                if (random.nextBoolean()) {
+                    indent(level);
+                    buf.append("ELSE\n");
+                    block(level, depth - 1);
+                }
+                return;
+            default:
+                buf.append("n=0\n");
+                indent(level);
+                buf.append("WHILE (n < ").append(1 + random.nextInt(3))
+                        .append(")\n");
+                indent(level);
+                buf.append("START\n");
+                indent(level + 1);
+                buf.append("n=n + 1\n");
+                statement(level + 1, 0);
+                indent(level);
+                buf.append("STOP\n");
+                return;
+        }
+        buf.append('\n');
+    }
+
+    private void block(int level, int depth) {
+        indent(level);
+        buf.append("START\n");
+        for (int k = 1 + random.nextInt(3); --k >= 0; ) {
+            statement(level + 1, depth);
+        }
+        indent(level);
+        buf.append("STOP\n");
+    }
+
+    private String intExpr(int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            return random.nextBoolean()
+                    ? pick(INTS) : Integer.toString(random.nextInt(100));
+        }
+        String op = pick(new String[] {"+", "-", "*"});
+        return "(" + intExpr(depth - 1) + " " + op + " "
+                + intExpr(depth - 1) + ")";
+    }
+
+    private String floatExpr(int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            return pick(new String[] {"f0", "f1", "i0", "pi()", "sin(f0)"});
+        }
+        String op = pick(new String[] {"+", "-", "*", "/"});
+        return "(" + floatExpr(depth - 1) + " " + op + " "
+                + floatExpr(depth - 1) + ")";
+    }
+
+    private String boolExpr(int depth) {
+        switch (random.nextInt(depth > 0 ? 4 : 3)) {
+            case 0:
+                return intExpr(1) + " < " + intExpr(1);
+            case 1:
+                return floatExpr(1) + " >= " + floatExpr(1);
+            case 2:
+                return "b0";
+            default:
+                return boolExpr(depth - 1) + " AND " + boolExpr(depth - 1);
+        }
+    }
+
+    private String literal(String type) {
+        switch (type) {
+            case "INT":
+                return Integer.toString(random.nextInt(1000));
+            case "FLOAT":
+                return random.nextInt(100) + "." + random.nextInt(10);
+            case "BOOL":
+                return random.nextBoolean() ? "\"TRUE\"" : "\"FALSE\"";
+            default:
+                return "'" + (char)('a' + random.nextInt(26)) + "'";
+        }
+    }
+
+    private String pick(String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private void indent(int level) {
+        for (int k = Math.min(level, MAX_INDENT); --k >= 0; ) {
+            buf.append("    ");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package cfpl.compiler;
+
+import cfpl.script.Runs;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+// Runs the samples, the test programs and generated programs compiled
+// without constant folding and without the peephole optimizer, and checks
+// that each of the optimizations, alone and together, gives the same
+// output and ends with the same exception
+public class DifferentialTest {
+    private static final String REFERENCE = "-nofold -nopeephole";
+    private static final String[] OPTIONS = {
+        "", "-nofold", "-nopeephole", "-O", "-O -nofold", "-O -nopeephole",
+        "-nooutline", "-O -nooutline", "-target=52", "-O -target=52",
+        "-println",
+    };
+    private static final int GENERATED = 150;
+
+    @Test
+    public void samples() throws IOException, ScriptException {
+        File[] files = new File("samples").listFiles();
+        assertNotNull(files);
+        for (File file: files) {
+            if (file.getName().endsWith(".cfpl")) {
+                check(file.getName(), read(file));
+            }
+        }
+    }
+
+    @Test
+    public void programs() throws IOException, ScriptException {
+        File[] files = new File("src/test/resources/cfpl/programs")
+                .listFiles();
+        assertNotNull(files);
+        for (File file: files) {
+            check(file.getName(), read(file));
+        }
+    }
+
+    @Test
+    public void generated() throws ScriptException {
+        for (int seed = 1; seed <= GENERATED; ++seed) {
+            check("seed " + seed, ProgramGenerator.generate(seed, 12));
+        }
+    }
+
+    static void check(String name, String source) throws ScriptException {
+        String expected = Runs.compileAndRun(source, REFERENCE);
+        for (String options: OPTIONS) {
+            assertEquals(name + " " + options, expected,
+                    Runs.compileAndRun(source, options));
+        }
+    }
+
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+package cfpl.compiler;
+
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.io.File;
+import java.io.IOException;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+// Runs programs compiled, interpreted, and interpreted with the tier that
+// compiles the rest of the program at the first back-edge, and checks that
+// they write the same output and end with the same exception
+public class InterpreterTest {
+    private static final String[] OPTIONS = {"", "-O", "-nofold"};
+
+    @Test
+    public void samples() throws IOException, ScriptException {
+        File[] files = new File("samples").listFiles();
+        assertNotNull(files);
+        for (File file: files) {
+            if (file.getName().endsWith(".cfpl")) {
+                check(file.getName(), DifferentialTest.read(file));
+            }
+        }
+    }
+
+    @Test
+    public void programs() throws IOException, ScriptException {
+        File[] files = new File("src/test/resources/cfpl/programs")
+                .listFiles();
+        assertNotNull(files);
+        for (File file: files) {
+            check(file.getName(), DifferentialTest.read(file));
+        }
+    }
+
+    // without arrays, so that the tier compiles the hot loops
+    @Test
+    public void generated() throws ScriptException {
+        for (int seed = 1; seed <= 100; ++seed) {
+            check("seed " + seed,
+                    ProgramGenerator.generate(seed, 12, true, false));
+        }
+    }
+
+    @Test
+    public void arrays() throws ScriptException {
+        for (int seed = 1; seed <= 50; ++seed) {
+            check("seed " + seed, ProgramGenerator.generate(seed, 12));
+        }
+    }
+
+    private static void check(String name, String source)
+            throws ScriptException {
+        for (String options: OPTIONS) {
+            ProgramCompiler compiler
+                    = new ProgramCompiler(Runs.options(options), 1);
+            String compiled = Runs.run(compiler.compile(source));
+            assertEquals(name + " " + options + " interpreted", compiled,
+                    Runs.run(compiler.interpret(source, 0)));
+            assertEquals(name + " " + options + " tiered", compiled,
+                    Runs.run(compiler.interpret(source, 1)));
+        }
+    }
+}
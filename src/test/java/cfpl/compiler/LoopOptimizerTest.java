@@ -0,0 +1,105 @@
+package cfpl.compiler;
+
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoopOptimizerTest {
+    @Test
+    public void decrementingLoop() throws ScriptException {
+        String source = "VAR j=10 AS INT\n"
+                + "START\n"
+                + "    WHILE (j > 0)\n"
+                + "    START\n"
+                + "        OUTPUT: j*3\n"
+                + "        j = j - 3\n"
+                + "    STOP\n"
+                + "STOP\n";
+        String expected = String.format("30%n21%n12%n3%n");
+        assertEquals(expected, Runs.compileAndRun(source, "-nofold"));
+        assertEquals(expected, Runs.compileAndRun(source, "-O"));
+    }
+
+    // the products of the induction variables that go down, up, by one or
+    // by a stride
+    @Test
+    public void strengthReduction() throws IOException, ScriptException {
+        String source = resource("Decrement.cfpl");
+        String expected = Runs.compileAndRun(source, "-nofold");
+        assertEquals(expected, Runs.compileAndRun(source, "-O"));
+        assertEquals(expected, Runs.compileAndRun(source, "-O -nofold"));
+    }
+
+    // the conditions of the IFs stay in the loop: hoisted, each would be a
+    // variable that the outlined parts of main pass to each other
+    @Test
+    public void nestedConditions() throws ScriptException {
+        // a and b are assigned, so that they are not folded
+        StringBuilder source = new StringBuilder("VAR i, a, b AS INT\n"
+                + "START\n"
+                + "    a=i + 3\n"
+                + "    b=a + 2\n"
+                + "    WHILE (i < 2)\n"
+                + "    START\n"
+                + "        i=i + 1\n");
+        // large enough for the body of the loop to be split
+        for (int k = 0; k < 300; ++k) {
+            source.append("        IF (a < b + ").append(k).append(")\n")
+                    .append("        START\n")
+                    .append("            IF (b*").append(k)
+                    .append(" > a - i)\n")
+                    .append("            START\n")
+                    .append("                OUTPUT: \"in ").append(k)
+                    .append("\"\n")
+                    .append("            STOP\n")
+                    .append("        STOP\n");
+        }
+        source.append("    STOP\n")
+                .append("STOP\n");
+        Program plain = compile(source.toString(), "");
+        Program optimized = compile(source.toString(), "-O");
+        assertTrue(parameters(plain) > 0);
+        assertEquals(parameters(plain), parameters(optimized));
+        assertEquals(Runs.run(plain), Runs.run(optimized));
+    }
+
+    private static Program compile(String source, String options)
+            throws ScriptException {
+        return new ProgramCompiler(Runs.options(options), 1).compile(source);
+    }
+
+    // the parameters of the parts of main
+    private static int parameters(Program program) {
+        int count = 0;
+        for (Method m: program.getProgramClass().getDeclaredMethods()) {
+            if (m.getName().startsWith("main$")) {
+                count += m.getParameterTypes().length;
+            }
+        }
+        return count;
+    }
+
+    static String resource(String name) throws IOException {
+        InputStream in = LoopOptimizerTest.class.getResourceAsStream(
+                "/cfpl/programs/" + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cfpl.compiler;
+
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.lang.reflect.Method;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Programs large enough to be outlined: their output must be the same as
+// that of the whole program in main, with and without the peephole
+// optimizer, as long as main still fits in 64KB
+public class OutlinerTest {
+    private static final String[] OPTIONS = {
+        "-nopeephole", "-O", "-O -nopeephole", "-nofold",
+    };
+
+    @Test
+    public void outlined() throws ScriptException {
+        for (int seed = 1; seed <= 20; ++seed) {
+            String source = ProgramGenerator.generate(seed, 150, false, true);
+            Program program = compile(source, "");
+            assertTrue("seed " + seed, parts(program) > 0);
+            String expected = Runs.run(program);
+            assertEquals("seed " + seed, expected,
+                    Runs.compileAndRun(source, "-nooutline"));
+            check("seed " + seed, source, expected);
+        }
+    }
+
+    // more than 64KB of bytecode: -nooutline cannot load it
+    @Test
+    public void huge() throws ScriptException {
+        for (int seed = 1; seed <= 3; ++seed) {
+            String source = ProgramGenerator.generate(seed, 2000, false, true);
+            Program program = compile(source, "");
+            assertTrue("seed " + seed, parts(program) > 8);
+            check("seed " + seed, source, Runs.run(program));
+        }
+    }
+
+    private static void check(String name, String source, String expected)
+            throws ScriptException {
+        for (String options: OPTIONS) {
+            assertEquals(name + " " + options, expected,
+                    Runs.compileAndRun(source, options));
+        }
+    }
+
+    private static Program compile(String source, String options)
+            throws ScriptException {
+        return new ProgramCompiler(Runs.options(options), 1).compile(source);
+    }
+
+    // the number of methods main was split into
+    private static int parts(Program program) {
+        int count = 0;
+        for (Method m: program.getProgramClass().getDeclaredMethods()) {
+            if (m.getName().startsWith("main$")) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
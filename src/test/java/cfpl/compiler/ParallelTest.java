@@ -0,0 +1,214 @@
+package cfpl.compiler;
+
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.script.ScriptException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// The reductions of PARALLEL, compiled, interpreted and tiered, and the
+// bodies that are rejected at compile time
+public class ParallelTest {
+    private static final String[] OPTIONS = {
+        "", "-O", "-nofold", "-nooutline", "-target=52", "-println",
+    };
+
+    private final Logger logger = Logger.getLogger(Compiler.class.getName());
+    private final List<String> errors = new ArrayList<>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            errors.add(MessageFormat.format(
+                    record.getMessage(), record.getParameters()));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void addHandler() {
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void removeHandler() {
+        logger.removeHandler(handler);
+    }
+
+    // the partial values of the chunks are combined with the value before
+    // the loop
+    @Test
+    public void reductions() throws ScriptException {
+        String source = "VAR i, j, sum=10, prod=1 AS INT\n"
+                + "VAR x=0.5 AS FLOAT\n"
+                + "VAR all, any AS BOOL\n"
+                + "START\n"
+                + "    all=(1 == 1)\n"
+                + "    any=(1 == 0)\n"
+                + "    PARALLEL i = 1 TO 1000"
+                + " REDUCE sum +, prod *, x +, all AND, any OR\n"
+                + "    START\n"
+                + "        j=i%7\n"
+                + "        sum=sum+j\n"
+                + "        IF (i%100 == 0)\n"
+                + "        START\n"
+                + "            prod=prod*2\n"
+                + "        STOP\n"
+                + "        x=x+0.25\n"
+                + "        all=(all AND i > 0)\n"
+                + "        any=(any OR i == 777)\n"
+                + "    STOP\n"
+                + "    OUTPUT: sum & \" \" & prod & \" \" & x & \" \" & all"
+                + " & \" \" & any\n"
+                + "STOP\n";
+        check(source, String.format("3013 1024 250.5 true true%n"));
+    }
+
+    // an empty range leaves the reductions as they were
+    @Test
+    public void empty() throws ScriptException {
+        String source = "VAR i, sum=5 AS INT\n"
+                + "START\n"
+                + "    PARALLEL i = 3 TO 2 REDUCE sum +\n"
+                + "    START\n"
+                + "        sum=sum+i\n"
+                + "    STOP\n"
+                + "    OUTPUT: sum\n"
+                + "STOP\n";
+        check(source, String.format("5%n"));
+    }
+
+    @Test
+    public void rejected() {
+        assertRejected("VAR i, n AS INT\n"
+                + "START\n"
+                + "    PARALLEL i = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        n=n+i\n"
+                + "        OUTPUT: n\n"
+                + "    STOP\n"
+                + "STOP\n", "OUTPUT in the body of PARALLEL, line 6");
+        assertRejected("VAR i, j, n AS INT\n"
+                + "START\n"
+                + "    PARALLEL i = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        PARALLEL j = 1 TO 10 REDUCE n +\n"
+                + "        START\n"
+                + "            n=n+j\n"
+                + "        STOP\n"
+                + "    STOP\n"
+                + "STOP\n", "PARALLEL in the body of PARALLEL, line 5");
+        assertRejected("VAR i, n AS INT\n"
+                + "START\n"
+                + "    PARALLEL i = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        i=i+1\n"
+                + "    STOP\n"
+                + "STOP\n", "The index of PARALLEL is assigned in its body");
+        assertRejected("VAR i AS INT\n"
+                + "VAR x AS FLOAT\n"
+                + "START\n"
+                + "    PARALLEL i = 1 TO 10 REDUCE x AND\n"
+                + "    START\n"
+                + "        x=x+1.0\n"
+                + "    STOP\n"
+                + "STOP\n", "No AND reduction for FLOAT");
+        assertRejected("VAR n AS INT\n"
+                + "VAR x AS FLOAT\n"
+                + "START\n"
+                + "    PARALLEL x = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        n=n+1\n"
+                + "    STOP\n"
+                + "STOP\n", "The index of PARALLEL is not an INT: x");
+        assertRejected("VAR i, n AS INT\n"
+                + "START\n"
+                + "    PARALLEL i = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        n=n+i\n"
+                + "        INPUT: n\n"
+                + "    STOP\n"
+                + "STOP\n", "INPUT or eof in the body of PARALLEL, line 6");
+        assertRejected("VAR i, n AS INT\n"
+                + "START\n"
+                + "    PARALLEL i = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        n=n+i\n"
+                + "        IF (eof())\n"
+                + "        START\n"
+                + "            n=0\n"
+                + "        STOP\n"
+                + "    STOP\n"
+                + "STOP\n", "INPUT or eof in the body of PARALLEL, line 6");
+    }
+
+    // the chunk gets the index, its end and the variables of the body as
+    // parameters, which take at most 254 slots
+    @Test
+    public void slots() throws ScriptException {
+        check(sum(252), String.format("%d%n", 10*252*253/2));
+        // PARALLEL follows the 253 assignments
+        assertRejected(sum(253),
+                "Too many variables in the body of PARALLEL, line 256");
+    }
+
+    // a body that adds v1 to vn
+    private static String sum(int n) {
+        StringBuilder vars = new StringBuilder("VAR i, n");
+        StringBuilder init = new StringBuilder();
+        StringBuilder expr = new StringBuilder("n");
+        for (int k = 1; k <= n; ++k) {
+            vars.append(", v").append(k);
+            init.append("    v").append(k).append('=').append(k).append('\n');
+            expr.append("+v").append(k);
+        }
+        return vars + " AS INT\n"
+                + "START\n"
+                + init
+                + "    PARALLEL i = 1 TO 10 REDUCE n +\n"
+                + "    START\n"
+                + "        n=" + expr + "\n"
+                + "    STOP\n"
+                + "    OUTPUT: n\n"
+                + "STOP\n";
+    }
+
+    private static void check(String source, String expected)
+            throws ScriptException {
+        for (String options: OPTIONS) {
+            ProgramCompiler compiler
+                    = new ProgramCompiler(Runs.options(options), 1);
+            assertEquals(options, expected, Runs.run(compiler.compile(source)));
+            assertEquals(options + " interpreted", expected,
+                    Runs.run(compiler.interpret(source, 0)));
+            assertEquals(options + " tiered", expected,
+                    Runs.run(compiler.interpret(source, 1)));
+        }
+    }
+
+    private void assertRejected(String source, String message) {
+        errors.clear();
+        try {
+            new ProgramCompiler().compile(source);
+            fail("compiled: " + message);
+        } catch (ScriptException ex) {
+            assertTrue(errors.toString(), errors.contains(message));
+        }
+    }
+}
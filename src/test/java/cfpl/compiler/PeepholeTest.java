@@ -0,0 +1,65 @@
+package cfpl.compiler;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PeepholeTest {
+    // a chain of stores and loads becomes dups and stores, with the stack
+    // one value deeper however many were rewritten
+    @Test
+    public void storeLoad() {
+        byte[] attribute = Peephole.optimize(attribute(1, 1,
+                0x04,           // iconst_1
+                0x3b, 0x1a,     // istore_0, iload_0
+                0x3b, 0x1a,     // istore_0, iload_0
+                0x3b, 0x1a,     // istore_0, iload_0
+                0xac));         // ireturn
+        assertEquals(2, maxStack(attribute));
+        assertArrayEquals(bytes(0x04, 0x59, 0x3b, 0x59, 0x3b, 0x59, 0x3b,
+                0xac), code(attribute));
+    }
+
+    // a long or a double takes two slots
+    @Test
+    public void wide() {
+        byte[] attribute = Peephole.optimize(attribute(2, 2,
+                0x0f,           // dconst_1
+                0x47, 0x26,     // dstore_0, dload_0
+                0x47, 0x26,     // dstore_0, dload_0
+                0xaf));         // dreturn
+        assertEquals(4, maxStack(attribute));
+        assertArrayEquals(bytes(0x0f, 0x5c, 0x47, 0x5c, 0x47, 0xaf),
+                code(attribute));
+    }
+
+    private static byte[] attribute(int maxStack, int maxLocals,
+            int... code) {
+        ByteBuffer buf = ByteBuffer.allocate(12 + code.length);
+        buf.putShort((short)maxStack).putShort((short)maxLocals)
+                .putInt(code.length).put(bytes(code))
+                .putShort((short)0).putShort((short)0);
+        return buf.array();
+    }
+
+    private static int maxStack(byte[] attribute) {
+        return ByteBuffer.wrap(attribute).getShort() & 0xffff;
+    }
+
+    private static byte[] code(byte[] attribute) {
+        ByteBuffer buf = ByteBuffer.wrap(attribute);
+        byte[] code = new byte[buf.getInt(4)];
+        buf.position(8);
+        buf.get(code);
+        return code;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte)values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,255 @@
+package cfpl.compiler;
+
+import java.util.Random;
+
+// Generates random programs that always terminate, for the differential
+// tests: the same seed always gives the same program. The loops count up
+// or down by a stride, with the step at the top or at the bottom of their
+// body, and use their counter in products with constants and invariants,
+// which -O reduces; the expressions mix constants, which are folded, with
+// variables, arrays, divisions that can fail, and all the types.
+public class ProgramGenerator {
+    private static final String HEADER = "* generated\n"
+            + "VAR a=3, b=-7, c, d=100 AS INT\n"
+            + "VAR l0, l1, l2 AS INT\n"
+            + "VAR x=1.5, y AS FLOAT\n"
+            + "VAR p=\"TRUE\" AS BOOL\n"
+            + "VAR ch='k' AS CHAR\n";
+    private static final String ARRAYS = "VAR t[16] AS INT\n"
+            + "VAR u[8] AS FLOAT\n";
+    private static final String PROLOGUE = "START\n"
+            + "    c=a*b + d\n"
+            + "    y=x/4\n";
+    private static final String[] INTS = {"a", "b", "c", "d"};
+    private static final int MAX_DEPTH = 3;
+
+    private final Random random;
+    // whether a division can be by zero
+    private final boolean failing;
+    // the interpreter runs the programs with arrays without a tier
+    private final boolean arrays;
+    private final StringBuilder buf = new StringBuilder();
+    // the counters of the enclosing loops: l0 to l(loops - 1)
+    private int loops;
+
+    private ProgramGenerator(long seed, boolean failing, boolean arrays) {
+        this.random = new Random(seed);
+        this.failing = failing;
+        this.arrays = arrays;
+    }
+
+    public static String generate(long seed, int statements) {
+        return generate(seed, statements, true, true);
+    }
+
+    // without failing divisions, the larger programs run to the end
+    public static String generate(long seed, int statements,
+            boolean failing, boolean arrays) {
+        ProgramGenerator gen = new ProgramGenerator(seed, failing, arrays);
+        gen.buf.append(HEADER).append(arrays ? ARRAYS : "").append(PROLOGUE);
+        for (int k = 0; k < statements; ++k) {
+            gen.statement(1);
+        }
+        gen.buf.append("    OUTPUT: a & \" \" & b & \" \" & c & \" \" & d"
+                + " & \" \" & x & \" \" & y & \" \" & p & ch\n");
+        gen.buf.append("STOP\n");
+        return gen.buf.toString();
+    }
+
+    private void statement(int level) {
+        int kind = random.nextInt(loops < MAX_DEPTH ? 10 : 8);
+        indent(level);
+        switch (kind) {
+            case 0:
+            case 1:
+                buf.append(pick(INTS)).append('=').append(intExpr(2));
+                break;
+            case 2:
+                buf.append(random.nextBoolean() ? "x" : "y").append('=')
+                        .append(floatExpr(2));
+                break;
+            case 3:
+                buf.append("p=").append(boolExpr(1));
+                break;
+            case 4:
+                if (!arrays) {
+                    buf.append("d=").append(intExpr(1));
+                } else if (random.nextBoolean()) {
+                    buf.append("t[").append(index(16)).append("]=")
+                            .append(intExpr(1));
+                } else {
+                    buf.append("u[").append(index(8)).append("]=")
+                            .append(floatExpr(1));
+                }
+                break;
+            case 5:
+                buf.append("OUTPUT: \"o\" & ").append(intExpr(1))
+                        .append(" & ' ' & ").append(floatExpr(1))
+                        .append(" & ' ' & (").append(boolExpr(0))
+                        .append(')');
+                break;
+            case 6:
+            case 7:
+                buf.append("IF (").append(boolExpr(1)).append(")\n");
+                block(level);
+                if (random.nextBoolean()) {
+                    indent(level);
+                    buf.append("ELSE\n");
+                    block(level);
+                }
+                return;
+            default:
+                loop(level);
+                return;
+        }
+        buf.append('\n');
+    }
+
+    // WHILE (l < n) ... l=l + s, or WHILE (l > n) ... l=l - s
+    private void loop(int level) {
+        String counter = "l" + loops;
+        boolean down = random.nextBoolean();
+        int stride = 1 + random.nextInt(4);
+        int start = random.nextInt(20) - 5;
+        int count = random.nextInt(6);
+        int end = down ? start - stride*count : start + stride*count;
+        String step;
+        if (down) {
+            step = counter + "=" + counter + " - " + stride;
+        } else if (random.nextBoolean()) {
+            step = counter + "=" + counter + " + " + stride;
+        } else {
+            step = counter + "=" + stride + " + " + counter;
+        }
+        buf.append(counter).append('=').append(start).append('\n');
+        indent(level);
+        buf.append("WHILE (").append(counter).append(down ? " > " : " < ")
+                .append(end).append(")\n");
+        indent(level);
+        buf.append("START\n");
+        ++loops;
+        boolean top = random.nextBoolean();
+        if (top) {
+            indent(level + 1);
+            buf.append(step).append('\n');
+        }
+        for (int k = 1 + random.nextInt(3); --k >= 0; ) {
+            // the products that -O keeps in variables of their own
+            indent(level + 1);
+            String factor = random.nextBoolean()
+                    ? Integer.toString(random.nextInt(9) - 2) : pick(INTS);
+            if (random.nextBoolean()) {
+                buf.append("OUTPUT: ").append(counter).append('*')
+                        .append(factor).append(" & \" \" & ").append(factor)
+                        .append('*').append(counter).append('\n');
+            } else {
+                buf.append(pick(INTS)).append('=').append(counter)
+                        .append('*').append(factor).append(" + ")
+                        .append(intExpr(1)).append('\n');
+            }
+            if (random.nextInt(3) == 0) {
+                statement(level + 1);
+            }
+        }
+        if (!top) {
+            indent(level + 1);
+            buf.append(step).append('\n');
+        }
+        --loops;
+        indent(level);
+        buf.append("STOP\n");
+    }
+
+    private void block(int level) {
+        indent(level);
+        buf.append("START\n");
+        for (int k = 1 + random.nextInt(3); --k >= 0; ) {
+            statement(level + 1);
+        }
+        indent(level);
+        buf.append("STOP\n");
+    }
+
+    private String intExpr(int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    return Integer.toString(random.nextInt(200) - 50);
+                case 1:
+                    return loops > 0 ? "l" + random.nextInt(loops) : "7";
+                case 2:
+                    return arrays ? "t[" + index(16) + "]" : "c";
+                default:
+                    return pick(INTS);
+            }
+        }
+        String left = intExpr(depth - 1);
+        switch (random.nextInt(7)) {
+            case 0:
+                // can fail, and so cannot be hoisted
+                String divisor = random.nextInt(3) > 0
+                        ? Integer.toString(1 + random.nextInt(9))
+                        : failing ? pick(INTS)
+                        : "(" + pick(INTS) + " % 7 + 8)";
+                return "(" + left + " / " + divisor + ")";
+            case 1:
+                return "(" + left + " % " + (1 + random.nextInt(9)) + ")";
+            default:
+                String op = pick(new String[] {"+", "-", "*"});
+                return "(" + left + " " + op + " " + intExpr(depth - 1)
+                        + ")";
+        }
+    }
+
+    private String floatExpr(int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    return random.nextInt(100) + "." + random.nextInt(10);
+                case 1:
+                    return arrays ? "u[" + index(8) + "]" : "y";
+                case 2:
+                    return "sin(" + pick(INTS) + ")";
+                default:
+                    return random.nextBoolean() ? "x" : "y";
+            }
+        }
+        String op = pick(new String[] {"+", "-", "*", "/"});
+        return "(" + floatExpr(depth - 1) + " " + op + " "
+                + (random.nextInt(4) == 0 ? intExpr(depth - 1)
+                        : floatExpr(depth - 1)) + ")";
+    }
+
+    private String boolExpr(int depth) {
+        switch (random.nextInt(depth > 0 ? 5 : 3)) {
+            case 0:
+                return intExpr(1) + " < " + intExpr(1);
+            case 1:
+                return floatExpr(1) + " >= " + floatExpr(1);
+            case 2:
+                return random.nextBoolean() ? "p" : "(ch > 100)";
+            case 3:
+                return "(" + boolExpr(depth - 1) + " AND "
+                        + boolExpr(depth - 1) + ")";
+            default:
+                return "(" + boolExpr(depth - 1) + " OR "
+                        + boolExpr(depth - 1) + ")";
+        }
+    }
+
+    // an index that is always in bounds
+    private String index(int length) {
+        return "((" + intExpr(1) + ") % " + length + " + " + length + ") % "
+                + length;
+    }
+
+    private String pick(String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private void indent(int level) {
+        for (int k = level; --k >= 0; ) {
+            buf.append("    ");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cfpl.compiler;
+
+import cfpl.parser.Parser;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+// The size of the class and the bytes that the compiler allocates grow no
+// faster than a power of the size of the programs of Corpus, with and
+// without -O. Unlike the time and the heap, which ScalingCheck measures in
+// the benchmarks, they do not depend on the load of the machine.
+// The exponent of a measure is the slope of a least-squares fit of its
+// logarithm against the logarithm of the size: 1 is linear, 2 quadratic.
+public class ScalingTest {
+    private static final double ALLOC_BOUND = 1.3;
+    private static final double BYTES_BOUND = 1.2;
+    private static final int STEPS = 4;
+    // the allocations of the best run: the others may include those of
+    // the JIT compiler
+    private static final int RUNS = 3;
+    private static final long SEED = 1;
+    // the compiler recurses on the nesting and the blocks
+    private static final long STACK_SIZE = 256L << 20;
+
+    @Test
+    public void shapes() throws InterruptedException {
+        final List<String> failures = new ArrayList<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                for (String options: new String[] {"", "-O"}) {
+                    for (String shape: Corpus.SHAPES) {
+                        check(shape, options, failures);
+                    }
+                }
+            } catch (RuntimeException | Error ex) {
+                failures.add(ex.toString());
+            }
+        }, "scaling", STACK_SIZE);
+        thread.start();
+        thread.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    private static void check(String shape, String options,
+            List<String> failures) {
+        Options opts = new Options();
+        if (!options.isEmpty()) {
+            opts.parse(options);
+        }
+        int firstSize = Corpus.firstSize(shape);
+        // warms up the compiler
+        compile(Corpus.generate(SEED, shape, firstSize), opts, 2*RUNS);
+        double[] sizes = new double[STEPS];
+        double[] alloc = new double[STEPS];
+        double[] bytes = new double[STEPS];
+        for (int k = 0, size = firstSize; k < STEPS; ++k, size *= 2) {
+            long[] v = compile(Corpus.generate(SEED, shape, size), opts, RUNS);
+            sizes[k] = size;
+            alloc[k] = v[0];
+            bytes[k] = v[1];
+        }
+        String name = shape + (options.isEmpty() ? "" : " " + options);
+        double e = exponent(sizes, alloc);
+        if (e > ALLOC_BOUND) {
+            failures.add(String.format("%s: alloc %.2f", name, e));
+        }
+        e = exponent(sizes, bytes);
+        if (e > BYTES_BOUND) {
+            failures.add(String.format("%s: bytes %.2f", name, e));
+        }
+    }
+
+    // the least bytes allocated by the runs, and the size of the class
+    private static long[] compile(String source, Options opts, int count) {
+        com.sun.management.ThreadMXBean threads
+                = (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long[] best = {Long.MAX_VALUE, 0};
+        for (int r = 0; r < count; ++r) {
+            long allocated = threads.getThreadAllocatedBytes(id);
+            byte[] bytes;
+            try {
+                bytes = Parser.parse(source, opts).toByteArray("Scaling");
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+            best[0] = Math.min(best[0],
+                    threads.getThreadAllocatedBytes(id) - allocated);
+            best[1] = bytes.length;
+        }
+        return best;
+    }
+
+    private static double exponent(double[] sizes, double[] values) {
+        int n = sizes.length;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < n; ++i) {
+            double x = Math.log(sizes[i]);
+            double y = Math.log(Math.max(1, values[i]));
+            sx += x;
+            sy += y;
+            sxx += x*x;
+            sxy += x*y;
+        }
+        return (n*sxy - sx*sy)/(n*sxx - sx*sx);
+    }
+}
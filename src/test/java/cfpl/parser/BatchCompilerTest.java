@@ -0,0 +1,178 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import cfpl.compiler.ProgramGenerator;
+import cfpl.script.Runs;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Compiles the same programs on many threads at once, with the shared
+// conversion and operator tables, and checks that the class files are
+// byte for byte those of a sequential compile
+public class BatchCompilerTest {
+    private static final int THREADS = 8;
+    private static final int COPIES = 8;
+    private static final String[] OPTIONS = {"", "-O", "-nofold -target=52"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void batch() throws Exception {
+        List<String> names = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        programs(names, sources);
+        for (String options: OPTIONS) {
+            Options opts = Runs.options(options);
+            // the sequential compile, one fresh parser per file
+            File dir = tmp.newFolder();
+            List<byte[]> expected = new ArrayList<>();
+            for (int i = 0; i < names.size(); ++i) {
+                File file = write(dir, names.get(i), sources.get(i));
+                Parser.compile(file, opts);
+                expected.add(Files.readAllBytes(
+                        Parser.outputFile(file).toPath()));
+            }
+            // the same files, copied into as many directories, compiled
+            // by the workers of a batch, which reuse their parsers
+            List<File> files = new ArrayList<>();
+            for (int c = 0; c < COPIES; ++c) {
+                File copy = tmp.newFolder();
+                for (int i = 0; i < names.size(); ++i) {
+                    files.add(write(copy, names.get(i), sources.get(i)));
+                }
+            }
+            BatchCompiler.Summary summary
+                    = new BatchCompiler(THREADS, opts).compile(files);
+            assertEquals(0, summary.getFailureCount());
+            for (int k = 0; k < files.size(); ++k) {
+                assertArrayEquals(files.get(k) + " " + options,
+                        expected.get(k % names.size()), Files.readAllBytes(
+                                Parser.outputFile(files.get(k)).toPath()));
+            }
+        }
+    }
+
+    // the threads start compiling in memory at the same time, each with a
+    // parser of its own
+    @Test
+    public void inMemory() throws Exception {
+        List<String> names = new ArrayList<>();
+        final List<String> sources = new ArrayList<>();
+        programs(names, sources);
+        final Options opts = Runs.options("-O");
+        final List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < sources.size(); ++i) {
+            expected.add(compile(sources.get(i), opts, i));
+        }
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService exec = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<byte[]>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                final int first = t;
+                futures.add(exec.submit(new Callable<List<byte[]>>() {
+                    @Override
+                    public List<byte[]> call() throws Exception {
+                        barrier.await();
+                        // each thread in a different order
+                        List<byte[]> result = new ArrayList<>();
+                        for (int k = 0; k < sources.size(); ++k) {
+                            result.add(null);
+                        }
+                        for (int k = 0; k < sources.size(); ++k) {
+                            int i = (first + k) % sources.size();
+                            result.set(i, compile(sources.get(i), opts, i));
+                        }
+                        return result;
+                    }
+                }));
+            }
+            for (Future<List<byte[]>> future: futures) {
+                List<byte[]> result = future.get();
+                for (int i = 0; i < sources.size(); ++i) {
+                    assertArrayEquals(names.get(i), expected.get(i),
+                            result.get(i));
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    // a file that does not compile fails alone, and the class file of a
+    // previous build is not counted as its output
+    @Test
+    public void failure() throws Exception {
+        File dir = tmp.newFolder();
+        List<File> files = new ArrayList<>();
+        files.add(write(dir, "Good.cfpl", "VAR a=1 AS INT\n"
+                + "START\n"
+                + "    OUTPUT: a\n"
+                + "STOP\n"));
+        files.add(write(dir, "Bad.cfpl", "START\n"
+                + "    OUTPUT: b\n"
+                + "STOP\n"));
+        write(dir, "Bad.class", "a stale class file");
+        BatchCompiler.Summary summary
+                = new BatchCompiler(THREADS, new Options()).compile(files);
+        assertEquals(1, summary.getFailureCount());
+        BatchCompiler.Result good = summary.getResults().get(0);
+        assertEquals(null, good.failure);
+        assertEquals(Parser.outputFile(files.get(0)), good.output);
+        assertTrue(good.bytes > 0);
+        BatchCompiler.Result bad = summary.getResults().get(1);
+        assertEquals(files.get(1), bad.source);
+        assertEquals("1 error(s)", bad.failure);
+        assertNull(bad.output);
+        assertEquals(0, bad.bytes);
+        assertEquals(good.bytes, summary.getTotalBytes());
+    }
+
+    private static byte[] compile(String source, Options opts, int i)
+            throws IOException, ParseException {
+        Parser parser = Parser.parse(source, opts);
+        assertEquals(0, parser.getErrorCount());
+        return parser.toByteArray("P" + i);
+    }
+
+    // the samples, and generated programs
+    private static void programs(List<String> names, List<String> sources)
+            throws IOException {
+        File[] samples = new File("samples").listFiles();
+        for (File file: samples) {
+            if (file.getName().endsWith(".cfpl")) {
+                names.add(file.getName());
+                sources.add(new String(Files.readAllBytes(file.toPath()),
+                        StandardCharsets.UTF_8));
+            }
+        }
+        for (int seed = 1; seed <= 12; ++seed) {
+            names.add("Gen" + seed + ".cfpl");
+            sources.add(ProgramGenerator.generate(seed, 20));
+        }
+    }
+
+    private static File write(File dir, String name, String source)
+            throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,81 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BuildCacheTest {
+    private static final String SOURCE = "VAR a=2 AS INT\n"
+            + "START\n"
+            + "    OUTPUT: a*21\n"
+            + "STOP\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // a second build, with the index saved by the first, copies the class
+    @Test
+    public void reuse() throws IOException, ParseException {
+        File dir = tmp.newFolder();
+        File cacheDir = tmp.newFolder();
+        File file = write(dir, "A.cfpl", SOURCE);
+        BuildCache cache = new BuildCache(cacheDir, new Options());
+        assertEquals(0, cache.compile(file));
+        assertEquals(1, cache.getMisses());
+        cache.save();
+        byte[] expected = Files.readAllBytes(
+                Parser.outputFile(file).toPath());
+        Parser.outputFile(file).delete();
+        cache = new BuildCache(cacheDir, new Options());
+        assertEquals(0, cache.compile(file));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertArrayEquals(expected, Files.readAllBytes(
+                Parser.outputFile(file).toPath()));
+    }
+
+    // the key covers the source and the options
+    @Test
+    public void changes() throws IOException, ParseException {
+        File dir = tmp.newFolder();
+        File cacheDir = tmp.newFolder();
+        File file = write(dir, "A.cfpl", SOURCE);
+        BuildCache cache = new BuildCache(cacheDir, new Options());
+        cache.compile(file);
+        write(dir, "A.cfpl", SOURCE.replace("21", "22"));
+        cache.compile(file);
+        assertEquals(2, cache.getMisses());
+        Options nofold = new Options();
+        nofold.setFoldConstants(false);
+        cache = new BuildCache(cacheDir, nofold);
+        cache.compile(file);
+        assertEquals(1, cache.getMisses());
+    }
+
+    // a file with errors is not cached
+    @Test
+    public void errors() throws IOException, ParseException {
+        File dir = tmp.newFolder();
+        File file = write(dir, "A.cfpl", "START\n"
+                + "    OUTPUT: b\n"
+                + "STOP\n");
+        BuildCache cache = new BuildCache(tmp.newFolder(), new Options());
+        assertEquals(1, cache.compile(file));
+        assertEquals(1, cache.compile(file));
+        assertEquals(2, cache.getMisses());
+    }
+
+    private static File write(File dir, String name, String source)
+            throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,71 @@
+package cfpl.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CompileServerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // the port file, in a directory that the server creates, can only be
+    // read by its owner
+    @Test
+    public void portFile() throws Exception {
+        final File portFile = new File(tmp.getRoot(), "cfpl/server.port");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new CompileServer(1).listen(portFile);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }, "server");
+        thread.start();
+        for (int i = 0; i < 500 && !portFile.exists(); ++i) {
+            Thread.sleep(10);
+        }
+        if (posix()) {
+            assertEquals("rwx------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(
+                            portFile.getParentFile().toPath())));
+            assertEquals("rw-------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(portFile.toPath())));
+        }
+        try (CompileClient client = CompileClient.connect(portFile)) {
+            assertTrue(client.ping());
+            client.stop();
+        }
+        thread.join();
+        assertTrue(!portFile.exists());
+    }
+
+    // a port file that the others can write is ignored
+    @Test
+    public void shared() throws IOException {
+        assumeTrue(posix());
+        File portFile = tmp.newFile("server.port");
+        Files.write(portFile.toPath(),
+                "1 key\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(portFile.toPath(),
+                PosixFilePermissions.fromString("rw-rw-rw-"));
+        assertNull(CompileClient.connect(portFile));
+    }
+
+    private static boolean posix() {
+        return FileSystems.getDefault().supportedFileAttributeViews()
+                .contains("posix");
+    }
+}
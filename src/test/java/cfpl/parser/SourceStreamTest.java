@@ -0,0 +1,135 @@
+package cfpl.parser;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SourceStreamTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // a tab goes to the next multiple of 8, and CR LF, CR and LF each end
+    // a line, on the line they end
+    @Test
+    public void positions() throws IOException {
+        SourceStream in = new SourceStream("a\tb\r\nc\rd\ne");
+        int[][] expected = {
+            {1, 1}, {1, 8}, {1, 9}, {1, 10}, {1, 11},
+            {2, 1}, {2, 2}, {3, 1}, {3, 2}, {4, 1},
+        };
+        for (int[] pos: expected) {
+            in.BeginToken();
+            assertEquals(pos[0], in.getBeginLine());
+            assertEquals(pos[1], in.getBeginColumn());
+            assertEquals(pos[0], in.getEndLine());
+            assertEquals(pos[1], in.getEndColumn());
+        }
+        try {
+            in.BeginToken();
+            fail("read past the end");
+        } catch (EOFException ex) {
+            // the end of file token is where the last one ends
+            assertEquals(4, in.getBeginLine());
+            assertEquals(1, in.getBeginColumn());
+        }
+    }
+
+    // the lexer backs up to the end of the longest match, and reads the
+    // characters again with the same positions
+    @Test
+    public void backup() throws IOException {
+        SourceStream in = new SourceStream("ab\ncd");
+        assertEquals('a', in.BeginToken());
+        assertEquals('b', in.readChar());
+        assertEquals('\n', in.readChar());
+        assertEquals('c', in.readChar());
+        in.backup(2);
+        assertEquals("ab", in.GetImage());
+        assertArrayEquals(new char[] {'a', 'b'}, in.GetSuffix(2));
+        assertEquals(1, in.getEndLine());
+        assertEquals(2, in.getEndColumn());
+        assertEquals('\n', in.BeginToken());
+        assertEquals('c', in.readChar());
+        assertEquals("\nc", in.GetImage());
+        assertEquals(1, in.getBeginLine());
+        assertEquals(3, in.getBeginColumn());
+        assertEquals(2, in.getEndLine());
+        assertEquals(1, in.getEndColumn());
+    }
+
+    // a token longer than the position buffers keeps the position of its
+    // first character
+    @Test
+    public void longToken() throws IOException {
+        StringBuilder buf = new StringBuilder("\n  ");
+        for (int i = 0; i < 1000; ++i) {
+            buf.append((char)('a' + i%26));
+        }
+        String token = buf.substring(3);
+        SourceStream in = new SourceStream(buf);
+        in.BeginToken();
+        in.readChar();
+        in.readChar();
+        in.BeginToken();
+        for (int i = 1; i < token.length(); ++i) {
+            in.readChar();
+        }
+        assertEquals(token, in.GetImage());
+        assertEquals(2, in.getBeginLine());
+        assertEquals(3, in.getBeginColumn());
+        assertEquals(2, in.getEndLine());
+        assertEquals(1002, in.getEndColumn());
+    }
+
+    // small files are read and large ones mapped; the ASCII ones are lexed
+    // from their bytes, the others decoded from UTF-8
+    @Test
+    public void files() throws IOException {
+        String line = "OUTPUT: \"abc\" & x1\r\n";
+        String small = repeat(line, 10);
+        String large = repeat(line, 5000);
+        check(small);
+        check(large);
+        check(small.replace("abc", "été"));
+        check(large.replace("abc", "€"));
+    }
+
+    private void check(String source) throws IOException {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        SourceStream in = SourceStream.open(file);
+        StringBuilder buf = new StringBuilder();
+        int start = 0;
+        try {
+            // one token per line
+            while (true) {
+                buf.append(in.BeginToken());
+                for (int i = start + 1; source.charAt(i - 1) != '\n'; ++i) {
+                    buf.append(in.readChar());
+                }
+                assertEquals(source.substring(start, buf.length()),
+                        in.GetImage());
+                start = buf.length();
+            }
+        } catch (EOFException ex) {
+            // the end of the file
+        }
+        assertEquals(source, buf.toString());
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            buf.append(s);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package cfpl.parser;
+
+import cfpl.compiler.Options;
+import cfpl.compiler.Stats;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StatsTest {
+    private static final String SOURCE = "VAR a=2, b AS INT\n"
+            + "START\n"
+            + "    WHILE (a < 100)\n"
+            + "    START\n"
+            + "        b=3*4\n"
+            + "        a=a+b\n"
+            + "    STOP\n"
+            + "    OUTPUT: \"a=\" & a\n"
+            + "STOP\n";
+
+    @After
+    public void disable() {
+        Stats.setEnabled(false);
+    }
+
+    // without statistics, the compiler has none
+    @Test
+    public void disabled() throws ParseException {
+        Stats.setEnabled(false);
+        assertNull(Parser.parse(SOURCE, new Options()).getStats());
+    }
+
+    // each phase that runs is counted once, and each token once
+    @Test
+    public void phases() throws IOException, ParseException {
+        Stats.setEnabled(true);
+        Options opts = new Options();
+        opts.setOptimizeLoops(true);
+        Parser parser = Parser.parse(SOURCE, opts);
+        parser.toByteArray("P");
+        Stats stats = parser.getStats();
+        assertEquals(tokens(SOURCE), stats.getCount(Stats.Phase.LEX));
+        for (Stats.Phase phase: new Stats.Phase[] {
+                Stats.Phase.PARSE, Stats.Phase.FOLD, Stats.Phase.OPTIMIZE,
+                Stats.Phase.ALLOCATE, Stats.Phase.EMIT, Stats.Phase.PEEPHOLE,
+                Stats.Phase.STORE}) {
+            assertEquals(phase.name(), 1, stats.getCount(phase));
+        }
+        assertEquals(0, stats.getCount(Stats.Phase.WRITE));
+        assertTrue(stats.getCount(Stats.Phase.CONVERSIONS) > 0);
+        assertTrue(stats.getCount(Stats.Phase.RESOLUTION) > 0);
+        assertEquals(0, stats.getErrors());
+        assertTrue(stats.getBytes() > 0);
+
+        opts.setFoldConstants(false);
+        opts.setOptimizeLoops(false);
+        opts.setPeephole(false);
+        parser = Parser.parse(SOURCE, opts);
+        parser.toByteArray("P");
+        stats = parser.getStats();
+        assertEquals(0, stats.getCount(Stats.Phase.FOLD));
+        assertEquals(0, stats.getCount(Stats.Phase.OPTIMIZE));
+        assertEquals(0, stats.getCount(Stats.Phase.PEEPHOLE));
+    }
+
+    // the statistics change nothing in the class file
+    @Test
+    public void sameClass() throws IOException, ParseException {
+        Stats.setEnabled(false);
+        byte[] expected = Parser.parse(SOURCE, new Options())
+                .toByteArray("P");
+        Stats.setEnabled(true);
+        assertArrayEquals(expected, Parser.parse(SOURCE, new Options())
+                .toByteArray("P"));
+    }
+
+    // the MBean adds up the programs
+    @Test
+    public void totals() throws IOException, ParseException,
+            MalformedObjectNameException {
+        Stats.setEnabled(true);
+        Stats.CompilerStatsMXBean bean = JMX.newMXBeanProxy(
+                ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(Stats.MBEAN_NAME),
+                Stats.CompilerStatsMXBean.class);
+        assertTrue(bean.isEnabled());
+        long programs = bean.getPrograms();
+        long tokens = bean.getTokens();
+        Parser.parse(SOURCE, new Options()).toByteArray("P");
+        Parser.parse(SOURCE, new Options()).toByteArray("Q");
+        assertEquals(programs + 2, bean.getPrograms());
+        assertEquals(tokens + 2*tokens(SOURCE), bean.getTokens());
+        bean.setEnabled(false);
+        assertNull(Parser.parse(SOURCE, new Options()).getStats());
+    }
+
+    // the tokens of a source, the end of file included
+    private static long tokens(String source) {
+        ParserTokenManager lexer
+                = new ParserTokenManager(new SourceStream(source));
+        long count = 1;
+        while (lexer.getNextToken().kind != ParserConstants.EOF) {
+            ++count;
+        }
+        return count;
+    }
+}
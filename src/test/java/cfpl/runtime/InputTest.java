@@ -0,0 +1,229 @@
+package cfpl.runtime;
+
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import javax.script.ScriptException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InputTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void restore() {
+        Input.redirect(null);
+    }
+
+    @Test
+    public void values() {
+        redirect("12 -7 +3\n2147483647\t-2147483648\r\n"
+                + "1.5 -0.25e2 1e400 .5 NaN x TRUE false \n ");
+        assertEquals(12, Input.readInt(null));
+        assertEquals(-7, Input.readInt(null));
+        assertEquals(3, Input.readInt(null));
+        assertEquals(Integer.MAX_VALUE, Input.readInt(null));
+        assertEquals(Integer.MIN_VALUE, Input.readInt(null));
+        assertEquals(1.5, Input.readDouble(null), 0);
+        assertEquals(-25.0, Input.readDouble(null), 0);
+        assertEquals(Double.POSITIVE_INFINITY, Input.readDouble(null), 0);
+        assertEquals(0.5, Input.readDouble(null), 0);
+        assertTrue(Double.isNaN(Input.readDouble(null)));
+        assertEquals('x', Input.readChar(null));
+        assertFalse(Input.atEnd(null));
+        assertTrue(Input.readBool(null));
+        assertFalse(Input.readBool(null));
+        assertTrue(Input.atEnd(null));
+    }
+
+    // an invalid value fails like Integer.parseInt, and the next read
+    // goes on after it
+    @Test
+    public void errors() {
+        redirect("2147483648 12a - 5");
+        for (int i = 0; i < 3; ++i) {
+            try {
+                Input.readInt(null);
+                fail("read an invalid INT");
+            } catch (NumberFormatException ex) {
+                // expected
+            }
+        }
+        assertEquals(5, Input.readInt(null));
+        try {
+            Input.readInt(null);
+            fail("read past the end");
+        } catch (NoSuchElementException ex) {
+            assertTrue(Input.atEnd(null));
+        }
+    }
+
+    // the values give the same results as parseInt and parseDouble
+    // wherever the reads of the stream split them, and across the blocks
+    // of the buffer
+    @Test
+    public void chunks() {
+        Random random = new Random(42);
+        List<String> values = new ArrayList<>();
+        StringBuilder buf = new StringBuilder();
+        while (buf.length() < 300*1024) {
+            String value;
+            switch (random.nextInt(5)) {
+                case 0:
+                    value = Integer.toString(random.nextInt());
+                    break;
+                case 1:
+                    value = Integer.toString(random.nextInt(1000));
+                    break;
+                case 2:
+                    value = Double.toString(random.nextDouble()
+                            * Math.pow(10, random.nextInt(40) - 20));
+                    break;
+                case 3:
+                    value = String.format(Locale.ROOT, "%.3f",
+                            (random.nextDouble() - 0.5)*1e6);
+                    break;
+                default:
+                    // longer than a long holds
+                    value = "0.1234567890123456789012345678901";
+                    break;
+            }
+            values.add(value);
+            buf.append(value).append(random.nextBoolean() ? " " : "\n");
+        }
+        byte[] bytes = buf.toString().getBytes(StandardCharsets.US_ASCII);
+        Input.redirect(new ByteArrayInputStream(bytes));
+        check(values);
+        Input.redirect(new Trickle(bytes, new Random(7)));
+        check(values);
+    }
+
+    private static void check(List<String> values) {
+        for (String value: values) {
+            if (value.indexOf('.') < 0 && value.indexOf('E') < 0) {
+                assertEquals(value, Integer.parseInt(value),
+                        Input.readInt(null));
+            } else {
+                assertEquals(value,
+                        Double.doubleToLongBits(Double.parseDouble(value)),
+                        Double.doubleToLongBits(Input.readDouble(null)));
+            }
+        }
+        assertTrue(Input.atEnd(null));
+    }
+
+    // the bytes of a character are read together, even when the stream
+    // returns them one by one
+    @Test
+    public void utf8() {
+        byte[] bytes = "a é\n€ 7".getBytes(StandardCharsets.UTF_8);
+        Input.redirect(new Trickle(bytes, null));
+        assertEquals('a', Input.readChar(null));
+        assertEquals('é', Input.readChar(null));
+        assertEquals('€', Input.readChar(null));
+        assertEquals(7, Input.readInt(null));
+    }
+
+    // a file goes on where the previous read stopped, apart from the
+    // standard input
+    @Test
+    public void files() throws IOException {
+        File file = tmp.newFile();
+        Files.write(file.toPath(),
+                "1 2.5\n3".getBytes(StandardCharsets.UTF_8));
+        redirect("9");
+        String name = file.getPath();
+        assertEquals(1, Input.readInt(name));
+        assertEquals(9, Input.readInt(null));
+        assertEquals(2.5, Input.readDouble(name), 0);
+        assertFalse(Input.atEnd(name));
+        assertEquals(3, Input.readInt(name));
+        assertTrue(Input.atEnd(name));
+        assertTrue(Input.atEnd(null));
+    }
+
+    // INPUT and eof in a program, compiled and interpreted
+    @Test
+    public void program() throws ScriptException {
+        String source = "VAR n, k, i, sum AS INT\n"
+                + "VAR t[8] AS INT\n"
+                + "VAR x AS FLOAT\n"
+                + "VAR c AS CHAR\n"
+                + "VAR p AS BOOL\n"
+                + "START\n"
+                + "    INPUT: n, x, c, p, k\n"
+                + "    WHILE (i < k)\n"
+                + "    START\n"
+                + "        INPUT: t[i]\n"
+                + "        sum=sum+t[i]\n"
+                + "        i=i+1\n"
+                + "    STOP\n"
+                + "    OUTPUT: n & \" \" & x & \" \" & c & \" \" & p\n"
+                + "    OUTPUT: i & \" \" & sum & \" \" & t[i-1] & \" \""
+                + " & eof()\n"
+                + "STOP\n";
+        byte[] input = "42 -1.25 z true 4\n1 2 3\n4 \n"
+                .getBytes(StandardCharsets.UTF_8);
+        String expected = String.format("42 -1.25 z true%n4 10 4 true%n");
+        for (String options: new String[] {"", "-O", "-println"}) {
+            ProgramCompiler compiler
+                    = new ProgramCompiler(Runs.options(options), 1);
+            assertEquals(options, expected,
+                    Runs.run(compiler.compile(source), input));
+            assertEquals(options + " interpreted", expected,
+                    Runs.run(compiler.interpret(source, 0), input));
+        }
+    }
+
+    private static void redirect(String text) {
+        Input.redirect(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // a stream that returns a few bytes per read: one at a time without a
+    // random generator
+    private static class Trickle extends InputStream {
+        private final byte[] bytes;
+        private final Random random;
+        private int pos;
+
+        Trickle(byte[] bytes, Random random) {
+            this.bytes = bytes;
+            this.random = random;
+        }
+
+        @Override
+        public int read() {
+            return pos < bytes.length ? bytes[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= bytes.length) {
+                return -1;
+            }
+            int n = random == null ? 1 : 1 + random.nextInt(13);
+            n = Math.min(Math.min(n, len), bytes.length - pos);
+            System.arraycopy(bytes, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
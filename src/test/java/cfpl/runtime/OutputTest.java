@@ -0,0 +1,145 @@
+package cfpl.runtime;
+
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.script.ScriptException;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutputTest {
+    private static final int THREADS = 8;
+    private static final int LINES = 2000;
+
+    @After
+    public void restore() {
+        Output.redirect(null);
+    }
+
+    // the operands of a line are kept by the thread that writes them
+    @Test
+    public void threads() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService exec = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                final int thread = t;
+                futures.add(exec.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        StringWriter writer = new StringWriter();
+                        Output.redirect(writer);
+                        try {
+                            barrier.await();
+                            for (int i = 0; i < LINES; ++i) {
+                                writeLine(thread, i);
+                            }
+                        } finally {
+                            Output.redirect(null);
+                        }
+                        return writer.toString();
+                    }
+                }));
+            }
+            for (int t = 0; t < THREADS; ++t) {
+                StringBuilder expected = new StringBuilder();
+                for (int i = 0; i < LINES; ++i) {
+                    expected.append(line(t, i));
+                }
+                assertEquals(expected.toString(), futures.get(t).get());
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    // the operands of an OUTPUT that failed are dropped with the flush at
+    // the end of the program, and when the output is redirected
+    @Test
+    public void incomplete() {
+        StringWriter writer = new StringWriter();
+        Output.redirect(writer);
+        Output.write("lost");
+        Output.flush();
+        Output.write(1);
+        Output.newLine();
+        Output.write('x');
+        Output.redirect(writer);
+        Output.write(2.5);
+        Output.newLine();
+        assertEquals(String.format("1%n2.5%n"), writer.toString());
+    }
+
+    // a program that fails is flushed like one that ends
+    @Test
+    public void failure() throws ScriptException {
+        final List<String> flushes = new ArrayList<>();
+        final StringWriter lines = new StringWriter();
+        Writer writer = new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len) {
+                lines.write(buf, off, len);
+            }
+
+            @Override
+            public void flush() {
+                flushes.add(lines.toString());
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
+        Program program = new ProgramCompiler(Runs.options(""), 1).compile(
+                "VAR z=0 AS INT\n"
+                + "START\n"
+                + "    OUTPUT: \"a\"\n"
+                + "    OUTPUT: \"b\" & 1/z\n"
+                + "STOP\n");
+        Output.redirect(writer);
+        try {
+            program.run();
+            assertTrue("no exception", false);
+        } catch (ArithmeticException ex) {
+            // the division by zero
+        }
+        assertEquals(String.format("a%n"), lines.toString());
+        assertEquals(1, flushes.size());
+        assertEquals(lines.toString(), flushes.get(0));
+        // the next program of the thread does not start with "b"
+        program = new ProgramCompiler(Runs.options(""), 1).compile(
+                "START\n"
+                + "    OUTPUT: \"c\"\n"
+                + "STOP\n");
+        program.run();
+        assertEquals(String.format("a%nc%n"), lines.toString());
+    }
+
+    private static void writeLine(int thread, int i) {
+        Output.write("thread ");
+        Output.write(thread);
+        Output.write(' ');
+        Output.write(i);
+        Output.write(' ');
+        Output.write(i % 3 == 0);
+        Output.newLine();
+    }
+
+    private static String line(int thread, int i) {
+        return "thread " + thread + " " + i + " " + (i % 3 == 0)
+                + System.lineSeparator();
+    }
+}
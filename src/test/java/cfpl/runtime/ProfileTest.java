@@ -0,0 +1,70 @@
+package cfpl.runtime;
+
+import cfpl.script.Program;
+import cfpl.script.ProgramCompiler;
+import cfpl.script.Runs;
+import java.io.StringWriter;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileTest {
+    private static final String[] OPTIONS = {
+        "-profile", "-profile -O", "-profile -nopeephole -target=52",
+    };
+    private static final String SOURCE = "VAR n=0 AS INT\n"
+            + "START\n"
+            + "    WHILE (n < 5)\n"
+            + "    START\n"
+            + "        n=n+1\n"
+            + "        IF (n > 3)\n"
+            + "        START\n"
+            + "            OUTPUT: n\n"
+            + "        STOP\n"
+            + "    STOP\n"
+            + "STOP\n";
+
+    // each site is found at the line and column of its keyword, with the
+    // executions and the branches taken of the runs of the program
+    @Test
+    public void counters() throws ScriptException {
+        for (String options: OPTIONS) {
+            Program program = new ProgramCompiler(Runs.options(options), 1)
+                    .compile(SOURCE);
+            assertEquals(options, String.format("4%n5%n"), Runs.run(program));
+            String profile = profile(program);
+            assertSite(options, profile, "{\"kind\": \"WHILE\","
+                    + " \"line\": 3, \"column\": 5, \"entries\": 1,"
+                    + " \"iterations\": 5, \"iterationsPerEntry\": 5.0,");
+            assertSite(options, profile, "{\"kind\": \"IF\","
+                    + " \"line\": 6, \"column\": 9, \"count\": 5,"
+                    + " \"taken\": 2, \"takenRatio\": 0.4,");
+            assertSite(options, profile, "{\"kind\": \"OUTPUT\","
+                    + " \"line\": 8, \"column\": 13, \"count\": 2,");
+            // a second run adds to the same counters
+            Runs.run(program);
+            assertSite(options, profile(program), "{\"kind\": \"IF\","
+                    + " \"line\": 6, \"column\": 9, \"count\": 10,"
+                    + " \"taken\": 4, \"takenRatio\": 0.4,");
+        }
+    }
+
+    // the entry of the program in the profile of all the programs
+    private static String profile(Program program) {
+        StringWriter out = new StringWriter();
+        Profile.dump(out);
+        String json = out.toString();
+        String name = "\"class\": \""
+                + program.getProgramClass().getName() + "\"";
+        int start = json.indexOf(name);
+        assertTrue(json, start >= 0);
+        int end = json.indexOf("\n    }", start);
+        return json.substring(start, end);
+    }
+
+    private static void assertSite(String options, String profile,
+            String site) {
+        assertTrue(options + ": " + profile, profile.contains(site));
+    }
+}
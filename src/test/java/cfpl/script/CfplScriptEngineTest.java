@@ -0,0 +1,56 @@
+package cfpl.script;
+
+import java.io.StringWriter;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CfplScriptEngineTest {
+    private static final String HELLO = "VAR n=6 AS INT\n"
+            + "START\n"
+            + "    OUTPUT: \"n=\" & n*7\n"
+            + "STOP\n";
+
+    @Test
+    public void eval() throws ScriptException {
+        ScriptEngine engine = new ScriptEngineManager()
+                .getEngineByName("cfpl");
+        assertNotNull(engine);
+        StringWriter out = new StringWriter();
+        engine.getContext().setWriter(out);
+        engine.eval(HELLO);
+        CompiledScript script = ((Compilable)engine).compile(HELLO);
+        script.eval();
+        assertEquals(String.format("n=42%nn=42%n"), out.toString());
+    }
+
+    @Test
+    public void cache() throws ScriptException {
+        ProgramCompiler compiler = new ProgramCompiler();
+        Program program = compiler.compile(HELLO);
+        assertSame(program, compiler.compile(HELLO));
+        assertEquals(1, compiler.getHits());
+        assertEquals(1, compiler.getMisses());
+        assertEquals(1, compiler.getCacheSize());
+    }
+
+    @Test
+    public void errors() {
+        try {
+            new ProgramCompiler().compile("START\n"
+                    + "    OUTPUT: x\n"
+                    + "STOP\n");
+            fail("compiled a program with an undeclared variable");
+        } catch (ScriptException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().endsWith("error(s)"));
+        }
+    }
+}
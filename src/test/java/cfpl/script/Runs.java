@@ -0,0 +1,64 @@
+package cfpl.script;
+
+import cfpl.compiler.Options;
+import cfpl.runtime.Input;
+import cfpl.runtime.Output;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import javax.script.ScriptException;
+
+// Compiles and runs programs in memory, and captures what they write: the
+// output, and the class of the exception that ends them, if any (its
+// message differs between the generated code and the evaluators)
+public final class Runs {
+    private Runs() {
+    }
+
+    public static Options options(String args) {
+        Options opts = new Options();
+        for (String arg: args.split(" ")) {
+            if (!arg.isEmpty() && !opts.parse(arg)) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+        }
+        return opts;
+    }
+
+    public static String compileAndRun(String source, String options)
+            throws ScriptException {
+        return run(new ProgramCompiler(options(options), 1).compile(source));
+    }
+
+    public static String run(Program program) {
+        return run(program, new byte[0]);
+    }
+
+    public static String run(Program program, byte[] input) {
+        StringWriter writer = new StringWriter();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        Writer prev = Output.redirect(writer);
+        InputStream prevIn = Input.redirect(new ByteArrayInputStream(input));
+        String exception = "";
+        try {
+            System.setOut(new PrintStream(bytes, true, "UTF-8"));
+            program.run();
+        } catch (RuntimeException ex) {
+            exception = "exception " + ex.getClass().getName() + "\n";
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            Output.redirect(prev);
+            Input.redirect(prevIn);
+            System.setOut(out);
+        }
+        return writer + new String(bytes.toByteArray(),
+                StandardCharsets.UTF_8) + exception;
+    }
+}